@@ -0,0 +1,55 @@
+package sunyu.util;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+
+import java.util.Map;
+
+/**
+ * 访问HbaseUtil内部的查询计划与行解码方法
+ *
+ * <pre>
+ * 这些方法是包内可见的，本类与HbaseUtil在同一个包中，直接调用，内部方法变化时编译不通过
+ * 查询计划与列名缓存的类型不对包外公开，这里以Object传递
+ * HbaseUtil使用InMemoryConnection构建，不会访问hbase
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class HbaseUtilInternals implements AutoCloseable {
+    private final HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection()).build();
+
+    /**
+     * 解析QL并生成查询计划，不使用查询计划缓存
+     */
+    public Object compilePlan(String ql) {
+        return hbaseUtil.compilePlan(ql, null, false);
+    }
+
+    /**
+     * 绑定参数生成Scan
+     */
+    public Scan bindScan(Object plan, Object[] params) {
+        return hbaseUtil.bindScan((HbaseUtil.QlPlan) plan, params);
+    }
+
+    /**
+     * 一次查询使用一个列名缓存
+     */
+    public Object newQualifierCache() {
+        return new HbaseUtil.QualifierCache();
+    }
+
+    /**
+     * 把Result转换为行数据
+     */
+    public Map<String, String> toRow(Object plan, Result result, Object qualifierCache) {
+        return hbaseUtil.toRow((HbaseUtil.QlPlan) plan, result, null, (HbaseUtil.QualifierCache) qualifierCache);
+    }
+
+    @Override
+    public void close() {
+        hbaseUtil.close();
+    }
+
+}
@@ -0,0 +1,38 @@
+package sunyu.util.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * 运行所有基准测试，结果以JSON格式写入文件，便于不同版本之间对比
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar                              运行全部，结果写入 target/jmh-result.json
+ * java -jar target/benchmarks.jar RegexUtil -rff regex.json    支持JMH的命令行参数，只运行匹配的基准测试
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLineOptions);
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLineOptions.getResult().hasValue()) {
+            new File("target").mkdirs();
+            builder.result("target/jmh-result.json");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,107 @@
+package sunyu.util.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sunyu.util.HbaseUtil;
+import sunyu.util.InMemoryConnection;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数值比较条件下推到服务端时，正则表达式过滤器与NumberComparator过滤器的查询吞吐量
+ *
+ * <pre>
+ * regex   numberComparator(false)，数值比较转换为RegexStringComparator
+ * number  numberComparator(true)，数值比较使用NumberComparator
+ * 后端：
+ * inMemory     InMemoryConnection，过滤器与region server一样逐个cell执行，没有网络传输
+ * miniCluster  本地启动1个region server的mini cluster，需要 -P mini-cluster 打包加入hbase-testing-util，
+ *              运行时 -p backend=miniCluster；mini cluster与客户端在同一个jvm中，可以加载NumberComparator
+ * 条件形状：
+ * selective    单个大于条件，满足条件的行较少
+ * range        同一列的范围条件
+ * multiColumn  多列的数值条件用and连接
+ * </pre>
+ *
+ * @author 孙宇
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NumberFilterBenchmark {
+    private static final int ROWS = 2000;
+    private static final int COLUMNS = 16;
+
+    /**
+     * 比较器
+     */
+    @Param({"regex", "number"})
+    public String comparator;
+
+    /**
+     * 后端
+     */
+    @Param({"inMemory"})
+    public String backend;
+
+    /**
+     * 条件形状
+     */
+    @Param({"selective", "range", "multiColumn"})
+    public String shape;
+
+    private HbaseUtil hbaseUtil;
+    private String ql;
+
+    @Setup
+    public void setup() {
+        HbaseUtil.Builder builder = HbaseUtil.builder().numberComparator(comparator.equals("number"))
+                .costBasedResidual(false);
+        if (backend.equals("miniCluster")) {
+            builder.miniCluster(1);
+        } else {
+            builder.connection(new InMemoryConnection());
+        }
+        hbaseUtil = builder.build();
+        hbaseUtil.createTable("farm_can", "can", null, null);
+        Random random = new Random(42);
+        Map<String, Map<String, String>> datas = new LinkedHashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, String> columns = new HashMap<>();
+            for (int c = 0; c < COLUMNS; c++) {
+                columns.put(String.valueOf(2000 + c), String.valueOf(random.nextInt(100000) / 10.0));
+            }
+            datas.put(String.format("zzlic272318_20200524%06d", i), columns);
+        }
+        hbaseUtil.put("farm_can", "can", datas);
+        switch (shape) {
+            case "selective":
+                ql = "select * from farm_can#can where 2000 > 9000";
+                break;
+            case "range":
+                ql = "select * from farm_can#can where 2000 >= 2500.5 and 2000 < 7500";
+                break;
+            default:
+                ql = "select * from farm_can#can where 2000 > 1000 and 2001 <= 8000.5 and 2002 >= 500 and 2003 < 9500";
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        hbaseUtil.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void select(Blackhole blackhole) {
+        hbaseUtil.select(ql, null, blackhole::consume);
+    }
+
+}
@@ -0,0 +1,93 @@
+package sunyu.util.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sunyu.util.HbaseUtil;
+import sunyu.util.InMemoryConnection;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询条件全部下推与按代价模型部分在客户端执行的对比
+ *
+ * <pre>
+ * pushdown  costBasedResidual(false)，全部条件转换为过滤器
+ * hybrid    costBasedResidual(true)，代价模型选择的条件编译为lambda在客户端执行
+ * 使用InMemoryConnection，过滤器与region server一样逐个cell执行，但是没有网络传输，
+ * 所以hybrid多传输的行在这里几乎没有开销，实际集群上的差距还要加上不满足条件的行的传输
+ * 条件形状：
+ * wideOr       多个不等于用or连接，选择性低，代价模型选择在客户端执行
+ * selective    单个数值范围，选择性高，两种方式都下推
+ * mixed        一个选择性高的条件下推，一个复杂的or条件在客户端执行
+ * </pre>
+ *
+ * @author 孙宇
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PredicateBenchmark {
+    private static final int ROWS = 2000;
+    private static final int COLUMNS = 64;
+
+    /**
+     * 条件执行方式
+     */
+    @Param({"pushdown", "hybrid"})
+    public String mode;
+
+    /**
+     * 条件形状
+     */
+    @Param({"wideOr", "selective", "mixed"})
+    public String shape;
+
+    private HbaseUtil hbaseUtil;
+    private String ql;
+
+    @Setup
+    public void setup() {
+        hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection())
+                .costBasedResidual(mode.equals("hybrid")).build();
+        hbaseUtil.createTable("farm_can", "can", null, null);
+        Random random = new Random(42);
+        Map<String, Map<String, String>> datas = new LinkedHashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, String> columns = new HashMap<>();
+            for (int c = 0; c < COLUMNS; c++) {
+                columns.put(String.valueOf(2000 + c), String.valueOf(random.nextInt(100000) / 10.0));
+            }
+            datas.put(String.format("zzlic272318_20200524%06d", i), columns);
+        }
+        hbaseUtil.put("farm_can", "can", datas);
+        switch (shape) {
+            case "wideOr":
+                ql = "select * from farm_can#can where 2000 != 1 or 2001 != 2 or 2002 != 3 or 2003 != 4 or 2004 != 5";
+                break;
+            case "selective":
+                ql = "select * from farm_can#can where 2000 > 9000";
+                break;
+            default:
+                ql = "select * from farm_can#can where 2000 > 5000 and (2001 != 1 or 2002 != 2 or 2003 != 3 or 2004 != 4)";
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        hbaseUtil.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void select(Blackhole blackhole) {
+        hbaseUtil.select(ql, null, blackhole::consume);
+    }
+
+}
@@ -0,0 +1,94 @@
+package sunyu.util.benchmark;
+
+import com.alibaba.druid.sql.SQLUtils;
+import com.alibaba.druid.sql.ast.SQLStatement;
+import com.alibaba.druid.util.JdbcConstants;
+import org.apache.hadoop.hbase.client.Scan;
+import org.openjdk.jmh.annotations.*;
+import sunyu.util.HbaseUtilInternals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询语句解析、生成查询计划与构建Scan的耗时
+ *
+ * <pre>
+ * parse      只有druid解析
+ * compile    解析并生成查询计划，相当于查询计划缓存未命中
+ * bindScan   使用已经生成的查询计划绑定参数构建Scan，相当于预编译语句每次执行的开销
+ * </pre>
+ *
+ * @author 孙宇
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QlPlanBenchmark {
+    /**
+     * 典型查询：范围扫描、范围扫描加数值与like条件、or分组、rowKey in、聚合
+     */
+    @Param({"range", "numeric", "or", "rowKeyIn", "aggregate"})
+    public String query;
+
+    private static final String[][] QUERIES = {
+            {"range", "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' limit 100",
+                    "select * from farm_can#can where startRowKey=? and stopRowKey=? limit 100"},
+            {"numeric", "select 3014,2205,2601 from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and 3014 >= 12.5 and 2205 < 300 and 2601 like 'ab%'",
+                    "select 3014,2205,2601 from farm_can#can where startRowKey=? and stopRowKey=? and 3014 >= ? and 2205 < ? and 2601 like ?"},
+            {"or", "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and (2601 = '0' or 2602 = '1') and 3014 > 5",
+                    "select * from farm_can#can where startRowKey=? and stopRowKey=? and (2601 = ? or 2602 = ?) and 3014 > ?"},
+            {"rowKeyIn", "select * from farm_can#can where rowKey in ('zzlic272318_20200524155905','zzlic272318_20200524160930','zzlic272318_20200524161000')",
+                    "select * from farm_can#can where rowKey in (?,?,?)"},
+            {"aggregate", "select substr(rowKey,1,11) vin, count(*), max(2205), avg(3014) from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' group by substr(rowKey,1,11)",
+                    "select substr(rowKey,1,11) vin, count(*), max(2205), avg(3014) from farm_can#can where startRowKey=? and stopRowKey=? group by substr(rowKey,1,11)"},
+    };
+    private static final Object[][] PARAMS = {
+            {"zzlic272318_20200524155905", "zzlic272318_20200524160930"},
+            {"zzlic272318_20200524155905", "zzlic272318_20200524160930", 12.5, 300, "ab%"},
+            {"zzlic272318_20200524155905", "zzlic272318_20200524160930", "0", "1", 5},
+            {"zzlic272318_20200524155905", "zzlic272318_20200524160930", "zzlic272318_20200524161000"},
+            {"zzlic272318_20200524155905", "zzlic272318_20200524160930"},
+    };
+
+    private HbaseUtilInternals internals;
+    private String ql;
+    private Object preparedPlan;
+    private Object[] params;
+
+    @Setup
+    public void setup() {
+        internals = new HbaseUtilInternals();
+        for (int i = 0; i < QUERIES.length; i++) {
+            if (QUERIES[i][0].equals(query)) {
+                ql = QUERIES[i][1];
+                preparedPlan = internals.compilePlan(QUERIES[i][2]);
+                params = PARAMS[i];
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        internals.close();
+    }
+
+    @Benchmark
+    public List<SQLStatement> parse() {
+        return SQLUtils.parseStatements(ql, JdbcConstants.HBASE);
+    }
+
+    @Benchmark
+    public Object compile() {
+        return internals.compilePlan(ql);
+    }
+
+    @Benchmark
+    public Scan bindScan() {
+        return internals.bindScan(preparedPlan, params);
+    }
+
+}
@@ -0,0 +1,131 @@
+package sunyu.util.benchmark;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.*;
+import sunyu.util.NumberComparator;
+import sunyu.util.RegexUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 数值比较正则表达式的生成耗时，以及正则匹配与NumberComparator的吞吐量
+ *
+ * <pre>
+ * transform*  RegexUtil根据给定数字生成正则表达式
+ * regexMatch  与RegexStringComparator相同：DOTALL编译，列值按ISO-8859-1转为字符串后find
+ * numberMatch NumberComparator直接比较字节
+ * 列值分布：小整数、大整数、小数、负数、混合（含非数字）
+ * </pre>
+ *
+ * @author 孙宇
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegexUtilBenchmark {
+    private static final int VALUES = 1024;
+
+    /**
+     * 比较的给定数字
+     */
+    @Param({"5", "-12.5", "987654321.125"})
+    public String number;
+
+    /**
+     * 列值分布
+     */
+    @Param({"smallInt", "largeInt", "decimal", "negative", "mixed"})
+    public String distribution;
+
+    private RegexUtil regexUtil;
+    private Pattern greaterPattern;
+    private NumberComparator greaterComparator;
+    private byte[][] values;
+
+    @Setup
+    public void setup() {
+        regexUtil = RegexUtil.builder().build();
+        greaterPattern = Pattern.compile(regexUtil.transformGreaterNumber(number), Pattern.DOTALL);
+        greaterComparator = new NumberComparator(NumberComparator.Operator.GREATER, number);
+        Random random = new Random(42);
+        values = new byte[VALUES][];
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = Bytes.toBytes(value(random, distribution));
+        }
+    }
+
+    private static String value(Random random, String distribution) {
+        switch (distribution) {
+            case "smallInt":
+                return String.valueOf(random.nextInt(100));
+            case "largeInt":
+                return String.valueOf(random.nextLong() & Long.MAX_VALUE);
+            case "decimal":
+                return random.nextInt(100000) + "." + random.nextInt(1000);
+            case "negative":
+                return "-" + random.nextInt(100000) + "." + random.nextInt(100);
+            default:
+                switch (random.nextInt(4)) {
+                    case 0:
+                        return String.valueOf(random.nextInt(100));
+                    case 1:
+                        return random.nextInt(100000) + "." + random.nextInt(1000);
+                    case 2:
+                        return "-" + random.nextInt(1000);
+                    default:
+                        return "N/A";
+                }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        regexUtil.close();
+    }
+
+    @Benchmark
+    public String transformGreater() {
+        return regexUtil.transformGreaterNumber(number);
+    }
+
+    @Benchmark
+    public String transformLessOrEqual() {
+        return regexUtil.transformLessOrEqualNumber(number);
+    }
+
+    @Benchmark
+    public String transformEqual() {
+        return regexUtil.transformEqualNumber(number);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int regexMatch() {
+        int matched = 0;
+        for (byte[] value : values) {
+            if (greaterPattern.matcher(new String(value, StandardCharsets.ISO_8859_1)).find()) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int numberMatch() {
+        int matched = 0;
+        for (byte[] value : values) {
+            if (greaterComparator.matches(value, 0, value.length)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+}
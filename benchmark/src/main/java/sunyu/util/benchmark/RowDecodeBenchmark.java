@@ -0,0 +1,139 @@
+package sunyu.util.benchmark;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sunyu.util.HbaseUtil;
+import sunyu.util.HbaseUtilInternals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把Result转换为行数据的耗时与内存分配
+ *
+ * <pre>
+ * 使用内存中生成的Result，每批1000行，列名为数字、列值为数字字符串，与车辆数据相似
+ * selectAll   select * 返回所有列
+ * selectSome  只返回3列，其余列需要跳过
+ * baselineSelectAll、baselineSelectSome 为改动前的转换方式，每列复制列名和列值，在ArrayList中查找返回列
+ * 分配速率可以通过 -prof gc 查看，gc.alloc.rate.norm 即每行分配的字节数
+ * </pre>
+ *
+ * @author 孙宇
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowDecodeBenchmark {
+    private static final int ROWS = 1000;
+
+    /**
+     * 每行的列数
+     */
+    @Param({"10", "100"})
+    public int columns;
+
+    private HbaseUtilInternals internals;
+    private Result[] results;
+    private Object selectAllPlan;
+    private Object selectSomePlan;
+    private final List<String> selectAllColumns = new ArrayList<>();
+    private final List<String> selectSomeColumns = new ArrayList<>(Arrays.asList("2000", "2001", "2002"));
+
+    @Setup
+    public void setup() {
+        internals = new HbaseUtilInternals();
+        selectAllPlan = internals.compilePlan("select * from farm_can#can where startRowKey='a'");
+        selectSomePlan = internals.compilePlan("select 2000,2001,2002 from farm_can#can where startRowKey='a'");
+        Random random = new Random(42);
+        byte[] family = Bytes.toBytes("can");
+        results = new Result[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            byte[] rowKey = Bytes.toBytes(String.format("zzlic272318_20200524%06d", i));
+            Cell[] cells = new Cell[columns];
+            for (int c = 0; c < columns; c++) {
+                cells[c] = new KeyValue(rowKey, family, Bytes.toBytes(String.valueOf(2000 + c)), 1590300000000L + i,
+                        Bytes.toBytes(String.valueOf(random.nextInt(100000) / 10.0)));
+            }
+            results[i] = Result.create(cells);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        internals.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void selectAll(Blackhole blackhole) {
+        decode(selectAllPlan, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void selectSome(Blackhole blackhole) {
+        decode(selectSomePlan, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void baselineSelectAll(Blackhole blackhole) {
+        decodeBaseline(selectAllColumns, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void baselineSelectSome(Blackhole blackhole) {
+        decodeBaseline(selectSomeColumns, blackhole);
+    }
+
+    /**
+     * 改动前的转换方式，每列调用CellUtil.cloneQualifier、cloneValue复制出新数组再转为字符串
+     */
+    private void decodeBaseline(List<String> selectColumns, Blackhole blackhole) {
+        for (Result result : results) {
+            Map<String, String> row = new HashMap<>();
+            row.put(HbaseUtil.ROW_KEY_NAME, Bytes.toString(result.getRow()));
+            for (Cell cell : result.rawCells()) {// 循环所有列
+                String value = Bytes.toString(CellUtil.cloneValue(cell));// 列值
+                if (StrUtil.isNotBlank(value)) {
+                    String columnName = Bytes.toString(CellUtil.cloneQualifier(cell));// 列名
+                    if (!columnName.equals(HbaseUtil.ROW_KEY_NAME)) {
+                        if (CollUtil.isEmpty(selectColumns) || selectColumns.contains(columnName)) {
+                            row.put(columnName, value);
+                        }
+                    }
+                }
+            }
+            blackhole.consume(row);
+        }
+    }
+
+    /**
+     * 与查询相同，一批结果共用一个列名缓存
+     */
+    private void decode(Object plan, Blackhole blackhole) {
+        Object qualifierCache = internals.newQualifierCache();
+        for (Result result : results) {
+            Map<String, String> row = internals.toRow(plan, result, qualifierCache);
+            blackhole.consume(row);
+        }
+    }
+
+}
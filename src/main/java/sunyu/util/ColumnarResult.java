@@ -0,0 +1,324 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.*;
+
+/**
+ * 按列保存的查询结果集
+ *
+ * <pre>
+ * 一次查询共用一个列名字典，每列一个按行号下标访问的数组，不再为每行创建map
+ * 可以指定列的类型，查询时直接解析为long或double数组，分析时按列循环
+ * 每列有一个空值位图，行中没有这一列、列值为空、类型解析失败时都是空值
+ * rowKey也作为一列保存，列名为rowKey
+ * 不是线程安全的
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class ColumnarResult {
+    /**
+     * 列的类型
+     */
+    public enum ColumnType {
+        STRING, LONG, DOUBLE
+    }
+
+    private final Map<String, ColumnType> columnTypes;
+    private final List<String> columnNames = new ArrayList<>();// 列名字典，下标是列号
+    private final Map<String, Column> columns = new HashMap<>();
+    private int size = 0;
+
+    /**
+     * @param columnTypes 列的类型，没有指定的列是STRING，可以为null
+     */
+    public ColumnarResult(Map<String, ColumnType> columnTypes) {
+        this.columnTypes = columnTypes == null ? Collections.emptyMap() : columnTypes;
+    }
+
+    /**
+     * 追加一行
+     *
+     * @param row 行数据
+     */
+    public void add(Map<String, String> row) {
+        for (Map.Entry<String, String> entry : row.entrySet()) {
+            Column column = columns.get(entry.getKey());
+            if (column == null) {
+                column = new Column(entry.getKey(), columnTypes.getOrDefault(entry.getKey(), ColumnType.STRING));
+                columns.put(entry.getKey(), column);
+                columnNames.add(entry.getKey());
+            }
+            column.set(size, entry.getValue());
+        }
+        size++;
+    }
+
+    /**
+     * 行数
+     *
+     * @return 行数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 列名，按第一次出现的顺序
+     *
+     * @return 列名
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * 获得一列
+     *
+     * @param columnName 列名
+     *
+     * @return 列，结果集中没有这一列时返回null
+     */
+    public Column getColumn(String columnName) {
+        return columns.get(columnName);
+    }
+
+    /**
+     * 把一行转换为map，只用于少量行的查看，按列处理请使用getColumn
+     *
+     * @param index 行号
+     *
+     * @return 行数据，不包含空值的列
+     */
+    public Map<String, String> getRow(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Map<String, String> row = new HashMap<>();
+        for (String columnName : columnNames) {
+            Column column = columns.get(columnName);
+            if (!column.isNull(index)) {
+                row.put(columnName, column.getString(index));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * 一列数据
+     *
+     * <pre>
+     * STRING列保存在String数组中，LONG列保存在long数组中，DOUBLE列保存在double数组中
+     * 空值在数组中的值是null、0或者NaN，需要通过isNull或者getNulls区分
+     * </pre>
+     */
+    public class Column {
+        private final String name;
+        private final ColumnType type;
+        private final BitSet present = new BitSet();// 有值的行
+        private String[] strings;
+        private long[] longs;
+        private double[] doubles;
+        private int invalidCount = 0;// 类型解析失败的数量
+
+        private Column(String name, ColumnType type) {
+            this.name = name;
+            this.type = type;
+            switch (type) {
+                case LONG:
+                    longs = new long[16];
+                    break;
+                case DOUBLE:
+                    doubles = new double[16];
+                    Arrays.fill(doubles, Double.NaN);
+                    break;
+                default:
+                    strings = new String[16];
+            }
+        }
+
+        private void set(int index, String value) {
+            if (value == null) {
+                return;
+            }
+            switch (type) {
+                case LONG:
+                    try {
+                        long parsed = Long.parseLong(value);
+                        longs = grow(longs, index);
+                        longs[index] = parsed;
+                    } catch (NumberFormatException e) {
+                        invalidCount++;
+                        return;
+                    }
+                    break;
+                case DOUBLE:
+                    try {
+                        double parsed = Double.parseDouble(value);
+                        doubles = grow(doubles, index);
+                        doubles[index] = parsed;
+                    } catch (NumberFormatException e) {
+                        invalidCount++;
+                        return;
+                    }
+                    break;
+                default:
+                    if (index >= strings.length) {
+                        strings = Arrays.copyOf(strings, Math.max(strings.length * 2, index + 1));
+                    }
+                    strings[index] = value;
+            }
+            present.set(index);
+        }
+
+        private long[] grow(long[] array, int index) {
+            return index < array.length ? array : Arrays.copyOf(array, Math.max(array.length * 2, index + 1));
+        }
+
+        private double[] grow(double[] array, int index) {
+            if (index < array.length) {
+                return array;
+            }
+            int from = array.length;
+            double[] grown = Arrays.copyOf(array, Math.max(array.length * 2, index + 1));
+            Arrays.fill(grown, from, grown.length, Double.NaN);
+            return grown;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ColumnType getType() {
+            return type;
+        }
+
+        /**
+         * 类型解析失败的数量，解析失败的值按空值处理
+         *
+         * @return 数量
+         */
+        public int getInvalidCount() {
+            return invalidCount;
+        }
+
+        /**
+         * 是否是空值
+         *
+         * @param index 行号
+         *
+         * @return 是否是空值
+         */
+        public boolean isNull(int index) {
+            return !present.get(index);
+        }
+
+        /**
+         * 空值位图，位为1的行是空值
+         *
+         * @return 位图的副本
+         */
+        public BitSet getNulls() {
+            BitSet nulls = (BitSet) present.clone();
+            nulls.flip(0, size);
+            return nulls;
+        }
+
+        /**
+         * 字符串形式的列值
+         *
+         * @param index 行号
+         *
+         * @return 列值，空值返回null
+         */
+        public String getString(int index) {
+            if (isNull(index)) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    return String.valueOf(longs[index]);
+                case DOUBLE:
+                    return String.valueOf(doubles[index]);
+                default:
+                    return strings[index];
+            }
+        }
+
+        /**
+         * LONG列的列值
+         *
+         * @param index 行号
+         *
+         * @return 列值，空值返回0
+         */
+        public long getLong(int index) {
+            return isNull(index) ? 0 : longs()[index];
+        }
+
+        /**
+         * DOUBLE列或LONG列的列值
+         *
+         * @param index 行号
+         *
+         * @return 列值，空值返回NaN
+         */
+        public double getDouble(int index) {
+            if (isNull(index)) {
+                return Double.NaN;
+            }
+            return type == ColumnType.LONG ? longs[index] : doubles()[index];
+        }
+
+        /**
+         * LONG列的全部列值，长度等于结果集行数，空值是0
+         *
+         * @return 列值数组，不要修改
+         */
+        public long[] longs() {
+            if (type != ColumnType.LONG) {
+                throw new IllegalStateException(StrUtil.format("列[{}]的类型是{}，不是{}", name, type, ColumnType.LONG));
+            }
+            if (longs.length != size) {
+                longs = Arrays.copyOf(longs, size);
+            }
+            return longs;
+        }
+
+        /**
+         * DOUBLE列的全部列值，长度等于结果集行数，空值是NaN
+         *
+         * @return 列值数组，不要修改
+         */
+        public double[] doubles() {
+            if (type != ColumnType.DOUBLE) {
+                throw new IllegalStateException(StrUtil.format("列[{}]的类型是{}，不是{}", name, type, ColumnType.DOUBLE));
+            }
+            if (doubles.length != size) {
+                int from = doubles.length;
+                doubles = Arrays.copyOf(doubles, size);
+                if (from < size) {
+                    Arrays.fill(doubles, from, size, Double.NaN);
+                }
+            }
+            return doubles;
+        }
+
+        /**
+         * STRING列的全部列值，长度等于结果集行数，空值是null
+         *
+         * @return 列值数组，不要修改
+         */
+        public String[] strings() {
+            if (type != ColumnType.STRING) {
+                throw new IllegalStateException(StrUtil.format("列[{}]的类型是{}，不是{}", name, type, ColumnType.STRING));
+            }
+            if (strings.length != size) {
+                strings = Arrays.copyOf(strings, size);
+            }
+            return strings;
+        }
+    }
+
+}
@@ -3,7 +3,10 @@ package sunyu.util;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.date.DatePattern;
 import cn.hutool.core.date.DateTime;
+import cn.hutool.core.codec.Base64;
 import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.thread.ExecutorBuilder;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.*;
 import cn.hutool.log.Log;
@@ -16,22 +19,44 @@ import com.alibaba.druid.sql.ast.SQLOrderBy;
 import com.alibaba.druid.sql.ast.SQLStatement;
 import com.alibaba.druid.sql.ast.expr.SQLBinaryOpExpr;
 import com.alibaba.druid.sql.ast.expr.SQLBinaryOperator;
+import com.alibaba.druid.sql.ast.expr.SQLCharExpr;
 import com.alibaba.druid.sql.ast.expr.SQLIdentifierExpr;
+import com.alibaba.druid.sql.ast.expr.SQLInListExpr;
 import com.alibaba.druid.sql.ast.expr.SQLIntegerExpr;
+import com.alibaba.druid.sql.ast.expr.SQLMethodInvokeExpr;
+import com.alibaba.druid.sql.ast.expr.SQLVariantRefExpr;
 import com.alibaba.druid.sql.ast.statement.*;
 import com.alibaba.druid.util.JdbcConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.client.coprocessor.AggregationClient;
 import org.apache.hadoop.hbase.client.coprocessor.LongColumnInterpreter;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.exceptions.OutOfOrderScannerNextException;
 import org.apache.hadoop.hbase.filter.*;
-import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.LeaseException;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.StreamSupport;
 
 /**
  * kafka生产者工具类
@@ -46,6 +71,7 @@ import java.util.*;
  */
 public class HbaseUtil implements AutoCloseable {
     private final Log log = LogFactory.get();
+    private final Log slowQueryLog = LogFactory.get(HbaseUtil.class.getName() + ".slowQuery");// 慢查询日志，可以单独配置输出位置
     private final Config config;
 
     public static final String FIRST_VISIBLE_ASCII = "!";// ascii 第一个可见字符
@@ -54,6 +80,25 @@ public class HbaseUtil implements AutoCloseable {
     public static final String START_ROW_KEY_NAME = "startRowKey";
     public static final String STOP_ROW_KEY_NAME = "stopRowKey";
     public static final String COPROCESSOR = "org.apache.hadoop.hbase.coprocessor.AggregateImplementation";
+    private static final Map<String, String> END_OF_PARTITION = new HashMap<>();// 并行扫描时表示一个分区已经扫描完毕
+    private static final AggregateGroup END_OF_GROUPS = new AggregateGroup(null, 0);// 并行聚合时表示一个分区已经聚合完毕
+    private static final Result END_OF_BUCKET = Result.create(new Cell[0]);// 分桶扫描时表示一个桶已经扫描完毕
+    private static final Set<String> AGGREGATE_FUNCTIONS = CollUtil.newHashSet("count", "sum", "avg", "min", "max",
+            "std");// 支持的聚合函数
+    private static final String GROUP_KEY = "group";// 聚合查询中的分组表达式
+    private static final Map<SQLBinaryOperator, CompareFilter.CompareOp> ROW_KEY_COMPARE_OPS = new HashMap<>();// rowKey比较运算符，RowFilter保留 rowKey 运算符 给定值 的行
+    private static final Map<SQLBinaryOperator, NumberComparator.Operator> NUMBER_OPERATORS = new HashMap<>();// 列的数值比较运算符
+
+    static {
+        ROW_KEY_COMPARE_OPS.put(SQLBinaryOperator.GreaterThan, CompareFilter.CompareOp.GREATER);
+        ROW_KEY_COMPARE_OPS.put(SQLBinaryOperator.GreaterThanOrEqual, CompareFilter.CompareOp.GREATER_OR_EQUAL);
+        ROW_KEY_COMPARE_OPS.put(SQLBinaryOperator.LessThan, CompareFilter.CompareOp.LESS);
+        ROW_KEY_COMPARE_OPS.put(SQLBinaryOperator.LessThanOrEqual, CompareFilter.CompareOp.LESS_OR_EQUAL);
+        NUMBER_OPERATORS.put(SQLBinaryOperator.GreaterThan, NumberComparator.Operator.GREATER);
+        NUMBER_OPERATORS.put(SQLBinaryOperator.GreaterThanOrEqual, NumberComparator.Operator.GREATER_OR_EQUAL);
+        NUMBER_OPERATORS.put(SQLBinaryOperator.LessThan, NumberComparator.Operator.LESS);
+        NUMBER_OPERATORS.put(SQLBinaryOperator.LessThanOrEqual, NumberComparator.Operator.LESS_OR_EQUAL);
+    }
 
     public static Builder builder() {
         return new Builder();
@@ -95,38 +140,136 @@ public class HbaseUtil implements AutoCloseable {
             config.configuration.set("hbase.client.operation.timeout", "" + config.timeout * 1000);
         }
 
-        try {
-            log.info("创建 hbase 链接开始");
-            config.connection = ConnectionFactory.createConnection(config.configuration,
-                    ThreadUtil.newExecutor(config.threadSize));
-            log.info("创建 hbase 链接成功");
-        } catch (Exception e) {
-            log.error("创建 hbase 链接失败 {}", ExceptionUtil.stacktraceToString(e));
-            throw new RuntimeException("创建 hbase 链接失败");
+        if (config.miniClusterRegionServers > 0) {
+            startMiniCluster(config);
+        }
+
+        if (config.connection == null) {
+            try {
+                log.info("创建 hbase 链接开始");
+                config.connection = ConnectionFactory.createConnection(config.configuration,
+                        ThreadUtil.newExecutor(config.threadSize));
+                log.info("创建 hbase 链接成功");
+            } catch (Exception e) {
+                log.error("创建 hbase 链接失败 {}", ExceptionUtil.stacktraceToString(e));
+                throw new RuntimeException("创建 hbase 链接失败");
+            }
+        } else {
+            log.info("使用指定的 hbase 链接 {}", config.connection.getClass().getSimpleName());
         }
 
-        log.info("创建统计协处理器开始");
-        config.aggregationClient = new AggregationClient(config.configuration);
-        log.info("创建统计协处理器完毕");
+        // AggregationClient会另外创建一个hbase链接，只在使用协处理器统计时创建
+        if (config.countUseCoprocessor) {
+            log.info("创建统计协处理器开始");
+            config.aggregationClient = new AggregationClient(config.connection.getConfiguration());
+            log.info("创建统计协处理器完毕");
+        }
 
         // 为了避免有些jar版本太低，导致setCaching方法不存在，这里先判断一下
-        if (ReflectUtil.getMethod(Scan.class, "setCaching") != null) {
+        if (ReflectUtil.getMethod(Scan.class, "setCaching", int.class) != null) {
             log.info("标记Scan支持setCaching方法");
             config.canSetCaching = true;
         }
-        log.info("[构建{}] 结束", this.getClass().getSimpleName());
+        config.planCache = CacheBuilder.newBuilder().maximumSize(config.planCacheSize).recordStats().build();
+        if (config.rowCacheMaximumSize > 0 || config.rowCacheMaximumWeight > 0) {
+            config.rowCache = new RowCache(config.rowCacheMaximumSize, config.rowCacheMaximumWeight,
+                    config.rowCacheTtl, config.rowCacheTableTtls);
+        }
+        config.scanExecutor = ExecutorBuilder.create().useSynchronousQueue()
+                .setThreadFactory(ThreadUtil.newNamedThreadFactory("hbase-scan-", true)).build();
+        if (config.writeExceptionListener == null) {
+            config.writeExceptionListener = (tableName, rowKeys, e) -> log.error("{} 异步写入 {} 条记录失败 {}",
+                    tableName, rowKeys.size(), ExceptionUtil.stacktraceToString(e));
+        }
+        if (config.metricsEnabled && config.metricsRegistry == null) {
+            config.metricsRegistry = new JmxMetricsRegistry();
+        }
 
         this.config = config;
+
+        if (config.writeBufferFlushInterval > 0) {
+            config.flushExecutor = new ScheduledThreadPoolExecutor(1,
+                    ThreadUtil.newNamedThreadFactory("hbase-flush-", true));
+            config.flushExecutor.scheduleWithFixedDelay(this::flush, config.writeBufferFlushInterval,
+                    config.writeBufferFlushInterval, TimeUnit.MILLISECONDS);
+        }
+
+        log.info("[构建{}] 结束", this.getClass().getSimpleName());
+    }
+
+    /**
+     * 启动本地hbase mini cluster，并把配置指向它
+     *
+     * <pre>
+     * 通过反射调用HBaseTestingUtility，需要在classpath中加入与服务端版本相同的hbase-testing-util（代替hbase-shaded-client）
+     * mini cluster会修改配置中的zookeeper端口，之后按正常流程创建链接
+     * </pre>
+     */
+    private void startMiniCluster(Config config) {
+        try {
+            log.info("启动 hbase mini cluster 开始，region server数量 {}", config.miniClusterRegionServers);
+            config.configuration.set("hbase.zookeeper.quorum", "localhost");
+            Class<?> utilityClass = Class.forName("org.apache.hadoop.hbase.HBaseTestingUtility");
+            config.miniCluster = utilityClass.getConstructor(Configuration.class).newInstance(config.configuration);
+            utilityClass.getMethod("startMiniCluster", int.class).invoke(config.miniCluster,
+                    config.miniClusterRegionServers);
+            log.info("启动 hbase mini cluster 成功");
+        } catch (Exception e) {
+            log.error("启动 hbase mini cluster 失败 {}", ExceptionUtil.stacktraceToString(e));
+            throw new RuntimeException("启动 hbase mini cluster 失败，需要在classpath中加入hbase-testing-util");
+        }
     }
 
     private static class Config {
-        private Connection connection;// hbase链接
+        private Connection connection;// hbase链接，可以通过builder指定
+        private int miniClusterRegionServers = 0;// 大于0时启动本地mini cluster
+        private Object miniCluster;// 启动的HBaseTestingUtility
         private AggregationClient aggregationClient;
         private final Configuration configuration = HBaseConfiguration.create();
         private volatile boolean canSetCaching = false;// 表示是否能设置caching
         private int threadSize = 1;
         private int timeout = 60;
+        private int alterTimeout = 600;// 在线修改表等待所有region更新的超时时间，单位秒
         private final RegexUtil regexUtil = RegexUtil.builder().build();
+        private int planCacheSize = 1000;// 查询计划缓存数量
+        private Cache<String, QlPlan> planCache;// 查询计划缓存，key为规范化后的QL
+        private ExecutorService scanExecutor;// 并行扫描线程池，与hbase链接的线程池分开，避免互相阻塞
+        private int parallelScanQueueSize = 1000;// 并行扫描时每个队列缓存的行数
+        private int pipelineQueueSize = 10000;// 流水线查询时预取的行数，队列满时暂停拉取
+        private int scanMaxRetries = 5;// 可恢复查询时，连续失败后重新打开scanner的最大次数
+        private long scanRetryBackoff = 1000;// 可恢复查询时，第一次重试前等待的毫秒数，之后每次翻倍
+        private long scanRetryMaxBackoff = 60000;// 可恢复查询时，每次重试前最多等待的毫秒数
+        private int checkpointInterval = 10000;// 可恢复查询时，每回调多少行保存一次检查点
+        private long selectHeapBudget = 0;// 返回结果集的查询在堆内存中保存的字节数上限，超过后写入临时文件，0表示不限制
+        private String spillDirectory;// 结果集溢写的临时文件目录，null时使用java.io.tmpdir
+        private boolean numberComparator = false;// 数值比较是否使用NumberComparator代替正则表达式
+        private boolean costBasedResidual = true;// 是否按代价模型把部分条件改为在客户端执行
+        private volatile Boolean numberComparatorAvailable;// region server是否能加载NumberComparator，null表示还未检查
+        private int multiGetBatchSize = 100;// 按rowKey查询时每批get的数量
+        private int multiGetParallelism = 4;// 按rowKey查询时同时执行的批数
+        private boolean countUseCoprocessor = false;// 统计行数是否使用AggregateImplementation协处理器
+        private int countParallelism = 8;// 不使用协处理器统计行数时，同时扫描的region数量
+        private int countCaching = 5000;// 不使用协处理器统计行数时，每次rpc返回的行数
+        private int approximateCountSampleSize = 1000;// 估算行数时，采样计算平均行大小的行数
+        private int aggregateParallelism = 8;// 聚合查询时同时扫描的region数量
+        private int latestParallelism = 16;// 查询每个rowKey前缀最后一行时，同时执行的小扫描数量
+        private final Map<String, BufferedMutator> mutators = new ConcurrentHashMap<>();// 每张表的写缓冲区
+        private final Map<String, AtomicLong> unflushedWriteBytes = new ConcurrentHashMap<>();// 每张表上次同步提交以来写入的字节数
+        private long writeBufferSize = 2 * 1024 * 1024;// 写缓冲区大小，超过后后台提交
+        private long writeBufferFlushInterval = 1000;// 写缓冲区定时提交间隔（毫秒）
+        private long writeBufferFlushBytes = 64 * 1024 * 1024;// 两次同步提交之间最多写入的字节数，超过后同步提交
+        private WriteExceptionListener writeExceptionListener;// 写入失败回调
+        private ScheduledExecutorService flushExecutor;// 写缓冲区定时提交线程
+        private boolean metricsEnabled = false;// 是否记录操作指标并注册JMX
+        private MetricsRegistry metricsRegistry;// 操作指标注册器，默认通过JMX暴露
+        private final ThreadLocal<OperationMetrics> currentOperation = new ThreadLocal<>();// 当前线程正在执行的操作
+        private long slowQueryThreshold = 0;// 慢查询阈值（毫秒），超过后记录慢查询日志，0表示不记录
+        private long rowCacheMaximumSize = 0;// 行缓存最多缓存的行数，0表示不使用行缓存
+        private long rowCacheMaximumWeight = 0;// 行缓存最多缓存的字节数，大于0时代替行数限制
+        private long rowCacheTtl = 60000;// 行缓存默认过期毫秒数
+        private final Map<String, Long> rowCacheTableTtls = new HashMap<>();// 每张表的行缓存过期毫秒数
+        private RowCache rowCache;// 按rowKey查询的行缓存，未开启时为null
+        private final Map<String, RowKeySalt> salts = new HashMap<>();// 加盐分桶的表，key是规范化的表名
     }
 
     public static class Builder {
@@ -158,6 +301,18 @@ public class HbaseUtil implements AutoCloseable {
             return this;
         }
 
+        /**
+         * 设置在线修改表时等待所有region更新的超时时间(秒)
+         *
+         * @param alterTimeout 超时时间，默认600
+         *
+         * @return
+         */
+        public Builder alterTimeout(int alterTimeout) {
+            config.alterTimeout = alterTimeout;
+            return this;
+        }
+
         /**
          * 设置zookeeper地址
          *
@@ -181,720 +336,6861 @@ public class HbaseUtil implements AutoCloseable {
             config.configuration.set("zookeeper.znode.parent", zookeeperZnodeParent);
             return this;
         }
-    }
 
-    /**
-     * 回收资源
-     */
-    @Override
-    public void close() {
-        log.info("[销毁{}] 开始", this.getClass().getSimpleName());
-        try {
-            log.info("关闭 aggregation 开始");
-            config.aggregationClient.close();
-            log.info("关闭 aggregation 成功");
-        } catch (Exception e) {
-            log.warn("关闭 aggregation 失败 {}", ExceptionUtil.stacktraceToString(e));
-        }
-        try {
-            log.info("关闭 Hbase 链接开始");
-            config.connection.close();
-            log.info("关闭 Hbase 链接成功");
-        } catch (Exception e) {
-            log.warn("关闭 Hbase 链接失败 {}", ExceptionUtil.stacktraceToString(e));
+        /**
+         * 使用指定的hbase链接，不再根据zookeeper配置创建
+         *
+         * <pre>
+         * 用于复用已有的链接，或者在测试中传入内存实现（见test-jar中的InMemoryConnection），不需要hbase集群
+         * 链接在close时由工具类关闭
+         * </pre>
+         *
+         * @param connection hbase链接
+         *
+         * @return
+         */
+        public Builder connection(Connection connection) {
+            config.connection = connection;
+            return this;
         }
-        log.info("[销毁{}] 结束", this.getClass().getSimpleName());
-    }
 
-    /**
-     * 把字符串最后一个字符的ascii向前挪一位
-     *
-     * @param str 原字符串
-     *
-     * @return 新字符串
-     */
-    public String lastCharAsciiSubOne(String str) {
-        if (StrUtil.isBlank(str)) {
-            return "";
+        /**
+         * 在本地启动hbase mini cluster并连接，close时关闭
+         *
+         * <pre>
+         * 需要在classpath中加入hbase-testing-util，只用于测试与压测，会忽略hbaseZookeeperQuorum
+         * </pre>
+         *
+         * @param regionServers region server数量
+         *
+         * @return
+         */
+        public Builder miniCluster(int regionServers) {
+            config.miniClusterRegionServers = regionServers;
+            return this;
         }
-        char[] ca = str.toCharArray();
-        ca[ca.length - 1] = (char) (ca[ca.length - 1] - 1);
-        return new String(ca);
-    }
 
-    /**
-     * 把字符串最后一个字符的ascii向后挪一位
-     *
-     * @param str 原字符串
-     *
-     * @return 新字符串
-     */
-    public String lastCharAsciiAddOne(String str) {
-        if (StrUtil.isBlank(str)) {
-            return "";
+        /**
+         * 设置查询计划缓存数量，超过数量后淘汰最近最少使用的查询计划
+         *
+         * @param planCacheSize 缓存数量，默认1000
+         *
+         * @return
+         */
+        public Builder planCacheSize(int planCacheSize) {
+            config.planCacheSize = planCacheSize;
+            return this;
         }
-        char[] ca = str.toCharArray();
-        ca[ca.length - 1] = (char) (ca[ca.length - 1] + 1);
-        return new String(ca);
-    }
 
-    /**
-     * 删除表
-     *
-     * @param tableName *表名
-     */
-    public boolean deleteTable(String tableName) {
-        try (Admin admin = config.connection.getAdmin();) {
-            admin.disableTable(TableName.valueOf(tableName));
-            admin.deleteTable(TableName.valueOf(tableName));
-        } catch (IOException e) {
-            log.error("删除表出现异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+        /**
+         * 设置并行扫描时每个队列缓存的行数，队列满时扫描线程等待消费
+         *
+         * @param parallelScanQueueSize 缓存行数，默认1000
+         *
+         * @return
+         */
+        public Builder parallelScanQueueSize(int parallelScanQueueSize) {
+            config.parallelScanQueueSize = parallelScanQueueSize;
+            return this;
         }
-        return true;
-    }
 
-    /**
-     * 判断表是否存在
-     *
-     * @param tableName *表名
-     *
-     * @return 表是否存在
-     */
-    public boolean existsTable(String tableName) {
-        boolean exists = false;
-        try (Admin admin = config.connection.getAdmin();) {
-            exists = admin.tableExists(TableName.valueOf(tableName));
-        } catch (IOException e) {
-            log.error("判断表是否存在发生异常 {}", ExceptionUtil.stacktraceToString(e));
+        /**
+         * 设置流水线查询时预取的行数
+         *
+         * <pre>
+         * 拉取线程最多领先回调这么多行，队列满时暂停拉取，等待回调处理
+         * 越大越能吸收回调的抖动，但是占用的内存越多
+         * </pre>
+         *
+         * @param pipelineQueueSize 预取的行数，默认10000
+         *
+         * @return
+         */
+        public Builder pipelineQueueSize(int pipelineQueueSize) {
+            config.pipelineQueueSize = pipelineQueueSize;
+            return this;
         }
-        return exists;
-    }
 
-    /**
-     * 创建表
-     *
-     * @param tableName     *表名
-     * @param familyName    *列出名称
-     * @param timeToLive    列簇超时时间，单位秒
-     * @param splitKeyBytes 预分区参数
-     */
-    public boolean createTable(String tableName, String familyName, Integer timeToLive, byte[][] splitKeyBytes) {
-        HTableDescriptor hTableDescriptor = new HTableDescriptor(TableName.valueOf(tableName));
-        try {
-            hTableDescriptor.addCoprocessor(COPROCESSOR);// 设置统计协处理器
-        } catch (IOException e) {
-            log.error("配置协处理器发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
-        }
-        hTableDescriptor.setCompactionEnabled(true);
-        HColumnDescriptor family = new HColumnDescriptor(familyName);
-        family.setMaxVersions(1);// 设置数据保存的最大版本数
-        family.setCompressionType(Compression.Algorithm.SNAPPY);// 设置压缩
-        if (timeToLive != null) {
-            family.setTimeToLive(timeToLive);
+        /**
+         * 设置可恢复查询时，连续失败后重新打开scanner的最大次数，重新打开后有新数据时重新计数
+         *
+         * @param scanMaxRetries 最大次数，默认5
+         *
+         * @return
+         */
+        public Builder scanMaxRetries(int scanMaxRetries) {
+            config.scanMaxRetries = scanMaxRetries;
+            return this;
         }
-        hTableDescriptor.addFamily(family);
-        try (Admin admin = config.connection.getAdmin();) {
-            if (splitKeyBytes != null) {
-                admin.createTable(hTableDescriptor, splitKeyBytes);
-            } else {
-                admin.createTable(hTableDescriptor);
-            }
-        } catch (IOException e) {
-            log.error("创建表发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+
+        /**
+         * 设置可恢复查询时，第一次重试前等待的时间，之后每次翻倍
+         *
+         * @param scanRetryBackoff 毫秒，默认1000
+         *
+         * @return
+         */
+        public Builder scanRetryBackoff(long scanRetryBackoff) {
+            config.scanRetryBackoff = scanRetryBackoff;
+            return this;
         }
-        return true;
-    }
 
-    /**
-     * 创建表
-     *
-     * @param tableName  *表名
-     * @param familyName *列簇名
-     * @param timeToLive *列簇超时时间（秒）
-     */
-    public boolean createTable(String tableName, String familyName, Integer timeToLive) {
-        return createTable(tableName, familyName, timeToLive, null);
-    }
+        /**
+         * 设置可恢复查询时，每次重试前最多等待的时间，翻倍后超过时使用这个时间
+         *
+         * @param scanRetryMaxBackoff 毫秒，默认60000
+         *
+         * @return
+         */
+        public Builder scanRetryMaxBackoff(long scanRetryMaxBackoff) {
+            config.scanRetryMaxBackoff = scanRetryMaxBackoff;
+            return this;
+        }
 
-    /**
-     * 创建表
-     *
-     * @param tableName  *表名
-     * @param familyName *列簇名称
-     */
-    public boolean createTable(String tableName, String familyName) {
-        return createTable(tableName, familyName, null, null);
-    }
+        /**
+         * 设置可恢复查询时，每回调多少行保存一次检查点
+         *
+         * @param checkpointInterval 行数，默认10000
+         *
+         * @return
+         */
+        public Builder checkpointInterval(int checkpointInterval) {
+            config.checkpointInterval = checkpointInterval;
+            return this;
+        }
 
-    /**
-     * 禁用表
-     *
-     * @param tableName *表名
-     */
-    public boolean disableTable(String tableName) {
-        try (Admin admin = config.connection.getAdmin();) {
-            admin.disableTable(TableName.valueOf(tableName));
-        } catch (IOException e) {
-            log.error("禁用表发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+        /**
+         * 设置返回结果集的查询在堆内存中保存的字节数上限
+         *
+         * <pre>
+         * 超过上限后，之后的行写入临时文件，读取时通过内存映射访问，结果集仍然是List
+         * 结果集是SpillableRowList，使用完毕需要调用close删除临时文件；忘记close时，结果集被gc回收后删除临时文件
+         * </pre>
+         *
+         * @param selectHeapBudget 字节数，默认0，不限制
+         *
+         * @return
+         */
+        public Builder selectHeapBudget(long selectHeapBudget) {
+            config.selectHeapBudget = selectHeapBudget;
+            return this;
         }
-        return true;
-    }
 
-    /**
-     * 启用表
-     *
-     * @param tableName *表名
-     */
-    public boolean enableTable(String tableName) {
-        try (Admin admin = config.connection.getAdmin();) {
-            admin.enableTable(TableName.valueOf(tableName));
-        } catch (IOException e) {
-            log.error("启用表发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+        /**
+         * 设置结果集溢写的临时文件目录
+         *
+         * @param spillDirectory 目录，默认java.io.tmpdir
+         *
+         * @return
+         */
+        public Builder spillDirectory(String spillDirectory) {
+            config.spillDirectory = spillDirectory;
+            return this;
         }
-        return true;
-    }
 
-    /**
-     * 修改表
+        /**
+         * 开启操作指标
+         *
+         * <pre>
+         * 默认不记录，不注册JMX MBean，scan也不开启ScanMetrics
+         * 开启后没有设置metricsRegistry时使用JmxMetricsRegistry
+         * </pre>
+         *
+         * @param metricsEnabled 是否记录，默认false
+         *
+         * @return
+         */
+        public Builder metrics(boolean metricsEnabled) {
+            config.metricsEnabled = metricsEnabled;
+            return this;
+        }
+
+        /**
+         * 设置操作指标注册器
+         *
+         * <pre>
+         * 每次select/count/put/delete/表管理操作结束后回调一次，按表名与查询指纹汇总
+         * 可以实现此接口把指标写入自己的监控系统，设置后即使没有开启metrics也会记录
+         * </pre>
+         *
+         * @param metricsRegistry 注册器，开启metrics时默认JmxMetricsRegistry
+         *
+         * @return
+         */
+        public Builder metricsRegistry(MetricsRegistry metricsRegistry) {
+            config.metricsRegistry = metricsRegistry;
+            return this;
+        }
+
+        /**
+         * 设置慢查询阈值
+         *
+         * <pre>
+         * 查询耗时超过阈值时，在 sunyu.util.HbaseUtil.slowQuery 日志中以warn级别记录执行计划、耗时、扫描行数与返回行数
+         * 不依赖metrics
+         * </pre>
+         *
+         * @param slowQueryThreshold 毫秒，默认0，不记录
+         *
+         * @return
+         */
+        public Builder slowQueryThreshold(long slowQueryThreshold) {
+            config.slowQueryThreshold = slowQueryThreshold;
+            return this;
+        }
+
+        /**
+         * 设置行缓存最多缓存的行数，开启按rowKey查询的行缓存
+         *
+         * <pre>
+         * where中只有 rowKey = 或 rowKey in 的查询，结果按 表名+rowKey+查询列与过滤器 缓存，超过数量后淘汰最近最少使用的行
+         * 本实例的put、delete、deleteColumns以及异步写入会使对应的行失效，其他进程的写入只能等待过期
+         * 异步写入在进入缓冲区时失效，提交到hbase之前查询仍然会读到并缓存旧数据
+         * </pre>
+         *
+         * @param rowCacheMaximumSize 缓存行数，默认0，表示不使用行缓存
+         *
+         * @return
+         */
+        public Builder rowCacheMaximumSize(long rowCacheMaximumSize) {
+            config.rowCacheMaximumSize = rowCacheMaximumSize;
+            return this;
+        }
+
+        /**
+         * 设置行缓存最多缓存的字节数，开启按rowKey查询的行缓存，设置后代替行数限制
+         *
+         * @param rowCacheMaximumWeight 估算的堆内存字节数，默认0
+         *
+         * @return
+         */
+        public Builder rowCacheMaximumWeight(long rowCacheMaximumWeight) {
+            config.rowCacheMaximumWeight = rowCacheMaximumWeight;
+            return this;
+        }
+
+        /**
+         * 设置行缓存默认过期时间
+         *
+         * @param rowCacheTtl 过期毫秒数，默认60000，0表示没有单独设置过期时间的表不缓存
+         *
+         * @return
+         */
+        public Builder rowCacheTtl(long rowCacheTtl) {
+            config.rowCacheTtl = rowCacheTtl;
+            return this;
+        }
+
+        /**
+         * 设置一张表的行缓存过期时间
+         *
+         * @param tableName   表名
+         * @param rowCacheTtl 过期毫秒数，0表示这张表不缓存
+         *
+         * @return
+         */
+        public Builder rowCacheTtl(String tableName, long rowCacheTtl) {
+            config.rowCacheTableTtls.put(tableName, rowCacheTtl);
+            return this;
+        }
+
+        /**
+         * 声明一张表的rowKey加盐分桶
+         *
+         * <pre>
+         * 物理rowKey = 桶号 + 逻辑rowKey，桶号由逻辑rowKey的hash计算，固定宽度的十进制数字，例如16个桶为00到15
+         * put、delete、deleteColumns以及异步写入自动加上桶号；查询时QL照常使用逻辑rowKey
+         * 范围查询拆分为每个桶一个扫描并行执行，按逻辑rowKey顺序合并；按rowKey查询直接定位到桶
+         * 建表时可以使用TableSpec.saltSplitKeys按桶预分区
+         * </pre>
+         *
+         * @param tableName 表名
+         * @param buckets   桶数量，不能小于2
+         *
+         * @return
+         */
+        public Builder saltBuckets(String tableName, int buckets) {
+            config.salts.put(TableName.valueOf(tableName).getNameAsString(), new RowKeySalt(buckets));
+            return this;
+        }
+
+        /**
+         * 设置数值比较（&gt; &gt;= &lt; &lt;= 以及数字的 = !=）是否使用NumberComparator代替正则表达式
+         *
+         * <pre>
+         * 需要把此jar放入region server的classpath中，第一次使用时会检查region server是否能加载
+         * 不能加载时，顶层and连接的条件中含有数值比较的改为在客户端比较，其余条件仍然使用正则表达式
+         * </pre>
+         *
+         * @param numberComparator 是否使用，默认false
+         *
+         * @return
+         */
+        public Builder numberComparator(boolean numberComparator) {
+            config.numberComparator = numberComparator;
+            return this;
+        }
+
+        /**
+         * 设置是否按代价模型把部分查询条件改为在客户端执行
+         *
+         * <pre>
+         * 复杂的or条件下推后，region server上每个cell都要经过整个过滤器树；条件的选择性低时过滤掉的行很少
+         * 这种条件在客户端对每行比较一次更便宜，代价模型比较两种方式的开销后决定，explain的residualPredicates中可以看到
+         * 只考虑where中用and连接的顶层常量条件，统计、聚合与只查询rowKey时全部下推
+         * </pre>
+         *
+         * @param costBasedResidual 是否开启，默认true；false时全部条件下推到region server
+         *
+         * @return
+         */
+        public Builder costBasedResidual(boolean costBasedResidual) {
+            config.costBasedResidual = costBasedResidual;
+            return this;
+        }
+
+        /**
+         * 设置按rowKey查询时每批get的数量，rowKey较多时拆分为多批并行查询
+         *
+         * @param multiGetBatchSize 每批数量，默认100
+         *
+         * @return
+         */
+        public Builder multiGetBatchSize(int multiGetBatchSize) {
+            config.multiGetBatchSize = multiGetBatchSize;
+            return this;
+        }
+
+        /**
+         * 设置按rowKey查询时同时执行的批数
+         *
+         * @param multiGetParallelism 同时执行的批数，默认4
+         *
+         * @return
+         */
+        public Builder multiGetParallelism(int multiGetParallelism) {
+            config.multiGetParallelism = multiGetParallelism;
+            return this;
+        }
+
+        /**
+         * 设置统计行数是否使用AggregateImplementation协处理器
+         *
+         * <pre>
+         * 不使用时，按region拆分扫描范围并行扫描，每行只返回rowKey，表上不需要协处理器
+         * </pre>
+         *
+         * @param countUseCoprocessor 是否使用协处理器，默认false
+         *
+         * @return
+         */
+        public Builder countUseCoprocessor(boolean countUseCoprocessor) {
+            config.countUseCoprocessor = countUseCoprocessor;
+            return this;
+        }
+
+        /**
+         * 设置不使用协处理器统计行数时，同时扫描的region数量
+         *
+         * @param countParallelism 同时扫描的region数量，默认8
+         *
+         * @return
+         */
+        public Builder countParallelism(int countParallelism) {
+            config.countParallelism = countParallelism;
+            return this;
+        }
+
+        /**
+         * 设置不使用协处理器统计行数时，每次rpc返回的行数
+         *
+         * @param countCaching 每次rpc返回的行数，默认5000
+         *
+         * @return
+         */
+        public Builder countCaching(int countCaching) {
+            config.countCaching = countCaching;
+            return this;
+        }
+
+        /**
+         * 设置估算行数时，采样计算平均行大小的行数
+         *
+         * @param approximateCountSampleSize 采样行数，默认1000
+         *
+         * @return
+         */
+        public Builder approximateCountSampleSize(int approximateCountSampleSize) {
+            config.approximateCountSampleSize = approximateCountSampleSize;
+            return this;
+        }
+
+        /**
+         * 设置聚合查询时同时扫描的region数量
+         *
+         * @param aggregateParallelism 同时扫描的region数量，默认8
+         *
+         * @return
+         */
+        public Builder aggregateParallelism(int aggregateParallelism) {
+            config.aggregateParallelism = aggregateParallelism;
+            return this;
+        }
+
+        /**
+         * 设置查询每个rowKey前缀最后一行时，同时执行的小扫描数量
+         *
+         * @param latestParallelism 同时执行的小扫描数量，默认16
+         *
+         * @return
+         */
+        public Builder latestParallelism(int latestParallelism) {
+            config.latestParallelism = latestParallelism;
+            return this;
+        }
+
+        /**
+         * 设置异步写入时每张表的写缓冲区大小，超过后后台提交
+         *
+         * @param writeBufferSize 缓冲区大小（字节），默认2M
+         *
+         * @return
+         */
+        public Builder writeBufferSize(long writeBufferSize) {
+            config.writeBufferSize = writeBufferSize;
+            return this;
+        }
+
+        /**
+         * 设置异步写入时写缓冲区的定时提交间隔
+         *
+         * @param writeBufferFlushInterval 提交间隔（毫秒），默认1000，小于等于0表示不定时提交
+         *
+         * @return
+         */
+        public Builder writeBufferFlushInterval(long writeBufferFlushInterval) {
+            config.writeBufferFlushInterval = writeBufferFlushInterval;
+            return this;
+        }
+
+        /**
+         * 设置异步写入时每张表两次同步提交之间最多写入的字节数，超过后写入方法同步提交并等待完成
+         *
+         * <pre>
+         * 写缓冲区超过writeBufferSize时会在后台提交，但不知道后台提交何时完成；
+         * 同步提交会等待之前所有的后台提交完成，所以这个值是还没有被hbase确认的字节数的上限
+         * 计数从上次同步提交（调用flush、定时提交或者这里触发的提交）开始
+         * </pre>
+         *
+         * @param writeBufferFlushBytes 字节数，默认64M
+         *
+         * @return
+         */
+        public Builder writeBufferFlushBytes(long writeBufferFlushBytes) {
+            config.writeBufferFlushBytes = writeBufferFlushBytes;
+            return this;
+        }
+
+        /**
+         * 设置异步写入失败回调，默认打印错误日志
+         *
+         * @param writeExceptionListener 写入失败回调
+         *
+         * @return
+         */
+        public Builder writeExceptionListener(WriteExceptionListener writeExceptionListener) {
+            config.writeExceptionListener = writeExceptionListener;
+            return this;
+        }
+    }
+
+    /**
+     * 回收资源
+     */
+    @Override
+    public void close() {
+        log.info("[销毁{}] 开始", this.getClass().getSimpleName());
+        if (config.aggregationClient != null) {
+            try {
+                log.info("关闭 aggregation 开始");
+                config.aggregationClient.close();
+                log.info("关闭 aggregation 成功");
+            } catch (Exception e) {
+                log.warn("关闭 aggregation 失败 {}", ExceptionUtil.stacktraceToString(e));
+            }
+        }
+        config.scanExecutor.shutdownNow();
+        if (config.metricsRegistry != null) {
+            config.metricsRegistry.close();
+        }
+        if (config.flushExecutor != null) {
+            config.flushExecutor.shutdownNow();
+        }
+        config.mutators.forEach((tableName, mutator) -> {
+            try {
+                log.info("关闭 {} 写缓冲区开始", tableName);
+                mutator.close();// 关闭前会提交缓冲区中的数据
+                log.info("关闭 {} 写缓冲区成功", tableName);
+            } catch (Exception e) {
+                log.warn("关闭 {} 写缓冲区失败 {}", tableName, ExceptionUtil.stacktraceToString(e));
+            }
+        });
+        try {
+            log.info("关闭 Hbase 链接开始");
+            config.connection.close();
+            log.info("关闭 Hbase 链接成功");
+        } catch (Exception e) {
+            log.warn("关闭 Hbase 链接失败 {}", ExceptionUtil.stacktraceToString(e));
+        }
+        if (config.miniCluster != null) {
+            try {
+                log.info("关闭 hbase mini cluster 开始");
+                config.miniCluster.getClass().getMethod("shutdownMiniCluster").invoke(config.miniCluster);
+                log.info("关闭 hbase mini cluster 成功");
+            } catch (Exception e) {
+                log.warn("关闭 hbase mini cluster 失败 {}", ExceptionUtil.stacktraceToString(e));
+            }
+        }
+        log.info("[销毁{}] 结束", this.getClass().getSimpleName());
+    }
+
+    /**
+     * 把字符串最后一个字符的ascii向前挪一位
+     *
+     * @param str 原字符串
+     *
+     * @return 新字符串
+     */
+    public String lastCharAsciiSubOne(String str) {
+        if (StrUtil.isBlank(str)) {
+            return "";
+        }
+        char[] ca = str.toCharArray();
+        ca[ca.length - 1] = (char) (ca[ca.length - 1] - 1);
+        return new String(ca);
+    }
+
+    /**
+     * 把字符串最后一个字符的ascii向后挪一位
+     *
+     * @param str 原字符串
+     *
+     * @return 新字符串
+     */
+    public String lastCharAsciiAddOne(String str) {
+        if (StrUtil.isBlank(str)) {
+            return "";
+        }
+        char[] ca = str.toCharArray();
+        ca[ca.length - 1] = (char) (ca[ca.length - 1] + 1);
+        return new String(ca);
+    }
+
+    /**
+     * 删除表
      *
      * @param tableName *表名
      */
-    public boolean modifyTable(String tableName) {
-        return modifyTable(tableName, null);
+    public boolean deleteTable(String tableName) {
+        OperationMetrics metrics = beginOperation("deleteTable", tableName, null);
+        try (Admin admin = config.connection.getAdmin();) {
+            admin.disableTable(TableName.valueOf(tableName));
+            admin.deleteTable(TableName.valueOf(tableName));
+        } catch (IOException e) {
+            markError();
+            log.error("删除表出现异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateRowCache(tableName);
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 判断表是否存在
+     *
+     * @param tableName *表名
+     *
+     * @return 表是否存在
+     */
+    public boolean existsTable(String tableName) {
+        boolean exists = false;
+        OperationMetrics metrics = beginOperation("existsTable", tableName, null);
+        try (Admin admin = config.connection.getAdmin();) {
+            exists = admin.tableExists(TableName.valueOf(tableName));
+        } catch (IOException e) {
+            markError();
+            log.error("判断表是否存在发生异常 {}", ExceptionUtil.stacktraceToString(e));
+        } finally {
+            endOperation(metrics);
+        }
+        return exists;
+    }
+
+    /**
+     * 创建表
+     *
+     * <pre>
+     * 可以设置数据块编码、布隆过滤器、数据块大小、block cache与压缩算法，详见TableSpec
+     * </pre>
+     *
+     * @param tableSpec *建表参数
+     *
+     * @return 是否创建成功
+     */
+    public boolean createTable(TableSpec tableSpec) {
+        HTableDescriptor hTableDescriptor;
+        try {
+            hTableDescriptor = tableSpec.toTableDescriptor();
+        } catch (IOException e) {
+            markError();
+            log.error("配置协处理器发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        }
+        byte[][] splitKeyBytes = tableSpec.getSplitKeys();
+        OperationMetrics metrics = beginOperation("createTable", tableSpec.getTableName(), null);
+        try (Admin admin = config.connection.getAdmin();) {
+            if (splitKeyBytes != null && splitKeyBytes.length > 0) {
+                admin.createTable(hTableDescriptor, splitKeyBytes);
+            } else {
+                admin.createTable(hTableDescriptor);
+            }
+        } catch (IOException e) {
+            markError();
+            log.error("创建表发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 创建表
+     *
+     * @param tableName     *表名
+     * @param familyName    *列出名称
+     * @param timeToLive    列簇超时时间，单位秒
+     * @param splitKeyBytes 预分区参数
+     */
+    public boolean createTable(String tableName, String familyName, Integer timeToLive, byte[][] splitKeyBytes) {
+        return createTable(TableSpec.builder(tableName, familyName).timeToLive(timeToLive).splitKeys(splitKeyBytes)
+                .build());
+    }
+
+    /**
+     * 从已有表中抽样rowKey生成预分区分割点
+     *
+     * <pre>
+     * 在region server上按抽样比例随机保留行，每行只返回rowKey，按返回的rowKey等分
+     * 会扫描整张表，但不放入block cache；适合按已有数据的分布新建表或者重建表
+     * 抽样的rowKey数量少于分区数量时，返回的分割点也会减少
+     * </pre>
+     *
+     * @param tableName  *已有表的表名
+     * @param regions    *分区数量
+     * @param sampleRate *抽样比例，0到1之间，例如0.001表示每1000行抽样1行
+     *
+     * @return 分割点，出错或者没有抽样到数据时返回null
+     */
+    public byte[][] sampleSplitKeys(String tableName, int regions, float sampleRate) {
+        if (regions < 2) {
+            throw new RuntimeException(StrUtil.format("分区数量 {} 不能小于2", regions));
+        }
+        Scan scan = new Scan();
+        scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new RandomRowFilter(sampleRate),
+                new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+        scan.setCaching(config.countCaching);
+        scan.setCacheBlocks(false);// 抽样扫描的数据不放入block cache，避免挤掉热点数据
+        List<byte[]> samples = new ArrayList<>();
+        OperationMetrics metrics = beginOperation("sampleSplitKeys", tableName, null);
+        if (metrics != null) {
+            scan.setScanMetricsEnabled(true);
+        }
+        try (Table table = config.connection.getTable(TableName.valueOf(tableName));
+             ResultScanner scanner = table.getScanner(scan);) {
+            for (Result result : scanner) {
+                samples.add(result.getRow());
+            }
+        } catch (IOException e) {
+            markError();
+            log.error("抽样rowKey发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return null;
+        } finally {
+            recordScan(metrics, scan);
+            endOperation(metrics);
+        }
+        if (samples.isEmpty()) {
+            log.warn("表 {} 按比例 {} 没有抽样到rowKey", tableName, sampleRate);
+            return null;
+        }
+        List<byte[]> splitKeys = new ArrayList<>(regions - 1);
+        for (int i = 1; i < regions; i++) {
+            byte[] splitKey = samples.get((int) ((long) samples.size() * i / regions));
+            if (splitKeys.isEmpty() || Bytes.compareTo(splitKeys.get(splitKeys.size() - 1), splitKey) < 0) {
+                splitKeys.add(splitKey);
+            }
+        }
+        if (splitKeys.size() < regions - 1) {
+            log.warn("表 {} 抽样到 {} 个rowKey，只能生成 {} 个分割点", tableName, samples.size(), splitKeys.size());
+        }
+        log.debug("表 {} 抽样到 {} 个rowKey，生成 {} 个分割点", tableName, samples.size(), splitKeys.size());
+        return splitKeys.toArray(new byte[0][]);
+    }
+
+    /**
+     * 创建表
+     *
+     * @param tableName  *表名
+     * @param familyName *列簇名
+     * @param timeToLive *列簇超时时间（秒）
+     */
+    public boolean createTable(String tableName, String familyName, Integer timeToLive) {
+        return createTable(tableName, familyName, timeToLive, null);
+    }
+
+    /**
+     * 创建表
+     *
+     * @param tableName  *表名
+     * @param familyName *列簇名称
+     */
+    public boolean createTable(String tableName, String familyName) {
+        return createTable(tableName, familyName, null, null);
+    }
+
+    /**
+     * 禁用表
+     *
+     * @param tableName *表名
+     */
+    public boolean disableTable(String tableName) {
+        OperationMetrics metrics = beginOperation("disableTable", tableName, null);
+        try (Admin admin = config.connection.getAdmin();) {
+            admin.disableTable(TableName.valueOf(tableName));
+        } catch (IOException e) {
+            markError();
+            log.error("禁用表发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 启用表
+     *
+     * @param tableName *表名
+     */
+    public boolean enableTable(String tableName) {
+        OperationMetrics metrics = beginOperation("enableTable", tableName, null);
+        try (Admin admin = config.connection.getAdmin();) {
+            admin.enableTable(TableName.valueOf(tableName));
+        } catch (IOException e) {
+            markError();
+            log.error("启用表发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 修改表
+     *
+     * <pre>
+     * 原来会禁用表、添加统计协处理器并把所有列簇改为1个版本、SNAPPY压缩、永不超时
+     * 现在不修改任何属性，调用时输出警告日志
+     * </pre>
+     *
+     * @param tableName *表名
+     *
+     * @deprecated 不再修改任何属性；添加协处理器、修改列簇参数使用modifyTable(TableSpec)
+     */
+    @Deprecated
+    public boolean modifyTable(String tableName) {
+        log.warn("modifyTable(String) 已废弃，不会修改表 {} 的任何属性，请使用 modifyTable(TableSpec)", tableName);
+        return modifyTable(tableName, null);
+    }
+
+    /**
+     * 修改表
+     *
+     * <pre>
+     * 只修改所有列簇的超时时间，其它属性保留表中原来的值
+     * 在线修改，不禁用表，只提交有变化的属性，等待所有region更新完毕
+     * </pre>
+     *
+     * @param tableName  *表名
+     * @param timeToLive *列簇超时时间，单位秒，为null时不修改
+     */
+    public boolean modifyTable(String tableName, Integer timeToLive) {
+        return alterTable(tableName, hTableDescriptor -> {
+            if (timeToLive != null) {
+                hTableDescriptor.getFamilies().forEach(hColumnDescriptor -> hColumnDescriptor.setTimeToLive(timeToLive));
+            }
+        }, null);
+    }
+
+    /**
+     * 在线修改表
+     *
+     * <pre>
+     * 与表中现有的描述对比，只提交TableSpec中设置过并且有变化的属性，不禁用表
+     * 列簇不存在时添加列簇；预分区参数被忽略
+     * 提交后轮询所有region的更新进度，直到全部更新或者超过alterTimeout
+     * </pre>
+     *
+     * @param tableSpec *修改参数
+     *
+     * @return 是否修改成功
+     */
+    public boolean modifyTable(TableSpec tableSpec) {
+        return modifyTable(tableSpec, null);
+    }
+
+    /**
+     * 在线修改表
+     *
+     * @param tableSpec *修改参数
+     * @param listener  更新进度回调，为null时在日志中输出进度
+     *
+     * @return 是否修改成功
+     */
+    public boolean modifyTable(TableSpec tableSpec, AlterProgressListener listener) {
+        return alterTable(tableSpec.getTableName(), tableSpec::applyTo, listener);
+    }
+
+    /**
+     * 修改表描述
+     */
+    private interface DescriptorChange {
+        void apply(HTableDescriptor hTableDescriptor) throws IOException;
+    }
+
+    /**
+     * 在线修改表，不禁用表
+     *
+     * @param tableName *表名
+     * @param change    *在当前表描述的副本上做的修改
+     * @param listener  更新进度回调，为null时在日志中输出进度
+     *
+     * @return 是否修改成功
+     */
+    private boolean alterTable(String tableName, DescriptorChange change, AlterProgressListener listener) {
+        if (listener == null) {
+            listener = (name, updatedRegions, totalRegions) -> log.info("表 {} 在线修改进度 {}/{}", name, updatedRegions,
+                    totalRegions);
+        }
+        OperationMetrics metrics = beginOperation("modifyTable", tableName, null);
+        TableName name = TableName.valueOf(tableName);
+        try (Admin admin = config.connection.getAdmin();) {
+            HTableDescriptor current = admin.getTableDescriptor(name);// 获得表描述
+            HTableDescriptor target = new HTableDescriptor(current);
+            change.apply(target);
+            List<String> changes = diffTableDescriptor(current, target);
+            if (changes.isEmpty()) {
+                log.info("表 {} 没有需要修改的属性", tableName);
+                return true;
+            }
+            log.info("在线修改表 {} {}", tableName, changes);
+            admin.modifyTable(name, target);// 修改表
+            long deadline = System.currentTimeMillis() + config.alterTimeout * 1000L;
+            while (true) {
+                Pair<Integer, Integer> status = admin.getAlterStatus(name);// 未更新的region数量，region总数
+                int totalRegions = status.getSecond();
+                listener.onProgress(tableName, totalRegions - status.getFirst(), totalRegions);
+                if (status.getFirst() == 0) {
+                    break;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    markError();
+                    log.error("表 {} 在线修改超过 {} 秒，还有 {} 个region未更新", tableName, config.alterTimeout,
+                            status.getFirst());
+                    return false;
+                }
+                ThreadUtil.sleep(1000);
+            }
+        } catch (TableNotDisabledException e) {
+            markError();
+            log.error("修改表发生异常，master需要开启 hbase.online.schema.update.enable {}",
+                    ExceptionUtil.stacktraceToString(e));
+            return false;
+        } catch (IOException e) {
+            markError();
+            log.error("修改表发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateRowCache(tableName);// 超时时间可能变化
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 对比表描述，列出有变化的属性
+     *
+     * @param current 当前表描述
+     * @param target  修改后的表描述
+     *
+     * @return 有变化的属性，例如 can.DATA_BLOCK_ENCODING: NONE => FAST_DIFF
+     */
+    private List<String> diffTableDescriptor(HTableDescriptor current, HTableDescriptor target) {
+        List<String> changes = new ArrayList<>();
+        diffValues("", current.getValues(), target.getValues(), changes);
+        for (HColumnDescriptor family : target.getColumnFamilies()) {
+            HColumnDescriptor currentFamily = current.getFamily(family.getName());
+            if (currentFamily == null) {
+                changes.add("添加列簇 " + family.getNameAsString());
+                continue;
+            }
+            diffValues(family.getNameAsString() + ".", currentFamily.getValues(), family.getValues(), changes);
+        }
+        return changes;
+    }
+
+    /**
+     * 对比表或者列簇描述中的属性，有变化的属性加上前缀写入changes
+     */
+    private void diffValues(String prefix, Map<ImmutableBytesWritable, ImmutableBytesWritable> current,
+                            Map<ImmutableBytesWritable, ImmutableBytesWritable> target, List<String> changes) {
+        Set<ImmutableBytesWritable> keys = new TreeSet<>(current.keySet());
+        keys.addAll(target.keySet());
+        for (ImmutableBytesWritable key : keys) {
+            ImmutableBytesWritable before = current.get(key);
+            ImmutableBytesWritable after = target.get(key);
+            if (!Objects.equals(before, after)) {
+                changes.add(StrUtil.format("{}{}: {} => {}", prefix, Bytes.toString(key.get()),
+                        before == null ? null : Bytes.toString(before.get()),
+                        after == null ? null : Bytes.toString(after.get())));
+            }
+        }
+    }
+
+    /**
+     * 删除一条记录
+     *
+     * @param tableName *表名
+     * @param rowKey    *行键
+     */
+    public boolean delete(String tableName, String rowKey) {
+        Delete delete = new Delete(rowKeyBytes(tableName, rowKey));
+        OperationMetrics metrics = beginOperation("delete", tableName, null);
+        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
+            recordMutations(Collections.singletonList(delete));
+            table.delete(delete);
+        } catch (IOException e) {
+            markError();
+            log.error("删除一条记录发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateRowCache(tableName, Collections.singletonList(delete));
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 删除一批记录
+     *
+     * @param tableName  *表名
+     * @param rowKeyList *行键集合
+     */
+    public boolean delete(String tableName, List<String> rowKeyList) {
+        List<Delete> deleteList = toDeletes(tableName, rowKeyList);
+        OperationMetrics metrics = beginOperation("delete", tableName, null);
+        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
+            recordMutations(deleteList);
+            table.delete(new ArrayList<>(deleteList));// 客户端会清空成功删除的记录，行缓存失效还需要使用
+        } catch (IOException e) {
+            markError();
+            log.error("删除一批记录发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateRowCache(tableName, deleteList);
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 根据rowKey删除指定列
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名
+     * @param rowKey     rowKey
+     * @param columns    删除列集合
+     *
+     * @return
+     */
+    public boolean deleteColumns(String tableName, String familyName, String rowKey, List<String> columns) {
+        Delete del = new Delete(rowKeyBytes(tableName, rowKey));
+        columns.forEach(column -> {
+            del.addColumn(Bytes.toBytes(familyName), Bytes.toBytes(column));
+        });
+
+        OperationMetrics metrics = beginOperation("deleteColumns", tableName, null);
+        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
+            recordMutations(Collections.singletonList(del));
+            table.delete(del);
+        } catch (IOException e) {
+            markError();
+            log.error("删除指定列发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateRowCache(tableName, Collections.singletonList(del));
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 存入一条记录
+     *
+     * @param tableName  *表名
+     * @param familyName *列簇名
+     * @param rowKey     *rowKey
+     * @param data       *列值信息
+     */
+    public boolean put(String tableName, String familyName, String rowKey, Map<String, String> data) {
+        Map<String, Map<String, String>> datas = new HashMap<>();
+        datas.put(rowKey, data);
+        return put(tableName, familyName, datas);
+    }
+
+    /**
+     * 存入多条记录
+     *
+     * @param tableName  *表名
+     * @param familyName *列簇名
+     * @param datas      *rowKey以及列信息；key：rowKey，value(map)：k:列名,v:列值
+     */
+    public boolean put(String tableName, String familyName, Map<String, Map<String, String>> datas) {
+        List<Put> puts = toPuts(tableName, familyName, datas);
+        OperationMetrics metrics = beginOperation("put", tableName, null);
+        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
+            recordMutations(puts);
+            table.put(puts);
+        } catch (IOException e) {
+            markError();
+            log.error("存入多条记录发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateRowCache(tableName, puts);
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 异步存入一条记录
+     *
+     * <pre>
+     * 写入每张表独立的写缓冲区，缓冲区满、到达刷新间隔或者调用flush时批量提交
+     * 方法返回时数据不一定已经写入hbase，写入失败时回调writeExceptionListener
+     * </pre>
+     *
+     * @param tableName  *表名
+     * @param familyName *列簇名
+     * @param rowKey     *rowKey
+     * @param data       *列值信息
+     */
+    public boolean putAsync(String tableName, String familyName, String rowKey, Map<String, String> data) {
+        Map<String, Map<String, String>> datas = new HashMap<>();
+        datas.put(rowKey, data);
+        return putAsync(tableName, familyName, datas);
+    }
+
+    /**
+     * 异步存入多条记录
+     *
+     * <pre>
+     * 写入每张表独立的写缓冲区，缓冲区满、到达刷新间隔或者调用flush时批量提交
+     * 方法返回时数据不一定已经写入hbase，写入失败时回调writeExceptionListener
+     * </pre>
+     *
+     * @param tableName  *表名
+     * @param familyName *列簇名
+     * @param datas      *rowKey以及列信息；key：rowKey，value(map)：k:列名,v:列值
+     */
+    public boolean putAsync(String tableName, String familyName, Map<String, Map<String, String>> datas) {
+        return mutateAsync(tableName, toPuts(tableName, familyName, datas));
+    }
+
+    /**
+     * 异步删除一条记录
+     *
+     * @param tableName *表名
+     * @param rowKey    *行键
+     */
+    public boolean deleteAsync(String tableName, String rowKey) {
+        return deleteAsync(tableName, Collections.singletonList(rowKey));
+    }
+
+    /**
+     * 异步删除一批记录
+     *
+     * @param tableName  *表名
+     * @param rowKeyList *行键集合
+     */
+    public boolean deleteAsync(String tableName, List<String> rowKeyList) {
+        return mutateAsync(tableName, toDeletes(tableName, rowKeyList));
+    }
+
+    /**
+     * 把所有表写缓冲区中的数据提交到hbase，并等待提交完成
+     */
+    public boolean flush() {
+        boolean success = true;
+        for (String tableName : config.mutators.keySet()) {
+            success &= flush(tableName);
+        }
+        return success;
+    }
+
+    /**
+     * 把指定表写缓冲区中的数据提交到hbase，并等待提交完成
+     *
+     * @param tableName *表名
+     */
+    public boolean flush(String tableName) {
+        BufferedMutator mutator = config.mutators.get(tableName);
+        if (mutator == null) {
+            return true;
+        }
+        try {
+            flushMutator(tableName, mutator, -1);
+        } catch (IOException e) {
+            markError();
+            log.error("提交写缓冲区发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 在线修改表的进度回调
+     */
+    public interface AlterProgressListener {
+        /**
+         * 每次轮询更新进度后回调
+         *
+         * @param tableName      表名
+         * @param updatedRegions 已经更新的region数量
+         * @param totalRegions   region总数
+         */
+        void onProgress(String tableName, int updatedRegions, int totalRegions);
+    }
+
+    /**
+     * 写入失败回调
+     */
+    public interface WriteExceptionListener {
+        /**
+         * 写入失败时回调
+         *
+         * @param tableName 表名
+         * @param rowKeys   写入失败的rowKey
+         * @param e         异常信息
+         */
+        void onException(String tableName, List<String> rowKeys, Exception e);
+    }
+
+    /**
+     * 操作指标注册器
+     */
+    public interface MetricsRegistry {
+        /**
+         * 每次操作结束后回调，不要在回调中执行耗时操作
+         *
+         * @param metrics 本次操作的指标
+         */
+        void record(OperationMetrics metrics);
+
+        /**
+         * 工具类关闭时回调
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * 一次操作的指标
+     *
+     * <pre>
+     * operation：select、count、countApproximate、selectStream、selectPage、selectParallel、selectPipelined、selectResumable、selectLatest、put、delete、deleteColumns、putAsync、deleteAsync以及表管理操作
+     * query：查询指纹，把QL中的字符串、数字、limit等字面量替换为 ? ，相同形状的查询指纹相同；非查询操作与operation相同
+     * rows、cells：返回的行数与列数；写入操作是写入的行数与列数
+     * bytes、rpcCalls、rowsScanned、rowsFiltered：来自hbase的ScanMetrics，rowsFiltered包含客户端比较条件过滤掉的行
+     * </pre>
+     */
+    public static class OperationMetrics {
+        private final String operation;
+        private final String tableName;
+        private final String query;
+        private final long startNanos = System.nanoTime();
+        private long latencyNanos;
+        private volatile boolean error = false;
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder cells = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder rpcCalls = new LongAdder();
+        private final LongAdder rowsScanned = new LongAdder();
+        private final LongAdder rowsFiltered = new LongAdder();
+        private QlPlan plan;// 查询操作的执行计划，用于慢查询日志
+        private Scan scan;// 查询操作第一次绑定参数的scan
+
+        private OperationMetrics(String operation, String tableName, String query) {
+            this.operation = operation;
+            this.tableName = tableName;
+            this.query = query;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getCells() {
+            return cells.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getRpcCalls() {
+            return rpcCalls.sum();
+        }
+
+        public long getRowsScanned() {
+            return rowsScanned.sum();
+        }
+
+        public long getRowsFiltered() {
+            return rowsFiltered.sum();
+        }
+
+        @Override
+        public String toString() {
+            return StrUtil.format(
+                    "operation={}, table={}, query={}, latency={}ms, error={}, rows={}, cells={}, bytes={}, rpcCalls={}, rowsScanned={}, rowsFiltered={}",
+                    operation, tableName, query, latencyNanos / 1000000, error, getRows(), getCells(), getBytes(),
+                    getRpcCalls(), getRowsScanned(), getRowsFiltered());
+        }
+    }
+
+    /**
+     * 开始记录一次操作的指标，绑定到当前线程
+     *
+     * <pre>
+     * 当前线程已经在记录其它操作时返回null，内部互相调用的方法只记录最外层的操作
+     * 必须在finally中调用endOperation
+     * </pre>
+     *
+     * @param operation 操作名称
+     * @param tableName 表名
+     * @param query     查询指纹，非查询操作传null
+     *
+     * @return 本次操作的指标，不记录时返回null
+     */
+    private OperationMetrics beginOperation(String operation, String tableName, String query) {
+        if (!operationTracked() || config.currentOperation.get() != null) {
+            return null;
+        }
+        OperationMetrics metrics = new OperationMetrics(operation, tableName, ObjectUtil.defaultIfNull(query, operation));
+        config.currentOperation.set(metrics);
+        return metrics;
+    }
+
+    /**
+     * 开始记录一次查询操作的指标
+     *
+     * @param operation 操作名称
+     * @param plan      查询计划
+     *
+     * @return 本次操作的指标，不记录时返回null
+     */
+    private OperationMetrics beginOperation(String operation, QlPlan plan) {
+        OperationMetrics metrics = beginOperation(operation, plan.tableName, plan.fingerprint);
+        if (metrics != null) {
+            metrics.plan = plan;
+        }
+        return metrics;
+    }
+
+    /**
+     * 是否需要跟踪操作，记录指标或者慢查询日志时需要
+     */
+    private boolean operationTracked() {
+        return config.metricsRegistry != null || config.slowQueryThreshold > 0;
+    }
+
+    /**
+     * 结束记录，解除与当前线程的绑定，回调指标注册器，超过慢查询阈值时记录慢查询日志
+     *
+     * @param metrics beginOperation的返回值
+     */
+    private void endOperation(OperationMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        if (config.currentOperation.get() == metrics) {
+            config.currentOperation.remove();
+        }
+        metrics.latencyNanos = System.nanoTime() - metrics.startNanos;
+        if (config.metricsRegistry != null) {
+            try {
+                config.metricsRegistry.record(metrics);
+            } catch (Exception e) {
+                log.warn("记录操作指标发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            }
+        }
+        if (metrics.plan != null && config.slowQueryThreshold > 0
+                && metrics.latencyNanos >= config.slowQueryThreshold * 1000000) {
+            // 低版本region server不返回扫描行数，至少扫描了返回的行与客户端过滤掉的行
+            long rowsScanned = Math.max(metrics.getRowsScanned(), metrics.getRows() + metrics.getRowsFiltered());
+            slowQueryLog.warn("慢查询 {} 耗时 {}ms，扫描 {} 行，返回 {} 行，QL：{}\n{}", metrics.operation,
+                    metrics.latencyNanos / 1000000, rowsScanned, metrics.getRows(), metrics.plan.ql,
+                    explain(metrics.plan, metrics.scan, null, false));
+        }
+    }
+
+    /**
+     * 当前操作发生异常
+     */
+    private void markError() {
+        OperationMetrics metrics = config.currentOperation.get();
+        if (metrics != null) {
+            metrics.error = true;
+        }
+    }
+
+    /**
+     * 累加写入的行数与列数
+     *
+     * @param mutations put或delete
+     */
+    private void recordMutations(List<? extends Mutation> mutations) {
+        OperationMetrics metrics = config.currentOperation.get();
+        if (metrics == null) {
+            return;
+        }
+        metrics.rows.add(mutations.size());
+        for (Mutation mutation : mutations) {
+            metrics.cells.add(mutation.size());
+            metrics.bytes.add(mutation.heapSize());
+        }
+    }
+
+    /**
+     * 累加scanner关闭后写入scan的ScanMetrics
+     *
+     * @param metrics 本次操作的指标，为null时不记录
+     * @param scan    已经关闭scanner的scan
+     */
+    private void recordScan(OperationMetrics metrics, Scan scan) {
+        if (metrics == null || !scan.isScanMetricsEnabled()) {
+            return;
+        }
+        ScanMetrics scanMetrics = scan.getScanMetrics();
+        if (scanMetrics == null) {
+            return;
+        }
+        metrics.rpcCalls.add(scanMetrics.countOfRPCcalls.get());
+        metrics.bytes.add(scanMetrics.countOfBytesInResults.get());
+        metrics.rowsScanned.add(scanMetrics.countOfRowsScanned.get());
+        metrics.rowsFiltered.add(scanMetrics.countOfRowsFiltered.get());
+    }
+
+    private void recordScan(Scan scan) {
+        recordScan(config.currentOperation.get(), scan);
+    }
+
+    /**
+     * 累加一批get的结果，每批算一次rpc
+     *
+     * @param results get的结果
+     */
+    private void recordGets(Result[] results) {
+        OperationMetrics metrics = config.currentOperation.get();
+        if (metrics == null) {
+            return;
+        }
+        metrics.rpcCalls.increment();
+        metrics.rowsScanned.add(results.length);
+        for (Result result : results) {
+            if (result.rawCells() != null) {
+                for (Cell cell : result.rawCells()) {
+                    metrics.bytes.add(CellUtil.estimatedSerializedSizeOf(cell));
+                }
+            }
+        }
+    }
+
+    /**
+     * 客户端比较条件过滤掉一行
+     */
+    private void recordFiltered() {
+        OperationMetrics metrics = config.currentOperation.get();
+        if (metrics != null) {
+            metrics.rowsFiltered.increment();
+        }
+    }
+
+    /**
+     * 包装回调，累加返回的行数与列数
+     *
+     * @param metrics 本次操作的指标，为null时直接返回原回调
+     * @param handler 回调
+     *
+     * @return 包装后的回调
+     */
+    private java.util.function.Consumer<Map<String, String>> countRows(OperationMetrics metrics,
+                                                                      java.util.function.Consumer<Map<String, String>> handler) {
+        if (metrics == null) {
+            return handler;
+        }
+        return row -> {
+            metrics.rows.increment();
+            metrics.cells.add(row.size() - 1);
+            handler.accept(row);
+        };
+    }
+
+    /**
+     * 把当前线程的操作传递到扫描线程
+     *
+     * @param task 在扫描线程中执行的任务
+     *
+     * @return 包装后的任务
+     */
+    private <T> Callable<T> withOperation(Callable<T> task) {
+        OperationMetrics metrics = config.currentOperation.get();
+        if (metrics == null) {
+            return task;
+        }
+        return () -> {
+            config.currentOperation.set(metrics);
+            try {
+                return task.call();
+            } finally {
+                config.currentOperation.remove();
+            }
+        };
+    }
+
+    private Runnable withOperation(Runnable task) {
+        OperationMetrics metrics = config.currentOperation.get();
+        if (metrics == null) {
+            return task;
+        }
+        return () -> {
+            config.currentOperation.set(metrics);
+            try {
+                task.run();
+            } finally {
+                config.currentOperation.remove();
+            }
+        };
+    }
+
+    /**
+     * 写入缓冲区
+     *
+     * @param tableName 表名
+     * @param mutations 待写入的put或delete
+     */
+    private boolean mutateAsync(String tableName, List<? extends Mutation> mutations) {
+        OperationMetrics metrics = beginOperation(
+                !mutations.isEmpty() && mutations.get(0) instanceof Delete ? "deleteAsync" : "putAsync", tableName,
+                null);
+        try {
+            recordMutations(mutations);
+            BufferedMutator mutator = getMutator(tableName);
+            mutator.mutate(mutations);
+            long bytes = 0;
+            for (Mutation mutation : mutations) {
+                bytes += mutation.heapSize();
+            }
+            // 上次同步提交以来写入超过限制时，同步提交并等待之前的后台提交完成
+            if (config.unflushedWriteBytes.get(tableName).addAndGet(bytes) > config.writeBufferFlushBytes) {
+                log.debug("{} 上次提交以来写入超过 {} 字节，同步提交", tableName, config.writeBufferFlushBytes);
+                flushMutator(tableName, mutator, config.writeBufferFlushBytes);
+            }
+        } catch (Exception e) {
+            markError();
+            log.error("写入缓冲区发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return false;
+        } finally {
+            invalidateUnflushedRowCache(tableName, mutations);
+            endOperation(metrics);
+        }
+        return true;
+    }
+
+    /**
+     * 提交写缓冲区并等待完成
+     *
+     * <pre>
+     * 同一张表的同步提交依次执行，提交开始前写入的字节数在提交完成后扣除，提交期间其他线程写入的字节数保留
+     * 开启行缓存时，提交完成后使缓冲区中的行再次失效，提交前查询到的旧数据不会一直缓存到过期
+     * </pre>
+     *
+     * @param tableName 表名
+     * @param mutator   写缓冲区
+     * @param minBytes  上次提交以来写入超过这个字节数才提交，等待期间其他线程可能已经提交过；小于0时总是提交
+     */
+    private void flushMutator(String tableName, BufferedMutator mutator, long minBytes) throws IOException {
+        AtomicLong unflushedBytes = config.unflushedWriteBytes.get(tableName);
+        synchronized (unflushedBytes) {
+            long flushedBytes = unflushedBytes.get();
+            if (minBytes >= 0 && flushedBytes <= minBytes) {
+                return;
+            }
+            Runnable invalidation = config.rowCache == null ? null : config.rowCache.drainUnflushed(tableName);
+            try {
+                mutator.flush();
+            } finally {
+                if (invalidation != null) {
+                    invalidation.run();
+                }
+            }
+            unflushedBytes.addAndGet(-flushedBytes);
+        }
+    }
+
+    /**
+     * 写入或删除后，使行缓存中对应的行失效
+     *
+     * @param tableName 表名
+     * @param mutations 写入的put或delete
+     */
+    private void invalidateRowCache(String tableName, List<? extends Mutation> mutations) {
+        if (config.rowCache == null) {
+            return;
+        }
+        RowKeySalt salt = salt(tableName);
+        for (Mutation mutation : mutations) {
+            config.rowCache.invalidate(tableName, salt == null ? mutation.getRow() : salt.unsalt(mutation.getRow()));
+        }
+    }
+
+    /**
+     * 放入写缓冲区后，使行缓存中对应的行失效，并在写缓冲区提交完成后再次失效
+     *
+     * @param tableName 表名
+     * @param mutations 放入写缓冲区的put或delete
+     */
+    private void invalidateUnflushedRowCache(String tableName, List<? extends Mutation> mutations) {
+        if (config.rowCache == null) {
+            return;
+        }
+        RowKeySalt salt = salt(tableName);
+        List<byte[]> rowKeys = new ArrayList<>(mutations.size());
+        for (Mutation mutation : mutations) {
+            rowKeys.add(salt == null ? mutation.getRow() : salt.unsalt(mutation.getRow()));
+        }
+        config.rowCache.invalidateUnflushed(tableName, rowKeys);
+    }
+
+    /**
+     * 获得表的写缓冲区，不存在时创建
+     *
+     * @param tableName 表名
+     *
+     * @return 写缓冲区
+     */
+    private BufferedMutator getMutator(String tableName) throws IOException {
+        BufferedMutator mutator = config.mutators.get(tableName);
+        if (mutator != null) {
+            return mutator;
+        }
+        synchronized (config.mutators) {
+            mutator = config.mutators.get(tableName);
+            if (mutator == null) {
+                log.info("创建 {} 写缓冲区开始", tableName);
+                RowKeySalt salt = salt(tableName);
+                BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName))
+                        .writeBufferSize(config.writeBufferSize).listener((e, m) -> {
+                            List<String> rowKeys = new ArrayList<>();
+                            for (int i = 0; i < e.getNumExceptions(); i++) {
+                                byte[] row = e.getRow(i).getRow();
+                                rowKeys.add(Bytes.toString(salt == null ? row : salt.unsalt(row)));
+                            }
+                            config.writeExceptionListener.onException(tableName, rowKeys, e);
+                        });
+                mutator = config.connection.getBufferedMutator(params);
+                config.unflushedWriteBytes.put(tableName, new AtomicLong(0));
+                config.mutators.put(tableName, mutator);
+                log.info("创建 {} 写缓冲区成功", tableName);
+            }
+        }
+        return mutator;
+    }
+
+    /**
+     * 表的加盐分桶方式
+     *
+     * @param tableName 表名
+     *
+     * @return 没有声明分桶时返回null
+     */
+    private RowKeySalt salt(String tableName) {
+        if (config.salts.isEmpty()) {
+            return null;
+        }
+        return config.salts.get(TableName.valueOf(tableName).getNameAsString());
+    }
+
+    /**
+     * 写入使用的rowKey，分桶表加上桶号
+     *
+     * @param tableName 表名
+     * @param rowKey    逻辑rowKey
+     *
+     * @return 物理rowKey
+     */
+    private byte[] rowKeyBytes(String tableName, String rowKey) {
+        RowKeySalt salt = salt(tableName);
+        return salt == null ? Bytes.toBytes(rowKey) : salt.salt(Bytes.toBytes(rowKey));
+    }
+
+    /**
+     * 构建put集合
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名
+     * @param datas      rowKey以及列信息；key：rowKey，value(map)：k:列名,v:列值
+     *
+     * @return put集合
+     */
+    private List<Put> toPuts(String tableName, String familyName, Map<String, Map<String, String>> datas) {
+        byte[] familyNameByte = Bytes.toBytes(familyName);
+        List<Put> puts = new ArrayList<>(datas.size());
+        datas.forEach((rowKey, columnInfo) -> {
+            Put put = new Put(rowKeyBytes(tableName, rowKey));
+            for (Map.Entry<String, String> infoEntry : columnInfo.entrySet()) {
+                put.addColumn(familyNameByte, Bytes.toBytes(infoEntry.getKey()), Bytes.toBytes(infoEntry.getValue()));
+            }
+            puts.add(put);
+        });
+        return puts;
+    }
+
+    /**
+     * 构建delete集合
+     *
+     * @param tableName  表名
+     * @param rowKeyList 行键集合
+     *
+     * @return delete集合
+     */
+    private List<Delete> toDeletes(String tableName, List<String> rowKeyList) {
+        List<Delete> deleteList = new ArrayList<>(rowKeyList.size());
+        for (String rowKey : rowKeyList) {
+            deleteList.add(new Delete(rowKeyBytes(tableName, rowKey)));
+        }
+        return deleteList;
+    }
+
+    /**
+     * 统计行数
+     *
+     * <pre>
+     * select count(*) from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' and 2601 = 0
+     * 也可以加更多条件，使用方式与select方法类似
+     * 注意：startRowKey的值必须小于stopRowKey的值
+     * 默认按region拆分并行扫描统计，表上不需要协处理器；Builder设置countUseCoprocessor(true)时使用AggregateImplementation协处理器
+     * 统计失败时抛出RuntimeException，不会返回0
+     * </pre>
+     *
+     * @param ql *查询语句
+     *
+     * @return 匹配的行数
+     */
+    public long count(String ql) {
+        return count(ql, null);
+    }
+
+    /**
+     * 统计行数
+     *
+     * <pre>
+     * select count(*) from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' and 2601 = 0
+     * 也可以加更多条件，使用方式与select方法类似
+     * 注意：startRowKey的值必须小于stopRowKey的值
+     * 默认按region拆分并行扫描统计，表上不需要协处理器；Builder设置countUseCoprocessor(true)时使用AggregateImplementation协处理器
+     * 统计失败时抛出RuntimeException，不会返回0
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     *
+     * @return 匹配的行数
+     */
+    public long count(String ql, String columnsCanMissing) {
+        return count(getPlan(ql, columnsCanMissing, true), null);
+    }
+
+    /**
+     * 估算行数，不扫描数据，毫秒级返回
+     *
+     * <pre>
+     * select count(*) from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000'
+     * 根据region的存储大小（store file未压缩大小+memstore大小）与采样得到的平均行大小估算
+     * 扫描范围只覆盖region的一部分时，按rowKey在region中的位置比例折算
+     * 只根据startRowKey与stopRowKey估算，不考虑其它过滤条件；region的统计信息由region server定期上报，可能有延迟
+     * 估算失败时抛出RuntimeException，不会返回0
+     * </pre>
+     *
+     * @param ql *查询语句
+     *
+     * @return 估算的行数
+     */
+    public long countApproximate(String ql) {
+        return countApproximate(getPlan(ql, null, true), null);
+    }
+
+    /**
+     * 查看执行计划，不执行查询
+     *
+     * <pre>
+     * 返回根据QL构建的Scan：起止rowKey、是否逆序、caching、查询列、过滤器树（包含正则表达式）、客户端执行的条件
+     * 以及扫描类型（按rowKey get、有界范围、单边范围、全表扫描）与预计访问的region数量
+     * 上线前检查查询语句，避免全表扫描
+     * </pre>
+     *
+     * @param ql *查询语句
+     *
+     * @return 执行计划
+     */
+    public Explain explain(String ql) {
+        return explain(ql, null);
+    }
+
+    /**
+     * 查看执行计划，不执行查询
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing 默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     *
+     * @return 执行计划
+     */
+    public Explain explain(String ql, String columnsCanMissing) {
+        QlPlan plan = getPlan(ql, columnsCanMissing, false);
+        return explain(plan, bindScan(plan, null), bindRowKeys(plan, null), true);
+    }
+
+    /**
+     * 查询
+     *
+     * <pre>
+     * 查询必须填写表名和列簇名称(表名#列簇)，必须添加 limit ，否则查询所有数据太慢
+     * 查询所有列信息：select * from can_ne#can limit 10
+     * 查询某些列信息：select 3014,2205,did from can_ne#can limit 10
+     * 如果知道起始位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' limit 10
+     * 如果知道结束位置：select * from can_ne#can where stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
+     * 如果知道起始与结束位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
+     * 只查询rowKey：select rowKey from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
+     * 如果知道rowKey，只查一条：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191125065602' and stopRowKey='00004baa3388ab01e3d153347e7fc163_20191125065602'
+     * 按rowKey查询一条或者多条，使用get代替scan：select * from can_ne#can where rowKey in ('00004baa3388ab01e3d153347e7fc163_20191125065602','00004baa3388ab01e3d153347e7fc163_20191125065702')
+     * 聚合查询，按rowKey前缀分组：select substr(rowKey,1,32) vin, max(2205), avg(3014) from can_ne#can where startRowKey = '...' and stopRowKey = '...' group by substr(rowKey,1,32)
+     * 每个rowKey前缀的最后一行（例如每辆车的最新数据）：select latest(*) from can_ne#can group by prefix(rowKey,32)
+     * 如果不写order by，那么默认升序
+     * 降序查询需要注意，startRowKey的值必须比stopRowKey的值大，并且需要写 order by rowKey desc，例如：
+     * select 2205,did,TIME,3014 from can_ne#can  where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000'  and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' order by rowKey desc limit 10
+     * 查询列不为空的写法：select * from gateway#log where 2909 != '' limit 10
+     * 正则用法，以REG#开头，后面是正则表达式：select * from command#command where rowKey = 'REG#test123456789_.*_3' order by rowKey desc limit 1
+     * 查询中，可以使用 and , or , like , not like , = , != , > , >= , < , <=
+     * 具体使用方式，请查看TestQlParser
+     * 注意：查询中，包含startRowKey，也包含stopRowKey；如果列明有特殊字符，需要使用 ` 符号包裹
+     * </pre>
+     *
+     * @param ql *查询语句
+     *
+     * @return 结果集
+     */
+    public List<Map<String, String>> select(String ql) {
+        return select(ql, null);
+    }
+
+    /**
+     * 查询
+     *
+     * <pre>
+     * 查询必须填写表名和列簇名称(表名#列簇)，必须添加 limit ，否则查询所有数据太慢
+     * 查询所有列信息：select * from can_ne#can limit 10
+     * 查询某些列信息：select 3014,2205,did from can_ne#can limit 10
+     * 如果知道起始位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' limit 10
+     * 如果知道结束位置：select * from can_ne#can where stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
+     * 如果知道起始与结束位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
+     * 只查询rowKey：select rowKey from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
+     * 如果知道rowKey，只查一条：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191125065602' and stopRowKey='00004baa3388ab01e3d153347e7fc163_20191125065602'
+     * 按rowKey查询一条或者多条，使用get代替scan：select * from can_ne#can where rowKey in ('00004baa3388ab01e3d153347e7fc163_20191125065602','00004baa3388ab01e3d153347e7fc163_20191125065702')
+     * 聚合查询，按rowKey前缀分组：select substr(rowKey,1,32) vin, max(2205), avg(3014) from can_ne#can where startRowKey = '...' and stopRowKey = '...' group by substr(rowKey,1,32)
+     * 每个rowKey前缀的最后一行（例如每辆车的最新数据）：select latest(*) from can_ne#can group by prefix(rowKey,32)
+     * 如果不写order by，那么默认升序
+     * 降序查询需要注意，startRowKey的值必须比stopRowKey的值大，并且需要写 order by rowKey desc，例如：
+     * select 2205,did,TIME,3014 from can_ne#can  where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000'  and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' order by rowKey desc limit 10
+     * 查询列不为空的写法：select * from gateway#log where 2909 != '' limit 10
+     * 正则用法，以REG#开头，后面是正则表达式：select * from command#command where rowKey = 'REG#test123456789_.*_3' order by rowKey desc limit 1
+     * 查询中，可以使用 and , or , like , not like , = , != , > , >= , < , <=
+     * 具体使用方式，请查看TestQlParser
+     * 注意：查询中，包含startRowKey，也包含stopRowKey；如果列明有特殊字符，需要使用 ` 符号包裹
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     *
+     * @return 结果集，设置了selectHeapBudget时是SpillableRowList，使用完毕需要调用close
+     */
+    public List<Map<String, String>> select(String ql, String columnsCanMissing) {
+        List<Map<String, String>> datas = newRowList();
+        try {
+            select(ql, columnsCanMissing, row -> datas.add(row));
+        } catch (RuntimeException e) {
+            closeRowList(datas);
+            throw e;
+        }
+        logRowList(datas);
+        return datas;
+    }
+
+    /**
+     * 按列查询
+     *
+     * <pre>
+     * QL写法与select方法相同，结果按列保存，不为每行保留map
+     * 适合大量行的分析计算，例如：
+     * ColumnarResult result = hbaseUtil.selectColumnar(ql, null, MapUtil.of("3014", ColumnarResult.ColumnType.DOUBLE));
+     * double[] values = result.getColumn("3014").doubles();
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing 默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param columnTypes       列的类型，查询时解析为long或double，没有指定的列是字符串
+     *
+     * @return 按列保存的结果集
+     */
+    public ColumnarResult selectColumnar(String ql, String columnsCanMissing,
+                                         Map<String, ColumnarResult.ColumnType> columnTypes) {
+        ColumnarResult result = new ColumnarResult(columnTypes);
+        select(ql, columnsCanMissing, result::add);
+        log.debug("扫描到 {} 条记录，{} 列", result.size(), result.getColumnNames().size());
+        return result;
+    }
+
+    /**
+     * 按列查询，所有列都是字符串
+     *
+     * @param ql *查询语句
+     *
+     * @return 按列保存的结果集
+     */
+    public ColumnarResult selectColumnar(String ql) {
+        return selectColumnar(ql, null, null);
+    }
+
+    /**
+     * 创建结果集，设置了selectHeapBudget时，超过上限的行写入临时文件
+     *
+     * @return 结果集
+     */
+    private List<Map<String, String>> newRowList() {
+        if (config.selectHeapBudget > 0) {
+            return new SpillableRowList(config.selectHeapBudget, config.spillDirectory);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * 查询失败时调用者拿不到结果集，需要在这里删除已经写入的临时文件
+     */
+    private void closeRowList(List<Map<String, String>> datas) {
+        if (datas instanceof SpillableRowList) {
+            ((SpillableRowList) datas).close();
+        }
+    }
+
+    private void logRowList(List<Map<String, String>> datas) {
+        if (datas instanceof SpillableRowList) {
+            SpillableRowList rowList = (SpillableRowList) datas;
+            log.debug("扫描到 {} 条记录，堆内存 {} 字节，溢写 {} 条记录 {} 字节", datas.size(), rowList.getHeapBytes(), rowList.getSpilledRows(), rowList.getSpilledBytes());
+        } else {
+            log.debug("扫描到 {} 条记录", datas.size());
+        }
+    }
+
+    /**
+     * 查询
+     *
+     * @param ql
+     * @param columnsCanMissing
+     * @param handler
+     */
+    public void select(String ql, String columnsCanMissing, java.util.function.Consumer<Map<String, String>> handler) {
+        select(ql, columnsCanMissing, handler, null);
+    }
+
+    /**
+     * 查询
+     *
+     * @param ql
+     * @param columnsCanMissing
+     * @param handler               根据scanner回调
+     * @param returnColumnTimestamp 返回列的插入时间
+     */
+    public void select(String ql, String columnsCanMissing, java.util.function.Consumer<Map<String, String>> handler,
+                       Boolean returnColumnTimestamp) {
+        select(getPlan(ql, columnsCanMissing, false), null, handler, returnColumnTimestamp);
+    }
+
+    /**
+     * 流式查询
+     *
+     * <pre>
+     * 从scanner中按需拉取数据，不会把结果集全部放入内存，可以使用limit/filter/findFirst等短路操作提前结束
+     * 返回的Stream必须关闭，关闭时立即释放scanner，建议使用try-with-resources：
+     * try (Stream&lt;Map&lt;String, String&gt;&gt; rows = hbaseUtil.selectStream(ql)) {
+     *     rows.filter(row -&gt; "1".equals(row.get("2205"))).limit(10).forEach(System.out::println);
+     * }
+     * QL写法与select方法相同
+     * </pre>
+     *
+     * @param ql *查询语句
+     *
+     * @return 行数据流
+     */
+    public java.util.stream.Stream<Map<String, String>> selectStream(String ql) {
+        return selectStream(ql, null);
+    }
+
+    /**
+     * 流式查询
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     *
+     * @return 行数据流，使用完毕必须关闭
+     */
+    public java.util.stream.Stream<Map<String, String>> selectStream(String ql, String columnsCanMissing) {
+        return selectStream(getPlan(ql, columnsCanMissing, false), null);
+    }
+
+    /**
+     * 分页查询
+     *
+     * <pre>
+     * select * from can_ne#can where startRowKey = '...' and stopRowKey = '...' limit 100
+     * limit 是每页的条数，第一页token传null，之后每次传上一页返回的 nextToken，从上一页最后一条之后继续查询
+     * 支持 order by rowKey desc 逆序分页，token与查询语句绑定，不能用于其它查询语句
+     * 每页只扫描本页的数据，与页码无关
+     * </pre>
+     *
+     * @param ql    *查询语句
+     * @param token 上一页返回的nextToken，第一页传null
+     *
+     * @return 本页数据与下一页的token
+     */
+    public Page selectPage(String ql, String token) {
+        return selectPage(ql, null, token);
+    }
+
+    /**
+     * 分页查询
+     *
+     * <pre>
+     * select * from can_ne#can where startRowKey = '...' and stopRowKey = '...' limit 100
+     * limit 是每页的条数，第一页token传null，之后每次传上一页返回的 nextToken，从上一页最后一条之后继续查询
+     * 支持 order by rowKey desc 逆序分页，token与查询语句绑定，不能用于其它查询语句
+     * 每页只扫描本页的数据，与页码无关
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param token             上一页返回的nextToken，第一页传null
+     *
+     * @return 本页数据与下一页的token
+     */
+    public Page selectPage(String ql, String columnsCanMissing, String token) {
+        return selectPage(getPlan(ql, columnsCanMissing, false), null, token);
+    }
+
+    /**
+     * 执行计划
+     */
+    public static class Explain {
+        /**
+         * 扫描类型
+         */
+        public enum ScanType {
+            GET, // 按rowKey get
+            BOUNDED_RANGE, // 有startRowKey与stopRowKey
+            OPEN_RANGE, // 只有startRowKey或stopRowKey
+            FULL_TABLE // 全表扫描
+        }
+
+        private String ql;
+        private String tableName;
+        private String familyName;
+        private ScanType scanType;
+        private String startRow;
+        private String stopRow;
+        private boolean reversed;
+        private int caching;
+        private int limit = -1;
+        private int rowKeyCount = 0;
+        private final List<String> columns = new ArrayList<>();
+        private String filter;
+        private final List<String> residualPredicates = new ArrayList<>();
+        private final List<String> aggregates = new ArrayList<>();
+        private int groupByLength = -1;
+        private int saltBuckets = 0;
+        private int estimatedRegions = -1;
+
+        public String getQl() {
+            return ql;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public String getFamilyName() {
+            return familyName;
+        }
+
+        public ScanType getScanType() {
+            return scanType;
+        }
+
+        public String getStartRow() {
+            return startRow;
+        }
+
+        public String getStopRow() {
+            return stopRow;
+        }
+
+        public boolean isReversed() {
+            return reversed;
+        }
+
+        /**
+         * 每次rpc返回的行数，-1表示使用hbase.client.scanner.caching配置
+         */
+        public int getCaching() {
+            return caching;
+        }
+
+        /**
+         * limit，-1表示没有limit
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * 按rowKey get的数量
+         */
+        public int getRowKeyCount() {
+            return rowKeyCount;
+        }
+
+        /**
+         * 查询的列，查询所有列时为 *
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * 过滤器树，没有过滤器时为null
+         */
+        public String getFilter() {
+            return filter;
+        }
+
+        /**
+         * 在客户端执行的比较条件
+         */
+        public List<String> getResidualPredicates() {
+            return residualPredicates;
+        }
+
+        /**
+         * 聚合函数
+         */
+        public List<String> getAggregates() {
+            return aggregates;
+        }
+
+        /**
+         * 按rowKey前多少个字符分组，-1表示不分组
+         */
+        public int getGroupByLength() {
+            return groupByLength;
+        }
+
+        /**
+         * 是否是有界扫描，按rowKey get或者有startRowKey与stopRowKey
+         */
+        public boolean isBounded() {
+            return scanType == ScanType.GET || scanType == ScanType.BOUNDED_RANGE;
+        }
+
+        /**
+         * 加盐分桶的桶数量，0表示不分桶；分桶时startRow、stopRow、filter是逻辑rowKey，每个桶执行一次
+         */
+        public int getSaltBuckets() {
+            return saltBuckets;
+        }
+
+        /**
+         * 预计访问的region数量，-1表示未知
+         */
+        public int getEstimatedRegions() {
+            return estimatedRegions;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("table: ").append(tableName).append('#').append(familyName).append('\n');
+            sb.append("scanType: ").append(scanType);
+            if (scanType == ScanType.GET) {
+                sb.append(", rowKeys: ").append(rowKeyCount);
+            }
+            sb.append('\n');
+            sb.append("startRow: ").append(startRow).append(", stopRow: ").append(stopRow).append(", reversed: ")
+                    .append(reversed).append('\n');
+            sb.append("caching: ").append(caching).append(", limit: ").append(limit).append('\n');
+            if (saltBuckets > 0) {
+                sb.append("saltBuckets: ").append(saltBuckets).append('\n');
+            }
+            sb.append("columns: ").append(columns).append('\n');
+            if (!aggregates.isEmpty()) {
+                sb.append("aggregates: ").append(aggregates).append(", groupByLength: ").append(groupByLength)
+                        .append('\n');
+            }
+            sb.append("filter: ").append(filter == null ? "none" : "\n" + filter).append('\n');
+            if (!residualPredicates.isEmpty()) {
+                sb.append("residualPredicates: ").append(residualPredicates).append('\n');
+            }
+            sb.append("estimatedRegions: ").append(estimatedRegions);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 一页查询结果
+     */
+    public static class Page {
+        private final List<Map<String, String>> rows;
+        private final String nextToken;
+
+        private Page(List<Map<String, String>> rows, String nextToken) {
+            this.rows = rows;
+            this.nextToken = nextToken;
+        }
+
+        /**
+         * 本页数据
+         *
+         * @return 本页数据
+         */
+        public List<Map<String, String>> getRows() {
+            return rows;
+        }
+
+        /**
+         * 查询下一页使用的token
+         *
+         * @return token，没有下一页时返回null
+         */
+        public String getNextToken() {
+            return nextToken;
+        }
+
+        /**
+         * 是否还有下一页
+         *
+         * @return 是否还有下一页
+         */
+        public boolean hasNext() {
+            return nextToken != null;
+        }
+    }
+
+    /**
+     * 并行查询
+     *
+     * <pre>
+     * 按region边界拆分startRowKey与stopRowKey的范围，每个region一个子扫描，并行执行
+     * 适合大范围的导出，QL写法与select方法相同
+     * </pre>
+     *
+     * @param ql          *查询语句
+     * @param parallelism *并行度，同时扫描的region数量
+     * @param ordered     *是否按rowKey顺序返回，false时返回顺序不确定，有limit时返回的也不一定是最前面的数据
+     *
+     * @return 结果集
+     */
+    public List<Map<String, String>> selectParallel(String ql, int parallelism, boolean ordered) {
+        List<Map<String, String>> datas = newRowList();
+        try {
+            selectParallel(ql, null, row -> datas.add(row), parallelism, ordered);
+        } catch (RuntimeException e) {
+            closeRowList(datas);
+            throw e;
+        }
+        logRowList(datas);
+        return datas;
+    }
+
+    /**
+     * 并行查询
+     *
+     * <pre>
+     * 按region边界拆分startRowKey与stopRowKey的范围，每个region一个子扫描，并行执行
+     * 回调始终在调用线程中执行，不需要考虑线程安全
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param handler           *根据scanner回调
+     * @param parallelism       *并行度，同时扫描的region数量
+     * @param ordered           *是否按rowKey顺序回调，false时回调顺序不确定
+     */
+    public void selectParallel(String ql, String columnsCanMissing,
+                               java.util.function.Consumer<Map<String, String>> handler, int parallelism,
+                               boolean ordered) {
+        selectParallel(getPlan(ql, columnsCanMissing, false), null, handler, null, parallelism, ordered);
+    }
+
+    /**
+     * 查询每个rowKey前缀的最后一行
+     *
+     * <pre>
+     * 适合查询已知的一批车辆的最新数据，rowKey为 vin_yyyyMMddHHmmss 时传入所有vin，每辆车返回rowKey最大的一行
+     * 每个前缀一个逆序的small scan，同时执行的数量由Builder的latestParallelism设置
+     * QL写法与select方法相同，例如 select 3014,2205 from can_ne#can where 3014 != ''，where条件全部下推，返回满足条件的最后一行
+     * 不知道有哪些前缀时使用 select latest(*) from can_ne#can group by prefix(rowKey,N)
+     * </pre>
+     *
+     * @param ql       *查询语句，不能按rowKey查询，不能是聚合查询
+     * @param prefixes *rowKey前缀
+     *
+     * @return 结果集，按传入的前缀顺序，没有数据的前缀不返回
+     */
+    public List<Map<String, String>> selectLatest(String ql, Collection<String> prefixes) {
+        List<Map<String, String>> datas = newRowList();
+        try {
+            selectLatest(ql, null, prefixes, row -> datas.add(row), null);
+        } catch (RuntimeException e) {
+            closeRowList(datas);
+            throw e;
+        }
+        logRowList(datas);
+        return datas;
+    }
+
+    /**
+     * 查询每个rowKey前缀的最后一行
+     *
+     * <pre>
+     * 每个前缀一个逆序的small scan，同时执行的数量由Builder的latestParallelism设置
+     * 回调始终在调用线程中执行，按传入的前缀顺序回调，不需要考虑线程安全
+     * </pre>
+     *
+     * @param ql                    *查询语句，不能按rowKey查询，不能是聚合查询
+     * @param columnsCanMissing     *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param prefixes              *rowKey前缀
+     * @param handler               *每个有数据的前缀回调一次
+     * @param returnColumnTimestamp 返回列的插入时间
+     */
+    public void selectLatest(String ql, String columnsCanMissing, Collection<String> prefixes,
+                             java.util.function.Consumer<Map<String, String>> handler, Boolean returnColumnTimestamp) {
+        QlPlan plan = getPlan(ql, columnsCanMissing, false);
+        if (plan.aggregates != null || plan.rowKeyValues != null) {
+            throw new RuntimeException(StrUtil.format("按前缀查询最后一行不支持聚合查询与按rowKey查询[{}]", ql));
+        }
+        List<byte[]> prefixBytes = new ArrayList<>(prefixes.size());
+        for (String prefix : prefixes) {
+            prefixBytes.add(Bytes.toBytes(prefix));
+        }
+        OperationMetrics operationMetrics = beginOperation("selectLatest", plan);
+        try {
+            selectLatest(plan, null, prefixBytes, countRows(operationMetrics, handler), returnColumnTimestamp);
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
+        }
+    }
+
+    /**
+     * 流水线查询
+     *
+     * <pre>
+     * 拉取线程不停地从hbase拉取数据放入有界队列，回调线程从队列中取出数据回调，回调慢时不会阻塞拉取
+     * 适合回调比较慢的场景，例如回调中写kafka或者数据库
+     * consumers为1时回调在调用线程中执行，按rowKey顺序回调；大于1时多个线程同时回调，回调顺序不确定，需要回调线程安全
+     * 队列大小由Builder的pipelineQueueSize设置，队列满时拉取线程等待
+     * </pre>
+     *
+     * @param ql        *查询语句
+     * @param handler   *根据scanner回调
+     * @param consumers *回调线程数
+     *
+     * @return 本次查询的流水线指标
+     */
+    public PipelineMetrics selectPipelined(String ql, java.util.function.Consumer<Map<String, String>> handler,
+                                           int consumers) {
+        return selectPipelined(ql, null, handler, null, consumers);
+    }
+
+    /**
+     * 流水线查询
+     *
+     * <pre>
+     * 拉取线程不停地从hbase拉取数据放入有界队列，回调线程从队列中取出数据回调，回调慢时不会阻塞拉取
+     * 适合回调比较慢的场景，例如回调中写kafka或者数据库
+     * consumers为1时回调在调用线程中执行，按rowKey顺序回调；大于1时多个线程同时回调，回调顺序不确定，需要回调线程安全
+     * 队列大小由Builder的pipelineQueueSize设置，队列满时拉取线程等待
+     * </pre>
+     *
+     * @param ql                    *查询语句
+     * @param columnsCanMissing     *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param handler               *根据scanner回调
+     * @param returnColumnTimestamp 返回列的插入时间
+     * @param consumers             *回调线程数
+     *
+     * @return 本次查询的流水线指标
+     */
+    public PipelineMetrics selectPipelined(String ql, String columnsCanMissing,
+                                           java.util.function.Consumer<Map<String, String>> handler,
+                                           Boolean returnColumnTimestamp, int consumers) {
+        return selectPipelined(getPlan(ql, columnsCanMissing, false), null, handler, returnColumnTimestamp, consumers);
+    }
+
+    /**
+     * 可恢复查询
+     *
+     * <pre>
+     * 适合导出大量数据，scanner超时或者region迁移等导致查询中断时，从最后回调的rowKey之后重新打开scanner继续查询
+     * 重试次数与等待时间由Builder的scanMaxRetries、scanRetryBackoff与scanRetryMaxBackoff设置
+     * 表不存在等重试也会同样失败的异常，以及回调发生异常时不重试，直接结束
+     * 返回结果中可以判断是否查询完整
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param handler           *根据scanner回调
+     *
+     * @return 查询结果，是否完整、回调行数、重试次数等
+     */
+    public ScanReport selectResumable(String ql, String columnsCanMissing,
+                                      java.util.function.Consumer<Map<String, String>> handler) {
+        return selectResumable(ql, columnsCanMissing, handler, null);
+    }
+
+    /**
+     * 可恢复查询，并把进度保存到本地检查点文件
+     *
+     * <pre>
+     * 适合导出大量数据，scanner超时或者region迁移等导致查询中断时，从最后回调的rowKey之后重新打开scanner继续查询
+     * 每回调checkpointInterval行，以及结束时，把最后回调的rowKey保存到检查点文件
+     * 程序重启后使用同一个检查点文件调用，从上次结束的位置继续查询；检查点与查询语句绑定，语句不同时抛出异常
+     * 查询完整后检查点标记为完成，再次调用直接返回；需要重新查询时删除检查点文件
+     * </pre>
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param handler           *根据scanner回调
+     * @param checkpointFile    检查点文件路径，为null时不保存
+     *
+     * @return 查询结果，是否完整、回调行数、重试次数等
+     */
+    public ScanReport selectResumable(String ql, String columnsCanMissing,
+                                      java.util.function.Consumer<Map<String, String>> handler, String checkpointFile) {
+        return selectResumable(getPlan(ql, columnsCanMissing, false), null, handler, checkpointFile);
+    }
+
+    /**
+     * 可恢复查询的结果
+     */
+    public static class ScanReport {
+        private boolean completed;
+        private long rows;
+        private int retries;
+        private byte[] lastRowKey;
+        private Exception error;
+
+        /**
+         * 是否查询完整
+         *
+         * @return 是否完整，false时说明重试次数用完或者回调发生异常
+         */
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        /**
+         * 回调的总行数，包含检查点中记录的之前回调的行数
+         *
+         * @return 行数
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * 重新打开scanner的次数
+         *
+         * @return 次数
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * 最后回调的rowKey
+         *
+         * @return rowKey，还没有回调时返回null
+         */
+        public String getLastRowKey() {
+            return lastRowKey == null ? null : Bytes.toString(lastRowKey);
+        }
+
+        /**
+         * 导致查询不完整的异常
+         *
+         * @return 异常，查询完整时返回null
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return StrUtil.format("completed={}, rows={}, retries={}, lastRowKey={}, error={}", completed, rows, retries,
+                    getLastRowKey(), error == null ? null : error.toString());
+        }
+    }
+
+    /**
+     * 流水线查询的指标
+     */
+    public static class PipelineMetrics {
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong producerStallNanos = new AtomicLong();
+        private final AtomicLong consumerStallNanos = new AtomicLong();
+        private final AtomicLong queueDepthSum = new AtomicLong();
+        private final AtomicLong queueDepthSamples = new AtomicLong();
+        private volatile int maxQueueDepth;
+
+        private void recordQueueDepth(int depth) {
+            queueDepthSum.addAndGet(depth);
+            queueDepthSamples.incrementAndGet();
+            if (depth > maxQueueDepth) {
+                maxQueueDepth = depth;// 只有拉取线程写入
+            }
+        }
+
+        /**
+         * 回调的行数
+         *
+         * @return 行数
+         */
+        public long getRows() {
+            return rows.get();
+        }
+
+        /**
+         * 队列的最大深度
+         *
+         * @return 最大深度
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * 队列的平均深度，每放入一行采样一次
+         *
+         * @return 平均深度
+         */
+        public double getAverageQueueDepth() {
+            long samples = queueDepthSamples.get();
+            return samples == 0 ? 0 : (double) queueDepthSum.get() / samples;
+        }
+
+        /**
+         * 拉取线程因为队列满而等待的时间，越大说明回调越慢
+         *
+         * @return 毫秒
+         */
+        public long getProducerStallMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(producerStallNanos.get());
+        }
+
+        /**
+         * 回调线程因为队列空而等待的时间，多个回调线程累加，越大说明拉取越慢
+         *
+         * @return 毫秒
+         */
+        public long getConsumerStallMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(consumerStallNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return StrUtil.format("rows={}, maxQueueDepth={}, averageQueueDepth={}, producerStallMillis={}, consumerStallMillis={}",
+                    getRows(), getMaxQueueDepth(), NumberUtil.round(getAverageQueueDepth(), 2), getProducerStallMillis(),
+                    getConsumerStallMillis());
+        }
+    }
+
+    /**
+     * 预编译查询语句
+     *
+     * <pre>
+     * 语句中可以使用 ? 占位符，执行时按顺序绑定参数，避免每次调用都重新解析QL与构建Scan，例如：
+     * PreparedQl preparedQl = hbaseUtil.prepare("select * from can_ne#can where startRowKey = ? and stopRowKey = ? limit 10");
+     * List&lt;Map&lt;String, String&gt;&gt; rows = preparedQl.select("00004baa3388ab01e3d153347e7fc163_20190101000000", "00004baa3388ab01e3d153347e7fc163_20191231000000");
+     * 如果占位符只出现在startRowKey/stopRowKey上，绑定参数时只会复制预先构建好的Scan，不会重新构建过滤器
+     * </pre>
+     *
+     * @param ql *查询语句
+     *
+     * @return 预编译语句，可重复使用，线程安全
+     */
+    public PreparedQl prepare(String ql) {
+        return prepare(ql, null);
+    }
+
+    /**
+     * 预编译查询语句
+     *
+     * @param ql                *查询语句
+     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     *
+     * @return 预编译语句，可重复使用，线程安全
+     */
+    public PreparedQl prepare(String ql, String columnsCanMissing) {
+        return new PreparedQl(this, ql, columnsCanMissing, getPlan(ql, columnsCanMissing, false));
+    }
+
+    /**
+     * 查询计划缓存命中次数
+     *
+     * @return 命中次数
+     */
+    public long getPlanCacheHitCount() {
+        return config.planCache.stats().hitCount();
+    }
+
+    /**
+     * 查询计划缓存未命中次数
+     *
+     * @return 未命中次数
+     */
+    public long getPlanCacheMissCount() {
+        return config.planCache.stats().missCount();
+    }
+
+    /**
+     * 查询计划缓存当前数量
+     *
+     * @return 缓存数量
+     */
+    public long getPlanCacheSize() {
+        return config.planCache.size();
+    }
+
+    /**
+     * 行缓存命中次数，每个rowKey计一次
+     *
+     * @return 命中次数，未开启行缓存时返回0
+     */
+    public long getRowCacheHitCount() {
+        return config.rowCache == null ? 0 : config.rowCache.getHitCount();
+    }
+
+    /**
+     * 行缓存未命中次数，每个rowKey计一次
+     *
+     * @return 未命中次数，未开启行缓存时返回0
+     */
+    public long getRowCacheMissCount() {
+        return config.rowCache == null ? 0 : config.rowCache.getMissCount();
+    }
+
+    /**
+     * 行缓存因为容量或过期淘汰的行数
+     *
+     * @return 淘汰行数，未开启行缓存时返回0
+     */
+    public long getRowCacheEvictionCount() {
+        return config.rowCache == null ? 0 : config.rowCache.getEvictionCount();
+    }
+
+    /**
+     * 行缓存因为写入或删除失效的次数
+     *
+     * @return 失效次数，未开启行缓存时返回0
+     */
+    public long getRowCacheInvalidationCount() {
+        return config.rowCache == null ? 0 : config.rowCache.getInvalidationCount();
+    }
+
+    /**
+     * 行缓存当前行数
+     *
+     * @return 缓存行数，未开启行缓存时返回0
+     */
+    public long getRowCacheSize() {
+        return config.rowCache == null ? 0 : config.rowCache.size();
+    }
+
+    /**
+     * 使一张表在行缓存中的所有行失效，其他进程写入后可以调用
+     *
+     * @param tableName 表名，为null时清空整个行缓存
+     */
+    public void invalidateRowCache(String tableName) {
+        if (config.rowCache == null) {
+            return;
+        }
+        if (tableName == null) {
+            config.rowCache.invalidateAll();
+        } else {
+            config.rowCache.invalidateTable(tableName);
+        }
+    }
+
+    /**
+     * 预编译的查询语句
+     */
+    public static class PreparedQl {
+        private final HbaseUtil hbaseUtil;
+        private final String ql;
+        private final String columnsCanMissing;
+        private final QlPlan plan;
+        private volatile QlPlan countPlan;
+
+        private PreparedQl(HbaseUtil hbaseUtil, String ql, String columnsCanMissing, QlPlan plan) {
+            this.hbaseUtil = hbaseUtil;
+            this.ql = ql;
+            this.columnsCanMissing = columnsCanMissing;
+            this.plan = plan;
+        }
+
+        /**
+         * 查询
+         *
+         * @param params 按顺序绑定 ? 占位符的参数
+         *
+         * @return 结果集
+         */
+        public List<Map<String, String>> select(Object... params) {
+            List<Map<String, String>> datas = hbaseUtil.newRowList();
+            try {
+                select(row -> datas.add(row), params);
+            } catch (RuntimeException e) {
+                hbaseUtil.closeRowList(datas);
+                throw e;
+            }
+            hbaseUtil.logRowList(datas);
+            return datas;
+        }
+
+        /**
+         * 查看执行计划，不执行查询
+         *
+         * @param params 按顺序绑定 ? 占位符的参数
+         *
+         * @return 执行计划
+         */
+        public Explain explain(Object... params) {
+            return hbaseUtil.explain(plan, hbaseUtil.bindScan(plan, params), hbaseUtil.bindRowKeys(plan, params), true);
+        }
+
+        /**
+         * 按列查询
+         *
+         * @param columnTypes 列的类型，查询时解析为long或double，没有指定的列是字符串
+         * @param params      按顺序绑定 ? 占位符的参数
+         *
+         * @return 按列保存的结果集
+         */
+        public ColumnarResult selectColumnar(Map<String, ColumnarResult.ColumnType> columnTypes, Object... params) {
+            ColumnarResult result = new ColumnarResult(columnTypes);
+            select(result::add, params);
+            hbaseUtil.log.debug("扫描到 {} 条记录，{} 列", result.size(), result.getColumnNames().size());
+            return result;
+        }
+
+        /**
+         * 查询
+         *
+         * @param handler 根据scanner回调
+         * @param params  按顺序绑定 ? 占位符的参数
+         */
+        public void select(java.util.function.Consumer<Map<String, String>> handler, Object... params) {
+            hbaseUtil.select(plan, params, handler, null);
+        }
+
+        /**
+         * 流式查询
+         *
+         * @param params 按顺序绑定 ? 占位符的参数
+         *
+         * @return 行数据流，使用完毕必须关闭
+         */
+        public java.util.stream.Stream<Map<String, String>> selectStream(Object... params) {
+            return hbaseUtil.selectStream(plan, params);
+        }
+
+        /**
+         * 分页查询
+         *
+         * @param token  上一页返回的nextToken，第一页传null
+         * @param params 按顺序绑定 ? 占位符的参数，每一页都要传相同的参数
+         *
+         * @return 本页数据与下一页的token
+         */
+        public Page selectPage(String token, Object... params) {
+            return hbaseUtil.selectPage(plan, params, token);
+        }
+
+        /**
+         * 并行查询
+         *
+         * @param handler     根据scanner回调，始终在调用线程中执行
+         * @param parallelism 并行度，同时扫描的region数量
+         * @param ordered     是否按rowKey顺序回调
+         * @param params      按顺序绑定 ? 占位符的参数
+         */
+        public void selectParallel(java.util.function.Consumer<Map<String, String>> handler, int parallelism,
+                                   boolean ordered, Object... params) {
+            hbaseUtil.selectParallel(plan, params, handler, null, parallelism, ordered);
+        }
+
+        /**
+         * 流水线查询
+         *
+         * @param handler   根据scanner回调，consumers大于1时需要线程安全
+         * @param consumers 回调线程数
+         * @param params    按顺序绑定 ? 占位符的参数
+         *
+         * @return 本次查询的流水线指标
+         */
+        public PipelineMetrics selectPipelined(java.util.function.Consumer<Map<String, String>> handler, int consumers,
+                                               Object... params) {
+            return hbaseUtil.selectPipelined(plan, params, handler, null, consumers);
+        }
+
+        /**
+         * 统计行数，忽略语句中的order by与limit
+         *
+         * @param params 按顺序绑定 ? 占位符的参数
+         *
+         * @return 匹配的行数
+         */
+        public long count(Object... params) {
+            if (countPlan == null) {
+                countPlan = hbaseUtil.getPlan(ql, columnsCanMissing, true);
+            }
+            return hbaseUtil.count(countPlan, params);
+        }
+
+        /**
+         * 获得原始查询语句
+         *
+         * @return 查询语句
+         */
+        public String getQl() {
+            return ql;
+        }
+
+        /**
+         * 获得占位符数量
+         *
+         * @return 占位符数量
+         */
+        public int getParameterCount() {
+            return plan.parameterCount;
+        }
+    }
+
+    /**
+     * 编译后的查询计划，编译完成后不再修改，可以多线程共享
+     * 包内可见，基准测试通过同一个包中的HbaseUtilInternals访问
+     */
+    static class QlPlan {
+        private String ql;
+        private String fingerprint;// 查询指纹，字面量替换为 ? ，用于按查询形状汇总指标
+        private boolean forCount;// 是否是count语句的计划，count忽略查询列、排序与分页
+        private String tableName;
+        private byte[] familyNameBytes;
+        private List<String> columnCanMissingList;
+        private final List<String> selectColumns = new ArrayList<>();
+        private final Set<String> selectColumnSet = new HashSet<>();// 查询列集合，用于判断列是否需要返回
+        private boolean selectAllColumn = true;
+        private boolean rowKeyOnly = false;// 只查询rowKey
+        private boolean reversed = false;
+        private int pageSize = Integer.MAX_VALUE;
+        private SQLExpr where;
+        private int parameterCount = 0;// 占位符数量
+        private int startRowKeyParamIndex = -1;// startRowKey对应的占位符位置
+        private int stopRowKeyParamIndex = -1;// stopRowKey对应的占位符位置
+        private boolean filterParameterized = false;// 过滤条件中是否有占位符，有的话每次绑定参数都需要重新构建过滤器
+        private Scan scan;// 预先构建好的Scan，执行时复制一份使用
+        private SQLExpr rowKeyExpr;// 按rowKey精确查询的条件，不再转换为过滤器
+        private List<SQLExpr> rowKeyValues;// 需要get的rowKey，常量或者占位符，为null时使用scan查询
+        private final List<QlPredicate> residualPredicates = new ArrayList<>();// 在客户端执行的条件
+        private final Set<SQLExpr> residualExprs = Collections.newSetFromMap(new IdentityHashMap<>());// 在客户端执行的条件，不再转换为过滤器
+        private final Set<String> residualQualifiers = new LinkedHashSet<>();// 在客户端执行的条件用到的列
+        private java.util.function.Predicate<Result> residual;// 编译后的客户端条件，为null时没有
+        private List<Aggregate> aggregates;// 聚合查询的查询项，按查询顺序，为null时不是聚合查询
+        private int groupByLength = -1;// 按rowKey前多少个字符分组，-1表示不分组
+        private boolean latest = false;// 每个rowKey前缀只查询最后一行，按groupByLength分组
+        private RowKeyRange rowRange;// 顶层and条件中rowKey范围的交集，为null时不限制
+        private final List<Filter> rowRangeFilters = new ArrayList<>();// rowKey范围条件转换的过滤器
+        private final Set<SQLExpr> rowRangeExprs = Collections.newSetFromMap(new IdentityHashMap<>());// 已经转换为rowKey范围的条件，不再转换为过滤器
+    }
+
+    /**
+     * 获得查询计划，优先从缓存中获取
+     *
+     * @param ql                查询语句
+     * @param columnsCanMissing 可以不存在的列
+     * @param forCount          是否是count语句
+     *
+     * @return 查询计划
+     */
+    private QlPlan getPlan(String ql, String columnsCanMissing, boolean forCount) {
+        log.debug("QL：{}", ql);
+        String normalizedQl = normalizeQl(ql);
+        String key = StrUtil.format("{}\n{}\n{}", forCount ? "count" : "select", normalizedQl,
+                StrUtil.nullToEmpty(columnsCanMissing));
+        try {
+            return config.planCache.get(key, () -> compilePlan(normalizedQl, columnsCanMissing, forCount));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw ExceptionUtil.wrapRuntime(e.getCause());
+        }
+    }
+
+    /**
+     * 规范化查询语句，去掉首尾空白与末尾分号，引号外的连续空白合并为一个空格
+     *
+     * @param ql 查询语句
+     *
+     * @return 规范化后的查询语句
+     */
+    private String normalizeQl(String ql) {
+        String trimmed = StrUtil.removeSuffix(StrUtil.trim(ql), ";");
+        StringBuilder sb = new StringBuilder(trimmed.length());
+        char quote = 0;
+        boolean lastIsBlank = false;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (CharUtil.isBlankChar(c)) {
+                if (!lastIsBlank) {
+                    sb.append(' ');
+                    lastIsBlank = true;
+                }
+                continue;
+            }
+            if (c == '\'' || c == '`' || c == '"') {
+                quote = c;
+            }
+            sb.append(c);
+            lastIsBlank = false;
+        }
+        return StrUtil.trim(sb);
+    }
+
+    /**
+     * 生成查询指纹
+     *
+     * <pre>
+     * 把字符串、比较运算符后面的数字、limit的数字替换为 ? ，in列表合并为一个 ?
+     * 列名可以是数字，所以只替换比较运算符右边的数字
+     * </pre>
+     *
+     * @param ql 规范化后的查询语句
+     *
+     * @return 查询指纹
+     */
+    private String fingerprint(String ql) {
+        String fingerprint = ReUtil.replaceAll(ql, "'(?:[^']|'')*'|\"[^\"]*\"", "?");
+        fingerprint = ReUtil.replaceAll(fingerprint, "(?i)\\bin\\s*\\((?:\\s*\\?\\s*,?)+\\)", "in (?)");
+        fingerprint = ReUtil.replaceAll(fingerprint, "([=<>])\\s*-?\\d+(?:\\.\\d+)?", "$1 ?");
+        fingerprint = ReUtil.replaceAll(fingerprint, "(?i)\\blimit\\s+\\d+(?:\\s*,\\s*\\d+)?", "limit ?");
+        return fingerprint;
+    }
+
+    /**
+     * 生成执行计划
+     *
+     * @param plan            查询计划
+     * @param scan            绑定好参数的scan，为null时只输出查询计划中的信息
+     * @param rowKeys         需要get的rowKey，为null时使用查询计划中的数量
+     * @param estimateRegions 是否查询region分布，估算访问的region数量
+     *
+     * @return 执行计划
+     */
+    private Explain explain(QlPlan plan, Scan scan, List<byte[]> rowKeys, boolean estimateRegions) {
+        Explain explain = new Explain();
+        explain.ql = plan.ql;
+        explain.tableName = plan.tableName;
+        explain.familyName = Bytes.toString(plan.familyNameBytes);
+        explain.reversed = plan.reversed;
+        explain.limit = plan.pageSize == Integer.MAX_VALUE ? -1 : plan.pageSize;
+        RowKeySalt salt = salt(plan.tableName);
+        if (salt != null) {
+            explain.saltBuckets = salt.getBuckets();
+        }
+        plan.residualPredicates.forEach(predicate -> explain.residualPredicates.add(predicate.toString()));
+        if (plan.aggregates != null) {
+            plan.aggregates.forEach(aggregate -> explain.aggregates.add(GROUP_KEY.equals(aggregate.function)
+                    ? aggregate.name
+                    : StrUtil.format("{}({})", aggregate.function,
+                    aggregate.qualifier == null ? "*" : Bytes.toString(aggregate.qualifier))));
+            explain.groupByLength = plan.groupByLength;
+        }
+        if (plan.latest) {
+            explain.aggregates.add(StrUtil.format("latest({})",
+                    plan.selectAllColumn ? "*" : CollUtil.join(plan.selectColumns, ",")));
+            explain.groupByLength = plan.groupByLength;
+        }
+        if (plan.rowKeyValues != null) {
+            explain.scanType = Explain.ScanType.GET;
+            explain.rowKeyCount = rowKeys != null ? rowKeys.size() : plan.rowKeyValues.size();
+        }
+        if (scan == null) {
+            scan = plan.scan;
+        }
+        if (scan == null) {
+            return explain;
+        }
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = scan.getStopRow();
+        explain.startRow = Bytes.toStringBinary(startRow);
+        explain.stopRow = Bytes.toStringBinary(stopRow);
+        explain.reversed = scan.isReversed();
+        explain.caching = scan.getCaching();
+        NavigableSet<byte[]> qualifiers = scan.getFamilyMap().get(plan.familyNameBytes);
+        if (CollUtil.isEmpty(qualifiers)) {
+            explain.columns.add("*");
+        } else {
+            qualifiers.forEach(qualifier -> explain.columns.add(Bytes.toString(qualifier)));
+        }
+        if (scan.getFilter() != null) {
+            StringBuilder sb = new StringBuilder();
+            describeFilter(scan.getFilter(), "  ", sb);
+            explain.filter = StrUtil.removeSuffix(sb, "\n");
+        }
+        if (explain.scanType == null) {
+            if (startRow.length > 0 && stopRow.length > 0) {
+                explain.scanType = Explain.ScanType.BOUNDED_RANGE;
+            } else if (startRow.length > 0 || stopRow.length > 0) {
+                explain.scanType = Explain.ScanType.OPEN_RANGE;
+            } else {
+                explain.scanType = Explain.ScanType.FULL_TABLE;
+            }
+        }
+        if (estimateRegions) {
+            try (RegionLocator regionLocator = config.connection.getRegionLocator(TableName.valueOf(plan.tableName));) {
+                List<Scan> rangeScans = Collections.singletonList(scan);
+                List<byte[]> physicalRowKeys = rowKeys;
+                if (salt != null) {
+                    rangeScans = salt.bucketScans(scan);
+                    if (rowKeys != null) {
+                        physicalRowKeys = new ArrayList<>(rowKeys.size());
+                        for (byte[] rowKey : rowKeys) {
+                            physicalRowKeys.add(salt.salt(rowKey));
+                        }
+                    }
+                }
+                explain.estimatedRegions = estimateRegions(rangeScans, physicalRowKeys,
+                        regionLocator.getStartEndKeys());
+            } catch (Exception e) {
+                log.warn("获取region分布发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            }
+        }
+        return explain;
+    }
+
+    /**
+     * 估算访问的region数量
+     *
+     * @param scans        绑定好参数的scan，加盐分桶时每个桶一个
+     * @param rowKeys      需要get的rowKey，为null时按scan的范围估算
+     * @param startEndKeys 所有region的起止rowKey
+     *
+     * @return region数量
+     */
+    private int estimateRegions(List<Scan> scans, List<byte[]> rowKeys, Pair<byte[][], byte[][]> startEndKeys) {
+        byte[][] startKeys = startEndKeys.getFirst();
+        byte[][] endKeys = startEndKeys.getSecond();
+        int regions = 0;
+        if (rowKeys != null) {
+            for (int i = 0; i < startKeys.length; i++) {
+                for (byte[] rowKey : rowKeys) {
+                    if (Bytes.compareTo(rowKey, startKeys[i]) >= 0
+                            && (endKeys[i].length == 0 || Bytes.compareTo(rowKey, endKeys[i]) < 0)) {
+                        regions++;
+                        break;
+                    }
+                }
+            }
+            return regions;
+        }
+        for (int i = 0; i < startKeys.length; i++) {
+            for (Scan scan : scans) {
+                // 逆序扫描时startRow是包含的上界，stopRow是不包含的下界
+                byte[] lower = scan.isReversed() ? scan.getStopRow() : scan.getStartRow();
+                byte[] upper = scan.isReversed() ? (scan.getStartRow().length == 0 ? HConstants.EMPTY_END_ROW
+                        : Bytes.add(scan.getStartRow(), new byte[]{0})) : scan.getStopRow();
+                boolean afterLower = endKeys[i].length == 0 || Bytes.compareTo(lower, endKeys[i]) < 0;
+                boolean beforeUpper = upper.length == 0 || Bytes.compareTo(startKeys[i], upper) < 0;
+                if (afterLower && beforeUpper) {
+                    regions++;
+                    break;
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * 把过滤器树转换为缩进的文本，每个过滤器一行
+     *
+     * @param filter 过滤器
+     * @param indent 缩进
+     * @param sb     输出
+     */
+    private void describeFilter(Filter filter, String indent, StringBuilder sb) {
+        sb.append(indent);
+        if (filter instanceof FilterList) {
+            FilterList filterList = (FilterList) filter;
+            sb.append("FilterList(").append(filterList.getOperator()).append(")\n");
+            for (Filter child : filterList.getFilters()) {
+                describeFilter(child, indent + "  ", sb);
+            }
+            return;
+        }
+        if (filter instanceof SingleColumnValueFilter) {
+            SingleColumnValueFilter scvf = (SingleColumnValueFilter) filter;
+            sb.append(StrUtil.format("{}({}:{} {} {}, filterIfMissing={})", filter.getClass().getSimpleName(),
+                    Bytes.toString(scvf.getFamily()), Bytes.toString(scvf.getQualifier()), scvf.getOperator(),
+                    describeComparator(scvf.getComparator()), scvf.getFilterIfMissing()));
+        } else if (filter instanceof CompareFilter) {
+            CompareFilter compareFilter = (CompareFilter) filter;
+            sb.append(StrUtil.format("{}({} {})", filter.getClass().getSimpleName(), compareFilter.getOperator(),
+                    describeComparator(compareFilter.getComparator())));
+        } else if (filter instanceof MultiRowRangeFilter) {
+            sb.append("MultiRowRangeFilter(");
+            List<MultiRowRangeFilter.RowRange> rowRanges = ((MultiRowRangeFilter) filter).getRowRanges();
+            for (int i = 0; i < rowRanges.size(); i++) {
+                MultiRowRangeFilter.RowRange range = rowRanges.get(i);
+                sb.append(i == 0 ? "" : ", ").append(range.isStartRowInclusive() ? '[' : '(')
+                        .append(Bytes.toStringBinary(range.getStartRow())).append(", ")
+                        .append(Bytes.toStringBinary(range.getStopRow()))
+                        .append(range.isStopRowInclusive() ? ']' : ')');
+            }
+            sb.append(')');
+        } else if (filter instanceof PrefixFilter) {
+            sb.append("PrefixFilter(").append(Bytes.toStringBinary(((PrefixFilter) filter).getPrefix())).append(')');
+        } else if (filter instanceof PageFilter) {
+            sb.append("PageFilter(").append(((PageFilter) filter).getPageSize()).append(')');
+        } else {
+            sb.append(filter);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 比较器的文本，正则比较器输出正则表达式
+     */
+    private String describeComparator(ByteArrayComparable comparator) {
+        if (comparator instanceof NumberComparator) {
+            return StrUtil.format("NumberComparator({} {})", ((NumberComparator) comparator).getOperator(),
+                    Bytes.toString(comparator.getValue()));
+        }
+        return StrUtil.format("{}({})", comparator.getClass().getSimpleName(), Bytes.toString(comparator.getValue()));
+    }
+
+    /**
+     * 编译查询语句
+     *
+     * @param ql                查询语句
+     * @param columnsCanMissing 可以不存在的列
+     * @param forCount          是否是count语句
+     *
+     * @return 查询计划
+     */
+    QlPlan compilePlan(String ql, String columnsCanMissing, boolean forCount) {
+        log.debug("编译QL：{}", ql);
+        QlPlan plan = new QlPlan();
+        plan.ql = ql;
+        plan.fingerprint = fingerprint(ql);
+        plan.forCount = forCount;
+        if (StrUtil.isNotBlank(columnsCanMissing)) {
+            log.debug("columnsCanMissing：{}", columnsCanMissing);
+            plan.columnCanMissingList = Arrays.asList(columnsCanMissing.split(","));
+        }
+        // 解析
+        List<SQLStatement> statements = SQLUtils.parseStatements(ql, JdbcConstants.HBASE);
+        // 只考虑一条语句
+        SQLStatement statement = statements.get(0);
+        // 只考虑查询语句
+        SQLSelectStatement sqlSelectStatement = (SQLSelectStatement) statement;
+        SQLSelectQuery sqlSelectQuery = sqlSelectStatement.getSelect().getQuery();
+        // 非union的查询语句
+        if (!(sqlSelectQuery instanceof SQLSelectQueryBlock)) {
+            throw new RuntimeException(StrUtil.format("不支持的查询语句[{}]", ql));
+        }
+        SQLSelectQueryBlock sqlSelectQueryBlock = (SQLSelectQueryBlock) sqlSelectQuery;
+        // 获取表
+        SQLTableSource from = sqlSelectQueryBlock.getFrom();
+        String[] tableSource = from.toString().split("#");
+        plan.tableName = tableSource[0];
+        plan.familyNameBytes = Bytes.toBytes(tableSource[1]);
+        log.trace("表名#列簇：{}#{}", plan.tableName, tableSource[1]);
+        if (!forCount) {
+            // 获取字段列表
+            List<SQLSelectItem> selectItems = sqlSelectQueryBlock.getSelectList();
+            log.trace("需要查询字段：{}", selectItems);
+            SQLSelectGroupByClause groupBy = sqlSelectQueryBlock.getGroupBy();
+            if (selectItems.size() == 1 && selectItems.get(0).getExpr() instanceof SQLMethodInvokeExpr
+                    && ((SQLMethodInvokeExpr) selectItems.get(0).getExpr()).getMethodName().equalsIgnoreCase("latest")) {
+                planLatest(plan, (SQLMethodInvokeExpr) selectItems.get(0).getExpr(), groupBy);
+            } else if (groupBy != null || selectItems.stream().anyMatch(item -> item.getExpr() instanceof SQLMethodInvokeExpr)) {
+                planAggregate(plan, selectItems, groupBy);
+            } else if (selectItems.size() == 1) {
+                String selectColumn = StrUtil.strip(selectItems.get(0).toString(), "`");
+                if (selectColumn.equals(ROW_KEY_NAME)) {
+                    plan.rowKeyOnly = true;
+                } else if (!selectColumn.equals("*")) {
+                    plan.selectColumns.add(selectColumn);
+                }
+            } else {
+                for (SQLSelectItem selectItem : selectItems) {
+                    plan.selectColumns.add(StrUtil.strip(selectItem.toString(), "`"));
+                }
+            }
+            // 获取排序
+            SQLOrderBy orderBy = sqlSelectQueryBlock.getOrderBy();
+            if (orderBy != null) {
+                String orderByType = orderBy.getItems().get(0).getType().name();
+                log.trace("rowKey排序：{}", orderByType);
+                plan.reversed = orderByType.equals("DESC");
+            }
+            // 获取分页
+            SQLLimit limit = sqlSelectQueryBlock.getLimit();
+            if (limit != null) {
+                plan.pageSize = Integer.parseInt(limit.getRowCount().toString());
+                log.trace("查询 {} 条", plan.pageSize);
+            }
+        }
+        plan.selectAllColumn = CollUtil.isEmpty(plan.selectColumns);
+        plan.selectColumnSet.addAll(plan.selectColumns);
+        // 获取where条件
+        plan.where = sqlSelectQueryBlock.getWhere();
+        planRowKeyLookup(plan);
+        if (plan.latest && plan.rowKeyValues != null) {
+            throw new RuntimeException(StrUtil.format("按rowKey查询不支持latest[{}]", ql));
+        }
+        planRowRanges(plan);
+        planResidualPredicates(plan);
+        Scan scan = newScan(plan, null);
+        if (!plan.filterParameterized) {
+            plan.scan = scan;
+        }
+        return plan;
+    }
+
+    /**
+     * 编译聚合查询
+     *
+     * <pre>
+     * select max(2205), avg(3014) from can_ne#can where ... group by substr(rowKey,1,32)
+     * 支持 count sum avg min max std，count(*)统计行数，其余函数的参数是列名
+     * 分组只支持按rowKey前缀 substr(rowKey,1,N) 或者 prefix(rowKey,N)，查询项中只能有聚合函数与分组表达式
+     * </pre>
+     *
+     * @param plan        查询计划
+     * @param selectItems 查询项
+     * @param groupBy     分组，可以为null
+     */
+    private void planAggregate(QlPlan plan, List<SQLSelectItem> selectItems, SQLSelectGroupByClause groupBy) {
+        plan.aggregates = new ArrayList<>();
+        SQLExpr groupExpr = null;
+        if (groupBy != null) {
+            if (groupBy.getHaving() != null || groupBy.getItems().size() != 1) {
+                throw new RuntimeException(StrUtil.format("group by 只支持一个 substr(rowKey,1,N)，不支持having[{}]", plan.ql));
+            }
+            groupExpr = groupBy.getItems().get(0);
+            plan.groupByLength = groupByLength(plan, groupExpr);
+        }
+        for (SQLSelectItem selectItem : selectItems) {
+            SQLExpr expr = selectItem.getExpr();
+            Aggregate aggregate = new Aggregate();
+            aggregate.name = selectItem.getAlias() != null ? StrUtil.strip(selectItem.getAlias(), "`")
+                    : StrUtil.strip(expr.toString(), "`");
+            if (groupExpr != null && expr.toString().equalsIgnoreCase(groupExpr.toString())) {
+                aggregate.function = GROUP_KEY;
+                plan.aggregates.add(aggregate);
+                continue;
+            }
+            if (!(expr instanceof SQLMethodInvokeExpr)) {
+                throw new RuntimeException(StrUtil.format("聚合查询只能查询聚合函数与分组表达式[{}]", expr));
+            }
+            SQLMethodInvokeExpr method = (SQLMethodInvokeExpr) expr;
+            aggregate.function = method.getMethodName().toLowerCase();
+            if (!AGGREGATE_FUNCTIONS.contains(aggregate.function) || method.getArguments().size() != 1) {
+                throw new RuntimeException(StrUtil.format("不支持的聚合函数[{}]", expr));
+            }
+            String columnName = StrUtil.strip(method.getArguments().get(0).toString(), "`");
+            if (columnName.equals("*") || columnName.equals(ROW_KEY_NAME)) {
+                if (!aggregate.function.equals("count")) {
+                    throw new RuntimeException(StrUtil.format("不支持的聚合函数[{}]", expr));
+                }
+            } else {
+                aggregate.qualifier = Bytes.toBytes(columnName);
+                if (!plan.selectColumns.contains(columnName)) {
+                    plan.selectColumns.add(columnName);
+                }
+            }
+            plan.aggregates.add(aggregate);
+        }
+        log.trace("聚合查询：{}，按rowKey前 {} 个字符分组", plan.aggregates.size(), plan.groupByLength);
+    }
+
+    /**
+     * 编译每个rowKey前缀最后一行的查询
+     *
+     * <pre>
+     * select latest(*) from can_ne#can where startRowKey = '...' and stopRowKey = '...' group by prefix(rowKey,32)
+     * latest的参数是返回的列，* 表示所有列；分组与聚合查询相同，也可以写成 substr(rowKey,1,N)；不分组时只返回范围内的最后一行
+     * 每个前缀返回rowKey最大的一行，rowKey以时间结尾时就是最新的一行；按前缀升序返回，order by rowKey desc时降序
+     * where条件全部下推，返回的是满足条件的最后一行
+     * </pre>
+     *
+     * @param plan    查询计划
+     * @param method  latest函数
+     * @param groupBy 分组，可以为null
+     */
+    private void planLatest(QlPlan plan, SQLMethodInvokeExpr method, SQLSelectGroupByClause groupBy) {
+        plan.latest = true;
+        if (groupBy != null) {
+            if (groupBy.getHaving() != null || groupBy.getItems().size() != 1) {
+                throw new RuntimeException(StrUtil.format("group by 只支持一个 prefix(rowKey,N)，不支持having[{}]", plan.ql));
+            }
+            plan.groupByLength = groupByLength(plan, groupBy.getItems().get(0));
+        }
+        for (SQLExpr argument : method.getArguments()) {
+            String columnName = StrUtil.strip(argument.toString(), "`");
+            if (columnName.equals(ROW_KEY_NAME)) {
+                throw new RuntimeException(StrUtil.format("latest的参数只能是 * 或者列名[{}]", method));
+            }
+            if (!columnName.equals("*") && !plan.selectColumns.contains(columnName)) {
+                plan.selectColumns.add(columnName);
+            }
+        }
+        log.trace("查询每个rowKey前缀的最后一行，按rowKey前 {} 个字符分组", plan.groupByLength);
+    }
+
+    /**
+     * 解析分组表达式 substr(rowKey,1,N) 或者 prefix(rowKey,N)
+     *
+     * @return 按rowKey前多少个字符分组
+     */
+    private int groupByLength(QlPlan plan, SQLExpr groupExpr) {
+        if (groupExpr instanceof SQLMethodInvokeExpr) {
+            SQLMethodInvokeExpr method = (SQLMethodInvokeExpr) groupExpr;
+            List<SQLExpr> arguments = method.getArguments();
+            SQLExpr lengthExpr = null;
+            if (StrUtil.equalsAnyIgnoreCase(method.getMethodName(), "substr", "substring") && arguments.size() == 3
+                    && arguments.get(1) instanceof SQLIntegerExpr
+                    && ((SQLIntegerExpr) arguments.get(1)).getNumber().intValue() == 1) {
+                lengthExpr = arguments.get(2);
+            } else if (method.getMethodName().equalsIgnoreCase("prefix") && arguments.size() == 2) {
+                lengthExpr = arguments.get(1);
+            }
+            if (lengthExpr instanceof SQLIntegerExpr
+                    && StrUtil.strip(arguments.get(0).toString(), "`").equals(ROW_KEY_NAME)) {
+                int length = ((SQLIntegerExpr) lengthExpr).getNumber().intValue();
+                if (length > 0) {
+                    return length;
+                }
+            }
+        }
+        throw new RuntimeException(StrUtil.format("group by 只支持 substr(rowKey,1,N) 或者 prefix(rowKey,N)[{}]", plan.ql));
+    }
+
+    /**
+     * 根据查询计划构建一个新的Scan
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数，编译阶段为null
+     *
+     * @return scan
+     */
+    private Scan newScan(QlPlan plan, String[] params) {
+        Scan scan = new Scan();
+        scan.addFamily(plan.familyNameBytes);
+        if (plan.rowKeyOnly) {
+            FilterList filterList = new FilterList();
+            filterList.addFilter(new KeyOnlyFilter());
+            scan.setFilter(filterList);
+        }
+        for (String selectColumn : plan.selectColumns) {
+            scan.addColumn(plan.familyNameBytes, Bytes.toBytes(selectColumn));
+        }
+        if (!plan.selectAllColumn) {
+            // 在客户端比较的条件只需要查询出用到的列
+            for (String qualifier : plan.residualQualifiers) {
+                scan.addColumn(plan.familyNameBytes, Bytes.toBytes(qualifier));
+            }
+        }
+        scan.setReversed(plan.reversed);
+        if (plan.pageSize != Integer.MAX_VALUE && config.canSetCaching) {
+            scan.setCaching(Math.min(plan.pageSize, 1000));
+        }
+        if (plan.where instanceof SQLBinaryOpExpr) {// 二元表达式
+            log.trace("查询条件：");
+            if (scan.getFilter() == null) {
+                scan.setFilter(new FilterList());
+            }
+            parseQl(plan, scan, plan.where, null, params);
+        } else if (plan.where instanceof SQLInListExpr) {// in表达式
+            log.trace("查询条件：");
+            if (scan.getFilter() == null) {
+                scan.setFilter(new FilterList());
+            }
+            addInListFilter(plan, scan, (SQLInListExpr) plan.where, (FilterList) scan.getFilter(), params);
+        }
+        FilterList filterList = (FilterList) scan.getFilter();
+        if (filterList != null && CollUtil.isEmpty(filterList.getFilters())) {
+            scan.setFilter(null);
+        }
+        return scan;
+    }
+
+    /**
+     * 绑定参数，获得本次执行使用的Scan
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     *
+     * @return scan
+     */
+    Scan bindScan(QlPlan plan, Object[] params) {
+        String[] values = toParamValues(plan, params);
+        Scan scan;
+        if (plan.scan != null) {
+            try {
+                scan = new Scan(plan.scan);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (plan.startRowKeyParamIndex >= 0) {
+                scan.setStartRow(Bytes.toBytes(values[plan.startRowKeyParamIndex]));
+            }
+            if (plan.stopRowKeyParamIndex >= 0) {
+                scan.setStopRow(Bytes.toBytes(fixStopRow(scan.isReversed(), values[plan.stopRowKeyParamIndex])));
+            }
+        } else {
+            scan = newScan(plan, values);
+        }
+
+        String startRow = Bytes.toString(scan.getStartRow());
+        String stopRow = Bytes.toString(scan.getStopRow());
+        if (StrUtil.isNotBlank(startRow) && StrUtil.isNotBlank(stopRow)) {
+            if (plan.forCount) {
+                if (startRow.compareTo(stopRow) > 0) {
+                    throw new RuntimeException(StrUtil.format("startRowKey[{}]不能大于stopRowKey[{}]", startRow, stopRow));
+                }
+            } else if (scan.isReversed()) {
+                if (startRow.compareTo(stopRow) < 0) {
+                    throw new RuntimeException(
+                            StrUtil.format("逆序查询数据，startRowKey[{}]不能小于stopRowKey[{}]", startRow, stopRow));
+                }
+            } else {
+                if (startRow.compareTo(stopRow) > 0) {
+                    throw new RuntimeException(
+                            StrUtil.format("正序查询数据，startRowKey[{}]不能大于stopRowKey[{}]", startRow, stopRow));
+                }
+            }
+        }
+
+        applyRowRange(plan, scan);
+        if (operationTracked()) {
+            scan.setScanMetricsEnabled(true);
+            OperationMetrics metrics = config.currentOperation.get();
+            if (metrics != null && metrics.scan == null) {
+                metrics.scan = scan;
+            }
+        }
+        log.trace("{}", scan);
+        return scan;
+    }
+
+    /**
+     * 检查并转换绑定参数
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     *
+     * @return 字符串形式的参数
+     */
+    private String[] toParamValues(QlPlan plan, Object[] params) {
+        int paramSize = params == null ? 0 : params.length;
+        if (paramSize < plan.parameterCount) {
+            throw new RuntimeException(StrUtil.format("QL需要 {} 个参数，实际传递了 {} 个", plan.parameterCount, paramSize));
+        }
+        String[] values = new String[paramSize];
+        for (int i = 0; i < paramSize; i++) {
+            if (params[i] == null) {
+                throw new RuntimeException(StrUtil.format("第 {} 个参数不能为空", i + 1));
+            }
+            values[i] = params[i].toString();
+        }
+        return values;
+    }
+
+    /**
+     * 根据查询方向修正stopRowKey，使查询结果包含stopRowKey
+     *
+     * @param reversed 是否逆序
+     * @param stopRow  stopRowKey
+     *
+     * @return 修正后的stopRowKey
+     */
+    private String fixStopRow(boolean reversed, String stopRow) {
+        if (reversed) {
+            return lastCharAsciiSubOne(stopRow);
+        } else {
+            return lastCharAsciiAddOne(stopRow);
+        }
+    }
+
+    /**
+     * 识别按rowKey精确查询的条件，可以使用get代替scan
+     *
+     * <pre>
+     * 只考虑where中用and连接的顶层条件，以下条件只能出现一个：
+     * rowKey = 'x'
+     * rowKey in ('a', 'b', ...)
+     * startRowKey = 'x' and stopRowKey = 'x'
+     * 其余条件作为get的过滤器
+     * rowKey条件同时带有startRowKey或stopRowKey时交给scan处理，保证查询范围生效
+     * </pre>
+     *
+     * @param plan 查询计划
+     */
+    private void planRowKeyLookup(QlPlan plan) {
+        List<SQLExpr> conjuncts = new ArrayList<>();
+        flattenAnd(plan.where, conjuncts);
+        SQLExpr rowKeyExpr = null;
+        List<SQLExpr> rowKeyValues = null;
+        String startRowKey = null;
+        String stopRowKey = null;
+        boolean bounded = false;
+        for (SQLExpr conjunct : conjuncts) {
+            List<SQLExpr> values = null;
+            if (conjunct instanceof SQLBinaryOpExpr) {
+                SQLBinaryOpExpr expr = (SQLBinaryOpExpr) conjunct;
+                if (expr.getOperator() != SQLBinaryOperator.Equality || !isColumn(expr.getLeft())) {
+                    continue;
+                }
+                String columnName = StrUtil.strip(expr.getLeft().toString(), "`");
+                if (columnName.equals(START_ROW_KEY_NAME) || columnName.equals(STOP_ROW_KEY_NAME)) {
+                    bounded = true;
+                }
+                if (columnName.equals(START_ROW_KEY_NAME) && !(expr.getRight() instanceof SQLVariantRefExpr)) {
+                    startRowKey = literalValue(expr.getRight());
+                } else if (columnName.equals(STOP_ROW_KEY_NAME) && !(expr.getRight() instanceof SQLVariantRefExpr)) {
+                    stopRowKey = literalValue(expr.getRight());
+                } else if (columnName.equals(ROW_KEY_NAME) && (expr.getRight() instanceof SQLVariantRefExpr
+                        || !literalValue(expr.getRight()).startsWith("REG#"))) {
+                    values = Collections.singletonList(expr.getRight());
+                }
+            } else if (conjunct instanceof SQLInListExpr) {
+                SQLInListExpr expr = (SQLInListExpr) conjunct;
+                if (!expr.isNot() && isColumn(expr.getExpr())
+                        && StrUtil.strip(expr.getExpr().toString(), "`").equals(ROW_KEY_NAME)) {
+                    values = expr.getTargetList();
+                }
+            }
+            if (values != null) {
+                if (rowKeyExpr != null) {
+                    return;// 多个rowKey条件，交给scan处理
+                }
+                rowKeyExpr = conjunct;
+                rowKeyValues = values;
+            }
+        }
+        if (rowKeyExpr != null && bounded) {
+            log.trace("rowKey条件带有查询范围，使用scan查询");
+            return;
+        }
+        if (rowKeyExpr != null) {
+            plan.rowKeyExpr = rowKeyExpr;
+            plan.rowKeyValues = rowKeyValues;
+            for (SQLExpr value : rowKeyValues) {
+                if (value instanceof SQLVariantRefExpr) {
+                    plan.parameterCount = Math.max(plan.parameterCount, ((SQLVariantRefExpr) value).getIndex() + 1);
+                }
+            }
+        } else if (startRowKey != null && startRowKey.equals(stopRowKey)) {
+            plan.rowKeyValues = Collections.singletonList(new SQLCharExpr(startRowKey));
+        }
+        if (plan.rowKeyValues != null) {
+            log.trace("使用get查询 {} 个rowKey", plan.rowKeyValues.size());
+        }
+    }
+
+    /**
+     * 把用and连接的条件展开
+     *
+     * @param sqlExpr   条件
+     * @param conjuncts 展开后的条件
+     */
+    private void flattenAnd(SQLExpr sqlExpr, List<SQLExpr> conjuncts) {
+        if (sqlExpr instanceof SQLBinaryOpExpr
+                && ((SQLBinaryOpExpr) sqlExpr).getOperator() == SQLBinaryOperator.BooleanAnd) {
+            flattenAnd(((SQLBinaryOpExpr) sqlExpr).getLeft(), conjuncts);
+            flattenAnd(((SQLBinaryOpExpr) sqlExpr).getRight(), conjuncts);
+        } else if (sqlExpr != null) {
+            conjuncts.add(sqlExpr);
+        }
+    }
+
+    /**
+     * 是否是列名
+     */
+    private boolean isColumn(SQLExpr sqlExpr) {
+        return sqlExpr instanceof SQLIdentifierExpr || sqlExpr instanceof SQLIntegerExpr;
+    }
+
+    /**
+     * 获得常量的值，字符串去掉引号
+     *
+     * @param sqlExpr 常量
+     *
+     * @return 值
+     */
+    private String literalValue(SQLExpr sqlExpr) {
+        String value = sqlExpr.toString();
+        String type = sqlExpr.computeDataType().getName();
+        if (type.contains("char")) {
+            value = StrUtil.strip(value, "'");
+        }
+        return value;
+    }
+
+    /**
+     * 获得常量或者占位符的值
+     *
+     * @param sqlExpr 常量或者占位符
+     * @param params  绑定参数
+     *
+     * @return 值
+     */
+    private String exprValue(SQLExpr sqlExpr, String[] params) {
+        if (sqlExpr instanceof SQLVariantRefExpr) {
+            return params[((SQLVariantRefExpr) sqlExpr).getIndex()];
+        }
+        return literalValue(sqlExpr);
+    }
+
+    /**
+     * 绑定参数，获得本次需要get的rowKey，去重并按查询方向排序
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     *
+     * @return rowKey集合，不能使用get查询时返回null
+     */
+    private List<byte[]> bindRowKeys(QlPlan plan, Object[] params) {
+        if (plan.rowKeyValues == null) {
+            return null;
+        }
+        String[] values = toParamValues(plan, params);
+        TreeSet<byte[]> rowKeys = new TreeSet<>(plan.reversed ? Bytes.BYTES_COMPARATOR.reversed()
+                : Bytes.BYTES_COMPARATOR);
+        for (SQLExpr value : plan.rowKeyValues) {
+            rowKeys.add(Bytes.toBytes(exprValue(value, values)));
+        }
+        return new ArrayList<>(rowKeys);
+    }
+
+    /**
+     * 按rowKey查询，开启行缓存时先从缓存中获取
+     *
+     * @param plan     查询计划
+     * @param scan     绑定好参数的scan，使用其中的列与过滤器
+     * @param rowKeys  rowKey集合
+     *
+     * @return 存在的行，顺序与rowKey集合相同
+     */
+    private List<Result> getRows(QlPlan plan, Scan scan, List<byte[]> rowKeys) throws Exception {
+        List<Result> results;
+        if (config.rowCache != null && config.rowCache.ttl(plan.tableName) > 0) {
+            results = getCachedRows(plan, scan, rowKeys);
+        } else {
+            results = multiGet(plan, scan, rowKeys);
+        }
+        results.removeIf(Result::isEmpty);
+        return results;
+    }
+
+    /**
+     * 先从行缓存中获取，缺少的行从hbase查询后写入缓存
+     *
+     * @param plan    查询计划
+     * @param scan    绑定好参数的scan，使用其中的列与过滤器
+     * @param rowKeys rowKey集合
+     *
+     * @return 查询结果，不存在的行为空结果，顺序与rowKey集合相同
+     */
+    private List<Result> getCachedRows(QlPlan plan, Scan scan, List<byte[]> rowKeys) throws Exception {
+        String projection = rowCacheProjection(scan);
+        List<Result> results = new ArrayList<>(rowKeys.size());
+        List<Integer> missingIndexes = new ArrayList<>();
+        List<byte[]> missingRowKeys = new ArrayList<>();
+        List<Long> generations = new ArrayList<>();// 每个缺少的行读取前的失效序号
+        for (int i = 0; i < rowKeys.size(); i++) {
+            Result result = config.rowCache.get(plan.tableName, rowKeys.get(i), projection);
+            if (result == null) {
+                missingIndexes.add(i);
+                missingRowKeys.add(rowKeys.get(i));
+                generations.add(config.rowCache.generation(plan.tableName, rowKeys.get(i)));
+            }
+            results.add(result);
+        }
+        if (!missingRowKeys.isEmpty()) {
+            List<Result> fetched = multiGet(plan, scan, missingRowKeys);
+            for (int i = 0; i < missingIndexes.size(); i++) {
+                config.rowCache.put(plan.tableName, missingRowKeys.get(i), projection, fetched.get(i),
+                        generations.get(i));
+                results.set(missingIndexes.get(i), fetched.get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 行缓存的投影：查询的列簇、列与过滤器，相同投影的get返回相同的结果
+     */
+    private String rowCacheProjection(Scan scan) {
+        StringBuilder sb = new StringBuilder();
+        scan.getFamilyMap().forEach((family, qualifiers) -> {
+            sb.append(Bytes.toStringBinary(family)).append(':');
+            if (qualifiers != null) {
+                qualifiers.forEach(qualifier -> sb.append(Bytes.toStringBinary(qualifier)).append(','));
+            }
+            sb.append(';');
+        });
+        if (scan.getFilter() != null) {
+            describeFilter(scan.getFilter(), "", sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 使用get批量查询，rowKey较多时拆分为多批并行查询
+     *
+     * @param plan    查询计划
+     * @param scan    绑定好参数的scan，使用其中的列与过滤器
+     * @param rowKeys rowKey集合
+     *
+     * @return 查询结果，不存在的行为空结果，顺序与rowKey集合相同
+     */
+    private List<Result> multiGet(QlPlan plan, Scan scan, List<byte[]> rowKeys) throws Exception {
+        List<List<byte[]>> batches = CollUtil.split(rowKeys, config.multiGetBatchSize);
+        List<Result> results = new ArrayList<>(rowKeys.size());
+        if (batches.size() == 1) {
+            results.addAll(getBatch(plan, scan, batches.get(0)));
+        } else {
+            log.debug("{} 个rowKey拆分为 {} 批查询", rowKeys.size(), batches.size());
+            List<List<Result>> batchResults = new ArrayList<>(Collections.nCopies(batches.size(), null));
+            AtomicInteger nextBatch = new AtomicInteger(0);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < Math.min(config.multiGetParallelism, batches.size()); w++) {
+                futures.add(config.scanExecutor.submit(withOperation(() -> {
+                    int index;
+                    while ((index = nextBatch.getAndIncrement()) < batches.size()) {
+                        batchResults.set(index, getBatch(plan, scan, batches.get(index)));
+                    }
+                    return null;
+                })));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            for (List<Result> batchResult : batchResults) {
+                results.addAll(batchResult);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 查询一批rowKey
+     *
+     * @param plan    查询计划
+     * @param scan    绑定好参数的scan，使用其中的列与过滤器
+     * @param rowKeys rowKey集合
+     *
+     * @return 查询结果，不存在的行为空结果
+     */
+    private List<Result> getBatch(QlPlan plan, Scan scan, List<byte[]> rowKeys) throws IOException {
+        RowKeySalt salt = salt(plan.tableName);
+        List<Get> gets = new ArrayList<>(rowKeys.size());
+        for (byte[] rowKey : rowKeys) {
+            int bucket = salt == null ? -1 : salt.bucket(rowKey);
+            Get get = new Get(salt == null ? rowKey : Bytes.add(salt.prefix(bucket), rowKey));
+            scan.getFamilyMap().forEach((family, qualifiers) -> {
+                if (CollUtil.isEmpty(qualifiers)) {
+                    get.addFamily(family);
+                } else {
+                    qualifiers.forEach(qualifier -> get.addColumn(family, qualifier));
+                }
+            });
+            if (scan.getFilter() != null) {
+                get.setFilter(salt == null ? scan.getFilter() : salt.bucketFilter(scan.getFilter(), bucket));
+            }
+            gets.add(get);
+        }
+        try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));) {
+            Result[] results = table.get(gets);
+            recordGets(results);
+            if (salt != null) {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = salt.unsalt(results[i]);
+                }
+            }
+            return Arrays.asList(results);
+        }
+    }
+
+    /**
+     * 根据查询计划统计行数
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     *
+     * @return 匹配的行数
+     */
+    private long count(QlPlan plan, Object[] params) {
+        OperationMetrics operationMetrics = beginOperation("count", plan);
+        try {
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            try {
+                if (rowKeys != null) {
+                    return getRows(plan, scan, rowKeys).size();
+                }
+                if (config.countUseCoprocessor) {
+                    return coprocessorRowCount(plan, scan);
+                }
+                return countParallel(plan, scan);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable throwable) {
+                throw new RuntimeException(StrUtil.format("统计数量发生异常[{}]", plan.ql), throwable);
+            }
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
+        }
+    }
+
+    /**
+     * 使用协处理器统计行数，加盐分桶的表每个桶统计一次后相加
+     *
+     * @param plan 查询计划
+     * @param scan 绑定好参数的scan
+     *
+     * @return 行数
+     */
+    private long coprocessorRowCount(QlPlan plan, Scan scan) throws Throwable {
+        TableName tableName = TableName.valueOf(plan.tableName);
+        RowKeySalt salt = salt(plan.tableName);
+        if (salt == null) {
+            return config.aggregationClient.rowCount(tableName, new LongColumnInterpreter(), scan);
+        }
+        List<Future<Long>> futures = new ArrayList<>(salt.getBuckets());
+        for (Scan bucketScan : salt.bucketScans(scan)) {
+            futures.add(config.scanExecutor.submit(withOperation(() -> {
+                try {
+                    return config.aggregationClient.rowCount(tableName, new LongColumnInterpreter(), bucketScan);
+                } catch (Exception e) {
+                    throw e;
+                } catch (Throwable throwable) {
+                    throw new ExecutionException(throwable);
+                }
+            })));
+        }
+        long count = 0;
+        try {
+            for (Future<Long> future : futures) {
+                count += future.get();
+            }
+        } catch (ExecutionException e) {
+            throw ObjectUtil.defaultIfNull(e.getCause(), e);
+        }
+        return count;
+    }
+
+    /**
+     * 按region拆分扫描范围，并行扫描统计行数，每行只返回rowKey
+     *
+     * @param plan 查询计划
+     * @param scan 绑定好参数的scan
+     *
+     * @return 行数
+     */
+    private long countParallel(QlPlan plan, Scan scan) throws Exception {
+        TableName tableName = TableName.valueOf(plan.tableName);
+        Scan countScan = keyOnlyScan(scan);
+        countScan.setCaching(config.countCaching);
+        countScan.setCacheBlocks(false);// 统计扫描的数据不放入block cache，避免挤掉热点数据
+        RowKeySalt salt = salt(plan.tableName);
+        if (salt != null) {
+            // 每个桶一个扫描并行统计，不需要按rowKey排序
+            long count = 0;
+            try (ResultScanner scanner = new SaltedScanner(plan.tableName, countScan, salt, false);) {
+                while (scanner.next() != null) {
+                    count++;
+                }
+            } finally {
+                recordScan(countScan);
+            }
+            return count;
+        }
+        List<ScanPartition> partitions;
+        try (RegionLocator regionLocator = config.connection.getRegionLocator(tableName);) {
+            partitions = splitScan(scan, regionLocator.getStartEndKeys());
+        }
+        log.debug("统计范围拆分为 {} 个region分区", partitions.size());
+
+        AtomicLong total = new AtomicLong(0);
+        AtomicInteger nextPartition = new AtomicInteger(0);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        int workerSize = Math.max(1, Math.min(config.countParallelism, partitions.size()));
+        List<Future<?>> futures = new ArrayList<>(workerSize);
+        for (int w = 0; w < workerSize; w++) {
+            futures.add(config.scanExecutor.submit(withOperation(() -> {
+                int index;
+                while (!stopped.get() && (index = nextPartition.getAndIncrement()) < partitions.size()) {
+                    ScanPartition partition = partitions.get(index);
+                    Scan partitionScan = new Scan(countScan);
+                    partitionScan.setStartRow(partition.startRow);
+                    partitionScan.setStopRow(partition.stopRow);
+                    long count = 0;
+                    try (Table table = config.connection.getTable(tableName);
+                         ResultScanner scanner = table.getScanner(partitionScan);) {
+                        while (!stopped.get() && scanner.next() != null) {
+                            count++;
+                        }
+                    } catch (Exception e) {
+                        stopped.set(true);
+                        throw e;
+                    } finally {
+                        recordScan(partitionScan);
+                    }
+                    total.addAndGet(count);
+                    log.trace("region分区 {} 统计到 {} 行", index, count);
+                }
+                return null;
+            })));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw (Exception) ObjectUtil.defaultIfNull(e.getCause(), e);
+        } finally {
+            stopped.set(true);
+        }
+        return total.get();
+    }
+
+    /**
+     * 复制一个只返回rowKey的scan
+     *
+     * <pre>
+     * 没有过滤条件时使用FirstKeyOnlyFilter，每行只读取第一个单元格
+     * 有过滤条件时追加KeyOnlyFilter，过滤条件仍然使用完整的列值判断，但是不返回列值
+     * </pre>
+     *
+     * @param scan 绑定好参数的scan
+     *
+     * @return 新的scan
+     */
+    private Scan keyOnlyScan(Scan scan) throws IOException {
+        Scan keyOnlyScan = new Scan(scan);
+        FilterList filterList = new FilterList();
+        if (scan.getFilter() != null) {
+            filterList.addFilter(scan.getFilter());
+        } else {
+            filterList.addFilter(new FirstKeyOnlyFilter());
+        }
+        filterList.addFilter(new KeyOnlyFilter());
+        keyOnlyScan.setFilter(filterList);
+        return keyOnlyScan;
+    }
+
+    /**
+     * 根据查询计划估算行数
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     *
+     * @return 估算的行数
+     */
+    private long countApproximate(QlPlan plan, Object[] params) {
+        OperationMetrics operationMetrics = beginOperation("countApproximate", plan);
+        try {
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            if (rowKeys != null) {
+                return rowKeys.size();
+            }
+            if (scan.getFilter() != null) {
+                log.debug("估算行数不考虑过滤条件 {}", scan.getFilter());
+            }
+            TableName tableName = TableName.valueOf(plan.tableName);
+            try (Admin admin = config.connection.getAdmin();
+                 RegionLocator regionLocator = config.connection.getRegionLocator(tableName);) {
+                Map<byte[], RegionLoad> regionLoads = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+                ClusterStatus clusterStatus = admin.getClusterStatus();
+                for (ServerName serverName : clusterStatus.getServers()) {
+                    regionLoads.putAll(clusterStatus.getLoad(serverName).getRegionsLoad());
+                }
+                RowKeySalt salt = salt(plan.tableName);
+                List<Scan> rangeScans = salt == null ? Collections.singletonList(scan) : salt.bucketScans(scan);
+                double bytes = 0;
+                for (HRegionLocation location : regionLocator.getAllRegionLocations()) {
+                    HRegionInfo regionInfo = location.getRegionInfo();
+                    RegionLoad regionLoad = regionLoads.get(regionInfo.getRegionName());
+                    if (regionLoad == null) {
+                        continue;
+                    }
+                    double fraction = 0;
+                    for (Scan rangeScan : rangeScans) {
+                        // 逆序扫描的startRow是上界
+                        fraction += overlapFraction(regionInfo.getStartKey(), regionInfo.getEndKey(),
+                                rangeScan.isReversed() ? rangeScan.getStopRow() : rangeScan.getStartRow(),
+                                rangeScan.isReversed() ? rangeScan.getStartRow() : rangeScan.getStopRow());
+                    }
+                    bytes += fraction * (regionLoad.getStoreUncompressedSizeMB() + regionLoad.getMemStoreSizeMB())
+                            * 1024 * 1024;
+                }
+                if (bytes == 0) {
+                    return 0;
+                }
+                double rowBytes = sampleRowBytes(tableName, scan);
+                if (rowBytes == 0) {
+                    return 0;
+                }
+                log.debug("扫描范围约 {} 字节，平均行大小 {} 字节", (long) bytes, (long) rowBytes);
+                return Math.round(bytes / rowBytes);
+            } catch (IOException e) {
+                throw new RuntimeException(StrUtil.format("估算行数发生异常[{}]", plan.ql), e);
+            }
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
+        }
+    }
+
+    /**
+     * 采样计算扫描范围内的平均行大小
+     *
+     * @param tableName 表名
+     * @param scan      绑定好参数的scan
+     *
+     * @return 平均行大小（字节），没有数据时返回0
+     */
+    private double sampleRowBytes(TableName tableName, Scan scan) throws IOException {
+        Scan sampleScan = new Scan(scan);
+        sampleScan.setFilter(null);
+        sampleScan.setCaching(config.approximateCountSampleSize);
+        long rows = 0;
+        long bytes = 0;
+        try (Table table = config.connection.getTable(tableName);
+             ResultScanner scanner = getScanner(table, tableName.getNameAsString(), sampleScan);) {
+            Result result;
+            while (rows < config.approximateCountSampleSize && (result = scanner.next()) != null) {
+                for (Cell cell : result.rawCells()) {
+                    bytes += CellUtil.estimatedSerializedSizeOf(cell);
+                }
+                rows++;
+            }
+        } finally {
+            recordScan(sampleScan);
+        }
+        return rows == 0 ? 0 : (double) bytes / rows;
+    }
+
+    /**
+     * 计算扫描范围覆盖region的比例
+     *
+     * <pre>
+     * 把rowKey去掉region起止rowKey的公共前缀后，取8个字节换算为[0,1)之间的位置，按位置差计算比例
+     * </pre>
+     *
+     * @param regionStart region起始rowKey，空数组表示第一个region
+     * @param regionEnd   region结束rowKey，空数组表示最后一个region
+     * @param scanStart   扫描起始rowKey，空数组表示不限
+     * @param scanStop    扫描结束rowKey，空数组表示不限
+     *
+     * @return 比例，0到1之间
+     */
+    private double overlapFraction(byte[] regionStart, byte[] regionEnd, byte[] scanStart, byte[] scanStop) {
+        boolean startInside = scanStart.length > 0 && Bytes.compareTo(scanStart, regionStart) > 0;
+        boolean stopInside = scanStop.length > 0 && (regionEnd.length == 0 || Bytes.compareTo(scanStop, regionEnd) < 0);
+        if (startInside && regionEnd.length > 0 && Bytes.compareTo(scanStart, regionEnd) >= 0) {
+            return 0;
+        }
+        if (scanStop.length > 0 && Bytes.compareTo(scanStop, regionStart) <= 0) {
+            return 0;
+        }
+        if (!startInside && !stopInside) {
+            return 1;
+        }
+        int prefixLength = 0;
+        if (regionEnd.length > 0) {
+            while (prefixLength < regionStart.length && prefixLength < regionEnd.length
+                    && regionStart[prefixLength] == regionEnd[prefixLength]) {
+                prefixLength++;
+            }
+        }
+        double lo = startInside ? keyPosition(scanStart, prefixLength) : keyPosition(regionStart, prefixLength);
+        double hi = stopInside ? keyPosition(scanStop, prefixLength)
+                : (regionEnd.length == 0 ? 1 : keyPosition(regionEnd, prefixLength));
+        double regionLo = keyPosition(regionStart, prefixLength);
+        double regionHi = regionEnd.length == 0 ? 1 : keyPosition(regionEnd, prefixLength);
+        if (regionHi <= regionLo) {
+            return 1;
+        }
+        return Math.max(0, Math.min(1, (hi - lo) / (regionHi - regionLo)));
+    }
+
+    /**
+     * 把rowKey从offset开始的8个字节换算为[0,1)之间的位置
+     */
+    private double keyPosition(byte[] key, int offset) {
+        double position = 0;
+        double unit = 1;
+        for (int i = offset; i < offset + 8; i++) {
+            unit /= 256;
+            if (i < key.length) {
+                position += (key[i] & 0xff) * unit;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 根据查询计划查询
+     *
+     * @param plan                  查询计划
+     * @param params                绑定参数
+     * @param handler               根据scanner回调
+     * @param returnColumnTimestamp 返回列的插入时间
+     */
+    private void select(QlPlan plan, Object[] params, java.util.function.Consumer<Map<String, String>> rowHandler,
+                        Boolean returnColumnTimestamp) {
+        OperationMetrics operationMetrics = beginOperation("select", plan);
+        java.util.function.Consumer<Map<String, String>> handler = countRows(operationMetrics, rowHandler);
+        try {
+            if (plan.aggregates != null) {
+                aggregate(plan, params, handler);
+                return;
+            }
+            if (plan.latest) {
+                selectLatest(plan, params, null, handler, returnColumnTimestamp);
+                return;
+            }
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            if (rowKeys != null) {
+                selectRows(plan, scan, rowKeys, handler, returnColumnTimestamp);
+            } else {
+                selectScan(plan, scan, handler, returnColumnTimestamp);
+            }
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
+        }
+    }
+
+    /**
+     * 根据查询计划执行聚合查询
+     *
+     * <pre>
+     * 扫描范围按region拆分，并行做部分聚合，在调用线程中按rowKey顺序合并
+     * rowKey有序，同一个分组的数据是连续的，每个分区只需要保存当前分组，分组结束后立即交给调用线程，内存占用与分组数量无关
+     * 分区之间只有首尾两个分组可能相同，合并后再回调
+     * 只有count(*)且不分组时，Builder设置countUseCoprocessor(true)可以使用协处理器统计
+     * </pre>
+     *
+     * @param plan    查询计划
+     * @param params  绑定参数
+     * @param handler 每个分组回调一次，始终在调用线程中执行
+     */
+    private void aggregate(QlPlan plan, Object[] params, java.util.function.Consumer<Map<String, String>> handler) {
+        Scan scan = bindScan(plan, params);
+        List<byte[]> rowKeys = bindRowKeys(plan, params);
+        AggregateMerger merger = new AggregateMerger(plan, handler);
+        try {
+            if (rowKeys != null) {
+                List<Result> results = getRows(plan, scan, rowKeys);
+                aggregateResults(plan, results, null, merger::accept);
+            } else if (plan.groupByLength < 0 && plan.selectColumns.isEmpty()) {
+                // 只有count(*)，与count方法相同
+                AggregateGroup group = new AggregateGroup(null, plan.aggregates.size());
+                group.rows = config.countUseCoprocessor ? coprocessorRowCount(plan, scan) : countParallel(plan, scan);
+                merger.accept(group);
+            } else {
+                aggregateParallel(plan, scan, merger);
+            }
+        } catch (Throwable throwable) {
+            markError();
+            throw new RuntimeException(StrUtil.format("聚合查询发生异常[{}]", plan.ql), throwable);
+        }
+        merger.finish();
+    }
+
+    /**
+     * 按region拆分扫描范围，并行做部分聚合
+     *
+     * @param plan   查询计划
+     * @param scan   绑定好参数的scan
+     * @param merger 合并部分聚合结果
+     */
+    private void aggregateParallel(QlPlan plan, Scan scan, AggregateMerger merger) throws Exception {
+        TableName tableName = TableName.valueOf(plan.tableName);
+        // 只有count(*)时不需要列值
+        Scan aggregateScan = plan.selectColumns.isEmpty() ? keyOnlyScan(scan) : new Scan(scan);
+        aggregateScan.setCaching(config.countCaching);
+        aggregateScan.setCacheBlocks(false);// 聚合扫描的数据不放入block cache，避免挤掉热点数据
+        RowKeySalt salt = salt(plan.tableName);
+        if (salt != null) {
+            // 分组按逻辑rowKey前缀划分，同一个分组分散在所有桶中，按桶并行扫描后归并为逻辑顺序再聚合
+            try (ResultScanner scanner = new SaltedScanner(plan.tableName, aggregateScan, salt, true);) {
+                aggregateResults(plan, scanner, null, merger::accept);
+            } finally {
+                recordScan(aggregateScan);
+            }
+            return;
+        }
+        List<ScanPartition> partitions;
+        try (RegionLocator regionLocator = config.connection.getRegionLocator(tableName);) {
+            partitions = splitScan(scan, regionLocator.getStartEndKeys());
+        }
+        log.debug("聚合范围拆分为 {} 个region分区", partitions.size());
+
+        List<BlockingQueue<AggregateGroup>> queues = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            queues.add(new LinkedBlockingQueue<>(config.parallelScanQueueSize));
+        }
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        AtomicInteger nextPartition = new AtomicInteger(0);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        int workerSize = Math.min(Math.max(1, config.aggregateParallelism), partitions.size());
+        for (int w = 0; w < workerSize; w++) {
+            config.scanExecutor.execute(withOperation(() -> {
+                int index;
+                while (!stopped.get() && (index = nextPartition.getAndIncrement()) < partitions.size()) {
+                    BlockingQueue<AggregateGroup> queue = queues.get(index);
+                    ScanPartition partition = partitions.get(index);
+                    try {
+                        Scan partitionScan = new Scan(aggregateScan);
+                        partitionScan.setStartRow(partition.startRow);
+                        partitionScan.setStopRow(partition.stopRow);
+                        try (Table table = config.connection.getTable(tableName);
+                             ResultScanner scanner = table.getScanner(partitionScan);) {
+                            aggregateResults(plan, scanner, partition, group -> offer(queue, group, stopped));
+                        } finally {
+                            recordScan(partitionScan);
+                        }
+                    } catch (Exception e) {
+                        error.compareAndSet(null, e);
+                        stopped.set(true);
+                    }
+                    offer(queue, END_OF_GROUPS, stopped);
+                }
+            }));
+        }
+
+        try {
+            for (BlockingQueue<AggregateGroup> queue : queues) {
+                AggregateGroup group;
+                while ((group = poll(queue, stopped)) != null && group != END_OF_GROUPS) {
+                    if (!merger.accept(group)) {
+                        return;
+                    }
+                }
+                if (group == null) {
+                    break;
+                }
+            }
+        } finally {
+            stopped.set(true);
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * 按rowKey顺序聚合查询结果，分组结束后交给emit
+     *
+     * @param plan      查询计划
+     * @param results   按rowKey有序的查询结果
+     * @param partition 分区，按rowKey查询时为null
+     * @param emit      接收聚合完的分组，返回false时停止
+     */
+    private void aggregateResults(QlPlan plan, Iterable<Result> results, ScanPartition partition,
+                                  java.util.function.Predicate<AggregateGroup> emit) {
+        AggregateGroup group = null;
+        byte[] groupRowKey = null;
+        int groupKeyLength = 0;
+        for (Result result : results) {
+            if (result.isEmpty()) {
+                continue;
+            }
+            byte[] rowKey = result.getRow();
+            if (partition != null) {
+                if (partition.skipRow != null && Bytes.equals(rowKey, partition.skipRow)) {
+                    continue;
+                }
+                if (partition.lowerBound != null && Bytes.compareTo(rowKey, partition.lowerBound) < 0) {
+                    break;
+                }
+            }
+            if (plan.groupByLength < 0) {
+                if (group == null) {
+                    group = new AggregateGroup(null, plan.aggregates.size());
+                }
+            } else {
+                int keyLength = utf8PrefixLength(rowKey, plan.groupByLength);
+                if (group == null || keyLength != groupKeyLength
+                        || !Bytes.equals(rowKey, 0, keyLength, groupRowKey, 0, groupKeyLength)) {
+                    if (group != null && !emit.test(group)) {
+                        return;
+                    }
+                    group = new AggregateGroup(Bytes.toString(rowKey, 0, keyLength), plan.aggregates.size());
+                    groupRowKey = rowKey;
+                    groupKeyLength = keyLength;
+                }
+            }
+            group.add(plan, result);
+        }
+        if (group != null) {
+            emit.test(group);
+        }
+    }
+
+    /**
+     * 计算rowKey前length个字符占用的字节数，rowKey按utf-8编码
+     */
+    private int utf8PrefixLength(byte[] rowKey, int length) {
+        int chars = 0;
+        for (int i = 0; i < rowKey.length; i++) {
+            if ((rowKey[i] & 0xC0) != 0x80 && chars++ == length) {
+                return i;
+            }
+        }
+        return rowKey.length;
+    }
+
+    /**
+     * 聚合查询的一个查询项
+     */
+    private static class Aggregate {
+        private String name;// 返回的列名，有别名时使用别名
+        private String function;// 聚合函数，分组表达式为GROUP_KEY
+        private byte[] qualifier;// 聚合的列，count(*)为null
+    }
+
+    /**
+     * 一个分组的部分聚合结果，可以合并
+     */
+    private static class AggregateGroup {
+        private final String key;// 分组的rowKey前缀，不分组时为null
+        private long rows;
+        private final long[] counts;
+        private final java.math.BigDecimal[] sums;
+        private final double[] squareSums;
+        private final double[] mins;
+        private final double[] maxs;
+        private final String[] minValues;
+        private final String[] maxValues;
+
+        private AggregateGroup(String key, int size) {
+            this.key = key;
+            counts = new long[size];
+            sums = new java.math.BigDecimal[size];
+            Arrays.fill(sums, java.math.BigDecimal.ZERO);
+            squareSums = new double[size];
+            mins = new double[size];
+            maxs = new double[size];
+            minValues = new String[size];
+            maxValues = new String[size];
+        }
+
+        /**
+         * 聚合一行，列值不是十进制数字时跳过
+         */
+        private void add(QlPlan plan, Result result) {
+            rows++;
+            for (int i = 0; i < plan.aggregates.size(); i++) {
+                Aggregate aggregate = plan.aggregates.get(i);
+                if (aggregate.qualifier == null) {
+                    continue;
+                }
+                Cell cell = result.getColumnLatestCell(plan.familyNameBytes, aggregate.qualifier);
+                if (cell == null) {
+                    continue;
+                }
+                if (aggregate.function.equals("count")) {
+                    counts[i]++;
+                    continue;
+                }
+                String text = StrUtil.trim(Bytes.toString(cell.getValueArray(), cell.getValueOffset(),
+                        cell.getValueLength()));
+                java.math.BigDecimal decimal;
+                try {
+                    decimal = new java.math.BigDecimal(text);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                double value = decimal.doubleValue();
+                if (Double.isInfinite(value)) {
+                    continue;
+                }
+                counts[i]++;
+                switch (aggregate.function) {
+                    case "min":
+                        if (minValues[i] == null || value < mins[i]) {
+                            mins[i] = value;
+                            minValues[i] = text;
+                        }
+                        break;
+                    case "max":
+                        if (maxValues[i] == null || value > maxs[i]) {
+                            maxs[i] = value;
+                            maxValues[i] = text;
+                        }
+                        break;
+                    default:
+                        sums[i] = sums[i].add(decimal);
+                        squareSums[i] += value * value;
+                }
+            }
+        }
+
+        /**
+         * 合并同一个分组的另一部分聚合结果
+         */
+        private void merge(AggregateGroup other) {
+            rows += other.rows;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+                sums[i] = sums[i].add(other.sums[i]);
+                squareSums[i] += other.squareSums[i];
+                if (other.minValues[i] != null && (minValues[i] == null || other.mins[i] < mins[i])) {
+                    mins[i] = other.mins[i];
+                    minValues[i] = other.minValues[i];
+                }
+                if (other.maxValues[i] != null && (maxValues[i] == null || other.maxs[i] > maxs[i])) {
+                    maxs[i] = other.maxs[i];
+                    maxValues[i] = other.maxValues[i];
+                }
+            }
+        }
+
+        /**
+         * 转换为一行结果，没有值的聚合项不返回
+         */
+        private Map<String, String> toRow(List<Aggregate> aggregates) {
+            Map<String, String> row = new LinkedHashMap<>();
+            for (int i = 0; i < aggregates.size(); i++) {
+                Aggregate aggregate = aggregates.get(i);
+                String value = null;
+                switch (aggregate.function) {
+                    case GROUP_KEY:
+                        value = key;
+                        break;
+                    case "count":
+                        value = String.valueOf(aggregate.qualifier == null ? rows : counts[i]);
+                        break;
+                    case "min":
+                        value = minValues[i];
+                        break;
+                    case "max":
+                        value = maxValues[i];
+                        break;
+                    case "sum":
+                        value = counts[i] == 0 ? null : sums[i].toPlainString();
+                        break;
+                    case "avg":
+                        value = counts[i] == 0 ? null : sums[i].divide(java.math.BigDecimal.valueOf(counts[i]),
+                                java.math.MathContext.DECIMAL64).stripTrailingZeros().toPlainString();
+                        break;
+                    case "std":
+                        if (counts[i] > 0) {
+                            double mean = sums[i].doubleValue() / counts[i];
+                            double variance = Math.max(0, squareSums[i] / counts[i] - mean * mean);
+                            value = NumberUtil.toStr(Math.sqrt(variance));
+                        }
+                        break;
+                    default:
+                }
+                if (value != null) {
+                    row.put(aggregate.name, value);
+                }
+            }
+            return row;
+        }
+    }
+
+    /**
+     * 在调用线程中按顺序合并部分聚合结果，相同分组合并后回调
+     */
+    private class AggregateMerger {
+        private final QlPlan plan;
+        private final java.util.function.Consumer<Map<String, String>> handler;
+        private AggregateGroup pending;// 等待与下一个分区首个分组合并的分组
+        private int emitted = 0;
+        private boolean stopped = false;
+
+        private AggregateMerger(QlPlan plan, java.util.function.Consumer<Map<String, String>> handler) {
+            this.plan = plan;
+            this.handler = handler;
+        }
+
+        /**
+         * 接收一个分组
+         *
+         * @return 是否需要继续
+         */
+        private boolean accept(AggregateGroup group) {
+            if (stopped) {
+                return false;
+            }
+            if (pending != null && Objects.equals(pending.key, group.key)) {
+                pending.merge(group);
+                return true;
+            }
+            if (pending != null) {
+                emit(pending);
+            }
+            pending = group;
+            return !stopped;
+        }
+
+        /**
+         * 回调最后一个分组，不分组且没有数据时也返回一行
+         */
+        private void finish() {
+            if (stopped) {
+                return;
+            }
+            if (pending == null && plan.groupByLength < 0) {
+                pending = new AggregateGroup(null, plan.aggregates.size());
+            }
+            if (pending != null) {
+                emit(pending);
+            }
+        }
+
+        private void emit(AggregateGroup group) {
+            pending = null;
+            try {
+                handler.accept(group.toRow(plan.aggregates));
+            } catch (Exception e) {
+                log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                stopped = true;
+                return;
+            }
+            if (++emitted == plan.pageSize) {
+                stopped = true;
+            }
+        }
+    }
+
+    /**
+     * 查询每个rowKey前缀的最后一行
+     *
+     * <pre>
+     * 每个前缀一个逆序的small scan，打开、读取、关闭在一次rpc中完成，用有限的并发同时执行，代替逐个前缀打开scanner
+     * 指定前缀时，每个前缀的范围是 [前缀, 前缀的结束行) 与查询范围的交集，按传入的顺序回调
+     * 没有指定前缀时跳跃扫描：从范围末尾取最后一行，得到它的前缀后从前缀之前继续取最后一行，直到范围开头，
+     * 每一步只读取一行，跳过前缀内其余的行；范围按region边界拆分，每个region一条跳跃链并行执行，在调用线程中按前缀顺序合并
+     * </pre>
+     *
+     * @param plan                  查询计划
+     * @param params                绑定参数
+     * @param prefixes              rowKey前缀，为null时跳跃扫描查找所有前缀
+     * @param handler               每个前缀回调一次，始终在调用线程中执行
+     * @param returnColumnTimestamp 返回列的插入时间
+     */
+    private void selectLatest(QlPlan plan, Object[] params, List<byte[]> prefixes,
+                              java.util.function.Consumer<Map<String, String>> handler, Boolean returnColumnTimestamp) {
+        Scan scan = bindScan(plan, params);
+        byte[] lower;// 包含
+        byte[] upper;// 不包含，空数组表示到表末尾
+        if (!scan.isReversed()) {
+            lower = scan.getStartRow();
+            upper = scan.getStopRow();
+        } else {
+            // 逆序扫描startRow包含、stopRow不包含，紧挨着的下一个rowKey是末尾加一个0字节
+            lower = scan.getStopRow().length == 0 ? HConstants.EMPTY_START_ROW : Bytes.add(scan.getStopRow(), new byte[1]);
+            upper = scan.getStartRow().length == 0 ? HConstants.EMPTY_END_ROW : Bytes.add(scan.getStartRow(), new byte[1]);
+        }
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        List<Callable<List<Result>>> tasks = new ArrayList<>();
+        LatestMerger merger = new LatestMerger(plan, prefixes == null ? plan.groupByLength : -1, handler,
+                returnColumnTimestamp);
+        try {
+            Scan latestScan = new Scan(scan);
+            latestScan.setReversed(true);
+            latestScan.setSmall(true);
+            if (config.canSetCaching) {
+                latestScan.setCaching(2);// 第一行可能正好是不包含的上界
+            }
+            if (prefixes != null) {
+                for (byte[] prefix : prefixes) {
+                    byte[] prefixLower = Bytes.compareTo(prefix, lower) > 0 ? prefix : lower;
+                    byte[] prefixUpper = minStopRow(prefixStopRow(prefix), upper);
+                    tasks.add(() -> {
+                        try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));) {
+                            Result result = lastRow(table, plan.tableName, latestScan, prefixLower, prefixUpper);
+                            return result == null ? Collections.emptyList() : Collections.singletonList(result);
+                        }
+                    });
+                }
+            } else {
+                List<byte[][]> partitions = latestPartitions(plan, lower, upper);
+                log.debug("跳跃扫描范围拆分为 {} 个region分区", partitions.size());
+                for (byte[][] partition : partitions) {
+                    tasks.add(() -> skipScan(plan, latestScan, partition[0], partition[1], stopped));
+                }
+                if (plan.reversed) {
+                    Collections.reverse(tasks);// 降序回调时从最后一个分区开始
+                }
+            }
+            runLatest(tasks, stopped, results -> {
+                if (prefixes == null && !plan.reversed) {// 跳跃链从后向前，升序回调时反向合并
+                    for (int i = results.size() - 1; i >= 0; i--) {
+                        if (!merger.accept(results.get(i))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                for (Result result : results) {
+                    if (!merger.accept(result)) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } catch (Exception e) {
+            markError();
+            throw new RuntimeException(StrUtil.format("查询每个rowKey前缀的最后一行发生异常[{}]", plan.ql), e);
+        }
+        merger.finish();
+    }
+
+    /**
+     * 两个不包含的结束行中较小的一个，空数组表示到表末尾
+     */
+    private byte[] minStopRow(byte[] stopRow1, byte[] stopRow2) {
+        if (stopRow1.length == 0) {
+            return stopRow2;
+        }
+        if (stopRow2.length == 0) {
+            return stopRow1;
+        }
+        return Bytes.compareTo(stopRow1, stopRow2) <= 0 ? stopRow1 : stopRow2;
+    }
+
+    /**
+     * 跳跃扫描按region边界拆分的分区，每个分区是 [下界, 上界)
+     *
+     * <pre>
+     * 不分组时只需要一行，不拆分；加盐分桶的表每一步已经在所有桶上并行扫描，不拆分
+     * </pre>
+     */
+    private List<byte[][]> latestPartitions(QlPlan plan, byte[] lower, byte[] upper) throws IOException {
+        List<byte[][]> partitions = new ArrayList<>();
+        byte[] start = lower;
+        if (plan.groupByLength > 0 && salt(plan.tableName) == null) {
+            try (RegionLocator regionLocator = config.connection.getRegionLocator(TableName.valueOf(plan.tableName));) {
+                for (byte[] startKey : regionLocator.getStartKeys()) {
+                    if (Bytes.compareTo(startKey, start) > 0 && (upper.length == 0 || Bytes.compareTo(startKey, upper) < 0)) {
+                        partitions.add(new byte[][]{start, startKey});
+                        start = startKey;
+                    }
+                }
+            }
+        }
+        partitions.add(new byte[][]{start, upper});
+        return partitions;
+    }
+
+    /**
+     * 一个分区内的跳跃扫描，从后向前每个前缀取最后一行
+     *
+     * @param plan       查询计划
+     * @param latestScan 逆序的small scan模板
+     * @param lower      下界，包含
+     * @param upper      上界，不包含，空数组表示到表末尾
+     * @param stopped    是否已经停止
+     *
+     * @return 每个前缀的最后一行，按rowKey降序
+     */
+    private List<Result> skipScan(QlPlan plan, Scan latestScan, byte[] lower, byte[] upper, AtomicBoolean stopped)
+            throws IOException {
+        List<Result> results = new ArrayList<>();
+        try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));) {
+            while (true) {
+                if (stopped.get()) {
+                    throw new CancellationException("跳跃扫描已停止");
+                }
+                Result result = lastRow(table, plan.tableName, latestScan, lower, upper);
+                if (result == null) {
+                    break;
+                }
+                results.add(result);
+                if (plan.groupByLength < 0) {
+                    break;
+                }
+                // 同一个前缀的行都不小于前缀本身，下一步从前缀之前开始
+                byte[] rowKey = result.getRow();
+                upper = Bytes.copy(rowKey, 0, utf8PrefixLength(rowKey, plan.groupByLength));
+                if (upper.length == 0 || Bytes.compareTo(upper, lower) <= 0) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 范围内满足条件的最后一行
+     *
+     * <pre>
+     * 逆序扫描的startRow包含、stopRow不包含，与 [lower, upper) 正好相反
+     * 等于upper的行与比lower小一点的行在客户端排除
+     * </pre>
+     *
+     * @param table      表
+     * @param tableName  表名
+     * @param latestScan 逆序的small scan模板
+     * @param lower      下界，包含，空数组表示从表开头
+     * @param upper      上界，不包含，空数组表示到表末尾
+     *
+     * @return 最后一行，没有时返回null
+     */
+    private Result lastRow(Table table, String tableName, Scan latestScan, byte[] lower, byte[] upper)
+            throws IOException {
+        if (upper.length > 0 && Bytes.compareTo(lower, upper) >= 0) {
+            return null;
+        }
+        Scan scan = new Scan(latestScan);
+        scan.setStartRow(upper);
+        byte[] stopRow = lower;
+        if (lower.length > 0) {
+            // 比lower小的rowKey：末尾是0时去掉末尾正好是前一个rowKey，否则末尾减一
+            stopRow = Bytes.copy(lower, 0, lower[lower.length - 1] == 0 ? lower.length - 1 : lower.length);
+            if (stopRow.length == lower.length) {
+                stopRow[stopRow.length - 1]--;
+            }
+        }
+        scan.setStopRow(stopRow);
+        try (ResultScanner scanner = getScanner(table, tableName, scan);) {
+            Result result;
+            while ((result = scanner.next()) != null) {
+                byte[] rowKey = result.getRow();
+                if (upper.length > 0 && Bytes.compareTo(rowKey, upper) >= 0) {
+                    continue;
+                }
+                return Bytes.compareTo(rowKey, lower) >= 0 ? result : null;
+            }
+            return null;
+        } finally {
+            recordScan(scan);
+        }
+    }
+
+    /**
+     * 用有限的并发执行一批小扫描，在调用线程中按任务顺序处理结果
+     *
+     * <pre>
+     * 工作线程按顺序领取任务，停止后领取到的任务直接取消，所以每个任务都会结束，调用线程按顺序等待不会卡住
+     * </pre>
+     *
+     * @param tasks    任务，返回查询到的行
+     * @param stopped  是否已经停止
+     * @param consumer 按任务顺序处理结果，返回false时停止
+     */
+    private void runLatest(List<Callable<List<Result>>> tasks, AtomicBoolean stopped,
+                           java.util.function.Predicate<List<Result>> consumer) throws Exception {
+        List<CompletableFuture<List<Result>>> futures = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        AtomicInteger nextTask = new AtomicInteger(0);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        int workerSize = Math.min(Math.max(1, config.latestParallelism), tasks.size());
+        for (int w = 0; w < workerSize; w++) {
+            config.scanExecutor.execute(withOperation(() -> {
+                int index;
+                while ((index = nextTask.getAndIncrement()) < tasks.size()) {
+                    CompletableFuture<List<Result>> future = futures.get(index);
+                    if (stopped.get()) {
+                        future.cancel(false);
+                        continue;
+                    }
+                    try {
+                        future.complete(tasks.get(index).call());
+                    } catch (Exception e) {
+                        if (!stopped.getAndSet(true)) {
+                            error.compareAndSet(null, e);
+                        }
+                        future.completeExceptionally(e);
+                    }
+                }
+            }));
+        }
+        try {
+            for (CompletableFuture<List<Result>> future : futures) {
+                List<Result> results;
+                try {
+                    results = future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+                if (!consumer.test(results)) {
+                    break;
+                }
+            }
+        } finally {
+            stopped.set(true);
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * 按前缀顺序回调每个前缀的最后一行
+     *
+     * <pre>
+     * 跳跃扫描时一个前缀可能跨两个region分区，两个分区各查到一行，相邻时只保留rowKey较大的一行
+     * </pre>
+     */
+    private class LatestMerger {
+        private final QlPlan plan;
+        private final int groupByLength;// 按前多少个字符判断前缀相同，-1表示不合并
+        private final java.util.function.Consumer<Map<String, String>> handler;
+        private final Boolean returnColumnTimestamp;
+        private final QualifierCache qualifierCache = new QualifierCache();
+        private Result pending;// 等待与下一行比较前缀的行
+        private int emitted = 0;
+        private boolean stopped = false;
+
+        private LatestMerger(QlPlan plan, int groupByLength, java.util.function.Consumer<Map<String, String>> handler,
+                             Boolean returnColumnTimestamp) {
+            this.plan = plan;
+            this.groupByLength = groupByLength;
+            this.handler = handler;
+            this.returnColumnTimestamp = returnColumnTimestamp;
+        }
+
+        /**
+         * 接收一行
+         *
+         * @return 是否需要继续
+         */
+        private boolean accept(Result result) {
+            if (stopped) {
+                return false;
+            }
+            if (pending != null && groupByLength > 0 && samePrefix(pending.getRow(), result.getRow())) {
+                if (Bytes.compareTo(result.getRow(), pending.getRow()) > 0) {
+                    pending = result;
+                }
+                return true;
+            }
+            if (pending != null) {
+                emit(pending);
+            }
+            pending = result;
+            return !stopped;
+        }
+
+        private boolean samePrefix(byte[] rowKey1, byte[] rowKey2) {
+            int length1 = utf8PrefixLength(rowKey1, groupByLength);
+            int length2 = utf8PrefixLength(rowKey2, groupByLength);
+            return Bytes.equals(rowKey1, 0, length1, rowKey2, 0, length2);
+        }
+
+        /**
+         * 回调最后一行
+         */
+        private void finish() {
+            if (!stopped && pending != null) {
+                emit(pending);
+            }
+        }
+
+        private void emit(Result result) {
+            pending = null;
+            Map<String, String> row = toRow(plan, result, returnColumnTimestamp, qualifierCache);
+            if (row == null) {
+                return;
+            }
+            try {
+                handler.accept(row);
+            } catch (Exception e) {
+                log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                stopped = true;
+                return;
+            }
+            if (++emitted == plan.pageSize) {
+                stopped = true;
+            }
+        }
+    }
+
+    /**
+     * 使用get按rowKey查询
+     *
+     * @param plan                  查询计划
+     * @param scan                  绑定好参数的scan，使用其中的列与过滤器
+     * @param rowKeys               rowKey集合
+     * @param handler               根据查询结果回调
+     * @param returnColumnTimestamp 返回列的插入时间
+     */
+    private void selectRows(QlPlan plan, Scan scan, List<byte[]> rowKeys,
+                            java.util.function.Consumer<Map<String, String>> handler, Boolean returnColumnTimestamp) {
+        List<Result> results;
+        try {
+            results = getRows(plan, scan, rowKeys);
+        } catch (Exception e) {
+            markError();
+            log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return;
+        }
+        int i = 0;
+        QualifierCache qualifierCache = new QualifierCache();
+        for (Result result : results) {
+            Map<String, String> row = toRow(plan, result, returnColumnTimestamp, qualifierCache);
+            if (row == null) {
+                continue;
+            }
+            try {
+                handler.accept(row);
+            } catch (Exception e) {
+                log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                break;
+            }
+            if (++i == plan.pageSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 使用绑定好参数的Scan查询
+     *
+     * @param plan                  查询计划
+     * @param scan                  绑定好参数的scan
+     * @param handler               根据scanner回调
+     * @param returnColumnTimestamp 返回列的插入时间
+     */
+    private void selectScan(QlPlan plan, Scan scan, java.util.function.Consumer<Map<String, String>> handler,
+                            Boolean returnColumnTimestamp) {
+        int pageSize = plan.pageSize;
+        try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));
+             ResultScanner scanner = getScanner(table, plan.tableName, scan);) {
+            int i = 0;
+            QualifierCache qualifierCache = new QualifierCache();
+            for (Result result : scanner) {
+                Map<String, String> row = toRow(plan, result, returnColumnTimestamp, qualifierCache);
+                if (row == null) {
+                    continue;
+                }
+                try {
+                    handler.accept(row);
+                } catch (Exception e) {
+                    log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                    break;
+                }
+                if (++i == pageSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            markError();
+            log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+        } finally {
+            recordScan(scan);
+        }
+    }
+
+    /**
+     * 把一行查询结果转换为map
+     *
+     * <pre>
+     * 直接从cell底层数组的偏移量解码，不复制列名与列值的字节数组
+     * 列名通过本次查询的列名缓存复用同一个字符串
+     * </pre>
+     *
+     * @param plan                  查询计划
+     * @param result                查询结果
+     * @param returnColumnTimestamp 返回列的插入时间
+     * @param qualifierCache        本次查询的列名缓存
+     *
+     * @return 行数据，包含rowKey与所有非空列；不满足客户端比较条件时返回null
+     */
+    Map<String, String> toRow(QlPlan plan, Result result, Boolean returnColumnTimestamp,
+                              QualifierCache qualifierCache) {
+        if (plan.residual != null && !plan.residual.test(result)) {
+            recordFiltered();
+            return null;
+        }
+        Set<String> selectColumnSet = plan.selectColumnSet;
+        boolean returnTimestamp = BooleanUtil.isTrue(returnColumnTimestamp);
+        Cell[] cells = result.rawCells();
+        Map<String, String> row = new HashMap<>(cells == null ? 2 : (int) ((cells.length + 1) / 0.75f) + 1);
+        row.put(ROW_KEY_NAME, Bytes.toString(result.getRow()));
+        if (cells == null) {
+            return row;
+        }
+        for (Cell cell : cells) {// 循环所有列
+            int valueLength = cell.getValueLength();
+            if (valueLength == 0) {
+                continue;
+            }
+            String columnName = qualifierCache.get(cell.getQualifierArray(), cell.getQualifierOffset(),
+                    cell.getQualifierLength());// 列名
+            if (columnName.equals(ROW_KEY_NAME)) {
+                continue;
+            }
+            if (!selectColumnSet.isEmpty() && !selectColumnSet.contains(columnName)) {
+                continue;
+            }
+            String value = Bytes.toString(cell.getValueArray(), cell.getValueOffset(), valueLength);// 列值
+            if (StrUtil.isBlank(value)) {
+                continue;
+            }
+            if (returnTimestamp) {
+                row.put(columnName, new DateTime(cell.getTimestamp()).toString(DatePattern.NORM_DATETIME_MS_FORMAT));
+            } else {
+                row.put(columnName, value);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * 列名缓存，一次查询中相同的列名只解码一次
+     *
+     * <pre>
+     * 开放寻址哈希表，直接使用cell底层数组的偏移量查找，命中时不产生新对象
+     * 不是线程安全的，每个扫描线程使用自己的缓存
+     * </pre>
+     */
+    static class QualifierCache {
+        private static final int MAX_SIZE = 4096;// 最多缓存的列名数量，超过后不再缓存
+        private byte[][] keys = new byte[64][];
+        private String[] values = new String[64];
+        private int size = 0;
+
+        private String get(byte[] array, int offset, int length) {
+            int mask = keys.length - 1;
+            int index = Bytes.hashCode(array, offset, length) & mask;
+            while (keys[index] != null) {
+                byte[] key = keys[index];
+                if (Bytes.equals(key, 0, key.length, array, offset, length)) {
+                    return values[index];
+                }
+                index = (index + 1) & mask;
+            }
+            String value = Bytes.toString(array, offset, length);
+            if (size < MAX_SIZE) {
+                keys[index] = Arrays.copyOfRange(array, offset, offset + length);
+                values[index] = value;
+                if (++size * 2 > keys.length) {
+                    resize();
+                }
+            }
+            return value;
+        }
+
+        /**
+         * 扩容为原来的两倍，保证装载因子不超过0.5
+         */
+        private void resize() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int index = Bytes.hashCode(oldKeys[i], 0, oldKeys[i].length) & mask;
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * 根据查询计划流式查询
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     *
+     * @return 行数据流，使用完毕必须关闭
+     */
+    private java.util.stream.Stream<Map<String, String>> selectStream(QlPlan plan, Object[] params) {
+        if (plan.aggregates != null || plan.latest) {
+            List<Map<String, String>> rows = new ArrayList<>();
+            select(plan, params, rows::add, null);
+            return rows.stream();
+        }
+        // 流在方法返回后才被消费，指标在流关闭时记录，不绑定到当前线程
+        OperationMetrics operationMetrics = beginOperation("selectStream", plan);
+        try {
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            if (rowKeys != null) {
+                List<Result> results;
+                try {
+                    results = getRows(plan, scan, rowKeys);
+                } catch (Exception e) {
+                    markError();
+                    log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                    throw new RuntimeException("查询数据发生异常", e);
+                }
+                QualifierCache qualifierCache = new QualifierCache();
+                return results.stream().map(result -> toRow(plan, result, null, qualifierCache))
+                        .filter(Objects::nonNull).limit(plan.pageSize).peek(row -> {
+                            if (operationMetrics != null) {
+                                operationMetrics.rows.increment();
+                                operationMetrics.cells.add(row.size() - 1);
+                            }
+                        }).onClose(() -> endOperation(operationMetrics));
+            }
+            RowIterator iterator;
+            try {
+                iterator = new RowIterator(plan, scan, operationMetrics);
+            } catch (IOException e) {
+                markError();
+                log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                throw new RuntimeException("查询数据发生异常", e);
+            }
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+                iterator.close();
+                endOperation(operationMetrics);
+            });
+        } catch (RuntimeException e) {
+            markError();
+            endOperation(operationMetrics);
+            throw e;
+        } finally {
+            if (operationMetrics != null) {
+                config.currentOperation.remove();
+            }
+        }
+    }
+
+    /**
+     * 根据查询计划可恢复查询
+     *
+     * @param plan           查询计划
+     * @param params         绑定参数
+     * @param handler        根据scanner回调
+     * @param checkpointFile 检查点文件路径，为null时不保存
+     *
+     * @return 查询结果
+     */
+    private ScanReport selectResumable(QlPlan plan, Object[] params,
+                                       java.util.function.Consumer<Map<String, String>> rowHandler,
+                                       String checkpointFile) {
+        OperationMetrics operationMetrics = beginOperation("selectResumable", plan);
+        java.util.function.Consumer<Map<String, String>> handler = countRows(operationMetrics, rowHandler);
+        try {
+            if (plan.aggregates != null || plan.latest) {
+                throw new RuntimeException(StrUtil.format("聚合查询不支持可恢复查询[{}]", plan.ql));
+            }
+            int planHash = Objects.hash(plan.ql, plan.columnCanMissingList, Arrays.deepHashCode(params));
+            ScanReport report = new ScanReport();
+            if (checkpointFile != null && FileUtil.exist(checkpointFile)) {
+                readCheckpoint(plan, planHash, checkpointFile, report);
+                log.info("从检查点 {} 继续查询 {}", checkpointFile, report);
+                if (report.completed) {
+                    return report;
+                }
+            }
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            QualifierCache qualifierCache = new QualifierCache();
+            if (rowKeys != null) {
+                if (report.lastRowKey != null) {
+                    rowKeys.removeIf(rowKey -> plan.reversed ? Bytes.compareTo(rowKey, report.lastRowKey) >= 0
+                            : Bytes.compareTo(rowKey, report.lastRowKey) <= 0);
+                }
+                // 按rowKey查询不会有scanner超时，不需要重试
+                try {
+                    for (Result result : getRows(plan, bindScan(plan, params), rowKeys)) {
+                        Map<String, String> row = toRow(plan, result, null, qualifierCache);
+                        if (row != null) {
+                            handler.accept(row);
+                            report.rows++;
+                        }
+                        report.lastRowKey = result.getRow();
+                        if (report.rows == plan.pageSize) {
+                            break;
+                        }
+                    }
+                    report.completed = true;
+                } catch (Exception e) {
+                    markError();
+                    log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                    report.error = e;
+                }
+                writeCheckpoint(plan, planHash, checkpointFile, report);
+                return report;
+            }
+            int failures = 0;
+            long lastCheckpointRows = report.rows;
+            while (true) {
+                Scan scan = bindScan(plan, params);
+                byte[] resumeRowKey = report.lastRowKey;
+                if (resumeRowKey != null) {
+                    scan.setStartRow(scan.isReversed() ? resumeRowKey : Bytes.add(resumeRowKey, new byte[]{0}));
+                }
+                try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));
+                     ResultScanner scanner = getScanner(table, plan.tableName, scan);) {
+                    Result result;
+                    while (report.rows < plan.pageSize && (result = scanner.next()) != null) {
+                        byte[] rowKey = result.getRow();
+                        if (resumeRowKey != null && scan.isReversed() && Bytes.equals(rowKey, resumeRowKey)) {
+                            continue;
+                        }
+                        Map<String, String> row = toRow(plan, result, null, qualifierCache);
+                        if (row != null) {
+                            try {
+                                handler.accept(row);
+                            } catch (Exception e) {
+                                log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                                report.error = e;
+                                writeCheckpoint(plan, planHash, checkpointFile, report);
+                                return report;
+                            }
+                            report.rows++;
+                        }
+                        report.lastRowKey = rowKey;// 不满足客户端条件的行也已经处理过，重试时不需要再查询
+                        failures = 0;
+                        if (checkpointFile != null && report.rows - lastCheckpointRows >= config.checkpointInterval) {
+                            writeCheckpoint(plan, planHash, checkpointFile, report);
+                            lastCheckpointRows = report.rows;
+                        }
+                    }
+                    report.completed = true;
+                    report.error = null;
+                    break;
+                } catch (Exception e) {
+                    report.error = e;
+                    if (!isRecoverableScanError(e)) {
+                        markError();
+                        log.error("查询数据发生不可恢复的异常，不再重试 {}", ExceptionUtil.stacktraceToString(e));
+                        break;
+                    }
+                    if (failures >= config.scanMaxRetries) {
+                        markError();
+                        log.error("查询数据发生异常，重试 {} 次后放弃 {}", failures, ExceptionUtil.stacktraceToString(e));
+                        break;
+                    }
+                    long backoff = config.scanRetryBackoff;
+                    for (int i = 0; i < failures && backoff < config.scanRetryMaxBackoff; i++) {
+                        backoff <<= 1;
+                    }
+                    backoff = Math.min(backoff, config.scanRetryMaxBackoff);
+                    failures++;
+                    report.retries++;
+                    log.warn("查询中断，{} 毫秒后从 {} 之后重新打开scanner，第 {} 次重试 {}", backoff, report.getLastRowKey(),
+                            failures, e.toString());
+                    ThreadUtil.sleep(backoff);
+                } finally {
+                    recordScan(scan);
+                }
+            }
+            writeCheckpoint(plan, planHash, checkpointFile, report);
+            log.debug("可恢复查询结束 {}", report);
+            return report;
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
+        }
+    }
+
+    /**
+     * 可恢复查询中断时，重新打开scanner能否继续
+     *
+     * <pre>
+     * scanner超时、scanner已经被region server清除、rpc顺序错乱，客户端不会自己重试，重新打开scanner可以继续
+     * 其他DoNotRetryIOException，例如表不存在、列簇不存在，重试也会同样失败
+     * 最里层不是io异常时，例如客户端比较条件、解码等错误，重试也会同样失败
+     * </pre>
+     *
+     * @param e 异常
+     *
+     * @return 是否重试
+     */
+    private static boolean isRecoverableScanError(Throwable e) {
+        Throwable root = e;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ScannerTimeoutException || cause instanceof UnknownScannerException
+                    || cause instanceof OutOfOrderScannerNextException || cause instanceof LeaseException) {
+                return true;
+            }
+            if (cause instanceof DoNotRetryIOException) {
+                return false;
+            }
+            root = cause;
+        }
+        return root instanceof IOException;
+    }
+
+    /**
+     * 读取检查点
+     */
+    private void readCheckpoint(QlPlan plan, int planHash, String checkpointFile, ScanReport report) {
+        Properties properties = new Properties();
+        try (Reader reader = FileUtil.getUtf8Reader(checkpointFile)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new RuntimeException(StrUtil.format("读取检查点[{}]失败", checkpointFile), e);
+        }
+        String token = properties.getProperty("token");
+        if (StrUtil.isNotBlank(token)) {
+            try {
+                report.lastRowKey = parsePageToken(plan, planHash, token);
+            } catch (RuntimeException e) {
+                throw new RuntimeException(StrUtil.format("检查点[{}]与查询语句不匹配[{}]", checkpointFile, plan.ql), e);
+            }
+        }
+        report.rows = Long.parseLong(properties.getProperty("rows", "0"));
+        report.completed = Boolean.parseBoolean(properties.getProperty("completed"));
+    }
+
+    /**
+     * 保存检查点，先写临时文件再替换，避免写一半时进程退出导致检查点损坏
+     */
+    private void writeCheckpoint(QlPlan plan, int planHash, String checkpointFile, ScanReport report) {
+        if (checkpointFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("ql", plan.ql);
+        properties.setProperty("token", report.lastRowKey == null ? ""
+                : pageToken(plan.reversed, planHash, report.lastRowKey));
+        properties.setProperty("rows", String.valueOf(report.rows));
+        properties.setProperty("completed", String.valueOf(report.completed));
+        File file = FileUtil.file(checkpointFile);
+        File tmp = FileUtil.file(checkpointFile + ".tmp");
+        try {
+            FileUtil.mkParentDirs(file);
+            try (Writer writer = FileUtil.getWriter(tmp, CharsetUtil.CHARSET_UTF_8, false)) {
+                properties.store(writer, null);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            markError();
+            log.error("保存检查点 {} 失败 {}", checkpointFile, ExceptionUtil.stacktraceToString(e));
+        }
+    }
+
+    /**
+     * 根据查询计划分页查询
+     *
+     * <pre>
+     * 多查询一条判断是否还有下一页，下一页从本页最后一条的rowKey之后开始
+     * 正序时起始行是最后一个rowKey后面加0x00，逆序时起始行是最后一个rowKey本身，查询到后跳过
+     * </pre>
+     *
+     * @param plan   查询计划
+     * @param params 绑定参数
+     * @param token  上一页返回的nextToken，第一页为null
+     *
+     * @return 本页数据与下一页的token
+     */
+    private Page selectPage(QlPlan plan, Object[] params, String token) {
+        OperationMetrics operationMetrics = beginOperation("selectPage", plan);
+        try {
+            if (plan.aggregates != null || plan.latest) {
+                throw new RuntimeException(StrUtil.format("聚合查询不支持分页[{}]", plan.ql));
+            }
+            int planHash = Objects.hash(plan.ql, plan.columnCanMissingList, Arrays.deepHashCode(params));
+            byte[] lastRowKey = token == null ? null : parsePageToken(plan, planHash, token);
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            boolean reversed = scan.isReversed();
+            List<Map<String, String>> rows = new ArrayList<>();
+            byte[] pageLastRowKey = null;
+            boolean hasNext = false;
+            QualifierCache qualifierCache = new QualifierCache();
+            try {
+                if (rowKeys != null) {
+                    if (lastRowKey != null) {
+                        rowKeys.removeIf(rowKey -> reversed ? Bytes.compareTo(rowKey, lastRowKey) >= 0
+                                : Bytes.compareTo(rowKey, lastRowKey) <= 0);
+                    }
+                    for (Result result : getRows(plan, scan, rowKeys)) {
+                        Map<String, String> row = toRow(plan, result, null, qualifierCache);
+                        if (row == null) {
+                            continue;
+                        }
+                        if (rows.size() == plan.pageSize) {
+                            hasNext = true;
+                            break;
+                        }
+                        rows.add(row);
+                        pageLastRowKey = result.getRow();
+                    }
+                } else {
+                    if (lastRowKey != null) {
+                        scan.setStartRow(reversed ? lastRowKey : Bytes.add(lastRowKey, new byte[]{0}));
+                    }
+                    if (plan.pageSize != Integer.MAX_VALUE && config.canSetCaching) {
+                        scan.setCaching(Math.min(plan.pageSize + 1, 1000));
+                    }
+                    try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));
+                         ResultScanner scanner = getScanner(table, plan.tableName, scan);) {
+                        for (Result result : scanner) {
+                            if (reversed && lastRowKey != null && Bytes.equals(result.getRow(), lastRowKey)) {
+                                continue;
+                            }
+                            Map<String, String> row = toRow(plan, result, null, qualifierCache);
+                            if (row == null) {
+                                continue;
+                            }
+                            if (rows.size() == plan.pageSize) {
+                                hasNext = true;
+                                break;
+                            }
+                            rows.add(row);
+                            pageLastRowKey = result.getRow();
+                        }
+                    } finally {
+                        recordScan(scan);
+                    }
+                }
+            } catch (Exception e) {
+                markError();
+                log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                throw new RuntimeException("查询数据发生异常", e);
+            }
+            if (operationMetrics != null) {
+                operationMetrics.rows.add(rows.size());
+                rows.forEach(row -> operationMetrics.cells.add(row.size() - 1));
+            }
+            log.debug("本页查询到 {} 条记录，是否还有下一页 {}", rows.size(), hasNext);
+            return new Page(rows, hasNext ? pageToken(reversed, planHash, pageLastRowKey) : null);
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
+        }
+    }
+
+    /**
+     * 生成分页token
+     *
+     * <pre>
+     * 格式：版本(1字节) + 方向(1字节) + 查询语句hash(4字节) + 最后一个rowKey，使用url安全的base64编码
+     * </pre>
+     */
+    private String pageToken(boolean reversed, int planHash, byte[] lastRowKey) {
+        byte[] header = new byte[]{1, (byte) (reversed ? 1 : 0)};
+        return Base64.encodeUrlSafe(Bytes.add(header, Bytes.toBytes(planHash), lastRowKey));
+    }
+
+    /**
+     * 解析分页token
+     *
+     * @return 上一页最后一个rowKey
+     */
+    private byte[] parsePageToken(QlPlan plan, int planHash, String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.decode(token);
+        } catch (Exception e) {
+            throw new RuntimeException(StrUtil.format("分页token[{}]格式错误", token));
+        }
+        if (bytes.length < 6 || bytes[0] != 1) {
+            throw new RuntimeException(StrUtil.format("分页token[{}]格式错误", token));
+        }
+        if (bytes[1] != (plan.reversed ? 1 : 0) || Bytes.toInt(bytes, 2) != planHash) {
+            throw new RuntimeException(StrUtil.format("分页token[{}]与查询语句不匹配[{}]", token, plan.ql));
+        }
+        return Bytes.copy(bytes, 6, bytes.length - 6);
+    }
+
+    /**
+     * 打开scanner，加盐分桶的表返回按逻辑rowKey合并的SaltedScanner
+     *
+     * @param table     表，不分桶时使用
+     * @param tableName 表名
+     * @param scan      逻辑rowKey的scan
+     *
+     * @return scanner，返回的rowKey都是逻辑rowKey
+     */
+    private ResultScanner getScanner(Table table, String tableName, Scan scan) throws IOException {
+        RowKeySalt salt = salt(tableName);
+        if (salt == null) {
+            return table.getScanner(scan);
+        }
+        return new SaltedScanner(tableName, scan, salt, true);
+    }
+
+    /**
+     * 加盐分桶表的扫描，每个桶一个扫描并行执行，去掉桶号后合并
+     *
+     * <pre>
+     * 每个桶由一个线程扫描，结果放入有界队列，消费慢时桶的扫描自动等待
+     * ordered为true时按逻辑rowKey多路归并，顺序与不分桶的扫描相同；为false时按到达顺序返回，用于统计
+     * 每个桶的scanner关闭后，由扫描线程把它的ScanMetrics累加到当前操作的指标，逻辑scan上没有ScanMetrics
+     * 关闭时停止所有桶的扫描，等待扫描线程结束
+     * </pre>
+     */
+    private class SaltedScanner extends AbstractClientScanner {
+        private final List<BlockingQueue<Result>> queues = new ArrayList<>();
+        private final boolean ordered;
+        private final PriorityQueue<Pair<Result, Integer>> heads;// 归并时每个桶当前的第一行
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
+        private final AtomicReference<Exception> error = new AtomicReference<>();
+        private final CountDownLatch finished;
+        private int remaining;// 还没有扫描完毕的桶数量
+        private boolean started = false;
+        private boolean closed = false;
+
+        private SaltedScanner(String tableName, Scan scan, RowKeySalt salt, boolean ordered) throws IOException {
+            this.ordered = ordered;
+            List<Scan> bucketScans = salt.bucketScans(scan);
+            this.remaining = bucketScans.size();
+            this.finished = new CountDownLatch(bucketScans.size());
+            Comparator<Pair<Result, Integer>> comparator = (a, b) -> Bytes.compareTo(a.getFirst().getRow(),
+                    b.getFirst().getRow());
+            this.heads = new PriorityQueue<>(bucketScans.size(), scan.isReversed() ? comparator.reversed() : comparator);
+            BlockingQueue<Result> shared = ordered ? null : new LinkedBlockingQueue<>(config.parallelScanQueueSize);
+            TableName table = TableName.valueOf(tableName);
+            for (Scan bucketScan : bucketScans) {
+                BlockingQueue<Result> queue = ordered ? new LinkedBlockingQueue<>(config.parallelScanQueueSize) : shared;
+                queues.add(queue);
+                config.scanExecutor.execute(withOperation(() -> {
+                    try (Table t = config.connection.getTable(table);
+                         ResultScanner scanner = t.getScanner(bucketScan);) {
+                        Result result;
+                        while (!stopped.get() && (result = scanner.next()) != null) {
+                            if (!offer(queue, salt.unsalt(result), stopped)) {
+                                break;
+                            }
+                        }
+                    } catch (Exception e) {
+                        error.compareAndSet(null, e);
+                        stopped.set(true);
+                    } finally {
+                        recordScan(bucketScan);
+                        offer(queue, END_OF_BUCKET, stopped);
+                        finished.countDown();
+                    }
+                }));
+            }
+        }
+
+        @Override
+        public Result next() throws IOException {
+            if (closed) {
+                return null;
+            }
+            Result result = ordered ? nextOrdered() : nextUnordered();
+            if (error.get() != null) {
+                throw new IOException("扫描分桶发生异常", error.get());
+            }
+            return result;
+        }
+
+        private Result nextOrdered() {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < queues.size(); i++) {
+                    if (!pollBucket(i)) {
+                        return null;
+                    }
+                }
+            }
+            Pair<Result, Integer> head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            if (!pollBucket(head.getSecond())) {
+                return null;
+            }
+            return head.getFirst();
+        }
+
+        /**
+         * 取出一个桶的下一行放入归并队列
+         *
+         * @return 已经停止时返回false
+         */
+        private boolean pollBucket(int bucket) {
+            Result result = poll(queues.get(bucket), stopped);
+            if (result == null) {
+                return false;
+            }
+            if (result != END_OF_BUCKET) {
+                heads.add(new Pair<>(result, bucket));
+            }
+            return true;
+        }
+
+        private Result nextUnordered() {
+            while (remaining > 0) {
+                Result result = poll(queues.get(0), stopped);
+                if (result == null) {
+                    return null;
+                }
+                if (result != END_OF_BUCKET) {
+                    return result;
+                }
+                remaining--;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stopped.set(true);
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean renewLease() {
+            return false;
+        }
+    }
+
+    /**
+     * 从scanner按需拉取数据的迭代器，扫描完毕或者达到limit时自动释放scanner
+     */
+    private class RowIterator implements Iterator<Map<String, String>>, AutoCloseable {
+        private final QlPlan plan;
+        private final Table table;
+        private final ResultScanner scanner;
+        private final Scan scan;
+        private final OperationMetrics operationMetrics;
+        private final QualifierCache qualifierCache = new QualifierCache();
+        private Map<String, String> next;
+        private int count = 0;
+        private boolean closed = false;
+
+        private RowIterator(QlPlan plan, Scan scan, OperationMetrics operationMetrics) throws IOException {
+            this.plan = plan;
+            this.scan = scan;
+            this.operationMetrics = operationMetrics;
+            this.table = config.connection.getTable(TableName.valueOf(plan.tableName));
+            try {
+                this.scanner = getScanner(table, plan.tableName, scan);
+            } catch (IOException e) {
+                table.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            if (count >= plan.pageSize) {
+                close();
+                return false;
+            }
+            while (next == null) {
+                Result result;
+                try {
+                    result = scanner.next();
+                } catch (IOException e) {
+                    if (operationMetrics != null) {
+                        operationMetrics.error = true;
+                    }
+                    close();
+                    throw new RuntimeException("查询数据发生异常", e);
+                }
+                if (result == null) {
+                    close();
+                    return false;
+                }
+                next = toRow(plan, result, null, qualifierCache);
+                if (next == null && operationMetrics != null) {
+                    operationMetrics.rowsFiltered.increment();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Map<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map<String, String> row = next;
+            next = null;
+            count++;
+            if (operationMetrics != null) {
+                operationMetrics.rows.increment();
+                operationMetrics.cells.add(row.size() - 1);
+            }
+            return row;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            scanner.close();
+            recordScan(operationMetrics, scan);
+            try {
+                table.close();
+            } catch (IOException e) {
+                log.warn("关闭表发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            }
+            log.debug("流式查询结束，扫描到 {} 条记录", count);
+        }
+    }
+
+    /**
+     * 按region拆分的扫描分区
+     */
+    private static class ScanPartition {
+        private byte[] startRow;
+        private byte[] stopRow;
+        private byte[] skipRow;// 逆序扫描时，起始行是下一个region的第一行，需要跳过
+        private byte[] lowerBound;// 逆序扫描时，小于此行说明已经扫描到上一个region，需要结束
     }
 
     /**
-     * 修改表
+     * 根据region边界拆分扫描范围
      *
-     * @param tableName  *表名
-     * @param timeToLive *列簇超时时间，单位秒
+     * @param scan         绑定好参数的scan
+     * @param startEndKeys 所有region的起止rowKey
+     *
+     * @return 按扫描顺序排列的分区
      */
-    public boolean modifyTable(String tableName, Integer timeToLive) {
-        try (Admin admin = config.connection.getAdmin();
-             Table table = config.connection.getTable(TableName.valueOf(tableName));) {
-            disableTable(tableName);// 禁用表
-            HTableDescriptor hTableDescriptor = table.getTableDescriptor();// 获得表描述
-            if (!hTableDescriptor.getCoprocessors().contains(COPROCESSOR)) {
-                hTableDescriptor.addCoprocessor(COPROCESSOR);// 设置统计协处理器
-            }
-            hTableDescriptor.setCompactionEnabled(true);
-            hTableDescriptor.getFamilies().forEach(hColumnDescriptor -> {
-                hColumnDescriptor.setMaxVersions(1);// 设置数据保存的最大版本数
-                hColumnDescriptor.setCompressionType(Compression.Algorithm.SNAPPY);// 设置压缩
-                if (timeToLive != null) {
-                    hColumnDescriptor.setTimeToLive(timeToLive);
+    private List<ScanPartition> splitScan(Scan scan, Pair<byte[][], byte[][]> startEndKeys) {
+        byte[][] startKeys = startEndKeys.getFirst();
+        byte[][] endKeys = startEndKeys.getSecond();
+        List<ScanPartition> partitions = new ArrayList<>();
+        byte[] scanStart = scan.getStartRow();
+        byte[] scanStop = scan.getStopRow();
+        if (!scan.isReversed()) {
+            for (int i = 0; i < startKeys.length; i++) {
+                byte[] lo = Bytes.compareTo(scanStart, startKeys[i]) >= 0 ? scanStart : startKeys[i];
+                byte[] hi;
+                if (scanStop.length == 0) {
+                    hi = endKeys[i];
+                } else if (endKeys[i].length == 0) {
+                    hi = scanStop;
                 } else {
-                    hColumnDescriptor.setTimeToLive(Integer.MAX_VALUE);
+                    hi = Bytes.compareTo(scanStop, endKeys[i]) <= 0 ? scanStop : endKeys[i];
                 }
-            });
-            admin.modifyTable(TableName.valueOf(tableName), hTableDescriptor);// 修改表
-        } catch (IOException e) {
-            log.error("修改表发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+                if (hi.length == 0 || Bytes.compareTo(lo, hi) < 0) {
+                    ScanPartition partition = new ScanPartition();
+                    partition.startRow = lo;
+                    partition.stopRow = hi;
+                    partitions.add(partition);
+                }
+            }
+        } else {
+            // 逆序扫描时，startRow是包含的上界，stopRow是不包含的下界
+            for (int i = startKeys.length - 1; i >= 0; i--) {
+                byte[] regionStart = startKeys[i];
+                byte[] regionEnd = endKeys[i];
+                if (scanStart.length > 0 && Bytes.compareTo(scanStart, regionStart) < 0) {
+                    continue;
+                }
+                if (scanStop.length > 0 && regionEnd.length > 0 && Bytes.compareTo(scanStop, regionEnd) >= 0) {
+                    continue;
+                }
+                ScanPartition partition = new ScanPartition();
+                if (regionEnd.length == 0 || (scanStart.length > 0 && Bytes.compareTo(scanStart, regionEnd) < 0)) {
+                    partition.startRow = scanStart;
+                } else {
+                    partition.startRow = regionEnd;
+                    partition.skipRow = regionEnd;
+                }
+                partition.stopRow = scanStop;
+                if (regionStart.length > 0 && Bytes.compareTo(regionStart, scanStop) > 0) {
+                    partition.lowerBound = regionStart;
+                }
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * 并行查询
+     *
+     * @param plan                  查询计划
+     * @param params                绑定参数
+     * @param handler               根据scanner回调，始终在调用线程中执行
+     * @param returnColumnTimestamp 返回列的插入时间
+     * @param parallelism           并行度
+     * @param ordered               是否按rowKey顺序回调
+     */
+    private void selectParallel(QlPlan plan, Object[] params,
+                                java.util.function.Consumer<Map<String, String>> rowHandler,
+                                Boolean returnColumnTimestamp, int parallelism, boolean ordered) {
+        OperationMetrics operationMetrics = beginOperation("selectParallel", plan);
+        java.util.function.Consumer<Map<String, String>> handler = countRows(operationMetrics, rowHandler);
+        try {
+            if (plan.aggregates != null) {
+                aggregate(plan, params, handler);
+                return;
+            }
+            if (plan.latest) {
+                selectLatest(plan, params, null, handler, returnColumnTimestamp);
+                return;
+            }
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            if (rowKeys != null) {
+                selectRows(plan, scan, rowKeys, handler, returnColumnTimestamp);
+                return;
+            }
+            if (salt(plan.tableName) != null) {
+                log.debug("{} 加盐分桶，按桶并行扫描", plan.tableName);
+                selectScan(plan, scan, handler, returnColumnTimestamp);
+                return;
+            }
+            TableName tableName = TableName.valueOf(plan.tableName);
+            List<ScanPartition> partitions;
+            try (RegionLocator regionLocator = config.connection.getRegionLocator(tableName);) {
+                partitions = splitScan(scan, regionLocator.getStartEndKeys());
+            } catch (Exception e) {
+                markError();
+                log.error("获取region分布发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                return;
+            }
+            log.debug("扫描范围拆分为 {} 个region分区", partitions.size());
+            if (partitions.size() <= 1 || parallelism <= 1) {
+                selectScan(plan, scan, handler, returnColumnTimestamp);
+                return;
+            }
+
+            // 有序时每个分区一个队列，按分区顺序消费；无序时所有分区共用一个队列
+            List<BlockingQueue<Map<String, String>>> queues = new ArrayList<>();
+            for (int i = 0; i < (ordered ? partitions.size() : 1); i++) {
+                queues.add(new LinkedBlockingQueue<>(config.parallelScanQueueSize));
+            }
+            AtomicBoolean stopped = new AtomicBoolean(false);
+            AtomicInteger nextPartition = new AtomicInteger(0);
+            int workerSize = Math.min(parallelism, partitions.size());
+            for (int w = 0; w < workerSize; w++) {
+                config.scanExecutor.execute(withOperation(() -> {
+                    int index;
+                    while (!stopped.get() && (index = nextPartition.getAndIncrement()) < partitions.size()) {
+                        BlockingQueue<Map<String, String>> queue = queues.get(ordered ? index : 0);
+                        try {
+                            scanPartition(plan, scan, partitions.get(index), returnColumnTimestamp, queue, stopped);
+                        } catch (Exception e) {
+                            markError();
+                            log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                            stopped.set(true);
+                        }
+                        offer(queue, END_OF_PARTITION, stopped);
+                    }
+                }));
+            }
+
+            try {
+                int i = 0;
+                int endedPartitions = 0;
+                int queueIndex = 0;
+                while (endedPartitions < partitions.size()) {
+                    Map<String, String> row = poll(queues.get(queueIndex), stopped);
+                    if (row == null) {
+                        break;
+                    }
+                    if (row == END_OF_PARTITION) {
+                        endedPartitions++;
+                        if (ordered) {
+                            queueIndex++;
+                        }
+                        continue;
+                    }
+                    try {
+                        handler.accept(row);
+                    } catch (Exception e) {
+                        log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                        break;
+                    }
+                    if (++i == plan.pageSize) {
+                        break;
+                    }
+                }
+            } finally {
+                stopped.set(true);
+            }
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
         } finally {
-            enableTable(tableName);
+            endOperation(operationMetrics);
         }
-        return true;
     }
 
     /**
-     * 删除一条记录
+     * 流水线查询
      *
-     * @param tableName *表名
-     * @param rowKey    *行键
+     * @param plan                  查询计划
+     * @param params                绑定参数
+     * @param handler               根据scanner回调
+     * @param returnColumnTimestamp 返回列的插入时间
+     * @param consumers             回调线程数，调用线程也是其中之一
+     *
+     * @return 本次查询的流水线指标
      */
-    public boolean delete(String tableName, String rowKey) {
-        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
-            table.delete(new Delete(Bytes.toBytes(rowKey)));
-        } catch (IOException e) {
-            log.error("删除一条记录发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+    private PipelineMetrics selectPipelined(QlPlan plan, Object[] params,
+                                            java.util.function.Consumer<Map<String, String>> rowHandler,
+                                            Boolean returnColumnTimestamp, int consumers) {
+        OperationMetrics operationMetrics = beginOperation("selectPipelined", plan);
+        java.util.function.Consumer<Map<String, String>> handler = countRows(operationMetrics, rowHandler);
+        try {
+            PipelineMetrics metrics = new PipelineMetrics();
+            if (plan.aggregates != null) {
+                aggregate(plan, params, handler);
+                return metrics;
+            }
+            if (plan.latest) {
+                selectLatest(plan, params, null, handler, returnColumnTimestamp);
+                return metrics;
+            }
+            Scan scan = bindScan(plan, params);
+            List<byte[]> rowKeys = bindRowKeys(plan, params);
+            BlockingQueue<Map<String, String>> queue = new LinkedBlockingQueue<>(config.pipelineQueueSize);
+            AtomicBoolean stopped = new AtomicBoolean(false);
+            int consumerSize = Math.max(1, consumers);
+            config.scanExecutor.execute(withOperation(() -> {
+                try {
+                    if (rowKeys != null) {
+                        producePipeline(plan, getRows(plan, scan, rowKeys), returnColumnTimestamp, queue, stopped, metrics);
+                    } else {
+                        try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));
+                             ResultScanner scanner = getScanner(table, plan.tableName, scan);) {
+                            producePipeline(plan, scanner, returnColumnTimestamp, queue, stopped, metrics);
+                        } finally {
+                            recordScan(scan);
+                        }
+                    }
+                } catch (Exception e) {
+                    markError();
+                    log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                } finally {
+                    // 每个回调线程一个结束标记
+                    for (int i = 0; i < consumerSize; i++) {
+                        offer(queue, END_OF_PARTITION, stopped);
+                    }
+                }
+            }));
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 1; i < consumerSize; i++) {
+                futures.add(config.scanExecutor.submit(
+                        withOperation(() -> consumePipeline(handler, queue, stopped, metrics))));
+            }
+            try {
+                consumePipeline(handler, queue, stopped, metrics);
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e.getCause()));
+            } finally {
+                stopped.set(true);
+            }
+            log.debug("流水线查询结束 {}", metrics);
+            return metrics;
+        } catch (RuntimeException e) {
+            markError();
+            throw e;
+        } finally {
+            endOperation(operationMetrics);
         }
-        return true;
     }
 
     /**
-     * 删除一批记录
+     * 流水线的拉取端，把查询结果转换为行数据放入队列
+     */
+    private void producePipeline(QlPlan plan, Iterable<Result> results, Boolean returnColumnTimestamp,
+                                 BlockingQueue<Map<String, String>> queue, AtomicBoolean stopped,
+                                 PipelineMetrics metrics) {
+        int i = 0;
+        QualifierCache qualifierCache = new QualifierCache();
+        for (Result result : results) {
+            if (stopped.get()) {
+                break;
+            }
+            Map<String, String> row = toRow(plan, result, returnColumnTimestamp, qualifierCache);
+            if (row == null) {
+                continue;
+            }
+            if (!queue.offer(row)) {
+                long start = System.nanoTime();
+                boolean offered = offer(queue, row, stopped);
+                metrics.producerStallNanos.addAndGet(System.nanoTime() - start);
+                if (!offered) {
+                    break;
+                }
+            }
+            metrics.recordQueueDepth(queue.size());
+            if (++i == plan.pageSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 流水线的回调端，从队列中取出行数据回调，直到取到结束标记或者已经停止
+     */
+    private void consumePipeline(java.util.function.Consumer<Map<String, String>> handler,
+                                 BlockingQueue<Map<String, String>> queue, AtomicBoolean stopped,
+                                 PipelineMetrics metrics) {
+        while (true) {
+            Map<String, String> row = queue.poll();
+            if (row == null) {
+                long start = System.nanoTime();
+                row = poll(queue, stopped);
+                metrics.consumerStallNanos.addAndGet(System.nanoTime() - start);
+                if (row == null) {
+                    return;
+                }
+            }
+            if (row == END_OF_PARTITION) {
+                return;
+            }
+            try {
+                handler.accept(row);
+            } catch (Exception e) {
+                log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
+                stopped.set(true);
+                return;
+            }
+            metrics.rows.incrementAndGet();
+        }
+    }
+
+    /**
+     * 扫描一个分区，结果放入队列
      *
-     * @param tableName  *表名
-     * @param rowKeyList *行键集合
+     * @param plan                  查询计划
+     * @param scan                  绑定好参数的scan
+     * @param partition             分区
+     * @param returnColumnTimestamp 返回列的插入时间
+     * @param queue                 结果队列
+     * @param stopped               是否已经停止
      */
-    public boolean delete(String tableName, List<String> rowKeyList) {
-        List<Delete> deleteList = new ArrayList<>();
-        for (String rowKey : rowKeyList) {
-            deleteList.add(new Delete(Bytes.toBytes(rowKey)));
+    private void scanPartition(QlPlan plan, Scan scan, ScanPartition partition, Boolean returnColumnTimestamp,
+                               BlockingQueue<Map<String, String>> queue, AtomicBoolean stopped) throws IOException {
+        Scan partitionScan = new Scan(scan);
+        partitionScan.setStartRow(partition.startRow);
+        partitionScan.setStopRow(partition.stopRow);
+        log.trace("{}", partitionScan);
+        try (Table table = config.connection.getTable(TableName.valueOf(plan.tableName));
+             ResultScanner scanner = table.getScanner(partitionScan);) {
+            int i = 0;
+            QualifierCache qualifierCache = new QualifierCache();
+            for (Result result : scanner) {
+                byte[] rowKey = result.getRow();
+                if (partition.skipRow != null && Bytes.equals(rowKey, partition.skipRow)) {
+                    continue;
+                }
+                if (partition.lowerBound != null && Bytes.compareTo(rowKey, partition.lowerBound) < 0) {
+                    break;
+                }
+                Map<String, String> row = toRow(plan, result, returnColumnTimestamp, qualifierCache);
+                if (row == null) {
+                    continue;
+                }
+                if (!offer(queue, row, stopped)) {
+                    break;
+                }
+                // 每个分区最多只需要pageSize条
+                if (++i == plan.pageSize) {
+                    break;
+                }
+            }
+        } finally {
+            recordScan(partitionScan);
         }
-        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
-            table.delete(deleteList);
-        } catch (IOException e) {
-            log.error("删除一批记录发生异常 {}", ExceptionUtil.stacktraceToString(e));
+    }
+
+    /**
+     * 放入队列，队列满时等待，直到放入成功或者已经停止
+     *
+     * @return 是否放入成功
+     */
+    private <T> boolean offer(BlockingQueue<T> queue, T row, AtomicBoolean stopped) {
+        try {
+            while (!queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                if (stopped.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         }
-        return true;
     }
 
     /**
-     * 根据rowKey删除指定列
-     *
-     * @param tableName  表名
-     * @param familyName 列簇名
-     * @param rowKey     rowKey
-     * @param columns    删除列集合
+     * 从队列取出，队列空时等待，直到取出成功或者已经停止
      *
-     * @return
+     * @return 行数据，已经停止时返回null
      */
-    public boolean deleteColumns(String tableName, String familyName, String rowKey, List<String> columns) {
-        Delete del = new Delete(Bytes.toBytes(rowKey));
-        columns.forEach(column -> {
-            del.addColumn(Bytes.toBytes(familyName), Bytes.toBytes(column));
-        });
+    private <T> T poll(BlockingQueue<T> queue, AtomicBoolean stopped) {
+        try {
+            while (true) {
+                T row = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (row != null) {
+                    return row;
+                }
+                if (stopped.get()) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
 
-        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
-            table.delete(del);
-        } catch (IOException e) {
-            log.error("删除指定列发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+    /**
+     * 解析QL
+     *
+     * @param plan       查询计划
+     * @param scan
+     * @param sqlExpr
+     * @param filterList
+     * @param params     绑定参数，编译阶段为null
+     */
+    private void parseQl(QlPlan plan, Scan scan, SQLExpr sqlExpr, FilterList filterList, String[] params) {
+        if (sqlExpr == plan.rowKeyExpr) {
+            return;// 已经使用get按rowKey查询，不需要过滤
+        }
+        if (plan.rowRangeExprs.contains(sqlExpr)) {
+            return;// 已经转换为rowKey范围
+        }
+        if (plan.residualExprs.contains(sqlExpr)) {
+            return;// 在客户端比较
+        }
+        SQLBinaryOpExpr expr = (SQLBinaryOpExpr) sqlExpr;
+        SQLBinaryOperator operator = expr.getOperator();
+        FilterList fl = filterList == null ? (FilterList) scan.getFilter() : filterList;
+        if (operator == SQLBinaryOperator.BooleanAnd || operator == SQLBinaryOperator.BooleanOr) {
+            // 每个and、or节点按自己的运算符分组，与上一层运算符相同时合并到上一层的FilterList
+            FilterList.Operator listOperator = operator == SQLBinaryOperator.BooleanOr
+                    ? FilterList.Operator.MUST_PASS_ONE : FilterList.Operator.MUST_PASS_ALL;
+            if (fl.getOperator() != listOperator) {
+                FilterList childFl = new FilterList(listOperator);
+                fl.addFilter(childFl);
+                fl = childFl;
+            }
+            for (SQLExpr operand : Arrays.asList(expr.getLeft(), expr.getRight())) {
+                if (operand instanceof SQLBinaryOpExpr) {
+                    parseQl(plan, scan, operand, fl, params);
+                } else if (operand instanceof SQLInListExpr) {
+                    addInListFilter(plan, scan, (SQLInListExpr) operand, fl, params);
+                }
+            }
+            return;
+        }
+        if (isColumn(expr.getLeft())) {
+            addStartRowKeyAndStopRowKeyAndFilter(plan, scan, expr.getLeft(), operator, expr.getRight(), fl, params);
         }
-        return true;
     }
 
     /**
-     * 存入一条记录
+     * 给scan添加in条件的filter
      *
-     * @param tableName  *表名
-     * @param familyName *列簇名
-     * @param rowKey     *rowKey
-     * @param data       *列值信息
+     * @param plan       查询计划
+     * @param scan
+     * @param expr       in条件
+     * @param filterList
+     * @param params     绑定参数，编译阶段为null
      */
-    public boolean put(String tableName, String familyName, String rowKey, Map<String, String> data) {
-        Map<String, Map<String, String>> datas = new HashMap<>();
-        datas.put(rowKey, data);
-        return put(tableName, familyName, datas);
+    private void addInListFilter(QlPlan plan, Scan scan, SQLInListExpr expr, FilterList filterList, String[] params) {
+        if (expr == plan.rowKeyExpr) {
+            return;// 已经使用get按rowKey查询，不需要过滤
+        }
+        if (plan.rowRangeExprs.contains(expr)) {
+            return;// 已经转换为rowKey范围
+        }
+        if (plan.residualExprs.contains(expr)) {
+            return;// 在客户端比较
+        }
+        String columnName = StrUtil.strip(expr.getExpr().toString(), "`");
+        if (!columnName.equals(ROW_KEY_NAME) && !plan.selectAllColumn) {
+            scan.addColumn(plan.familyNameBytes, Bytes.toBytes(columnName));
+        }
+        FilterList inFilterList = new FilterList(
+                expr.isNot() ? FilterList.Operator.MUST_PASS_ALL : FilterList.Operator.MUST_PASS_ONE);
+        CompareFilter.CompareOp compareOp = expr.isNot() ? CompareFilter.CompareOp.NOT_EQUAL
+                : CompareFilter.CompareOp.EQUAL;
+        if (params == null) {
+            // 编译阶段只记录占位符，in列表中每个占位符都要计数，等绑定参数时再设置
+            boolean parameterized = false;
+            for (SQLExpr target : expr.getTargetList()) {
+                if (target instanceof SQLVariantRefExpr) {
+                    plan.parameterCount = Math.max(plan.parameterCount, ((SQLVariantRefExpr) target).getIndex() + 1);
+                    parameterized = true;
+                }
+            }
+            if (parameterized) {
+                plan.filterParameterized = true;
+                return;
+            }
+        }
+        for (SQLExpr target : expr.getTargetList()) {
+            byte[] value = Bytes.toBytes(exprValue(target, params));
+            if (columnName.equals(ROW_KEY_NAME)) {
+                inFilterList.addFilter(new RowFilter(compareOp, new BinaryComparator(value)));
+            } else {
+                SingleColumnValueFilter singleColumnValueFilter = new SingleColumnValueFilter(plan.familyNameBytes,
+                        Bytes.toBytes(columnName), compareOp, value);
+                singleColumnValueFilter.setFilterIfMissing(CollUtil.isEmpty(plan.columnCanMissingList)
+                        || !plan.columnCanMissingList.contains(columnName));
+                inFilterList.addFilter(singleColumnValueFilter);
+            }
+        }
+        log.trace("添加条件 {}", expr);
+        filterList.addFilter(inFilterList);
     }
 
     /**
-     * 存入多条记录
+     * 获得数值比较使用的比较器
      *
-     * @param tableName  *表名
-     * @param familyName *列簇名
-     * @param datas      *rowKey以及列信息；key：rowKey，value(map)：k:列名,v:列值
+     * <pre>
+     * region server支持NumberComparator时直接比较数值，否则使用RegexUtil生成的正则表达式
+     * </pre>
+     *
+     * @param operator 比较运算符
+     * @param number   给定数字
+     *
+     * @return 比较器，满足条件时比较结果为0
      */
-    public boolean put(String tableName, String familyName, Map<String, Map<String, String>> datas) {
-        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
-            byte[] familyNameByte = Bytes.toBytes(familyName);
-            List<Put> puts = new ArrayList<>();
-            datas.forEach((rowKey, columnInfo) -> {
-                Put put = new Put(Bytes.toBytes(rowKey));
-                for (Map.Entry<String, String> infoEntry : columnInfo.entrySet()) {
-                    put.addColumn(familyNameByte, Bytes.toBytes(infoEntry.getKey()),
-                            Bytes.toBytes(infoEntry.getValue()));
-                }
-                puts.add(put);
-            });
-            table.put(puts);
-        } catch (IOException e) {
-            log.error("存入多条记录发生异常 {}", ExceptionUtil.stacktraceToString(e));
-            return false;
+    private ByteArrayComparable numberComparable(NumberComparator.Operator operator, String number) {
+        if (useNumberComparator()) {
+            try {
+                return new NumberComparator(operator, number);
+            } catch (IllegalArgumentException e) {
+                log.debug("{} 不能使用数值比较器，使用正则表达式", number);
+            }
+        }
+        switch (operator) {
+            case GREATER:
+                return new RegexStringComparator(config.regexUtil.transformGreaterNumber(number));
+            case GREATER_OR_EQUAL:
+                return new RegexStringComparator(config.regexUtil.transformGreaterOrEqualNumber(number));
+            case LESS:
+                return new RegexStringComparator(config.regexUtil.transformLessNumber(number));
+            case LESS_OR_EQUAL:
+                return new RegexStringComparator(config.regexUtil.transformLessOrEqualNumber(number));
+            default:
+                return new RegexStringComparator(config.regexUtil.transformEqualNumber(number));
         }
-        return true;
     }
 
     /**
-     * 统计行数
+     * 是否在region server上使用NumberComparator
+     */
+    private boolean useNumberComparator() {
+        return config.numberComparator && numberComparatorAvailable();
+    }
+
+    /**
+     * 检查region server是否能加载NumberComparator，只检查一次
      *
      * <pre>
-     * select count(*) from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' and 2601 = 0
-     * 也可以加更多条件，使用方式与select方法类似
-     * 注意：startRowKey的值必须小于stopRowKey的值
+     * 使用带有NumberComparator的过滤器扫描hbase:meta，region server上没有此类时会反序列化失败
      * </pre>
      *
-     * @param ql *查询语句
+     * @return 是否能加载
+     */
+    private boolean numberComparatorAvailable() {
+        if (config.numberComparatorAvailable == null) {
+            synchronized (config) {
+                if (config.numberComparatorAvailable == null) {
+                    SingleColumnValueFilter filter = new SingleColumnValueFilter(HConstants.CATALOG_FAMILY,
+                            Bytes.toBytes(NumberComparator.class.getSimpleName()), CompareFilter.CompareOp.EQUAL,
+                            new NumberComparator(NumberComparator.Operator.EQUAL, "0"));
+                    filter.setFilterIfMissing(true);
+                    Scan scan = new Scan();
+                    scan.setFilter(filter);
+                    scan.setCaching(1);
+                    try (Table table = config.connection.getTable(TableName.META_TABLE_NAME);
+                         ResultScanner scanner = table.getScanner(scan);) {
+                        scanner.next();
+                        config.numberComparatorAvailable = true;
+                        log.info("region server 支持 {}", NumberComparator.class.getName());
+                    } catch (Exception e) {
+                        config.numberComparatorAvailable = false;
+                        log.warn("region server 不支持 {}，数值比较改为在客户端执行 {}", NumberComparator.class.getName(),
+                                e.getMessage());
+                    }
+                }
+            }
+        }
+        return config.numberComparatorAvailable;
+    }
+
+    /**
+     * 把rowKey范围条件转换为扫描范围
      *
-     * @return 匹配的行数
+     * <pre>
+     * 只处理顶层and连接的常量条件，占位符与其它位置的条件仍然使用过滤器
+     * rowKey like 'abc%'                       转换为 startRow = abc，stopRow = abd
+     * rowKey &gt;= 'a' and rowKey &lt; 'b'             转换为 startRow = a，stopRow = b
+     * rowKey like '????_20200524%'             固定长度的模式，? 匹配一个字节，转换为FuzzyRowFilter，? 前面的固定前缀转换为扫描范围
+     * (rowKey like 'a%') or (rowKey &gt;= 'c' and rowKey &lt; 'd') 多个范围，正序时转换为MultiRowRangeFilter，扫描范围是所有范围的并集
+     * </pre>
+     *
+     * @param plan 查询计划
+     */
+    private void planRowRanges(QlPlan plan) {
+        if (plan.rowKeyValues != null) {
+            return;// 使用get按rowKey查询
+        }
+        List<SQLExpr> conjuncts = new ArrayList<>();
+        flattenAnd(plan.where, conjuncts);
+        for (SQLExpr conjunct : conjuncts) {
+            if (conjunct == plan.rowKeyExpr) {
+                continue;
+            }
+            RowKeyRange range = rowKeyRange(conjunct);
+            if (range != null) {
+                plan.rowRange = RowKeyRange.intersect(plan.rowRange, range);
+                if (range.fuzzyKey != null) {
+                    plan.rowRangeFilters.add(new FuzzyRowFilter(
+                            Collections.singletonList(new Pair<>(range.fuzzyKey, range.fuzzyMask))));
+                }
+                plan.rowRangeExprs.add(conjunct);
+                continue;
+            }
+            if (!(conjunct instanceof SQLBinaryOpExpr)
+                    || ((SQLBinaryOpExpr) conjunct).getOperator() != SQLBinaryOperator.BooleanOr) {
+                continue;
+            }
+            // 多个范围取并集，每个范围是and连接的rowKey范围条件
+            List<SQLExpr> disjuncts = new ArrayList<>();
+            flattenOr(conjunct, disjuncts);
+            List<RowKeyRange> ranges = new ArrayList<>();
+            for (SQLExpr disjunct : disjuncts) {
+                List<SQLExpr> parts = new ArrayList<>();
+                flattenAnd(disjunct, parts);
+                RowKeyRange disjunctRange = null;
+                for (SQLExpr part : parts) {
+                    RowKeyRange partRange = rowKeyRange(part);
+                    if (partRange == null || partRange.fuzzyKey != null) {
+                        disjunctRange = null;
+                        break;
+                    }
+                    disjunctRange = RowKeyRange.intersect(disjunctRange, partRange);
+                }
+                if (disjunctRange == null) {
+                    ranges = null;
+                    break;
+                }
+                ranges.add(disjunctRange);
+            }
+            if (ranges == null) {
+                continue;
+            }
+            plan.rowRange = RowKeyRange.intersect(plan.rowRange, RowKeyRange.union(ranges));
+            plan.rowRangeFilters.add(multiRowRangeFilter(plan, ranges));
+            plan.rowRangeExprs.add(conjunct);
+        }
+        if (plan.rowRange != null) {
+            log.trace("rowKey范围 [{}, {})", Bytes.toStringBinary(plan.rowRange.lower),
+                    Bytes.toStringBinary(plan.rowRange.upper));
+        }
+    }
+
+    /**
+     * 把or连接的条件拆分为多个条件
      */
-    public long count(String ql) {
-        return count(ql, null);
+    private void flattenOr(SQLExpr sqlExpr, List<SQLExpr> disjuncts) {
+        if (sqlExpr instanceof SQLBinaryOpExpr
+                && ((SQLBinaryOpExpr) sqlExpr).getOperator() == SQLBinaryOperator.BooleanOr) {
+            flattenOr(((SQLBinaryOpExpr) sqlExpr).getLeft(), disjuncts);
+            flattenOr(((SQLBinaryOpExpr) sqlExpr).getRight(), disjuncts);
+        } else if (sqlExpr != null) {
+            disjuncts.add(sqlExpr);
+        }
     }
 
     /**
-     * 统计行数
-     *
-     * <pre>
-     * select count(*) from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' and 2601 = 0
-     * 也可以加更多条件，使用方式与select方法类似
-     * 注意：startRowKey的值必须小于stopRowKey的值
-     * </pre>
+     * 把一个rowKey条件转换为范围
      *
-     * @param ql                *查询语句
-     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
+     * @param sqlExpr 条件
      *
-     * @return 匹配的行数
+     * @return 范围，不是rowKey范围条件时返回null
      */
-    public long count(String ql, String columnsCanMissing) {
-        // 去掉ql中的order by和limit信息，count不需要这两个信息
-        String orderBy = ReUtil.get("[ ]order[ ]+by[ ]+", ql, 0);
-        if (StrUtil.isNotBlank(orderBy)) {
-            ql = ql.substring(0, ql.indexOf(orderBy));
+    private RowKeyRange rowKeyRange(SQLExpr sqlExpr) {
+        if (!(sqlExpr instanceof SQLBinaryOpExpr)) {
+            return null;
         }
-        String limitN = ReUtil.get("[ ]limit[ ]+[0-9]+", ql, 0);
-        if (StrUtil.isNotBlank(limitN)) {
-            ql = ql.substring(0, ql.indexOf(limitN));
+        SQLBinaryOpExpr expr = (SQLBinaryOpExpr) sqlExpr;
+        if (!isColumn(expr.getLeft()) || !StrUtil.strip(expr.getLeft().toString(), "`").equals(ROW_KEY_NAME)
+                || expr.getRight() instanceof SQLVariantRefExpr || expr.getRight() instanceof SQLBinaryOpExpr) {
+            return null;
         }
-
-        log.debug("QL：{}", ql);
-        List<String> columnCanMissingList = null;
-        if (StrUtil.isNotBlank(columnsCanMissing)) {
-            log.debug("columnsCanMissing：{}", columnsCanMissing);
-            columnCanMissingList = Arrays.asList(columnsCanMissing.split(","));
+        String value = literalValue(expr.getRight());
+        if (value.startsWith("REG#")) {
+            return null;
         }
-        Scan scan = new Scan();
-        String tableName = null;
-        byte[] familyNameBytes;
-        // 解析
-        List<SQLStatement> statements = SQLUtils.parseStatements(ql, JdbcConstants.HBASE);
-        // 只考虑一条语句
-        SQLStatement statement = statements.get(0);
-        // 只考虑查询语句
-        SQLSelectStatement sqlSelectStatement = (SQLSelectStatement) statement;
-        SQLSelectQuery sqlSelectQuery = sqlSelectStatement.getSelect().getQuery();
-        // 非union的查询语句
-        if (sqlSelectQuery instanceof SQLSelectQueryBlock) {
-            SQLSelectQueryBlock sqlSelectQueryBlock = (SQLSelectQueryBlock) sqlSelectQuery;
-            // 获取表
-            SQLTableSource from = sqlSelectQueryBlock.getFrom();
-            String[] tableSource = from.toString().split("#");
-            tableName = tableSource[0];
-            familyNameBytes = Bytes.toBytes(tableSource[1]);
-            scan.addFamily(familyNameBytes);
-            log.trace("表名#列簇：{}#{}", tableName, tableSource[1]);
-            // 获取where条件
-            SQLExpr where = sqlSelectQueryBlock.getWhere();
-            if (where instanceof SQLBinaryOpExpr) {// 二元表达式
-                log.trace("查询条件：");
-                scan.setFilter(new FilterList());
-                parseQl(familyNameBytes, scan, true, where, null, columnCanMissingList);
-            }
-            FilterList filterList = (FilterList) scan.getFilter();
-            if (filterList != null && CollUtil.isEmpty(filterList.getFilters())) {
-                scan.setFilter(null);
-            }
-
-            String startRow = Bytes.toString(scan.getStartRow());
-            String stopRow = Bytes.toString(scan.getStopRow());
-            if (StrUtil.isNotBlank(startRow) && StrUtil.isNotBlank(stopRow)) {
-                if (startRow.compareTo(stopRow) > 0) {
-                    throw new RuntimeException(StrUtil.format("startRowKey[{}]不能大于stopRowKey[{}]", startRow, stopRow));
+        byte[] bytes = Bytes.toBytes(value);
+        RowKeyRange range = new RowKeyRange();
+        switch (expr.getOperator()) {
+            case Equality:
+                range.lower = bytes;
+                range.upper = Bytes.add(bytes, new byte[]{0});
+                return range;
+            case GreaterThan:
+                range.lower = Bytes.add(bytes, new byte[]{0});
+                return range;
+            case GreaterThanOrEqual:
+                range.lower = bytes;
+                return range;
+            case LessThan:
+                range.upper = bytes;
+                return range;
+            case LessThanOrEqual:
+                range.upper = Bytes.add(bytes, new byte[]{0});
+                return range;
+            case Like:
+                break;
+            default:
+                return null;
+        }
+        // like 只处理以%结尾、中间没有%的模式
+        if (!value.endsWith("%") || value.indexOf('%') != value.length() - 1) {
+            return null;
+        }
+        byte[] pattern = Bytes.toBytes(value.substring(0, value.length() - 1));
+        int fixedLength = 0;
+        while (fixedLength < pattern.length && pattern[fixedLength] != '?') {
+            fixedLength++;
+        }
+        range.lower = Bytes.copy(pattern, 0, fixedLength);
+        range.upper = prefixStopRow(range.lower);
+        if (fixedLength < pattern.length) {
+            // FuzzyRowFilter的mask中0表示固定字节，1表示任意字节
+            range.fuzzyKey = pattern.clone();
+            range.fuzzyMask = new byte[pattern.length];
+            for (int i = 0; i < pattern.length; i++) {
+                if (pattern[i] == '?') {
+                    range.fuzzyKey[i] = 0;
+                    range.fuzzyMask[i] = 1;
                 }
             }
+        }
+        return range;
+    }
 
-            log.trace("{}", scan);
-
-            try {
-                return config.aggregationClient.rowCount(TableName.valueOf(tableName), new LongColumnInterpreter(),
-                        scan);
-            } catch (Throwable throwable) {
-                log.error("统计数量发生异常 {}", ExceptionUtil.stacktraceToString(throwable));
+    /**
+     * 以prefix开头的rowKey的结束行，不包含
+     *
+     * @return 结束行，空数组表示到表末尾
+     */
+    private byte[] prefixStopRow(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] stopRow = Bytes.copy(prefix, 0, i + 1);
+                stopRow[i]++;
+                return stopRow;
             }
         }
-        return 0;
+        return HConstants.EMPTY_END_ROW;
     }
 
     /**
-     * 查询
-     *
-     * <pre>
-     * 查询必须填写表名和列簇名称(表名#列簇)，必须添加 limit ，否则查询所有数据太慢
-     * 查询所有列信息：select * from can_ne#can limit 10
-     * 查询某些列信息：select 3014,2205,did from can_ne#can limit 10
-     * 如果知道起始位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' limit 10
-     * 如果知道结束位置：select * from can_ne#can where stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
-     * 如果知道起始与结束位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
-     * 只查询rowKey：select rowKey from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
-     * 如果知道rowKey，只查一条：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191125065602' and stopRowKey='00004baa3388ab01e3d153347e7fc163_20191125065602'
-     * 如果不写order by，那么默认升序
-     * 降序查询需要注意，startRowKey的值必须比stopRowKey的值大，并且需要写 order by rowKey desc，例如：
-     * select 2205,did,TIME,3014 from can_ne#can  where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000'  and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' order by rowKey desc limit 10
-     * 查询列不为空的写法：select * from gateway#log where 2909 != '' limit 10
-     * 正则用法，以REG#开头，后面是正则表达式：select * from command#command where rowKey = 'REG#test123456789_.*_3' order by rowKey desc limit 1
-     * 查询中，可以使用 and , or , like , not like , = , != , > , >= , < , <=
-     * 具体使用方式，请查看TestQlParser
-     * 注意：查询中，包含startRowKey，也包含stopRowKey；如果列明有特殊字符，需要使用 ` 符号包裹
-     * </pre>
-     *
-     * @param ql *查询语句
-     *
-     * @return 结果集
+     * 把like模式转换为正则表达式，% 匹配任意多个字符，? 匹配一个字符
      */
-    public List<Map<String, String>> select(String ql) {
-        return select(ql, null);
+    private String likeToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder("^");
+        StringBuilder literal = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '%' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(java.util.regex.Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? "(?s).*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(java.util.regex.Pattern.quote(literal.toString()));
+        }
+        return regex.append("$").toString();
     }
 
     /**
-     * 查询
+     * 多个rowKey范围的过滤器
      *
      * <pre>
-     * 查询必须填写表名和列簇名称(表名#列簇)，必须添加 limit ，否则查询所有数据太慢
-     * 查询所有列信息：select * from can_ne#can limit 10
-     * 查询某些列信息：select 3014,2205,did from can_ne#can limit 10
-     * 如果知道起始位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' limit 10
-     * 如果知道结束位置：select * from can_ne#can where stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
-     * 如果知道起始与结束位置：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
-     * 只查询rowKey：select rowKey from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000' limit 10
-     * 如果知道rowKey，只查一条：select * from can_ne#can where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191125065602' and stopRowKey='00004baa3388ab01e3d153347e7fc163_20191125065602'
-     * 如果不写order by，那么默认升序
-     * 降序查询需要注意，startRowKey的值必须比stopRowKey的值大，并且需要写 order by rowKey desc，例如：
-     * select 2205,did,TIME,3014 from can_ne#can  where startRowKey = '00004baa3388ab01e3d153347e7fc163_20191231000000'  and stopRowKey = '00004baa3388ab01e3d153347e7fc163_20190101000000' order by rowKey desc limit 10
-     * 查询列不为空的写法：select * from gateway#log where 2909 != '' limit 10
-     * 正则用法，以REG#开头，后面是正则表达式：select * from command#command where rowKey = 'REG#test123456789_.*_3' order by rowKey desc limit 1
-     * 查询中，可以使用 and , or , like , not like , = , != , > , >= , < , <=
-     * 具体使用方式，请查看TestQlParser
-     * 注意：查询中，包含startRowKey，也包含stopRowKey；如果列明有特殊字符，需要使用 ` 符号包裹
+     * 正序时使用MultiRowRangeFilter，可以直接跳到下一个范围
+     * 逆序时MultiRowRangeFilter不能正确跳转，使用RowFilter组合
      * </pre>
-     *
-     * @param ql                *查询语句
-     * @param columnsCanMissing *默认where里的列必须存在，如果传递这个参数，则列可以不存在，英文半角逗号分隔
-     *
-     * @return 结果集
      */
-    public List<Map<String, String>> select(String ql, String columnsCanMissing) {
-        List<Map<String, String>> datas = new ArrayList<>();
-        select(ql, columnsCanMissing, row -> datas.add(row));
-        log.debug("扫描到 {} 条记录", datas.size());
-        return datas;
+    private Filter multiRowRangeFilter(QlPlan plan, List<RowKeyRange> ranges) {
+        if (!plan.reversed) {
+            List<MultiRowRangeFilter.RowRange> rowRanges = new ArrayList<>();
+            for (RowKeyRange range : ranges) {
+                rowRanges.add(new MultiRowRangeFilter.RowRange(range.lower, true, range.upper, false));
+            }
+            try {
+                return new MultiRowRangeFilter(rowRanges);
+            } catch (IOException e) {
+                throw new RuntimeException(StrUtil.format("rowKey范围错误[{}]", plan.ql), e);
+            }
+        }
+        FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+        for (RowKeyRange range : ranges) {
+            filterList.addFilter(rangeRowFilter(range));
+        }
+        return filterList;
     }
 
     /**
-     * 查询
-     *
-     * @param ql
-     * @param columnsCanMissing
-     * @param handler
+     * 用RowFilter表示的rowKey范围
      */
-    public void select(String ql, String columnsCanMissing, java.util.function.Consumer<Map<String, String>> handler) {
-        select(ql, columnsCanMissing, handler, null);
+    private Filter rangeRowFilter(RowKeyRange range) {
+        FilterList filterList = new FilterList();
+        if (range.lower.length > 0) {
+            filterList.addFilter(new RowFilter(CompareFilter.CompareOp.GREATER_OR_EQUAL,
+                    new BinaryComparator(range.lower)));
+        }
+        if (range.upper.length > 0) {
+            filterList.addFilter(new RowFilter(CompareFilter.CompareOp.LESS, new BinaryComparator(range.upper)));
+        }
+        return filterList;
     }
 
     /**
-     * 查询
+     * 把rowKey范围应用到scan上，收窄扫描范围并添加范围过滤器
      *
-     * @param ql
-     * @param columnsCanMissing
-     * @param handler               根据scanner回调
-     * @param returnColumnTimestamp 返回列的插入时间
+     * <pre>
+     * 正序时直接收窄startRow与stopRow
+     * 逆序时startRow是包含的上界，stopRow是不包含的下界，与范围的开闭不同，收窄后再用RowFilter精确过滤
+     * </pre>
+     *
+     * @param plan 查询计划
+     * @param scan 绑定好参数的scan
      */
-    public void select(String ql, String columnsCanMissing, java.util.function.Consumer<Map<String, String>> handler,
-                       Boolean returnColumnTimestamp) {
-        log.debug("QL：{}", ql);
-        List<String> columnCanMissingList = null;
-        if (StrUtil.isNotBlank(columnsCanMissing)) {
-            log.debug("columnsCanMissing：{}", columnsCanMissing);
-            columnCanMissingList = Arrays.asList(columnsCanMissing.split(","));
+    private void applyRowRange(QlPlan plan, Scan scan) {
+        if (plan.rowRange == null) {
+            return;
         }
-        Scan scan = new Scan();
-        String tableName = null;
-        byte[] familyNameBytes;
-        int pageSize = Integer.MAX_VALUE;
-        List<String> selectColumns = new ArrayList<>();
-        // 解析
-        List<SQLStatement> statements = SQLUtils.parseStatements(ql, JdbcConstants.HBASE);
-        // 只考虑一条语句
-        SQLStatement statement = statements.get(0);
-        // 只考虑查询语句
-        SQLSelectStatement sqlSelectStatement = (SQLSelectStatement) statement;
-        SQLSelectQuery sqlSelectQuery = sqlSelectStatement.getSelect().getQuery();
-        // 非union的查询语句
-        if (sqlSelectQuery instanceof SQLSelectQueryBlock) {
-            SQLSelectQueryBlock sqlSelectQueryBlock = (SQLSelectQueryBlock) sqlSelectQuery;
-            // 获取表
-            SQLTableSource from = sqlSelectQueryBlock.getFrom();
-            String[] tableSource = from.toString().split("#");
-            tableName = tableSource[0];
-            familyNameBytes = Bytes.toBytes(tableSource[1]);
-            scan.addFamily(familyNameBytes);
-            log.trace("表名#列簇：{}#{}", tableName, tableSource[1]);
-            // 获取字段列表
-            List<SQLSelectItem> selectItems = sqlSelectQueryBlock.getSelectList();
-            log.trace("需要查询字段：{}", selectItems);
-            if (selectItems.size() == 1) {
-                String selectColumn = StrUtil.strip(selectItems.get(0).toString(), "`");
-                if (selectColumn.equals(ROW_KEY_NAME)) {
-                    FilterList filterList = new FilterList();
-                    filterList.addFilter(new KeyOnlyFilter());
-                    scan.setFilter(filterList);
-                } else if (!selectColumn.equals("*")) {
-                    selectColumns.add(selectColumn);
-                    scan.addColumn(familyNameBytes, Bytes.toBytes(selectColumn));
-                }
-            } else {
-                for (SQLSelectItem selectItem : selectItems) {
-                    String selectColumn = StrUtil.strip(selectItem.toString(), "`");
-                    selectColumns.add(selectColumn);
-                    scan.addColumn(familyNameBytes, Bytes.toBytes(selectColumn));
-                }
+        RowKeyRange range = plan.rowRange;
+        List<Filter> filters = new ArrayList<>(plan.rowRangeFilters);
+        if (!scan.isReversed()) {
+            if (range.lower.length > 0 && Bytes.compareTo(range.lower, scan.getStartRow()) > 0) {
+                scan.setStartRow(range.lower);
             }
-            // 获取排序
-            SQLOrderBy orderBy = sqlSelectQueryBlock.getOrderBy();
-            if (orderBy != null) {
-                String orderByType = orderBy.getItems().get(0).getType().name();
-                log.trace("rowKey排序：{}", orderByType);
-                if (orderByType.equals("DESC")) {
-                    scan.setReversed(true);
-                } else {
-                    scan.setReversed(false);
-                }
+            if (range.upper.length > 0
+                    && (scan.getStopRow().length == 0 || Bytes.compareTo(range.upper, scan.getStopRow()) < 0)) {
+                scan.setStopRow(range.upper);
             }
-            // 获取分页
-            SQLLimit limit = sqlSelectQueryBlock.getLimit();
-            if (limit != null) {
-                pageSize = Integer.parseInt(limit.getRowCount().toString());
-                log.trace("查询 {} 条", pageSize);
-                if (config.canSetCaching) {
-                    if (pageSize > 1000) {
-                        scan.setCaching(1000);
-                    } else {
-                        scan.setCaching(pageSize);
-                    }
-                }
+            if (scan.getStopRow().length > 0 && Bytes.compareTo(scan.getStartRow(), scan.getStopRow()) >= 0) {
+                filters.add(new PageFilter(0));// 范围为空
+            }
+        } else {
+            if (range.upper.length > 0
+                    && (scan.getStartRow().length == 0 || Bytes.compareTo(range.upper, scan.getStartRow()) <= 0)) {
+                scan.setStartRow(range.upper);
             }
-            // 获取where条件
-            SQLExpr where = sqlSelectQueryBlock.getWhere();
-            if (where instanceof SQLBinaryOpExpr) {// 二元表达式
-                log.trace("查询条件：");
-                FilterList filterList = (FilterList) scan.getFilter();
-                if (filterList == null) {
-                    scan.setFilter(new FilterList());
+            if (range.lower.length > 0) {
+                byte[] lower = range.lower[range.lower.length - 1] == 0
+                        ? Bytes.copy(range.lower, 0, range.lower.length - 1) : range.lower.clone();
+                if (lower.length == range.lower.length) {
+                    lower[lower.length - 1]--;// 小于下界的一个rowKey，逆序扫描到这里结束
+                }
+                if (Bytes.compareTo(lower, scan.getStopRow()) > 0) {
+                    scan.setStopRow(lower);
                 }
-                parseQl(familyNameBytes, scan, CollUtil.isEmpty(selectColumns), where, null, columnCanMissingList);
             }
+            filters.add(rangeRowFilter(range));
         }
-        FilterList filterList = (FilterList) scan.getFilter();
-        if (filterList != null && CollUtil.isEmpty(filterList.getFilters())) {
-            scan.setFilter(null);
+        if (filters.isEmpty()) {
+            return;
+        }
+        FilterList filterList = new FilterList();
+        if (scan.getFilter() != null) {
+            filterList.addFilter(scan.getFilter());
         }
+        filters.forEach(filterList::addFilter);
+        scan.setFilter(filterList);
+    }
 
-        String startRow = Bytes.toString(scan.getStartRow());
-        String stopRow = Bytes.toString(scan.getStopRow());
-        if (StrUtil.isNotBlank(startRow) && StrUtil.isNotBlank(stopRow)) {
-            if (scan.isReversed()) {
-                if (startRow.compareTo(stopRow) < 0) {
-                    throw new RuntimeException(
-                            StrUtil.format("逆序查询数据，startRowKey[{}]不能小于stopRowKey[{}]", startRow, stopRow));
-                }
+    /**
+     * rowKey范围，下界包含，上界不包含，空数组表示不限
+     */
+    private static class RowKeyRange {
+        private byte[] lower = HConstants.EMPTY_START_ROW;
+        private byte[] upper = HConstants.EMPTY_END_ROW;
+        private byte[] fuzzyKey;// 固定长度模式，FuzzyRowFilter使用
+        private byte[] fuzzyMask;
+
+        /**
+         * 两个范围的交集，a为null时返回b
+         */
+        private static RowKeyRange intersect(RowKeyRange a, RowKeyRange b) {
+            if (a == null) {
+                return b;
+            }
+            RowKeyRange range = new RowKeyRange();
+            range.lower = Bytes.compareTo(a.lower, b.lower) >= 0 ? a.lower : b.lower;
+            if (a.upper.length == 0) {
+                range.upper = b.upper;
+            } else if (b.upper.length == 0) {
+                range.upper = a.upper;
             } else {
-                if (startRow.compareTo(stopRow) > 0) {
-                    throw new RuntimeException(
-                            StrUtil.format("正序查询数据，startRowKey[{}]不能大于stopRowKey[{}]", startRow, stopRow));
-                }
+                range.upper = Bytes.compareTo(a.upper, b.upper) <= 0 ? a.upper : b.upper;
             }
+            return range;
         }
 
-        log.trace("{}", scan);
-
-        try (Table table = config.connection.getTable(TableName.valueOf(tableName));) {
-            int i = 0;
-            for (Result result : table.getScanner(scan)) {
-                Map<String, String> row = new HashMap<>();
-                row.put(ROW_KEY_NAME, Bytes.toString(result.getRow()));
-                for (Cell cell : result.rawCells()) {// 循环所有列
-                    String value = Bytes.toString(CellUtil.cloneValue(cell));// 列值
-                    long timestamp = cell.getTimestamp();
-                    if (StrUtil.isNotBlank(value)) {
-                        String columnName = Bytes.toString(CellUtil.cloneQualifier(cell));// 列名
-                        if (!columnName.equals(ROW_KEY_NAME)) {
-                            if (CollUtil.isEmpty(selectColumns) || selectColumns.contains(columnName)) {
-                                if (BooleanUtil.isTrue(returnColumnTimestamp)) {
-                                    row.put(columnName,
-                                            new DateTime(timestamp).toString(DatePattern.NORM_DATETIME_MS_FORMAT));
-                                } else {
-                                    row.put(columnName, value);
-                                }
-                            }
-                        }
-                    }
-                }
-                try {
-                    handler.accept(row);
-                } catch (Exception e) {
-                    log.warn("数据回调处理发生异常 {}", ExceptionUtil.stacktraceToString(e));
-                    break;
+        /**
+         * 包含所有范围的最小范围
+         */
+        private static RowKeyRange union(List<RowKeyRange> ranges) {
+            RowKeyRange range = new RowKeyRange();
+            range.lower = null;
+            range.upper = null;
+            for (RowKeyRange r : ranges) {
+                if (range.lower == null || Bytes.compareTo(r.lower, range.lower) < 0) {
+                    range.lower = r.lower;
                 }
-                if (++i == pageSize) {
-                    break;
+                if (range.upper == null || range.upper.length > 0
+                        && (r.upper.length == 0 || Bytes.compareTo(r.upper, range.upper) > 0)) {
+                    range.upper = r.upper;
                 }
             }
-        } catch (Exception e) {
-            log.error("查询数据发生异常 {}", ExceptionUtil.stacktraceToString(e));
+            return range;
         }
     }
 
     /**
-     * 解析QL
+     * 选择在客户端执行的条件
      *
-     * @param familyNameBytes
-     * @param scan
-     * @param selectAllColumn
-     * @param sqlExpr
-     * @param filterList
-     * @param columnCanMissingList
+     * <pre>
+     * 只考虑where中用and连接的顶层常量条件，已经转换为get或者rowKey范围的条件不参与
+     * 每个条件转换为中间表示，按代价模型比较下推与在客户端执行的开销，客户端更便宜时改为在客户端执行
+     * Builder设置numberComparator(true)但是region server不能加载NumberComparator时，含有数值比较的条件总是在客户端执行
+     * 统计、聚合与只查询rowKey时查询结果中没有完整的列值，全部下推；latest查询每个前缀只取一行，也全部下推
+     * 在客户端执行的条件编译为一个lambda，在toRow中判断
+     * </pre>
+     *
+     * @param plan 查询计划
+     */
+    private void planResidualPredicates(QlPlan plan) {
+        if (plan.forCount || plan.rowKeyOnly || plan.aggregates != null || plan.latest) {
+            return;
+        }
+        boolean numberOnClient = config.numberComparator && !numberComparatorAvailable();
+        if (!config.costBasedResidual && !numberOnClient) {
+            return;
+        }
+        boolean regexOnServer = !useNumberComparator();
+        int cells = plan.selectAllColumn ? QlPredicate.WIDE_ROW_CELLS : Math.max(1, plan.selectColumns.size());
+        List<SQLExpr> conjuncts = new ArrayList<>();
+        flattenAnd(plan.where, conjuncts);
+        for (SQLExpr conjunct : conjuncts) {
+            if (conjunct == plan.rowKeyExpr || plan.rowRangeExprs.contains(conjunct)) {
+                continue;
+            }
+            QlPredicate predicate = toPredicate(plan, conjunct, regexOnServer);
+            if (predicate == null) {
+                continue;
+            }
+            if (numberOnClient && predicate.hasNumberComparison()
+                    || config.costBasedResidual && predicate.cheaperOnClient(cells)) {
+                plan.residualPredicates.add(predicate);
+                plan.residualExprs.add(conjunct);
+                predicate.collectQualifiers(plan.residualQualifiers);
+                log.trace("客户端比较 {}", predicate);
+            }
+        }
+        if (!plan.residualPredicates.isEmpty()) {
+            plan.residual = QlPredicate.and(plan.residualPredicates).compile(plan.familyNameBytes);
+        }
+    }
+
+    /**
+     * 把条件转换为中间表示，比较器与下推时使用的过滤器相同，数值比较使用NumberComparator
+     *
+     * @param plan          查询计划
+     * @param sqlExpr       条件
+     * @param regexOnServer 下推时数值比较是否转换为正则表达式
+     *
+     * @return 含有占位符、startRowKey、stopRowKey或者不支持的条件时返回null
      */
-    private void parseQl(byte[] familyNameBytes, Scan scan, boolean selectAllColumn, SQLExpr sqlExpr,
-                         FilterList filterList, List<String> columnCanMissingList) {
-        FilterList fl = filterList;
+    private QlPredicate toPredicate(QlPlan plan, SQLExpr sqlExpr, boolean regexOnServer) {
+        if (sqlExpr instanceof SQLInListExpr) {
+            SQLInListExpr expr = (SQLInListExpr) sqlExpr;
+            if (!isColumn(expr.getExpr())) {
+                return null;
+            }
+            String columnName = StrUtil.strip(expr.getExpr().toString(), "`");
+            if (columnName.equals(START_ROW_KEY_NAME) || columnName.equals(STOP_ROW_KEY_NAME)) {
+                return null;
+            }
+            // in展开为多个等于用or连接，not in展开为多个不等于用and连接
+            CompareFilter.CompareOp op = expr.isNot() ? CompareFilter.CompareOp.NOT_EQUAL
+                    : CompareFilter.CompareOp.EQUAL;
+            List<QlPredicate> children = new ArrayList<>(expr.getTargetList().size());
+            for (SQLExpr target : expr.getTargetList()) {
+                if (target instanceof SQLVariantRefExpr) {
+                    return null;
+                }
+                String value = literalValue(target);
+                children.add(toPredicate(plan, StrUtil.format("{} {} '{}'", columnName, expr.isNot() ? "!=" : "=",
+                        value), columnName, op, new BinaryComparator(Bytes.toBytes(value)), false));
+            }
+            if (children.isEmpty()) {
+                return null;
+            }
+            return expr.isNot() ? QlPredicate.and(children) : QlPredicate.or(children);
+        }
+        if (!(sqlExpr instanceof SQLBinaryOpExpr)) {
+            return null;
+        }
         SQLBinaryOpExpr expr = (SQLBinaryOpExpr) sqlExpr;
-        SQLExpr left = expr.getLeft();
         SQLBinaryOperator operator = expr.getOperator();
-        SQLExpr right = expr.getRight();
-        if (fl == null) {
-            if (operator == SQLBinaryOperator.BooleanOr) {
-                fl = new FilterList(FilterList.Operator.MUST_PASS_ONE);
-                FilterList scanFilterList = (FilterList) scan.getFilter();
-                scanFilterList.addFilter(fl);
-            } else {
-                fl = (FilterList) scan.getFilter();
+        if (operator == SQLBinaryOperator.BooleanAnd || operator == SQLBinaryOperator.BooleanOr) {
+            List<QlPredicate> children = new ArrayList<>(2);
+            for (SQLExpr operand : Arrays.asList(expr.getLeft(), expr.getRight())) {
+                QlPredicate child = toPredicate(plan, operand, regexOnServer);
+                if (child == null) {
+                    return null;
+                }
+                children.add(child);
             }
+            return operator == SQLBinaryOperator.BooleanAnd ? QlPredicate.and(children) : QlPredicate.or(children);
         }
-        if (right instanceof SQLBinaryOpExpr) {
-            SQLBinaryOperator rightOperator = ((SQLBinaryOpExpr) right).getOperator();
-            if (rightOperator == SQLBinaryOperator.BooleanOr) {
-                FilterList rightFl = new FilterList(FilterList.Operator.MUST_PASS_ONE);
-                fl.addFilter(rightFl);
-                fl = rightFl;
+        if (!isColumn(expr.getLeft()) || expr.getRight() instanceof SQLVariantRefExpr
+                || expr.getRight() instanceof SQLBinaryOpExpr) {
+            return null;
+        }
+        String columnName = StrUtil.strip(expr.getLeft().toString(), "`");
+        if (columnName.equals(START_ROW_KEY_NAME) || columnName.equals(STOP_ROW_KEY_NAME)) {
+            return null;
+        }
+        boolean rowKey = columnName.equals(ROW_KEY_NAME);
+        String columnValue = literalValue(expr.getRight());
+        String text = StrUtil.format("{} {} {}", columnName, operator.getName(), expr.getRight());
+        CompareFilter.CompareOp op;
+        ByteArrayComparable comparator;
+        boolean number = false;
+        try {
+            switch (operator) {
+                case Equality:
+                case NotEqual:
+                    op = operator == SQLBinaryOperator.Equality ? CompareFilter.CompareOp.EQUAL
+                            : CompareFilter.CompareOp.NOT_EQUAL;
+                    if (columnValue.startsWith("REG#")) {
+                        comparator = new RegexStringComparator(columnValue.substring(columnValue.indexOf("#") + 1));
+                    } else if (!rowKey && NumberUtil.isNumber(columnValue)) {
+                        comparator = new NumberComparator(NumberComparator.Operator.EQUAL, columnValue);
+                        number = true;
+                    } else {
+                        comparator = new BinaryComparator(Bytes.toBytes(columnValue));
+                    }
+                    break;
+                case Like:
+                case NotLike:
+                    op = operator == SQLBinaryOperator.Like ? CompareFilter.CompareOp.EQUAL
+                            : CompareFilter.CompareOp.NOT_EQUAL;
+                    if (rowKey && StrUtil.containsAny(columnValue, "%", "?")) {
+                        comparator = new RegexStringComparator(likeToRegex(columnValue));
+                    } else {
+                        comparator = new SubstringComparator(columnValue);
+                    }
+                    break;
+                case GreaterThan:
+                case GreaterThanOrEqual:
+                case LessThan:
+                case LessThanOrEqual:
+                    if (rowKey) {
+                        op = ROW_KEY_COMPARE_OPS.get(operator);
+                        comparator = new BinaryComparator(Bytes.toBytes(columnValue));
+                    } else {
+                        op = CompareFilter.CompareOp.EQUAL;
+                        comparator = new NumberComparator(NUMBER_OPERATORS.get(operator), columnValue);
+                        number = true;
+                    }
+                    break;
+                default:
+                    return null;
             }
-            parseQl(familyNameBytes, scan, selectAllColumn, right, fl, columnCanMissingList);
+        } catch (IllegalArgumentException e) {
+            return null;// NumberComparator不支持的数字，下推时使用正则表达式
         }
-        if (left instanceof SQLBinaryOpExpr) {
-            parseQl(familyNameBytes, scan, selectAllColumn, left, fl, columnCanMissingList);
+        if (rowKey) {
+            return QlPredicate.rowKey(text, op, comparator);
         }
-        if (left instanceof SQLIdentifierExpr || left instanceof SQLIntegerExpr) {
-            addStartRowKeyAndStopRowKeyAndFilter(familyNameBytes, scan, selectAllColumn, left, operator, right, fl,
-                    columnCanMissingList);
+        return toPredicate(plan, text, columnName, op, comparator, number && regexOnServer);
+    }
+
+    /**
+     * 列比较的中间表示
+     */
+    private QlPredicate toPredicate(QlPlan plan, String text, String columnName, CompareFilter.CompareOp op,
+                                    ByteArrayComparable comparator, boolean regexOnServer) {
+        if (columnName.equals(ROW_KEY_NAME)) {
+            return QlPredicate.rowKey(text, op, comparator);
         }
+        boolean filterIfMissing = CollUtil.isEmpty(plan.columnCanMissingList)
+                || !plan.columnCanMissingList.contains(columnName);
+        return QlPredicate.column(text, columnName, op, comparator, filterIfMissing, regexOnServer);
     }
 
     /**
      * 给scan添加startRowKey与stopRowKey与filter
      *
-     * @param familyNameBytes
+     * @param plan       查询计划
      * @param scan
-     * @param selectAllColumn
      * @param left
      * @param operator
      * @param right
-     * @param filterIfMissingColumnList
+     * @param filterList
+     * @param params     绑定参数，编译阶段为null
      */
-    private void addStartRowKeyAndStopRowKeyAndFilter(byte[] familyNameBytes, Scan scan, boolean selectAllColumn,
-                                                      SQLExpr left, SQLBinaryOperator operator, SQLExpr right, FilterList filterList,
-                                                      List<String> filterIfMissingColumnList) {
+    private void addStartRowKeyAndStopRowKeyAndFilter(QlPlan plan, Scan scan, SQLExpr left, SQLBinaryOperator operator,
+                                                      SQLExpr right, FilterList filterList, String[] params) {
+        byte[] familyNameBytes = plan.familyNameBytes;
+        boolean selectAllColumn = plan.selectAllColumn;
+        List<String> filterIfMissingColumnList = plan.columnCanMissingList;
         String columnName = StrUtil.strip(left.toString(), "`");
-        String columnValue = right.toString();
-        String type = right.computeDataType().getName();
-        if (type.contains("char")) {
-            columnValue = StrUtil.strip(columnValue, "'");
+        String columnValue;
+        if (right instanceof SQLVariantRefExpr) {// 占位符
+            int index = ((SQLVariantRefExpr) right).getIndex();
+            if (params == null) {
+                // 编译阶段只记录占位符位置，等绑定参数时再设置
+                plan.parameterCount = Math.max(plan.parameterCount, index + 1);
+                if (columnName.equals(START_ROW_KEY_NAME)) {
+                    plan.startRowKeyParamIndex = index;
+                } else if (columnName.equals(STOP_ROW_KEY_NAME)) {
+                    plan.stopRowKeyParamIndex = index;
+                } else {
+                    plan.filterParameterized = true;
+                }
+                return;
+            }
+            columnValue = params[index];
+        } else {
+            columnValue = literalValue(right);
         }
         if (columnName.equals(START_ROW_KEY_NAME)) {
             log.trace("添加 {}", START_ROW_KEY_NAME);
@@ -902,13 +7198,7 @@ public class HbaseUtil implements AutoCloseable {
             // scan.withStartRow(Bytes.toBytes(columnValue), true);
         } else if (columnName.equals(STOP_ROW_KEY_NAME)) {
             log.trace("添加 {}", STOP_ROW_KEY_NAME);
-            String fixStopRow = null;
-            if (scan.isReversed()) {
-                fixStopRow = lastCharAsciiSubOne(columnValue);
-            } else {
-                fixStopRow = lastCharAsciiAddOne(columnValue);
-            }
-            scan.setStopRow(Bytes.toBytes(fixStopRow));
+            scan.setStopRow(Bytes.toBytes(fixStopRow(scan.isReversed(), columnValue)));
             // scan.withStopRow(Bytes.toBytes(columnValue), true);
         } else {
             if (!selectAllColumn) {
@@ -927,11 +7217,14 @@ public class HbaseUtil implements AutoCloseable {
                                 Bytes.toBytes(columnName), CompareFilter.CompareOp.EQUAL,
                                 new RegexStringComparator(regex));
                     }
+                } else if (columnName.equals(ROW_KEY_NAME)) {
+                    rowFilter = new RowFilter(CompareFilter.CompareOp.EQUAL,
+                            new BinaryComparator(Bytes.toBytes(columnValue)));
                 } else {
                     if (NumberUtil.isNumber(columnValue)) {
                         singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes,
                                 Bytes.toBytes(columnName), CompareFilter.CompareOp.EQUAL,
-                                new RegexStringComparator(config.regexUtil.transformEqualNumber(columnValue)));
+                                numberComparable(NumberComparator.Operator.EQUAL, columnValue));
                     } else {
                         singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes,
                                 Bytes.toBytes(columnName), CompareFilter.CompareOp.EQUAL, Bytes.toBytes(columnValue));
@@ -947,26 +7240,38 @@ public class HbaseUtil implements AutoCloseable {
                                 Bytes.toBytes(columnName), CompareFilter.CompareOp.NOT_EQUAL,
                                 new RegexStringComparator(regex));
                     }
+                } else if (columnName.equals(ROW_KEY_NAME)) {
+                    rowFilter = new RowFilter(CompareFilter.CompareOp.NOT_EQUAL,
+                            new BinaryComparator(Bytes.toBytes(columnValue)));
                 } else {
                     if (NumberUtil.isNumber(columnValue)) {
                         singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes,
                                 Bytes.toBytes(columnName), CompareFilter.CompareOp.NOT_EQUAL,
-                                new RegexStringComparator(config.regexUtil.transformEqualNumber(columnValue)));
+                                numberComparable(NumberComparator.Operator.EQUAL, columnValue));
                     } else {
                         singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes,
                                 Bytes.toBytes(columnName), CompareFilter.CompareOp.NOT_EQUAL,
                                 Bytes.toBytes(columnValue));
                     }
                 }
+            } else if (columnName.equals(ROW_KEY_NAME) && ROW_KEY_COMPARE_OPS.containsKey(operator)) {
+                rowFilter = new RowFilter(ROW_KEY_COMPARE_OPS.get(operator),
+                        new BinaryComparator(Bytes.toBytes(columnValue)));
             } else if (operator == SQLBinaryOperator.Like) {
-                if (columnName.equals(ROW_KEY_NAME)) {
+                if (columnName.equals(ROW_KEY_NAME) && StrUtil.containsAny(columnValue, "%", "?")) {
+                    rowFilter = new RowFilter(CompareFilter.CompareOp.EQUAL,
+                            new RegexStringComparator(likeToRegex(columnValue)));
+                } else if (columnName.equals(ROW_KEY_NAME)) {
                     rowFilter = new RowFilter(CompareFilter.CompareOp.EQUAL, new SubstringComparator(columnValue));
                 } else {
                     singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes, Bytes.toBytes(columnName),
                             CompareFilter.CompareOp.EQUAL, new SubstringComparator(columnValue));
                 }
             } else if (operator == SQLBinaryOperator.NotLike) {
-                if (columnName.equals(ROW_KEY_NAME)) {
+                if (columnName.equals(ROW_KEY_NAME) && StrUtil.containsAny(columnValue, "%", "?")) {
+                    rowFilter = new RowFilter(CompareFilter.CompareOp.NOT_EQUAL,
+                            new RegexStringComparator(likeToRegex(columnValue)));
+                } else if (columnName.equals(ROW_KEY_NAME)) {
                     rowFilter = new RowFilter(CompareFilter.CompareOp.NOT_EQUAL, new SubstringComparator(columnValue));
                 } else {
                     singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes, Bytes.toBytes(columnName),
@@ -975,19 +7280,19 @@ public class HbaseUtil implements AutoCloseable {
             } else if (operator == SQLBinaryOperator.GreaterThan) {
                 singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes, Bytes.toBytes(columnName),
                         CompareFilter.CompareOp.EQUAL,
-                        new RegexStringComparator(config.regexUtil.transformGreaterNumber(columnValue)));
+                        numberComparable(NumberComparator.Operator.GREATER, columnValue));
             } else if (operator == SQLBinaryOperator.GreaterThanOrEqual) {
                 singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes, Bytes.toBytes(columnName),
                         CompareFilter.CompareOp.EQUAL,
-                        new RegexStringComparator(config.regexUtil.transformGreaterOrEqualNumber(columnValue)));
+                        numberComparable(NumberComparator.Operator.GREATER_OR_EQUAL, columnValue));
             } else if (operator == SQLBinaryOperator.LessThan) {
                 singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes, Bytes.toBytes(columnName),
                         CompareFilter.CompareOp.EQUAL,
-                        new RegexStringComparator(config.regexUtil.transformLessNumber(columnValue)));
+                        numberComparable(NumberComparator.Operator.LESS, columnValue));
             } else if (operator == SQLBinaryOperator.LessThanOrEqual) {
                 singleColumnValueFilter = new SingleColumnValueFilter(familyNameBytes, Bytes.toBytes(columnName),
                         CompareFilter.CompareOp.EQUAL,
-                        new RegexStringComparator(config.regexUtil.transformLessOrEqualNumber(columnValue)));
+                        numberComparable(NumberComparator.Operator.LESS_OR_EQUAL, columnValue));
             }
             if (singleColumnValueFilter != null) {
                 if (CollUtil.isNotEmpty(filterIfMissingColumnList) && filterIfMissingColumnList.contains(columnName)) {
@@ -0,0 +1,353 @@
+package sunyu.util;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 通过JMX暴露HbaseUtil操作指标
+ *
+ * <pre>
+ * 每个 操作+表名+查询指纹 注册一个MBean，ObjectName：sunyu.util:type=HbaseUtil,instance=N,operation=select,table=表名,query=指纹哈希
+ * 查询指纹是去掉字面量后的QL，相同形状的查询共用一组指标，Query属性是完整的指纹
+ * 每个实例最多注册maxQueries组指标，超过后新的查询形状记录在 query=other 中，避免MBean数量无限增长
+ * 可以使用jconsole、jmx_exporter等工具查看
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class JmxMetricsRegistry implements HbaseUtil.MetricsRegistry {
+    private final Log log = LogFactory.get();
+    private static final AtomicInteger INSTANCE_SEQUENCE = new AtomicInteger(0);
+    private static final String OTHER_QUERY = "other";
+
+    private final String domain;
+    private final int instance = INSTANCE_SEQUENCE.incrementAndGet();
+    private final int maxQueries;
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    public JmxMetricsRegistry() {
+        this("sunyu.util", 1000);
+    }
+
+    /**
+     * @param domain     ObjectName的域
+     * @param maxQueries 最多注册的指标组数
+     */
+    public JmxMetricsRegistry(String domain, int maxQueries) {
+        this.domain = domain;
+        this.maxQueries = maxQueries;
+    }
+
+    @Override
+    public void record(HbaseUtil.OperationMetrics metrics) {
+        String query = StrUtil.nullToDefault(metrics.getQuery(), metrics.getOperation());
+        String key = metrics.getOperation() + "\n" + metrics.getTableName() + "\n" + query;
+        OperationStats operationStats = stats.get(key);
+        if (operationStats == null) {
+            if (stats.size() >= maxQueries) {
+                query = OTHER_QUERY;
+                key = metrics.getOperation() + "\n" + metrics.getTableName() + "\n" + query;
+            }
+            String finalQuery = query;
+            operationStats = stats.computeIfAbsent(key,
+                    k -> register(metrics.getOperation(), metrics.getTableName(), finalQuery));
+        }
+        operationStats.update(metrics);
+    }
+
+    /**
+     * 注销所有MBean
+     */
+    @Override
+    public void close() {
+        stats.values().forEach(operationStats -> {
+            try {
+                mBeanServer.unregisterMBean(operationStats.objectName);
+            } catch (Exception e) {
+                log.warn("注销MBean {} 失败 {}", operationStats.objectName, ExceptionUtil.stacktraceToString(e));
+            }
+        });
+        stats.clear();
+    }
+
+    /**
+     * 获得指标组，没有记录过时返回null
+     *
+     * @param operation 操作
+     * @param tableName 表名
+     * @param query     查询指纹
+     *
+     * @return 指标组
+     */
+    public OperationStatsMBean getStats(String operation, String tableName, String query) {
+        return stats.get(operation + "\n" + tableName + "\n" + StrUtil.nullToDefault(query, operation));
+    }
+
+    private OperationStats register(String operation, String tableName, String query) {
+        OperationStats operationStats = new OperationStats(operation, tableName, query);
+        try {
+            operationStats.objectName = new ObjectName(StrUtil.format(
+                    "{}:type=HbaseUtil,instance={},operation={},table={},query={}", domain, instance,
+                    ObjectName.quote(operation), ObjectName.quote(StrUtil.nullToEmpty(tableName)),
+                    OTHER_QUERY.equals(query) ? OTHER_QUERY : Integer.toHexString(query.hashCode())));
+            mBeanServer.registerMBean(new StandardMBean(operationStats, OperationStatsMBean.class),
+                    operationStats.objectName);
+        } catch (Exception e) {
+            log.warn("注册MBean失败 {}", ExceptionUtil.stacktraceToString(e));
+        }
+        return operationStats;
+    }
+
+    /**
+     * 一组操作指标
+     */
+    public interface OperationStatsMBean {
+        String getOperation();
+
+        String getTable();
+
+        String getQuery();
+
+        long getCount();
+
+        long getErrorCount();
+
+        long getRows();
+
+        long getCells();
+
+        long getBytes();
+
+        long getRpcCalls();
+
+        long getRowsScanned();
+
+        long getRowsFiltered();
+
+        /**
+         * 被过滤掉的行占扫描行数的比例
+         */
+        double getFilterRejectionRatio();
+
+        double getMeanLatencyMillis();
+
+        double getP50LatencyMillis();
+
+        double getP95LatencyMillis();
+
+        double getP99LatencyMillis();
+
+        double getMaxLatencyMillis();
+    }
+
+    private static class OperationStats implements OperationStatsMBean {
+        private final String operation;
+        private final String table;
+        private final String query;
+        private ObjectName objectName;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errorCount = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder cells = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder rpcCalls = new LongAdder();
+        private final LongAdder rowsScanned = new LongAdder();
+        private final LongAdder rowsFiltered = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private OperationStats(String operation, String table, String query) {
+            this.operation = operation;
+            this.table = table;
+            this.query = query;
+        }
+
+        private void update(HbaseUtil.OperationMetrics metrics) {
+            count.increment();
+            if (metrics.isError()) {
+                errorCount.increment();
+            }
+            rows.add(metrics.getRows());
+            cells.add(metrics.getCells());
+            bytes.add(metrics.getBytes());
+            rpcCalls.add(metrics.getRpcCalls());
+            rowsScanned.add(metrics.getRowsScanned());
+            rowsFiltered.add(metrics.getRowsFiltered());
+            latency.record(metrics.getLatencyNanos());
+        }
+
+        @Override
+        public String getOperation() {
+            return operation;
+        }
+
+        @Override
+        public String getTable() {
+            return table;
+        }
+
+        @Override
+        public String getQuery() {
+            return query;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errorCount.sum();
+        }
+
+        @Override
+        public long getRows() {
+            return rows.sum();
+        }
+
+        @Override
+        public long getCells() {
+            return cells.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public long getRpcCalls() {
+            return rpcCalls.sum();
+        }
+
+        @Override
+        public long getRowsScanned() {
+            return rowsScanned.sum();
+        }
+
+        @Override
+        public long getRowsFiltered() {
+            return rowsFiltered.sum();
+        }
+
+        @Override
+        public double getFilterRejectionRatio() {
+            long scanned = rowsScanned.sum();
+            return scanned == 0 ? 0 : (double) rowsFiltered.sum() / scanned;
+        }
+
+        @Override
+        public double getMeanLatencyMillis() {
+            return latency.mean() / 1000d;
+        }
+
+        @Override
+        public double getP50LatencyMillis() {
+            return latency.percentile(0.5) / 1000d;
+        }
+
+        @Override
+        public double getP95LatencyMillis() {
+            return latency.percentile(0.95) / 1000d;
+        }
+
+        @Override
+        public double getP99LatencyMillis() {
+            return latency.percentile(0.99) / 1000d;
+        }
+
+        @Override
+        public double getMaxLatencyMillis() {
+            return latency.max() / 1000d;
+        }
+    }
+
+    /**
+     * 耗时直方图，单位微秒
+     *
+     * <pre>
+     * 小于16微秒每微秒一个桶，之后每个2的幂次区间分为8个桶，相对误差不超过12.5%
+     * 只累加不重置，记录的是实例创建以来的分布
+     * </pre>
+     */
+    private static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int LINEAR_LIMIT = 16;
+        private final AtomicLongArray buckets = new AtomicLongArray(LINEAR_LIMIT + (64 - 4) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong(0);
+
+        private void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(bucket(micros));
+            count.increment();
+            sum.add(micros);
+            long current;
+            while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+                // 并发更新最大值
+            }
+        }
+
+        private int bucket(long micros) {
+            if (micros < LINEAR_LIMIT) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * 桶的上界
+         */
+        private long upperBound(int bucket) {
+            if (bucket < LINEAR_LIMIT) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+            int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+        }
+
+        private double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        private long max() {
+            return max.get();
+        }
+
+        private long percentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+}
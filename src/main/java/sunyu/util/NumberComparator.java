@@ -0,0 +1,182 @@
+package sunyu.util;
+
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.filter.ByteArrayComparable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * 数值比较器，把列值当作十进制数字与给定数字比较
+ *
+ * <pre>
+ * 用于代替RegexUtil生成的正则表达式，直接比较，不需要正则匹配
+ * 与RegexStringComparator的用法相同：满足比较条件时返回0，否则返回1，配合CompareOp.EQUAL或CompareOp.NOT_EQUAL使用
+ * 只识别 -?\d+(\.\d+)? 格式的列值，其余列值都不满足比较条件，与正则表达式的行为一致
+ * 在region server上使用时，需要把此jar放入hbase的classpath中
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class NumberComparator extends ByteArrayComparable {
+    /**
+     * 比较运算符，列值 运算符 给定数字
+     */
+    public enum Operator {
+        EQUAL, GREATER, GREATER_OR_EQUAL, LESS, LESS_OR_EQUAL
+    }
+
+    private final Operator operator;
+    private final boolean negative;// 给定数字是否是负数
+    private final byte[] integerDigits;// 给定数字去掉前导0的整数部分
+    private final byte[] fractionDigits;// 给定数字去掉末尾0的小数部分
+
+    /**
+     * @param operator 比较运算符
+     * @param number   给定数字
+     */
+    public NumberComparator(Operator operator, String number) {
+        super(Bytes.toBytes(number));
+        this.operator = operator;
+        byte[] b = getValue();
+        int[] parts = parse(b, 0, b.length);
+        if (parts == null) {
+            throw new IllegalArgumentException("不是数字：" + number);
+        }
+        this.negative = parts[0] == 1;
+        this.integerDigits = Bytes.copy(b, parts[1], parts[2] - parts[1]);
+        this.fractionDigits = Bytes.copy(b, parts[3], parts[4] - parts[3]);
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Bytes.add(new byte[]{(byte) operator.ordinal()}, getValue());
+    }
+
+    /**
+     * region server反序列化时调用
+     *
+     * @param bytes toByteArray的结果
+     *
+     * @return 比较器
+     */
+    public static NumberComparator parseFrom(byte[] bytes) throws DeserializationException {
+        try {
+            return new NumberComparator(Operator.values()[bytes[0]], Bytes.toString(bytes, 1, bytes.length - 1));
+        } catch (Exception e) {
+            throw new DeserializationException(e);
+        }
+    }
+
+    @Override
+    public int compareTo(byte[] value, int offset, int length) {
+        return matches(value, offset, length) ? 0 : 1;
+    }
+
+    /**
+     * 列值是否满足比较条件
+     *
+     * @param value  列值所在数组
+     * @param offset 偏移量
+     * @param length 长度
+     *
+     * @return 是否满足
+     */
+    public boolean matches(byte[] value, int offset, int length) {
+        int[] parts = parse(value, offset, length);
+        if (parts == null) {
+            return false;
+        }
+        int result;
+        boolean valueNegative = parts[0] == 1;
+        if (valueNegative != negative) {
+            result = valueNegative ? -1 : 1;
+        } else {
+            int magnitude = compareMagnitude(value, parts);
+            result = valueNegative ? -magnitude : magnitude;
+        }
+        switch (operator) {
+            case EQUAL:
+                return result == 0;
+            case GREATER:
+                return result > 0;
+            case GREATER_OR_EQUAL:
+                return result >= 0;
+            case LESS:
+                return result < 0;
+            case LESS_OR_EQUAL:
+                return result <= 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 比较列值与给定数字的绝对值
+     *
+     * @return 列值大于给定数字返回正数，等于返回0，小于返回负数
+     */
+    private int compareMagnitude(byte[] value, int[] parts) {
+        int integerLength = parts[2] - parts[1];
+        if (integerLength != integerDigits.length) {
+            return integerLength - integerDigits.length;
+        }
+        int result = Bytes.compareTo(value, parts[1], integerLength, integerDigits, 0, integerDigits.length);
+        if (result != 0) {
+            return result;
+        }
+        // 小数部分已经去掉末尾0，直接按字典序比较
+        return Bytes.compareTo(value, parts[3], parts[4] - parts[3], fractionDigits, 0, fractionDigits.length);
+    }
+
+    /**
+     * 解析十进制数字
+     *
+     * @return [是否负数, 整数开始, 整数结束, 小数开始, 小数结束]，整数去掉前导0，小数去掉末尾0；不是数字返回null
+     */
+    private static int[] parse(byte[] b, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && b[i] == '-') {
+            negative = true;
+            i++;
+        }
+        int integerStart = i;
+        while (i < end && b[i] >= '0' && b[i] <= '9') {
+            i++;
+        }
+        int integerEnd = i;
+        if (integerEnd == integerStart) {
+            return null;
+        }
+        int fractionStart = i;
+        int fractionEnd = i;
+        if (i < end) {
+            if (b[i] != '.') {
+                return null;
+            }
+            fractionStart = ++i;
+            while (i < end && b[i] >= '0' && b[i] <= '9') {
+                i++;
+            }
+            fractionEnd = i;
+            if (fractionEnd == fractionStart || i != end) {
+                return null;
+            }
+        }
+        while (integerStart < integerEnd && b[integerStart] == '0') {
+            integerStart++;
+        }
+        while (fractionEnd > fractionStart && b[fractionEnd - 1] == '0') {
+            fractionEnd--;
+        }
+        if (integerStart == integerEnd && fractionStart == fractionEnd) {
+            negative = false;// -0 等于 0
+        }
+        return new int[]{negative ? 1 : 0, integerStart, integerEnd, fractionStart, fractionEnd};
+    }
+
+}
@@ -0,0 +1,344 @@
+package sunyu.util;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.ByteArrayComparable;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.SubstringComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * where条件的中间表示
+ *
+ * <pre>
+ * 条件规范化为一棵树：and、or节点有多个子节点，嵌套的同类节点合并为一层；叶子是rowKey或者一列与常量的比较，in列表展开为or（not in展开为and）
+ * 叶子的比较语义与对应的过滤器相同：比较运算符与比较器和RowFilter、SingleColumnValueFilter一致，列只取最新版本，列不存在时按filterIfMissing决定
+ * 规划时按代价模型决定顶层每个and条件是下推到region server转换为过滤器，还是在客户端执行
+ * 客户端执行的条件编译为lambda树，直接比较查询结果的cell，不需要先转换为map
+ *
+ * 代价模型（单位是region server上一个过滤器处理一个cell的开销）：
+ * 下推：过滤器树中每个过滤器（包括FilterList）都要处理每个cell，再加上一次比较的开销
+ * 客户端：每个叶子查找一次列并比较一次，再加上不满足条件的行多传输的cell
+ * </pre>
+ *
+ * @author 孙宇
+ */
+abstract class QlPredicate {
+    static final int WIDE_ROW_CELLS = 64;// 查询所有列时估算的每行cell数量
+    static final double CELL_TRANSFER_COST = 16;// 一个cell序列化、传输、解码的开销
+    private static final double FILTER_CELL_COST = 1;// 一个过滤器处理一个cell的开销
+
+    /**
+     * 满足条件的行的比例估算值
+     */
+    abstract double selectivity();
+
+    /**
+     * 下推到region server时每行的开销
+     *
+     * @param cells 每行cell数量
+     */
+    abstract double serverCost(int cells);
+
+    /**
+     * 在客户端执行时每行比较的开销，不包含传输
+     *
+     * @param cells 每行cell数量
+     */
+    abstract double clientCost(int cells);
+
+    /**
+     * 编译为在查询结果上执行的lambda
+     *
+     * @param familyNameBytes 列簇
+     */
+    abstract Predicate<Result> compile(byte[] familyNameBytes);
+
+    /**
+     * 收集条件中用到的列，rowKey不算
+     */
+    abstract void collectQualifiers(Set<String> qualifiers);
+
+    /**
+     * 是否有数值比较
+     */
+    abstract boolean hasNumberComparison();
+
+    /**
+     * 在客户端执行是否更便宜
+     *
+     * @param cells 每行cell数量
+     */
+    boolean cheaperOnClient(int cells) {
+        double residualCost = clientCost(cells) + (1 - selectivity()) * cells * CELL_TRANSFER_COST;
+        return residualCost < serverCost(cells);
+    }
+
+    /**
+     * and连接，子节点中的and合并为一层，只有一个子节点时返回子节点
+     */
+    static QlPredicate and(List<QlPredicate> children) {
+        return junction(true, children);
+    }
+
+    /**
+     * or连接，子节点中的or合并为一层，只有一个子节点时返回子节点
+     */
+    static QlPredicate or(List<QlPredicate> children) {
+        return junction(false, children);
+    }
+
+    private static QlPredicate junction(boolean and, List<QlPredicate> children) {
+        List<QlPredicate> flattened = new ArrayList<>();
+        for (QlPredicate child : children) {
+            if (child instanceof Junction && ((Junction) child).and == and) {
+                flattened.addAll(((Junction) child).children);
+            } else {
+                flattened.add(child);
+            }
+        }
+        return flattened.size() == 1 ? flattened.get(0) : new Junction(and, flattened);
+    }
+
+    /**
+     * rowKey比较，与RowFilter相同
+     *
+     * @param text       条件原文
+     * @param op         比较运算符
+     * @param comparator 比较器
+     */
+    static QlPredicate rowKey(String text, CompareFilter.CompareOp op, ByteArrayComparable comparator) {
+        return new Compare(text, null, op, comparator, false, false);
+    }
+
+    /**
+     * 列比较，与SingleColumnValueFilter相同
+     *
+     * @param text            条件原文
+     * @param qualifier       列名
+     * @param op              比较运算符
+     * @param comparator      比较器，数值比较使用NumberComparator
+     * @param filterIfMissing 列不存在时是否过滤掉
+     * @param regexOnServer   下推时数值比较是否转换为正则表达式
+     */
+    static QlPredicate column(String text, String qualifier, CompareFilter.CompareOp op,
+                              ByteArrayComparable comparator, boolean filterIfMissing, boolean regexOnServer) {
+        return new Compare(text, qualifier, op, comparator, filterIfMissing, regexOnServer);
+    }
+
+    /**
+     * 多个条件用and或者or连接
+     */
+    private static class Junction extends QlPredicate {
+        private final boolean and;
+        private final List<QlPredicate> children;
+
+        private Junction(boolean and, List<QlPredicate> children) {
+            this.and = and;
+            this.children = children;
+        }
+
+        @Override
+        double selectivity() {
+            double selectivity = 1;
+            for (QlPredicate child : children) {
+                selectivity *= and ? child.selectivity() : 1 - child.selectivity();
+            }
+            return and ? selectivity : 1 - selectivity;
+        }
+
+        @Override
+        double serverCost(int cells) {
+            double cost = cells * FILTER_CELL_COST;// FilterList本身
+            for (QlPredicate child : children) {
+                cost += child.serverCost(cells);
+            }
+            return cost;
+        }
+
+        @Override
+        double clientCost(int cells) {
+            double cost = 0;
+            for (QlPredicate child : children) {
+                cost += child.clientCost(cells);
+            }
+            return cost;
+        }
+
+        @Override
+        Predicate<Result> compile(byte[] familyNameBytes) {
+            @SuppressWarnings("unchecked")
+            Predicate<Result>[] predicates = (Predicate<Result>[]) new Predicate<?>[children.size()];// 泛型数组只能这样创建
+            for (int i = 0; i < predicates.length; i++) {
+                predicates[i] = children.get(i).compile(familyNameBytes);
+            }
+            if (and) {
+                return result -> {
+                    for (Predicate<Result> predicate : predicates) {
+                        if (!predicate.test(result)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            }
+            return result -> {
+                for (Predicate<Result> predicate : predicates) {
+                    if (predicate.test(result)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+
+        @Override
+        void collectQualifiers(Set<String> qualifiers) {
+            children.forEach(child -> child.collectQualifiers(qualifiers));
+        }
+
+        @Override
+        boolean hasNumberComparison() {
+            return children.stream().anyMatch(QlPredicate::hasNumberComparison);
+        }
+
+        @Override
+        public String toString() {
+            return children.stream().map(child -> child instanceof Junction ? "(" + child + ")" : child.toString())
+                    .collect(Collectors.joining(and ? " AND " : " OR "));
+        }
+    }
+
+    /**
+     * rowKey或者一列与常量比较
+     */
+    private static class Compare extends QlPredicate {
+        private final String text;
+        private final String qualifier;// 为null时比较rowKey
+        private final CompareFilter.CompareOp op;
+        private final ByteArrayComparable comparator;
+        private final boolean filterIfMissing;
+        private final boolean regexOnServer;
+
+        private Compare(String text, String qualifier, CompareFilter.CompareOp op, ByteArrayComparable comparator,
+                        boolean filterIfMissing, boolean regexOnServer) {
+            this.text = text;
+            this.qualifier = qualifier;
+            this.op = op;
+            this.comparator = comparator;
+            this.filterIfMissing = filterIfMissing;
+            this.regexOnServer = regexOnServer;
+        }
+
+        @Override
+        double selectivity() {
+            boolean negative = op == CompareFilter.CompareOp.NOT_EQUAL;
+            if (comparator instanceof NumberComparator) {
+                if (((NumberComparator) comparator).getOperator() != NumberComparator.Operator.EQUAL) {
+                    return 1.0 / 3;// 范围比较
+                }
+            } else if (qualifier == null && op != CompareFilter.CompareOp.EQUAL && !negative) {
+                return 1.0 / 3;// rowKey范围比较
+            }
+            double selectivity = comparator instanceof RegexStringComparator
+                    || comparator instanceof SubstringComparator ? 0.25 : 0.1;
+            return negative ? 1 - selectivity : selectivity;
+        }
+
+        /**
+         * 一次比较的开销
+         */
+        private double compareCost(boolean onServer) {
+            if (comparator instanceof RegexStringComparator || onServer && regexOnServer) {
+                return 10;
+            }
+            if (comparator instanceof SubstringComparator) {
+                return 3;
+            }
+            return comparator instanceof NumberComparator ? 2 : 1;
+        }
+
+        @Override
+        double serverCost(int cells) {
+            return cells * FILTER_CELL_COST + compareCost(true);
+        }
+
+        @Override
+        double clientCost(int cells) {
+            double lookup = qualifier == null ? 0 : Math.log(cells + 1) / Math.log(2);// 按列名二分查找cell
+            return lookup + compareCost(false);
+        }
+
+        @Override
+        Predicate<Result> compile(byte[] familyNameBytes) {
+            if (qualifier == null) {
+                return result -> {
+                    Cell[] cells = result.rawCells();
+                    if (cells == null || cells.length == 0) {
+                        return false;
+                    }
+                    Cell cell = cells[0];
+                    return passes(comparator.compareTo(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+                };
+            }
+            byte[] qualifierBytes = Bytes.toBytes(qualifier);
+            return result -> {
+                Cell cell = result.getColumnLatestCell(familyNameBytes, qualifierBytes);
+                if (cell == null) {
+                    return !filterIfMissing;
+                }
+                return passes(comparator.compareTo(cell.getValueArray(), cell.getValueOffset(),
+                        cell.getValueLength()));
+            };
+        }
+
+        /**
+         * 与CompareFilter.doCompare相反，返回是否保留
+         *
+         * @param compareResult 比较器的比较结果，比较器的值与数据比较
+         */
+        private boolean passes(int compareResult) {
+            switch (op) {
+                case LESS:
+                    return compareResult > 0;
+                case LESS_OR_EQUAL:
+                    return compareResult >= 0;
+                case EQUAL:
+                    return compareResult == 0;
+                case NOT_EQUAL:
+                    return compareResult != 0;
+                case GREATER_OR_EQUAL:
+                    return compareResult <= 0;
+                case GREATER:
+                    return compareResult < 0;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        void collectQualifiers(Set<String> qualifiers) {
+            if (qualifier != null) {
+                qualifiers.add(qualifier);
+            }
+        }
+
+        @Override
+        boolean hasNumberComparison() {
+            return comparator instanceof NumberComparator;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+}
@@ -0,0 +1,345 @@
+package sunyu.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按rowKey查询的行缓存
+ *
+ * <pre>
+ * 缓存get查询返回的Result，key为 表名+rowKey，同一行不同的查询列与过滤器（投影）分别缓存在同一个条目中
+ * 按条目数或估算的字节数淘汰最近最少使用的行，每张表可以设置不同的过期时间，过期时间为0的表不缓存
+ * 不存在的行也会缓存，过期前再次查询不会访问hbase
+ * 同一个HbaseUtil实例写入或删除某一行时，这一行的所有投影都会失效；
+ * 失效时正在从hbase读取的同一行（按rowKey哈希分段）或同一张表的结果不会写入缓存，避免旧数据覆盖失效，其他行不受影响
+ * 异步写入在写缓冲区提交完成后再失效一次，提交前读到的旧数据不会一直缓存到过期
+ * 其他进程的写入只能等待过期
+ * </pre>
+ *
+ * @author 孙宇
+ */
+class RowCache {
+    private static final int GENERATION_STRIPES = 4096;// 行失效序号的分段数
+    private static final int MAX_UNFLUSHED_ROWS = 100000;// 每张表最多记录的未提交rowKey，超过后提交时整表失效
+
+    private final long defaultTtl;
+    private final Map<String, Long> tableTtls = new HashMap<>();
+    private final Cache<RowCacheKey, CachedRow> cache;
+    // 失效序号，读取开始后发生过失效的结果不写入缓存；一行的序号是全部、所在表与所在分段的序号之和
+    private final AtomicLong generation = new AtomicLong(0);// 清空缓存时加1
+    private final ConcurrentMap<String, AtomicLong> tableGenerations = new ConcurrentHashMap<>();// 整表失效时加1
+    private final AtomicLongArray rowGenerations = new AtomicLongArray(GENERATION_STRIPES);// 按rowKey哈希分段，行失效时加1
+    private final ConcurrentMap<String, UnflushedRows> unflushedRows = new ConcurrentHashMap<>();// 写缓冲区中还没有提交的行
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * @param maximumSize   最多缓存的行数，maximumWeight大于0时不使用
+     * @param maximumWeight 最多缓存的字节数，0表示按行数限制
+     * @param defaultTtl    默认过期毫秒数
+     * @param tableTtls     每张表的过期毫秒数，优先于默认过期时间
+     */
+    RowCache(long maximumSize, long maximumWeight, long defaultTtl, Map<String, Long> tableTtls) {
+        this.defaultTtl = defaultTtl;
+        long maxTtl = defaultTtl;
+        for (Map.Entry<String, Long> entry : tableTtls.entrySet()) {
+            this.tableTtls.put(normalize(entry.getKey()), entry.getValue());
+            maxTtl = Math.max(maxTtl, entry.getValue());
+        }
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+        if (maximumWeight > 0) {
+            builder.maximumWeight(maximumWeight).weigher((RowCacheKey key, CachedRow row) -> row.weight);
+        } else {
+            builder.maximumSize(maximumSize);
+        }
+        if (maxTtl > 0) {
+            // 每个投影单独判断过期，这里只负责清理整行都已过期的条目
+            builder.expireAfterWrite(maxTtl, TimeUnit.MILLISECONDS);
+        }
+        cache = builder.build();
+    }
+
+    /**
+     * 表的过期毫秒数
+     *
+     * @param tableName 表名
+     *
+     * @return 过期毫秒数，0表示不缓存
+     */
+    long ttl(String tableName) {
+        return tableTtls.getOrDefault(normalize(tableName), defaultTtl);
+    }
+
+    /**
+     * 一行当前的失效序号，读取hbase之前获取，写入缓存时传入
+     *
+     * @param tableName 表名
+     * @param rowKey    rowKey
+     *
+     * @return 失效序号
+     */
+    long generation(String tableName, byte[] rowKey) {
+        return generation(new RowCacheKey(normalize(tableName), rowKey));
+    }
+
+    private long generation(RowCacheKey key) {
+        return generation.get() + tableGeneration(key.tableName).get() + rowGenerations.get(stripe(key));
+    }
+
+    private AtomicLong tableGeneration(String table) {
+        return tableGenerations.computeIfAbsent(table, t -> new AtomicLong(0));
+    }
+
+    private static int stripe(RowCacheKey key) {
+        return (key.hash & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    /**
+     * 获得缓存的行
+     *
+     * @param tableName  表名
+     * @param rowKey     rowKey
+     * @param projection 查询列与过滤器
+     *
+     * @return 缓存的结果，不存在的行是空结果；没有缓存或已过期时返回null
+     */
+    Result get(String tableName, byte[] rowKey, String projection) {
+        CachedRow row = cache.getIfPresent(new RowCacheKey(normalize(tableName), rowKey));
+        CachedResult cached = row == null ? null : row.results.get(projection);
+        if (cached == null || cached.expireTime < System.currentTimeMillis()) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return cached.result;
+    }
+
+    /**
+     * 写入缓存
+     *
+     * @param tableName  表名
+     * @param rowKey     rowKey
+     * @param projection 查询列与过滤器
+     * @param result     查询结果
+     * @param generation 读取hbase之前获取的失效序号，之后发生过失效时不写入
+     */
+    void put(String tableName, byte[] rowKey, String projection, Result result, long generation) {
+        String table = normalize(tableName);
+        long ttl = ttl(table);
+        if (ttl <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        cache.asMap().compute(new RowCacheKey(table, rowKey), (key, old) -> {
+            if (generation != generation(key)) {
+                return old;
+            }
+            Map<String, CachedResult> results = new HashMap<>();
+            if (old != null) {
+                old.results.forEach((p, cached) -> {
+                    if (cached.expireTime >= now) {
+                        results.put(p, cached);
+                    }
+                });
+            }
+            results.put(projection, new CachedResult(result, now + ttl));
+            return new CachedRow(key, results);
+        });
+    }
+
+    /**
+     * 使一行失效
+     *
+     * @param tableName 表名
+     * @param rowKey    rowKey
+     */
+    void invalidate(String tableName, byte[] rowKey) {
+        RowCacheKey key = new RowCacheKey(normalize(tableName), rowKey);
+        rowGenerations.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+        invalidationCount.increment();
+    }
+
+    /**
+     * 异步写入放入写缓冲区后，使这些行失效，并记录下来等待提交完成后再次失效
+     *
+     * @param tableName 表名
+     * @param rowKeys   写入的rowKey
+     */
+    void invalidateUnflushed(String tableName, List<byte[]> rowKeys) {
+        String table = normalize(tableName);
+        for (byte[] rowKey : rowKeys) {
+            invalidate(table, rowKey);
+        }
+        unflushedRows.compute(table, (t, rows) -> {
+            if (rows == null) {
+                rows = new UnflushedRows();
+            }
+            if (!rows.overflow && rows.rowKeys.size() + rowKeys.size() <= MAX_UNFLUSHED_ROWS) {
+                rows.rowKeys.addAll(rowKeys);
+            } else {
+                rows.overflow = true;
+                rows.rowKeys.clear();
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * 写缓冲区提交之前调用，取出已经放入写缓冲区的行
+     *
+     * <pre>
+     * 提交前读到的是旧数据，可能已经写入缓存，提交完成后需要执行返回的失效操作
+     * 之后放入写缓冲区的行留到下一次提交
+     * </pre>
+     *
+     * @param tableName 表名
+     *
+     * @return 提交完成后执行的失效操作
+     */
+    Runnable drainUnflushed(String tableName) {
+        String table = normalize(tableName);
+        UnflushedRows rows = unflushedRows.remove(table);
+        if (rows == null) {
+            return () -> {
+            };
+        }
+        if (rows.overflow) {
+            return () -> invalidateTable(table);
+        }
+        return () -> rows.rowKeys.forEach(rowKey -> invalidate(table, rowKey));
+    }
+
+    /**
+     * 使一张表的所有行失效
+     *
+     * @param tableName 表名
+     */
+    void invalidateTable(String tableName) {
+        String table = normalize(tableName);
+        tableGeneration(table).incrementAndGet();
+        cache.asMap().keySet().removeIf(key -> key.tableName.equals(table));
+        invalidationCount.increment();
+    }
+
+    /**
+     * 清空缓存
+     */
+    void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        invalidationCount.increment();
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 因为容量或过期被淘汰的行数
+     */
+    long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    /**
+     * 表名去掉default命名空间，与写入时的表名一致
+     */
+    private static String normalize(String tableName) {
+        return TableName.valueOf(tableName).getNameAsString();
+    }
+
+    private static class RowCacheKey {
+        private final String tableName;
+        private final byte[] rowKey;
+        private final int hash;
+
+        private RowCacheKey(String tableName, byte[] rowKey) {
+            this.tableName = tableName;
+            this.rowKey = rowKey;
+            this.hash = 31 * tableName.hashCode() + Arrays.hashCode(rowKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RowCacheKey)) {
+                return false;
+            }
+            RowCacheKey other = (RowCacheKey) o;
+            return hash == other.hash && tableName.equals(other.tableName) && Arrays.equals(rowKey, other.rowKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class CachedResult {
+        private final Result result;
+        private final long expireTime;
+
+        private CachedResult(Result result, long expireTime) {
+            this.result = result;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private static class UnflushedRows {
+        private final List<byte[]> rowKeys = new ArrayList<>();
+        private boolean overflow = false;// 超过MAX_UNFLUSHED_ROWS，提交后整表失效
+    }
+
+    private static class CachedRow {
+        private final Map<String, CachedResult> results;// key为投影
+        private final int weight;// 估算的字节数
+
+        private CachedRow(RowCacheKey key, Map<String, CachedResult> results) {
+            this.results = results;
+            long weight = 96 + key.rowKey.length + 2L * key.tableName.length();
+            for (Map.Entry<String, CachedResult> entry : results.entrySet()) {
+                weight += 96 + 2L * entry.getKey().length();
+                Cell[] cells = entry.getValue().result.rawCells();
+                if (cells != null) {
+                    for (Cell cell : cells) {
+                        weight += CellUtil.estimatedHeapSizeOf(cell);
+                    }
+                }
+            }
+            this.weight = (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+    }
+
+}
@@ -0,0 +1,297 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.*;
+import org.apache.hadoop.hbase.protobuf.generated.FilterProtos;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.MurmurHash3;
+import org.apache.hadoop.hbase.util.Pair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * rowKey加盐分桶
+ *
+ * <pre>
+ * 物理rowKey = 桶号 + 逻辑rowKey，桶号是固定宽度的十进制数字，宽度为 buckets-1 的位数
+ * 桶号 = (MurmurHash3(逻辑rowKey, seed 0) &amp; 0x7fffffff) % buckets，其它程序写入时按同样的规则计算
+ * 同一辆车连续时间的数据分散到所有桶，按桶预分区后写入压力均匀分布到各个region server
+ * 逻辑范围扫描拆分为每个桶一个扫描，rowKey相关的过滤器加上桶号前缀后在region server上执行
+ * </pre>
+ *
+ * @author 孙宇
+ */
+final class RowKeySalt {
+    private final int buckets;
+    private final int width;// 桶号宽度
+    private final byte[][] prefixes;
+
+    RowKeySalt(int buckets) {
+        if (buckets < 2) {
+            throw new RuntimeException(StrUtil.format("分桶数量 {} 不能小于2", buckets));
+        }
+        this.buckets = buckets;
+        this.width = String.valueOf(buckets - 1).length();
+        this.prefixes = new byte[buckets][];
+        for (int i = 0; i < buckets; i++) {
+            prefixes[i] = Bytes.toBytes(StrUtil.fillBefore(String.valueOf(i), '0', width));
+        }
+    }
+
+    int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * 桶号前缀
+     */
+    byte[] prefix(int bucket) {
+        return prefixes[bucket];
+    }
+
+    /**
+     * 预分区分割点，每个桶一个region
+     */
+    byte[][] splitKeys() {
+        byte[][] splitKeys = new byte[buckets - 1][];
+        System.arraycopy(prefixes, 1, splitKeys, 0, buckets - 1);
+        return splitKeys;
+    }
+
+    /**
+     * 逻辑rowKey所在的桶
+     */
+    int bucket(byte[] rowKey) {
+        return (MurmurHash3.getInstance().hash(rowKey, 0, rowKey.length, 0) & Integer.MAX_VALUE) % buckets;
+    }
+
+    /**
+     * 逻辑rowKey转换为物理rowKey
+     */
+    byte[] salt(byte[] rowKey) {
+        return Bytes.add(prefixes[bucket(rowKey)], rowKey);
+    }
+
+    /**
+     * 物理rowKey转换为逻辑rowKey
+     */
+    byte[] unsalt(byte[] rowKey) {
+        return Bytes.copy(rowKey, width, rowKey.length - width);
+    }
+
+    /**
+     * 把查询结果中的物理rowKey替换为逻辑rowKey
+     */
+    Result unsalt(Result result) {
+        if (result == null || result.isEmpty()) {
+            return result;
+        }
+        Cell[] cells = result.rawCells();
+        Cell first = cells[0];
+        byte[] row = Bytes.copy(first.getRowArray(), first.getRowOffset() + width, first.getRowLength() - width);
+        Cell[] unsalted = new Cell[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            Cell cell = cells[i];
+            unsalted[i] = new KeyValue(row, 0, row.length, cell.getFamilyArray(), cell.getFamilyOffset(),
+                    cell.getFamilyLength(), cell.getQualifierArray(), cell.getQualifierOffset(),
+                    cell.getQualifierLength(), cell.getTimestamp(), KeyValue.Type.codeToType(cell.getTypeByte()),
+                    cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+        }
+        return Result.create(unsalted, result.getExists(), result.isStale(), result.isPartial());
+    }
+
+    /**
+     * 每个桶的扫描，按逻辑扫描的顺序排列
+     */
+    List<Scan> bucketScans(Scan scan) throws IOException {
+        List<Scan> scans = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            scans.add(bucketScan(scan, i));
+        }
+        return scans;
+    }
+
+    /**
+     * 把逻辑扫描转换为一个桶内的扫描
+     *
+     * <pre>
+     * 正序时startRow是包含的下界，stopRow是不包含的上界；逆序时相反
+     * 逻辑范围不限时使用桶的边界
+     * </pre>
+     */
+    Scan bucketScan(Scan scan, int bucket) throws IOException {
+        byte[] prefix = prefixes[bucket];
+        byte[] bucketEnd = prefixStopRow(prefix);
+        Scan bucketScan = new Scan(scan);
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = scan.getStopRow();
+        if (!scan.isReversed()) {
+            bucketScan.setStartRow(Bytes.add(prefix, startRow));
+            bucketScan.setStopRow(stopRow.length == 0 ? bucketEnd : Bytes.add(prefix, stopRow));
+        } else {
+            bucketScan.setStartRow(startRow.length == 0 ? bucketEnd : Bytes.add(prefix, startRow));
+            bucketScan.setStopRow(stopRow.length == 0 ? prefix : Bytes.add(prefix, stopRow));
+        }
+        if (scan.getFilter() != null) {
+            bucketScan.setFilter(saltFilter(scan.getFilter(), prefix));
+        }
+        return bucketScan;
+    }
+
+    /**
+     * 把逻辑rowKey的过滤器转换为一个桶内的过滤器，用于按rowKey查询
+     */
+    Filter bucketFilter(Filter filter, int bucket) throws IOException {
+        return saltFilter(filter, prefixes[bucket]);
+    }
+
+    /**
+     * 给rowKey相关的过滤器加上桶号前缀，其它过滤器不变
+     *
+     * <pre>
+     * RowFilter      BinaryComparator、BinaryPrefixComparator加前缀；正则与子串改为跳过桶号后再匹配
+     * MultiRowRangeFilter、PrefixFilter、FuzzyRowFilter 加前缀
+     * </pre>
+     */
+    private Filter saltFilter(Filter filter, byte[] prefix) throws IOException {
+        if (filter instanceof FilterList) {
+            FilterList filterList = (FilterList) filter;
+            FilterList salted = new FilterList(filterList.getOperator());
+            for (Filter child : filterList.getFilters()) {
+                salted.addFilter(saltFilter(child, prefix));
+            }
+            return salted;
+        }
+        if (filter instanceof RowFilter) {
+            RowFilter rowFilter = (RowFilter) filter;
+            ByteArrayComparable comparator = rowFilter.getComparator();
+            ByteArrayComparable salted = comparator;
+            if (comparator instanceof BinaryComparator) {
+                salted = new BinaryComparator(Bytes.add(prefix, comparator.getValue()));
+            } else if (comparator instanceof BinaryPrefixComparator) {
+                salted = new BinaryPrefixComparator(Bytes.add(prefix, comparator.getValue()));
+            } else if (comparator instanceof RegexStringComparator) {
+                salted = new RegexStringComparator(saltRegex(Bytes.toString(comparator.getValue()), prefix));
+            } else if (comparator instanceof SubstringComparator) {
+                salted = new RegexStringComparator(
+                        "^" + Pattern.quote(Bytes.toString(prefix)) + "(?s:.*?)"
+                                + Pattern.quote(Bytes.toString(comparator.getValue())),
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+            }
+            return new RowFilter(rowFilter.getOperator(), salted);
+        }
+        if (filter instanceof MultiRowRangeFilter) {
+            List<MultiRowRangeFilter.RowRange> rowRanges = new ArrayList<>();
+            for (MultiRowRangeFilter.RowRange range : ((MultiRowRangeFilter) filter).getRowRanges()) {
+                byte[] stopRow = range.getStopRow();
+                rowRanges.add(new MultiRowRangeFilter.RowRange(Bytes.add(prefix, range.getStartRow()),
+                        range.isStartRowInclusive(),
+                        stopRow.length == 0 ? prefixStopRow(prefix) : Bytes.add(prefix, stopRow),
+                        stopRow.length > 0 && range.isStopRowInclusive()));
+            }
+            return new MultiRowRangeFilter(rowRanges);
+        }
+        if (filter instanceof PrefixFilter) {
+            return new PrefixFilter(Bytes.add(prefix, ((PrefixFilter) filter).getPrefix()));
+        }
+        if (filter instanceof FuzzyRowFilter) {
+            return saltFuzzyRowFilter((FuzzyRowFilter) filter, prefix);
+        }
+        return filter;
+    }
+
+    /**
+     * FuzzyRowFilter没有获取模式的方法，从序列化结果中读取，桶号部分固定
+     *
+     * <pre>
+     * 构造时掩码可能已经被转换：原始掩码0表示固定、1表示任意；转换后-1表示固定、2表示任意
+     * </pre>
+     */
+    private Filter saltFuzzyRowFilter(FuzzyRowFilter filter, byte[] prefix) throws IOException {
+        FilterProtos.FuzzyRowFilter proto = FilterProtos.FuzzyRowFilter.parseFrom(filter.toByteArray());
+        List<Pair<byte[], byte[]>> fuzzyKeys = new ArrayList<>();
+        for (HBaseProtos.BytesBytesPair pair : proto.getFuzzyKeysDataList()) {
+            byte[] mask = pair.getSecond().toByteArray();
+            boolean preprocessed = false;
+            for (byte b : mask) {
+                if (b == -1 || b == 2) {
+                    preprocessed = true;
+                    break;
+                }
+            }
+            byte[] prefixMask = new byte[prefix.length];
+            if (preprocessed) {
+                Arrays.fill(prefixMask, (byte) -1);
+            }
+            fuzzyKeys.add(new Pair<>(Bytes.add(prefix, pair.getFirst().toByteArray()), Bytes.add(prefixMask, mask)));
+        }
+        return new FuzzyRowFilter(fuzzyKeys);
+    }
+
+    /**
+     * 把匹配逻辑rowKey的正则表达式转换为匹配物理rowKey的正则表达式
+     *
+     * <pre>
+     * 先匹配桶号，再在逻辑rowKey的任意位置查找原表达式，与RegexStringComparator的find语义相同
+     * 原表达式中字符类以外的 ^ 改为断言前面正好是桶号，即逻辑rowKey的开头
+     * </pre>
+     */
+    private static String saltRegex(String regex, byte[] prefix) {
+        String quotedPrefix = Pattern.quote(Bytes.toString(prefix));
+        String start = "(?<=^" + quotedPrefix + ")";
+        StringBuilder sb = new StringBuilder("^").append(quotedPrefix).append("(?s:.*?)(?:");
+        boolean quoted = false;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (quoted) {
+                sb.append(c);
+                if (c == '\\' && i + 1 < regex.length() && regex.charAt(i + 1) == 'E') {
+                    sb.append('E');
+                    i++;
+                    quoted = false;
+                }
+            } else if (c == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(++i);
+                sb.append(c).append(next);
+                quoted = next == 'Q';
+            } else if (c == '[') {
+                classDepth++;
+                sb.append(c);
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+                sb.append(c);
+            } else if (c == '^' && classDepth == 0) {
+                sb.append(start);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * 以prefix开头的rowKey的结束行，不包含
+     */
+    private static byte[] prefixStopRow(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] stopRow = Bytes.copy(prefix, 0, i + 1);
+                stopRow[i]++;
+                return stopRow;
+            }
+        }
+        return HConstants.EMPTY_END_ROW;
+    }
+
+}
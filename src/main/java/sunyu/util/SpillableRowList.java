@@ -0,0 +1,388 @@
+package sunyu.util;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import com.google.common.base.FinalizablePhantomReference;
+import com.google.common.base.FinalizableReferenceQueue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 有内存上限的查询结果集
+ *
+ * <pre>
+ * 估算的堆内存占用超过上限后，之后的行写入本地临时文件，读取时通过内存映射访问，对调用者透明
+ * 临时文件使用紧凑的二进制格式：列名只保存一次，每行保存列名编号与列值的utf-8字节
+ * 行数据只能追加，不能修改；使用完毕应调用close释放内存映射并删除临时文件
+ * 忘记close时，结果集被gc回收后在后台线程删除临时文件并打印警告日志；jvm退出前没有被回收的临时文件不会删除
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class SpillableRowList extends AbstractList<Map<String, String>> implements AutoCloseable {
+    private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;// 每次映射的文件大小
+    private static final FinalizableReferenceQueue CLEANUP_QUEUE = new FinalizableReferenceQueue();// 没有close的结果集被回收后删除临时文件
+    private static final Set<Reference<?>> CLEANUP_REFERENCES = ConcurrentHashMap.newKeySet();// 保持幻象引用可达，close时移除
+
+    private final long heapBudget;
+    private final File spillDirectory;
+    private final List<Map<String, String>> heapRows = new ArrayList<>();
+    private long heapBytes = 0;
+
+    private final List<String> columnNames = new ArrayList<>();// 溢写文件中的列名，下标是列名编号
+    private final Map<String, Integer> columnIds = new HashMap<>();
+    private SpillFile spillFile;// 第一次溢写时创建
+    private Reference<?> cleanupReference;
+    private boolean spillOutputDirty = false;// 是否有还没有刷新到文件的数据
+    private long[] spillOffsets = new long[1024];// 每行在文件中的起始位置，最后一个元素之后是文件结尾
+    private int spilledRows = 0;
+    private long spilledBytes = 0;
+    private long windowStart;
+    private boolean closed = false;// 溢写文件已经删除
+
+    /**
+     * @param heapBudget     堆内存上限（字节），超过后写入临时文件
+     * @param spillDirectory 临时文件目录，为null时使用java.io.tmpdir
+     */
+    public SpillableRowList(long heapBudget, String spillDirectory) {
+        this.heapBudget = heapBudget;
+        this.spillDirectory = spillDirectory == null ? null : new File(spillDirectory);
+    }
+
+    @Override
+    public boolean add(Map<String, String> row) {
+        long rowBytes = estimateHeapBytes(row);
+        if (spillFile == null && heapBytes + rowBytes <= heapBudget) {
+            heapRows.add(row);
+            heapBytes += rowBytes;
+        } else {
+            spill(row);
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Map<String, String> get(int index) {
+        if (index < heapRows.size()) {
+            return heapRows.get(index);
+        }
+        int spillIndex = index - heapRows.size();
+        if (spillIndex < 0 || spillIndex >= spilledRows) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        try {
+            return readSpilled(spillIndex);
+        } catch (IOException e) {
+            throw new RuntimeException("读取溢写文件失败", e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return heapRows.size() + spilledRows;
+    }
+
+    /**
+     * 堆内存中保存的行估算占用的字节数
+     *
+     * @return 字节数
+     */
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+
+    /**
+     * 写入临时文件的字节数
+     *
+     * @return 字节数
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * 写入临时文件的行数
+     *
+     * @return 行数
+     */
+    public int getSpilledRows() {
+        return spilledRows;
+    }
+
+    /**
+     * 释放内存映射并删除临时文件，之后不能再读取溢写的行，可以重复调用
+     */
+    @Override
+    public void close() {
+        if (spillFile != null) {
+            CLEANUP_REFERENCES.remove(cleanupReference);
+            cleanupReference.clear();
+            cleanupReference = null;
+            spillFile.release();
+            spillFile = null;
+            closed = true;
+        }
+    }
+
+    /**
+     * 结果集被回收后删除临时文件
+     *
+     * <pre>
+     * 静态方法中创建，幻象引用不能持有结果集本身，只持有临时文件
+     * </pre>
+     */
+    private static Reference<?> registerCleanup(SpillableRowList rows, SpillFile spillFile) {
+        Reference<?> reference = new FinalizablePhantomReference<SpillableRowList>(rows, CLEANUP_QUEUE) {
+            @Override
+            public void finalizeReferent() {
+                CLEANUP_REFERENCES.remove(this);
+                spillFile.log.warn("结果集没有调用close就被回收，删除临时文件 {}", spillFile.file.getAbsolutePath());
+                spillFile.release();
+            }
+        };
+        CLEANUP_REFERENCES.add(reference);
+        return reference;
+    }
+
+    /**
+     * 估算一行在堆内存中占用的字节数，包含map、entry与字符串
+     */
+    private long estimateHeapBytes(Map<String, String> row) {
+        long bytes = 64;
+        for (Map.Entry<String, String> entry : row.entrySet()) {
+            bytes += 32 + 48 + 2L * entry.getKey().length();
+            if (entry.getValue() != null) {
+                bytes += 48 + 2L * entry.getValue().length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 把一行写入临时文件
+     *
+     * <pre>
+     * 格式：列数(varint)，然后每列：列名编号*2+是否新列名(varint)，新列名时紧跟列名长度+1(varint)与列名utf-8字节，
+     * 列值长度+1(varint)，列值utf-8字节；长度+1为0表示null
+     * 列名都保存在内存中，读取时只需要编号，新列名的字节直接跳过
+     * </pre>
+     */
+    private void spill(Map<String, String> row) {
+        try {
+            if (spillFile == null) {
+                spillFile = new SpillFile(File.createTempFile("hbase-rows-", ".spill", spillDirectory));
+                cleanupReference = registerCleanup(this, spillFile);
+                spillFile.output = new BufferedOutputStream(Files.newOutputStream(spillFile.file.toPath()), 64 * 1024);
+            }
+            if (spilledRows + 1 >= spillOffsets.length) {
+                spillOffsets = Arrays.copyOf(spillOffsets, spillOffsets.length * 2);
+            }
+            long start = spilledBytes;
+            writeVarInt(row.size());
+            for (Map.Entry<String, String> entry : row.entrySet()) {
+                Integer id = columnIds.get(entry.getKey());
+                if (id == null) {
+                    id = columnNames.size();
+                    writeVarInt(id << 1 | 1);
+                    writeBytes(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                    columnNames.add(entry.getKey());
+                    columnIds.put(entry.getKey(), id);
+                } else {
+                    writeVarInt(id << 1);
+                }
+                writeBytes(entry.getValue() == null ? null : entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            spillOffsets[spilledRows] = start;
+            spillOffsets[spilledRows + 1] = spilledBytes;
+            spilledRows++;
+            spillOutputDirty = true;
+        } catch (IOException e) {
+            throw new RuntimeException("写入溢写文件失败", e);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(bytes.length + 1);
+        spillFile.output.write(bytes);
+        spilledBytes += bytes.length;
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            spillFile.output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            spilledBytes++;
+        }
+        spillFile.output.write(value);
+        spilledBytes++;
+    }
+
+    /**
+     * 通过内存映射读取溢写的一行
+     */
+    private Map<String, String> readSpilled(int spillIndex) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("溢写文件已经删除，不能再读取溢写的行");
+        }
+        if (spillOutputDirty) {
+            spillFile.output.flush();
+            spillOutputDirty = false;
+        }
+        long start = spillOffsets[spillIndex];
+        long end = spillOffsets[spillIndex + 1];
+        MappedByteBuffer buffer = map(start, end);
+        buffer.position((int) (start - windowStart));
+        int size = readVarInt(buffer);
+        Map<String, String> row = new HashMap<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            int id = readVarInt(buffer);
+            if ((id & 1) == 1) {
+                int length = readVarInt(buffer) - 1;
+                buffer.position(buffer.position() + length);// 跳过新列名
+            }
+            row.put(columnNames.get(id >>> 1), readString(buffer));
+        }
+        return row;
+    }
+
+    private String readString(MappedByteBuffer buffer) {
+        int length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt(MappedByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * 映射包含[start, end)的文件窗口，已经映射时直接使用
+     */
+    private MappedByteBuffer map(long start, long end) throws IOException {
+        MappedByteBuffer window = spillFile.window;
+        if (window != null && start >= windowStart && end <= windowStart + window.capacity()) {
+            return window;
+        }
+        if (spillFile.reader == null) {
+            spillFile.reader = new RandomAccessFile(spillFile.file, "r");
+        }
+        long size = Math.min(Math.max(MAP_WINDOW_SIZE, end - start), spilledBytes - start);
+        spillFile.unmapWindow();
+        spillFile.window = spillFile.reader.getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        return spillFile.window;
+    }
+
+    /**
+     * 临时文件以及打开的流与内存映射，close或者结果集被回收时释放
+     */
+    private static class SpillFile {
+        private final Log log = LogFactory.get(SpillableRowList.class);
+        private final File file;
+        private OutputStream output;
+        private RandomAccessFile reader;
+        private MappedByteBuffer window;
+
+        private SpillFile(File file) {
+            this.file = file;
+        }
+
+        /**
+         * 释放内存映射，关闭流并删除文件
+         */
+        private void release() {
+            unmapWindow();
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    log.warn("关闭溢写文件输出流失败 {}", ExceptionUtil.stacktraceToString(e));
+                }
+                output = null;
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.warn("关闭溢写文件读取流失败 {}", ExceptionUtil.stacktraceToString(e));
+                }
+                reader = null;
+            }
+            if (!file.delete() && file.exists()) {
+                log.warn("删除溢写文件失败 {}", file.getAbsolutePath());
+            }
+        }
+
+        private void unmapWindow() {
+            if (window != null) {
+                unmap(window);
+                window = null;
+            }
+        }
+
+        /**
+         * 立即释放内存映射，不等待gc
+         *
+         * <pre>
+         * 映射不释放时，windows下文件无法删除，linux下删除后磁盘空间也要等到gc才回收
+         * jdk9以上使用Unsafe.invokeCleaner，jdk8使用DirectBuffer.cleaner，都不可用时只能等待gc
+         * 调用后buffer不能再访问，只在buffer不再被引用时调用
+         * </pre>
+         */
+        private void unmap(MappedByteBuffer buffer) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner;
+                try {
+                    invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                } catch (NoSuchMethodException e) {
+                    Method cleaner = buffer.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Object bufferCleaner = cleaner.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+                    }
+                    return;
+                }
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (Exception e) {
+                log.debug("释放内存映射失败，等待gc回收 {}", e.getMessage());
+            }
+        }
+    }
+
+}
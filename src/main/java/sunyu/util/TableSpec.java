@@ -0,0 +1,351 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+
+/**
+ * 建表参数
+ *
+ * <pre>
+ * 列簇的存储参数决定了读延迟，建表时设置好代价最小：
+ * dataBlockEncoding  数据块编码，rowKey前缀相同（同一辆车连续时间）时FAST_DIFF、PREFIX能明显减少block大小，提高block cache命中率
+ * bloomFilterType    布隆过滤器，按rowKey查询用ROW，按rowKey加列查询用ROWCOL
+ * blockSize          数据块大小，随机读为主时调小，范围扫描为主时调大
+ * inMemory           block cache中优先保留
+ * blockCacheEnabled  是否放入block cache，只做归档扫描的表可以关闭
+ * compression        压缩算法
+ * 建表时没有设置的参数使用hbase的默认值；默认与原来的createTable相同：SNAPPY压缩、保存1个版本、添加统计协处理器
+ * 同一个TableSpec也可以传给HbaseUtil.modifyTable在线修改已有的表，只修改设置过并且有变化的参数，上面三个默认值修改表时不生效
+ * rowKey加盐分桶的表使用saltSplitKeys预分区
+ *
+ * TableSpec spec = TableSpec.builder("farm_can", "can")
+ *         .dataBlockEncoding(DataBlockEncoding.FAST_DIFF)
+ *         .bloomFilterType(BloomType.ROW)
+ *         .splitKeys(TableSpec.hexSplitKeys(16))
+ *         .build();
+ * hbaseUtil.createTable(spec);
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class TableSpec {
+    private final Config config;
+
+    public static Builder builder(String tableName, String familyName) {
+        return new Builder(tableName, familyName);
+    }
+
+    private TableSpec(Config config) {
+        this.config = config;
+    }
+
+    private static class Config {
+        private final String tableName;
+        private final String familyName;
+        private Integer timeToLive;// 列簇超时时间，单位秒
+        private Integer maxVersions;// 保存的最大版本数，建表时默认1
+        private Compression.Algorithm compression;// 压缩算法，建表时默认SNAPPY
+        private DataBlockEncoding dataBlockEncoding;
+        private BloomType bloomFilterType;
+        private Integer blockSize;
+        private Boolean inMemory;
+        private Boolean blockCacheEnabled;
+        private Boolean coprocessor;// 是否添加统计协处理器，建表时默认true
+        private byte[][] splitKeys;
+
+        private Config(String tableName, String familyName) {
+            this.tableName = tableName;
+            this.familyName = familyName;
+        }
+    }
+
+    public static class Builder {
+        private final Config config;
+
+        private Builder(String tableName, String familyName) {
+            config = new Config(tableName, familyName);
+        }
+
+        public TableSpec build() {
+            if (StrUtil.isBlank(config.tableName) || StrUtil.isBlank(config.familyName)) {
+                throw new RuntimeException("表名与列簇名不能为空");
+            }
+            return new TableSpec(config);
+        }
+
+        /**
+         * 设置列簇超时时间
+         *
+         * @param timeToLive 超时时间（秒），默认不超时
+         *
+         * @return
+         */
+        public Builder timeToLive(Integer timeToLive) {
+            config.timeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * 设置保存的最大版本数
+         *
+         * @param maxVersions 最大版本数，建表时默认1，修改表时不设置则保留原值
+         *
+         * @return
+         */
+        public Builder maxVersions(int maxVersions) {
+            config.maxVersions = maxVersions;
+            return this;
+        }
+
+        /**
+         * 设置压缩算法
+         *
+         * <pre>
+         * region server没有对应的native库时建表会失败；不压缩时设置NONE
+         * </pre>
+         *
+         * @param compression 压缩算法，建表时默认SNAPPY，修改表时不设置则保留原值
+         *
+         * @return
+         */
+        public Builder compression(Compression.Algorithm compression) {
+            config.compression = compression;
+            return this;
+        }
+
+        /**
+         * 设置数据块编码
+         *
+         * @param dataBlockEncoding 数据块编码，例如FAST_DIFF、PREFIX，默认使用hbase的默认值NONE
+         *
+         * @return
+         */
+        public Builder dataBlockEncoding(DataBlockEncoding dataBlockEncoding) {
+            config.dataBlockEncoding = dataBlockEncoding;
+            return this;
+        }
+
+        /**
+         * 设置布隆过滤器类型
+         *
+         * @param bloomFilterType 布隆过滤器类型，ROW或者ROWCOL，默认使用hbase的默认值ROW
+         *
+         * @return
+         */
+        public Builder bloomFilterType(BloomType bloomFilterType) {
+            config.bloomFilterType = bloomFilterType;
+            return this;
+        }
+
+        /**
+         * 设置数据块大小
+         *
+         * @param blockSize 数据块大小（字节），默认使用hbase的默认值65536
+         *
+         * @return
+         */
+        public Builder blockSize(int blockSize) {
+            config.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * 设置是否在block cache中优先保留
+         *
+         * @param inMemory 是否优先保留，默认使用hbase的默认值false
+         *
+         * @return
+         */
+        public Builder inMemory(boolean inMemory) {
+            config.inMemory = inMemory;
+            return this;
+        }
+
+        /**
+         * 设置读取的数据块是否放入block cache
+         *
+         * @param blockCacheEnabled 是否放入block cache，默认使用hbase的默认值true
+         *
+         * @return
+         */
+        public Builder blockCacheEnabled(boolean blockCacheEnabled) {
+            config.blockCacheEnabled = blockCacheEnabled;
+            return this;
+        }
+
+        /**
+         * 设置是否添加统计协处理器
+         *
+         * @param coprocessor 是否添加，建表时默认true，修改表时不设置则不添加
+         *
+         * @return
+         */
+        public Builder coprocessor(boolean coprocessor) {
+            config.coprocessor = coprocessor;
+            return this;
+        }
+
+        /**
+         * 设置预分区
+         *
+         * @param splitKeys 预分区的分割点，可以使用hexSplitKeys、saltSplitKeys或者HbaseUtil.sampleSplitKeys生成，默认不预分区
+         *
+         * @return
+         */
+        public Builder splitKeys(byte[][] splitKeys) {
+            config.splitKeys = splitKeys;
+            return this;
+        }
+    }
+
+    /**
+     * 按十六进制前缀均匀生成预分区分割点
+     *
+     * <pre>
+     * 适用于以md5等小写十六进制字符串开头的rowKey，例如 ffff7e52..._yyyyMMddHHmmss
+     * 分割点的长度比表示分区数量需要的位数多一位，使每个分区的前缀范围尽量均匀
+     * 例：4个分区 10、20、30 => 40、80、c0
+     * </pre>
+     *
+     * @param regions *分区数量，2到65536
+     *
+     * @return 分割点，共regions-1个
+     */
+    public static byte[][] hexSplitKeys(int regions) {
+        if (regions < 2 || regions > 65536) {
+            throw new RuntimeException(StrUtil.format("分区数量 {} 需要在2到65536之间", regions));
+        }
+        int digits = 1;
+        while ((1L << (4 * digits)) < (long) regions * 16) {
+            digits++;
+        }
+        long space = 1L << (4 * digits);
+        byte[][] splitKeys = new byte[regions - 1][];
+        for (int i = 1; i < regions; i++) {
+            splitKeys[i - 1] = Bytes.toBytes(StrUtil.fillBefore(Long.toHexString(space * i / regions), '0', digits));
+        }
+        return splitKeys;
+    }
+
+    /**
+     * 加盐分桶表的预分区分割点，每个桶一个region
+     *
+     * <pre>
+     * 桶数量需要与HbaseUtil.Builder.saltBuckets设置的相同
+     * 例：16个桶 => 01、02 ... 15
+     * </pre>
+     *
+     * @param buckets 桶数量，不能小于2
+     *
+     * @return 分割点，共buckets-1个
+     */
+    public static byte[][] saltSplitKeys(int buckets) {
+        return new RowKeySalt(buckets).splitKeys();
+    }
+
+    public String getTableName() {
+        return config.tableName;
+    }
+
+    public String getFamilyName() {
+        return config.familyName;
+    }
+
+    public byte[][] getSplitKeys() {
+        return config.splitKeys;
+    }
+
+    /**
+     * 转换为列簇描述，没有设置的参数保留hbase的默认值
+     */
+    HColumnDescriptor toColumnDescriptor() {
+        HColumnDescriptor family = new HColumnDescriptor(config.familyName);
+        family.setMaxVersions(1);
+        family.setCompressionType(Compression.Algorithm.SNAPPY);
+        applyTo(family);
+        return family;
+    }
+
+    /**
+     * 把设置过的列簇参数写入列簇描述，没有设置的参数不修改
+     */
+    private void applyTo(HColumnDescriptor family) {
+        if (config.maxVersions != null) {
+            family.setMaxVersions(config.maxVersions);
+        }
+        if (config.compression != null) {
+            family.setCompressionType(config.compression);
+        }
+        if (config.timeToLive != null) {
+            family.setTimeToLive(config.timeToLive);
+        }
+        if (config.dataBlockEncoding != null) {
+            family.setDataBlockEncoding(config.dataBlockEncoding);
+        }
+        if (config.bloomFilterType != null) {
+            family.setBloomFilterType(config.bloomFilterType);
+        }
+        if (config.blockSize != null) {
+            family.setBlocksize(config.blockSize);
+        }
+        if (config.inMemory != null) {
+            family.setInMemory(config.inMemory);
+        }
+        if (config.blockCacheEnabled != null) {
+            family.setBlockCacheEnabled(config.blockCacheEnabled);
+        }
+    }
+
+    /**
+     * 转换为表描述
+     */
+    HTableDescriptor toTableDescriptor() throws IOException {
+        HTableDescriptor tableDescriptor = new HTableDescriptor(TableName.valueOf(config.tableName));
+        if (config.coprocessor == null || config.coprocessor) {
+            tableDescriptor.addCoprocessor(HbaseUtil.COPROCESSOR);// 设置统计协处理器
+        }
+        tableDescriptor.setCompactionEnabled(true);
+        tableDescriptor.addFamily(toColumnDescriptor());
+        return tableDescriptor;
+    }
+
+    /**
+     * 把设置过的参数应用到已有的表描述上，用于在线修改表
+     *
+     * <pre>
+     * 没有设置的参数保留表中原来的值；列簇不存在时按建表参数添加
+     * coprocessor设置为true时才添加协处理器，设置为false时不会删除已有的协处理器
+     * </pre>
+     *
+     * @param tableDescriptor 表描述副本，会被修改
+     */
+    void applyTo(HTableDescriptor tableDescriptor) throws IOException {
+        if (Boolean.TRUE.equals(config.coprocessor) && !tableDescriptor.hasCoprocessor(HbaseUtil.COPROCESSOR)) {
+            tableDescriptor.addCoprocessor(HbaseUtil.COPROCESSOR);
+        }
+        HColumnDescriptor family = tableDescriptor.getFamily(Bytes.toBytes(config.familyName));
+        if (family == null) {
+            tableDescriptor.addFamily(toColumnDescriptor());
+        } else {
+            applyTo(family);
+        }
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toTableDescriptor().toString();
+        } catch (IOException e) {
+            return config.tableName + "#" + config.familyName;
+        }
+    }
+
+}
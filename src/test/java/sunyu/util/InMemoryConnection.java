@@ -0,0 +1,951 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.*;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcChannel;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.shaded.com.google.protobuf.Descriptors;
+import org.apache.hadoop.hbase.shaded.com.google.protobuf.Message;
+import org.apache.hadoop.hbase.shaded.com.google.protobuf.Service;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 内存中的hbase链接，测试替身
+ *
+ * <pre>
+ * 用有序map模拟表、region、scanner与写缓冲区，实现HbaseUtil使用的表操作，不需要hbase集群，用于离线测试与压测
+ * HbaseUtil.builder().connection(new InMemoryConnection()).build()
+ * 只在测试代码中，通过test-jar（classifier为tests）提供给benchmark等模块使用
+ *
+ * 每张表按建表时的splitKey划分为多个region，并行扫描、region估算与真实集群的行为一致
+ * 过滤器与region server相同：先序列化为protobuf再反序列化，每个scanner使用自己的过滤器副本，
+ * 按 filterRowKey、filterKeyValue、transformCell、filterRowCells、filterRow 的顺序执行
+ * 开启scan metrics时，关闭scanner后写入扫描行数、过滤行数、返回字节数与模拟的rpc次数
+ * 每列只保存一个版本，按列簇的TTL隐藏过期数据；删除按时间戳删除不晚于删除标记的列
+ * 带有一张空的hbase:meta表，HbaseUtil检查NumberComparator时能正常扫描
+ * 不支持协处理器（countUseCoprocessor）与集群状态（countApproximate），调用时抛出UnsupportedOperationException
+ * 线程安全，同一行的写入是原子的，扫描时每一行读取的是某一时刻的完整数据
+ * </pre>
+ *
+ * @author 孙宇
+ */
+public class InMemoryConnection implements Connection {
+    private static final ServerName SERVER_NAME = ServerName.valueOf("localhost", 16020, 0);
+    private static final Comparator<Cell> COLUMN_COMPARATOR = (a, b) -> {
+        int result = Bytes.compareTo(a.getFamilyArray(), a.getFamilyOffset(), a.getFamilyLength(),
+                b.getFamilyArray(), b.getFamilyOffset(), b.getFamilyLength());
+        if (result != 0) {
+            return result;
+        }
+        return Bytes.compareTo(a.getQualifierArray(), a.getQualifierOffset(), a.getQualifierLength(),
+                b.getQualifierArray(), b.getQualifierOffset(), b.getQualifierLength());
+    };
+
+    private final Configuration configuration;
+    private final Map<TableName, MemoryTable> tables = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public InMemoryConnection() {
+        this(HBaseConfiguration.create());
+    }
+
+    /**
+     * @param configuration 配置，只用于getConfiguration与写缓冲区默认大小
+     */
+    public InMemoryConnection(Configuration configuration) {
+        this.configuration = configuration;
+        HTableDescriptor meta = new HTableDescriptor(TableName.META_TABLE_NAME);
+        meta.addFamily(new HColumnDescriptor(HConstants.CATALOG_FAMILY));
+        tables.put(TableName.META_TABLE_NAME, new MemoryTable(meta, null));
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public Table getTable(TableName tableName) {
+        return new MemoryTableHandle(tableName);
+    }
+
+    @Override
+    public Table getTable(TableName tableName, ExecutorService pool) {
+        return getTable(tableName);
+    }
+
+    @Override
+    public BufferedMutator getBufferedMutator(TableName tableName) {
+        return getBufferedMutator(new BufferedMutatorParams(tableName));
+    }
+
+    @Override
+    public BufferedMutator getBufferedMutator(BufferedMutatorParams params) {
+        long writeBufferSize = params.getWriteBufferSize() > 0 ? params.getWriteBufferSize()
+                : configuration.getLong("hbase.client.write.buffer", 2097152);
+        return new MemoryMutator(params.getTableName(), writeBufferSize, params.getListener());
+    }
+
+    @Override
+    public RegionLocator getRegionLocator(TableName tableName) {
+        return new MemoryRegionLocator(tableName);
+    }
+
+    /**
+     * Admin接口有一百多个方法，这里通过动态代理只实现表管理相关的方法，其余方法抛出UnsupportedOperationException
+     */
+    @Override
+    public Admin getAdmin() {
+        return (Admin) Proxy.newProxyInstance(Admin.class.getClassLoader(), new Class<?>[]{Admin.class},
+                new MemoryAdmin());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void abort(String why, Throwable e) {
+        closed = true;
+    }
+
+    @Override
+    public boolean isAborted() {
+        return closed;
+    }
+
+    /**
+     * 获得可以读写的表
+     */
+    private MemoryTable enabledTable(TableName tableName) throws IOException {
+        MemoryTable table = existingTable(tableName);
+        if (!table.enabled) {
+            throw new TableNotEnabledException(tableName);
+        }
+        return table;
+    }
+
+    private MemoryTable existingTable(TableName tableName) throws IOException {
+        if (closed) {
+            throw new IOException("链接已关闭");
+        }
+        MemoryTable table = tables.get(tableName);
+        if (table == null) {
+            throw new TableNotFoundException(tableName);
+        }
+        return table;
+    }
+
+    private static UnsupportedOperationException unsupported(String operation) {
+        return new UnsupportedOperationException(StrUtil.format("内存表不支持 {}", operation));
+    }
+
+    /**
+     * 一张表的数据
+     */
+    private static class MemoryTable {
+        private volatile HTableDescriptor descriptor;
+        private final byte[][] startKeys;// 每个region的起始rowKey，第一个是空数组
+        private final long regionId = System.currentTimeMillis();
+        private final ConcurrentSkipListMap<byte[], Cell[]> rows = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);// 每行的列按列簇、列名排序
+        private volatile boolean enabled = true;
+
+        private MemoryTable(HTableDescriptor descriptor, byte[][] splitKeys) {
+            this.descriptor = descriptor;
+            TreeSet<byte[]> keys = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+            keys.add(HConstants.EMPTY_START_ROW);
+            if (splitKeys != null) {
+                keys.addAll(Arrays.asList(splitKeys));
+            }
+            this.startKeys = keys.toArray(new byte[0][]);
+        }
+
+        private byte[] endKey(int region) {
+            return region + 1 < startKeys.length ? startKeys[region + 1] : HConstants.EMPTY_END_ROW;
+        }
+
+        private HRegionLocation location(int region) {
+            return new HRegionLocation(new HRegionInfo(descriptor.getTableName(), startKeys[region], endKey(region),
+                    false, regionId), SERVER_NAME);
+        }
+
+        /**
+         * 每个列簇中最早没有过期的时间戳，没有设置TTL的列簇不在其中
+         */
+        private Map<byte[], Long> oldestTimestamps() {
+            Map<byte[], Long> oldest = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+            long now = System.currentTimeMillis();
+            for (HColumnDescriptor family : descriptor.getColumnFamilies()) {
+                if (family.getTimeToLive() != HConstants.FOREVER) {
+                    oldest.put(family.getName(), now - family.getTimeToLive() * 1000L);
+                }
+            }
+            return oldest;
+        }
+
+        private void put(Put put) throws IOException {
+            long now = System.currentTimeMillis();
+            List<Cell> cells = new ArrayList<>();
+            for (Map.Entry<byte[], List<Cell>> entry : put.getFamilyCellMap().entrySet()) {
+                if (!descriptor.hasFamily(entry.getKey())) {
+                    throw new NoSuchColumnFamilyException(StrUtil.format("列簇 {} 不存在于表 {}",
+                            Bytes.toString(entry.getKey()), descriptor.getTableName()));
+                }
+                for (Cell cell : entry.getValue()) {
+                    long timestamp = cell.getTimestamp() == HConstants.LATEST_TIMESTAMP ? now : cell.getTimestamp();
+                    cells.add(new KeyValue(put.getRow(), CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell),
+                            timestamp, KeyValue.Type.Put, CellUtil.cloneValue(cell)));
+                }
+            }
+            rows.compute(put.getRow(), (rowKey, old) -> {
+                TreeMap<Cell, Cell> columns = new TreeMap<>(COLUMN_COMPARATOR);
+                if (old != null) {
+                    for (Cell cell : old) {
+                        columns.put(cell, cell);
+                    }
+                }
+                for (Cell cell : cells) {
+                    Cell existing = columns.get(cell);
+                    if (existing == null || existing.getTimestamp() <= cell.getTimestamp()) {
+                        columns.put(cell, cell);
+                    }
+                }
+                return columns.values().toArray(new Cell[0]);
+            });
+        }
+
+        private void delete(Delete delete) {
+            NavigableMap<byte[], List<Cell>> markers = delete.getFamilyCellMap();
+            long now = System.currentTimeMillis();
+            rows.computeIfPresent(delete.getRow(), (rowKey, old) -> {
+                if (markers.isEmpty()) {
+                    return delete.getTimeStamp() == HConstants.LATEST_TIMESTAMP ? null
+                            : remaining(old, cell -> cell.getTimestamp() <= delete.getTimeStamp());
+                }
+                return remaining(old, cell -> {
+                    List<Cell> familyMarkers = markers.get(CellUtil.cloneFamily(cell));
+                    if (familyMarkers == null) {
+                        return false;
+                    }
+                    for (Cell marker : familyMarkers) {
+                        long timestamp = marker.getTimestamp() == HConstants.LATEST_TIMESTAMP ? now
+                                : marker.getTimestamp();
+                        boolean sameColumn = marker.getTypeByte() == KeyValue.Type.DeleteFamily.getCode()
+                                || CellUtil.matchingQualifier(marker, cell);
+                        if (sameColumn && cell.getTimestamp() <= timestamp) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+            });
+        }
+
+        private static Cell[] remaining(Cell[] cells, java.util.function.Predicate<Cell> deleted) {
+            List<Cell> remaining = new ArrayList<>(cells.length);
+            for (Cell cell : cells) {
+                if (!deleted.test(cell)) {
+                    remaining.add(cell);
+                }
+            }
+            return remaining.isEmpty() ? null : remaining.toArray(new Cell[0]);
+        }
+    }
+
+    /**
+     * 与region server相同的方式读取一行
+     *
+     * @param rowKey    rowKey
+     * @param cells     行中所有列
+     * @param familyMap 查询的列簇与列，为空时查询所有列簇
+     * @param filter    过滤器副本，可以为null
+     * @param oldest    每个列簇中最早没有过期的时间戳
+     *
+     * @return 查询结果，被过滤时返回null，没有列时返回空结果
+     */
+    private static Result readRow(byte[] rowKey, Cell[] cells, Map<byte[], NavigableSet<byte[]>> familyMap,
+                                  Filter filter, Map<byte[], Long> oldest) throws IOException {
+        if (filter != null) {
+            filter.reset();
+            if (filter.filterRowKey(rowKey, 0, rowKey.length)) {
+                return null;
+            }
+        }
+        List<Cell> results = new ArrayList<>(cells.length);
+        boolean nextRow = false;
+        for (int i = 0; i < cells.length && !nextRow; i++) {
+            Cell cell = cells[i];
+            byte[] family = CellUtil.cloneFamily(cell);
+            if (!familyMap.isEmpty()) {
+                if (!familyMap.containsKey(family)) {
+                    continue;
+                }
+                NavigableSet<byte[]> qualifiers = familyMap.get(family);
+                if (qualifiers != null && !qualifiers.isEmpty()
+                        && !qualifiers.contains(CellUtil.cloneQualifier(cell))) {
+                    continue;
+                }
+            }
+            Long oldestTimestamp = oldest.get(family);
+            if (oldestTimestamp != null && cell.getTimestamp() < oldestTimestamp) {
+                continue;
+            }
+            if (filter == null) {
+                results.add(cell);
+                continue;
+            }
+            switch (filter.filterKeyValue(cell)) {
+                case INCLUDE:
+                case INCLUDE_AND_NEXT_COL:
+                    results.add(filter.transformCell(cell));
+                    break;
+                case NEXT_ROW:
+                case SEEK_NEXT_USING_HINT:
+                    nextRow = true;// 提示都按跳到下一行处理
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (filter != null) {
+            if (filter.hasFilterRow()) {
+                filter.filterRowCells(results);
+            }
+            if (filter.filterRow()) {
+                return null;
+            }
+        }
+        return Result.create(results);
+    }
+
+    /**
+     * 复制过滤器，与发送到region server相同，不能序列化的过滤器在这里报错
+     */
+    private static Filter copyFilter(Filter filter, boolean reversed) throws IOException {
+        if (filter == null) {
+            return null;
+        }
+        Filter copy = ProtobufUtil.toFilter(ProtobufUtil.toFilter(filter));
+        copy.setReversed(reversed);
+        return copy;
+    }
+
+    private static long resultBytes(Result result) {
+        long bytes = 0;
+        for (Cell cell : result.rawCells()) {
+            bytes += CellUtil.estimatedSerializedSizeOf(cell);
+        }
+        return bytes;
+    }
+
+    /**
+     * 表操作，每次操作时查找表，与真实客户端一样，表不存在时在操作时报错
+     */
+    private class MemoryTableHandle implements Table {
+        private final TableName tableName;
+
+        private MemoryTableHandle(TableName tableName) {
+            this.tableName = tableName;
+        }
+
+        @Override
+        public TableName getName() {
+            return tableName;
+        }
+
+        @Override
+        public Configuration getConfiguration() {
+            return configuration;
+        }
+
+        @Override
+        public HTableDescriptor getTableDescriptor() throws IOException {
+            return new HTableDescriptor(existingTable(tableName).descriptor);
+        }
+
+        @Override
+        public boolean exists(Get get) throws IOException {
+            return !get(get).isEmpty();
+        }
+
+        @Override
+        public boolean[] existsAll(List<Get> gets) throws IOException {
+            boolean[] exists = new boolean[gets.size()];
+            for (int i = 0; i < gets.size(); i++) {
+                exists[i] = exists(gets.get(i));
+            }
+            return exists;
+        }
+
+        @Override
+        public void batch(List<? extends Row> actions, Object[] results) throws IOException {
+            for (int i = 0; i < actions.size(); i++) {
+                Row action = actions.get(i);
+                if (action instanceof Get) {
+                    results[i] = get((Get) action);
+                } else if (action instanceof Put) {
+                    put((Put) action);
+                    results[i] = Result.create(new Cell[0]);
+                } else if (action instanceof Delete) {
+                    delete((Delete) action);
+                    results[i] = Result.create(new Cell[0]);
+                } else {
+                    throw unsupported(action.getClass().getSimpleName());
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")// Table接口中已废弃但仍需实现的方法
+        public Object[] batch(List<? extends Row> actions) throws IOException {
+            Object[] results = new Object[actions.size()];
+            batch(actions, results);
+            return results;
+        }
+
+        @Override
+        public <R> void batchCallback(List<? extends Row> actions, Object[] results, Batch.Callback<R> callback) {
+            throw unsupported("batchCallback");
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")// Table接口中已废弃但仍需实现的方法
+        public <R> Object[] batchCallback(List<? extends Row> actions, Batch.Callback<R> callback) {
+            throw unsupported("batchCallback");
+        }
+
+        @Override
+        public Result get(Get get) throws IOException {
+            MemoryTable table = enabledTable(tableName);
+            Cell[] cells = table.rows.get(get.getRow());
+            if (cells == null) {
+                return Result.create(new Cell[0]);
+            }
+            Result result = readRow(get.getRow(), cells, get.getFamilyMap(), copyFilter(get.getFilter(), false),
+                    table.oldestTimestamps());
+            return result == null ? Result.create(new Cell[0]) : result;
+        }
+
+        @Override
+        public Result[] get(List<Get> gets) throws IOException {
+            Result[] results = new Result[gets.size()];
+            for (int i = 0; i < gets.size(); i++) {
+                results[i] = get(gets.get(i));
+            }
+            return results;
+        }
+
+        @Override
+        public ResultScanner getScanner(Scan scan) throws IOException {
+            return new MemoryScanner(enabledTable(tableName), scan);
+        }
+
+        @Override
+        public ResultScanner getScanner(byte[] family) throws IOException {
+            return getScanner(new Scan().addFamily(family));
+        }
+
+        @Override
+        public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+            return getScanner(new Scan().addColumn(family, qualifier));
+        }
+
+        @Override
+        public void put(Put put) throws IOException {
+            enabledTable(tableName).put(put);
+        }
+
+        @Override
+        public void put(List<Put> puts) throws IOException {
+            MemoryTable table = enabledTable(tableName);
+            for (Put put : puts) {
+                table.put(put);
+            }
+        }
+
+        @Override
+        public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put) {
+            throw unsupported("checkAndPut");
+        }
+
+        @Override
+        public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp,
+                                   byte[] value, Put put) {
+            throw unsupported("checkAndPut");
+        }
+
+        @Override
+        public void delete(Delete delete) throws IOException {
+            enabledTable(tableName).delete(delete);
+        }
+
+        /**
+         * 与真实客户端相同，全部成功后清空集合
+         */
+        @Override
+        public void delete(List<Delete> deletes) throws IOException {
+            MemoryTable table = enabledTable(tableName);
+            for (Delete delete : deletes) {
+                table.delete(delete);
+            }
+            deletes.clear();
+        }
+
+        @Override
+        public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete) {
+            throw unsupported("checkAndDelete");
+        }
+
+        @Override
+        public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp,
+                                      byte[] value, Delete delete) {
+            throw unsupported("checkAndDelete");
+        }
+
+        @Override
+        public void mutateRow(RowMutations rm) {
+            throw unsupported("mutateRow");
+        }
+
+        @Override
+        public Result append(Append append) {
+            throw unsupported("append");
+        }
+
+        @Override
+        public Result increment(Increment increment) {
+            throw unsupported("increment");
+        }
+
+        @Override
+        public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount) {
+            throw unsupported("incrementColumnValue");
+        }
+
+        @Override
+        public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount,
+                                         Durability durability) {
+            throw unsupported("incrementColumnValue");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public CoprocessorRpcChannel coprocessorService(byte[] row) {
+            throw unsupported("coprocessorService");
+        }
+
+        @Override
+        public <T extends Service, R> Map<byte[], R> coprocessorService(Class<T> service, byte[] startKey,
+                                                                        byte[] endKey, Batch.Call<T, R> callable) {
+            throw unsupported("coprocessorService");
+        }
+
+        @Override
+        public <T extends Service, R> void coprocessorService(Class<T> service, byte[] startKey, byte[] endKey,
+                                                              Batch.Call<T, R> callable, Batch.Callback<R> callback) {
+            throw unsupported("coprocessorService");
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")// Table接口中已废弃但仍需实现的方法
+        public long getWriteBufferSize() {
+            return 0;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")// Table接口中已废弃但仍需实现的方法
+        public void setWriteBufferSize(long writeBufferSize) {
+            throw unsupported("setWriteBufferSize");
+        }
+
+        @Override
+        public <R extends Message> Map<byte[], R> batchCoprocessorService(Descriptors.MethodDescriptor methodDescriptor,
+                                                                          Message request, byte[] startKey,
+                                                                          byte[] endKey, R responsePrototype) {
+            throw unsupported("batchCoprocessorService");
+        }
+
+        @Override
+        public <R extends Message> void batchCoprocessorService(Descriptors.MethodDescriptor methodDescriptor,
+                                                                Message request, byte[] startKey, byte[] endKey,
+                                                                R responsePrototype, Batch.Callback<R> callback) {
+            throw unsupported("batchCoprocessorService");
+        }
+
+        @Override
+        public boolean checkAndMutate(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp,
+                                      byte[] value, RowMutations mutation) {
+            throw unsupported("checkAndMutate");
+        }
+    }
+
+    /**
+     * 扫描一个范围，逆序时startRow是包含的上界，stopRow是不包含的下界
+     */
+    private static class MemoryScanner extends AbstractClientScanner {
+        private final Scan scan;
+        private final Iterator<Map.Entry<byte[], Cell[]>> iterator;
+        private final Filter filter;
+        private final Map<byte[], Long> oldest;
+        private final int caching;
+        private final ScanMetrics metrics = new ScanMetrics();
+        private long rows = 0;
+        private boolean closed = false;
+
+        private MemoryScanner(MemoryTable table, Scan scan) throws IOException {
+            this.scan = scan;
+            NavigableMap<byte[], Cell[]> range = table.rows;
+            byte[] startRow = scan.getStartRow();
+            byte[] stopRow = scan.getStopRow();
+            if (scan.isReversed()) {
+                if (startRow.length > 0) {
+                    range = range.headMap(startRow, true);
+                }
+                if (stopRow.length > 0) {
+                    range = range.tailMap(stopRow, false);
+                }
+                range = range.descendingMap();
+            } else {
+                if (startRow.length > 0) {
+                    range = range.tailMap(startRow, true);
+                }
+                if (stopRow.length > 0) {
+                    range = range.headMap(stopRow, false);
+                }
+            }
+            this.iterator = range.entrySet().iterator();
+            this.filter = copyFilter(scan.getFilter(), scan.isReversed());
+            this.oldest = table.oldestTimestamps();
+            this.caching = scan.getCaching() > 0 ? scan.getCaching() : 100;
+            metrics.countOfRPCcalls.incrementAndGet();
+            metrics.countOfRegions.incrementAndGet();
+        }
+
+        @Override
+        public Result next() throws IOException {
+            while (!closed && iterator.hasNext()) {
+                if (filter != null && filter.filterAllRemaining()) {
+                    break;
+                }
+                Map.Entry<byte[], Cell[]> row = iterator.next();
+                metrics.countOfRowsScanned.incrementAndGet();
+                Result result = readRow(row.getKey(), row.getValue(), scan.getFamilyMap(), filter, oldest);
+                if (result == null) {
+                    metrics.countOfRowsFiltered.incrementAndGet();
+                    continue;
+                }
+                if (result.isEmpty()) {
+                    continue;// 没有查询的列，region server也不会返回这一行
+                }
+                if (++rows % caching == 0) {
+                    metrics.countOfRPCcalls.incrementAndGet();
+                }
+                metrics.countOfBytesInResults.addAndGet(resultBytes(result));
+                return result;
+            }
+            return null;
+        }
+
+        @Override
+        public Result[] next(int nbRows) throws IOException {
+            List<Result> results = new ArrayList<>(nbRows);
+            Result result;
+            while (results.size() < nbRows && (result = next()) != null) {
+                results.add(result);
+            }
+            return results.toArray(new Result[0]);
+        }
+
+        @Override
+        public boolean renewLease() {
+            return !closed;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")// hbase 1.2的客户端scanner也是通过这个属性把指标交给Scan.getScanMetrics()
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scan.isScanMetricsEnabled()) {
+                scan.setAttribute(Scan.SCAN_ATTRIBUTES_METRICS_DATA,
+                        ProtobufUtil.toScanMetrics(metrics).toByteArray());
+            }
+        }
+    }
+
+    /**
+     * 写缓冲区，超过大小或者调用flush时写入表，失败时回调监听器
+     */
+    private class MemoryMutator implements BufferedMutator {
+        private final TableName tableName;
+        private final long writeBufferSize;
+        private final ExceptionListener listener;
+        private final List<Mutation> buffer = new ArrayList<>();
+        private long bufferedBytes = 0;
+
+        private MemoryMutator(TableName tableName, long writeBufferSize, ExceptionListener listener) {
+            this.tableName = tableName;
+            this.writeBufferSize = writeBufferSize;
+            this.listener = listener;
+        }
+
+        @Override
+        public TableName getName() {
+            return tableName;
+        }
+
+        @Override
+        public Configuration getConfiguration() {
+            return configuration;
+        }
+
+        @Override
+        public synchronized void mutate(Mutation mutation) throws IOException {
+            buffer.add(mutation);
+            bufferedBytes += mutation.heapSize();
+            if (bufferedBytes > writeBufferSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public synchronized void mutate(List<? extends Mutation> mutations) throws IOException {
+            for (Mutation mutation : mutations) {
+                mutate(mutation);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            List<Throwable> exceptions = new ArrayList<>();
+            List<Row> failedRows = new ArrayList<>();
+            for (Mutation mutation : buffer) {
+                try {
+                    MemoryTable table = enabledTable(tableName);
+                    if (mutation instanceof Put) {
+                        table.put((Put) mutation);
+                    } else if (mutation instanceof Delete) {
+                        table.delete((Delete) mutation);
+                    } else {
+                        throw unsupported(mutation.getClass().getSimpleName());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    exceptions.add(e);
+                    failedRows.add(mutation);
+                }
+            }
+            buffer.clear();
+            bufferedBytes = 0;
+            if (!exceptions.isEmpty()) {
+                RetriesExhaustedWithDetailsException e = new RetriesExhaustedWithDetailsException(exceptions,
+                        failedRows, Collections.nCopies(exceptions.size(), SERVER_NAME.getHostAndPort()));
+                if (listener == null) {
+                    throw e;
+                }
+                listener.onException(e, this);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        @Override
+        public long getWriteBufferSize() {
+            return writeBufferSize;
+        }
+    }
+
+    private class MemoryRegionLocator implements RegionLocator {
+        private final TableName tableName;
+
+        private MemoryRegionLocator(TableName tableName) {
+            this.tableName = tableName;
+        }
+
+        @Override
+        public HRegionLocation getRegionLocation(byte[] row) throws IOException {
+            MemoryTable table = existingTable(tableName);
+            int region = 0;
+            while (region + 1 < table.startKeys.length && Bytes.compareTo(row, table.startKeys[region + 1]) >= 0) {
+                region++;
+            }
+            return table.location(region);
+        }
+
+        @Override
+        public HRegionLocation getRegionLocation(byte[] row, boolean reload) throws IOException {
+            return getRegionLocation(row);
+        }
+
+        @Override
+        public List<HRegionLocation> getAllRegionLocations() throws IOException {
+            MemoryTable table = existingTable(tableName);
+            List<HRegionLocation> locations = new ArrayList<>(table.startKeys.length);
+            for (int i = 0; i < table.startKeys.length; i++) {
+                locations.add(table.location(i));
+            }
+            return locations;
+        }
+
+        @Override
+        public byte[][] getStartKeys() throws IOException {
+            return getStartEndKeys().getFirst();
+        }
+
+        @Override
+        public byte[][] getEndKeys() throws IOException {
+            return getStartEndKeys().getSecond();
+        }
+
+        @Override
+        public Pair<byte[][], byte[][]> getStartEndKeys() throws IOException {
+            MemoryTable table = existingTable(tableName);
+            byte[][] endKeys = new byte[table.startKeys.length][];
+            for (int i = 0; i < endKeys.length; i++) {
+                endKeys[i] = table.endKey(i);
+            }
+            return new Pair<>(table.startKeys.clone(), endKeys);
+        }
+
+        @Override
+        public TableName getName() {
+            return tableName;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 表管理，只实现建表、删表、启用、禁用、修改表结构相关的方法
+     */
+    private class MemoryAdmin implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "tableExists":
+                    return tables.containsKey((TableName) args[0]);
+                case "listTableNames":
+                    if (args == null || args.length == 0) {
+                        return tables.keySet().stream().filter(name -> !name.isSystemTable())
+                                .toArray(TableName[]::new);
+                    }
+                    break;
+                case "listTables":
+                    if (args == null || args.length == 0) {
+                        List<HTableDescriptor> descriptors = new ArrayList<>();
+                        tables.values().stream().filter(table -> !table.descriptor.getTableName().isSystemTable())
+                                .forEach(table -> descriptors.add(new HTableDescriptor(table.descriptor)));
+                        return descriptors.toArray(new HTableDescriptor[0]);
+                    }
+                    break;
+                case "getTableDescriptor":
+                    return new HTableDescriptor(existingTable((TableName) args[0]).descriptor);
+                case "createTable":
+                    createTable(args);
+                    return null;
+                case "deleteTable":
+                    if (existingTable((TableName) args[0]).enabled) {
+                        throw new TableNotDisabledException((TableName) args[0]);
+                    }
+                    tables.remove((TableName) args[0]);
+                    return null;
+                case "disableTable":
+                    enabledTable((TableName) args[0]).enabled = false;
+                    return null;
+                case "enableTable":
+                    MemoryTable table = existingTable((TableName) args[0]);
+                    if (table.enabled) {
+                        throw new TableNotDisabledException((TableName) args[0]);
+                    }
+                    table.enabled = true;
+                    return null;
+                case "isTableEnabled":
+                    return existingTable((TableName) args[0]).enabled;
+                case "isTableDisabled":
+                    return !existingTable((TableName) args[0]).enabled;
+                case "isTableAvailable":
+                    return tables.containsKey((TableName) args[0]);
+                case "modifyTable":
+                    existingTable((TableName) args[0]).descriptor = new HTableDescriptor((HTableDescriptor) args[1]);
+                    return null;
+                case "getAlterStatus":
+                    if (args[0] instanceof TableName) {
+                        return new Pair<>(0, existingTable((TableName) args[0]).startKeys.length);
+                    }
+                    break;
+                case "getConnection":
+                    return InMemoryConnection.this;
+                case "getConfiguration":
+                    return configuration;
+                case "close":
+                case "abort":
+                    return null;
+                case "isAborted":
+                    return false;
+                case "toString":
+                    return "MemoryAdmin";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            throw unsupported("Admin." + method.getName());
+        }
+
+        /**
+         * createTable(desc)、createTable(desc, splitKeys)、createTable(desc, startKey, endKey, numRegions)
+         */
+        private void createTable(Object[] args) throws IOException {
+            HTableDescriptor descriptor = new HTableDescriptor((HTableDescriptor) args[0]);
+            byte[][] splitKeys = null;
+            if (args.length == 2) {
+                splitKeys = (byte[][]) args[1];
+            } else if (args.length == 4) {
+                int numRegions = (Integer) args[3];
+                if (numRegions < 3) {
+                    throw new IllegalArgumentException("Must create at least three regions");
+                }
+                splitKeys = Bytes.split((byte[]) args[1], (byte[]) args[2], numRegions - 3);
+            }
+            if (tables.putIfAbsent(descriptor.getTableName(), new MemoryTable(descriptor, splitKeys)) != null) {
+                throw new TableExistsException(descriptor.getTableName());
+            }
+        }
+    }
+
+}
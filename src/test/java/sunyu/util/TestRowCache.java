@@ -0,0 +1,81 @@
+package sunyu.util;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+/**
+ * 行缓存的失效序号与异步写入提交后的失效，不需要hbase集群
+ */
+public class TestRowCache {
+    private static final String PROJECTION = "can:;";
+
+    private static Result row(String rowKey, String value) {
+        return Result.create(Collections.singletonList(new KeyValue(Bytes.toBytes(rowKey), Bytes.toBytes("can"),
+                Bytes.toBytes("3014"), Bytes.toBytes(value))));
+    }
+
+    private static String value(Result result) {
+        return Bytes.toString(result.getValue(Bytes.toBytes("can"), Bytes.toBytes("3014")));
+    }
+
+    @Test
+    void t001() {
+        //读取期间其他行或其他表失效，不影响这一行写入缓存
+        RowCache rowCache = new RowCache(1000, 0, 60000, Collections.emptyMap());
+        byte[] rowKey = Bytes.toBytes("v01");
+        long generation = rowCache.generation("farm_can", rowKey);
+        rowCache.invalidate("farm_can", Bytes.toBytes("v02"));
+        rowCache.invalidate("can_ne", rowKey);
+        rowCache.invalidateTable("can_ne");
+        rowCache.put("farm_can", rowKey, PROJECTION, row("v01", "1"), generation);
+        Assertions.assertEquals("1", value(rowCache.get("farm_can", rowKey, PROJECTION)));
+    }
+
+    @Test
+    void t002() {
+        //读取期间这一行、这张表失效或清空缓存，读到的结果不写入缓存
+        RowCache rowCache = new RowCache(1000, 0, 60000, Collections.emptyMap());
+        byte[] rowKey = Bytes.toBytes("v01");
+        long generation = rowCache.generation("farm_can", rowKey);
+        rowCache.invalidate("farm_can", rowKey);
+        rowCache.put("farm_can", rowKey, PROJECTION, row("v01", "1"), generation);
+        Assertions.assertNull(rowCache.get("farm_can", rowKey, PROJECTION));
+        generation = rowCache.generation("farm_can", rowKey);
+        rowCache.invalidateTable("default:farm_can");
+        rowCache.put("farm_can", rowKey, PROJECTION, row("v01", "1"), generation);
+        Assertions.assertNull(rowCache.get("farm_can", rowKey, PROJECTION));
+        generation = rowCache.generation("farm_can", rowKey);
+        rowCache.invalidateAll();
+        rowCache.put("farm_can", rowKey, PROJECTION, row("v01", "1"), generation);
+        Assertions.assertNull(rowCache.get("farm_can", rowKey, PROJECTION));
+    }
+
+    @Test
+    void t003() {
+        //放入写缓冲区后缓存的旧数据，提交完成后失效；之后放入的行留到下一次提交
+        RowCache rowCache = new RowCache(1000, 0, 60000, Collections.emptyMap());
+        byte[] v01 = Bytes.toBytes("v01");
+        byte[] v02 = Bytes.toBytes("v02");
+        rowCache.invalidateUnflushed("farm_can", Collections.singletonList(v01));
+        rowCache.put("farm_can", v01, PROJECTION, row("v01", "old"), rowCache.generation("farm_can", v01));
+        Runnable invalidation = rowCache.drainUnflushed("farm_can");
+        rowCache.invalidateUnflushed("farm_can", Collections.singletonList(v02));
+        rowCache.put("farm_can", v02, PROJECTION, row("v02", "old"), rowCache.generation("farm_can", v02));
+        Assertions.assertNotNull(rowCache.get("farm_can", v01, PROJECTION));
+        invalidation.run();
+        Assertions.assertNull(rowCache.get("farm_can", v01, PROJECTION));
+        Assertions.assertNotNull(rowCache.get("farm_can", v02, PROJECTION));
+        rowCache.drainUnflushed("farm_can").run();
+        Assertions.assertNull(rowCache.get("farm_can", v02, PROJECTION));
+        long invalidationCount = rowCache.getInvalidationCount();
+        rowCache.drainUnflushed("farm_can").run();
+        rowCache.drainUnflushed("can_ne").run();
+        Assertions.assertEquals(invalidationCount, rowCache.getInvalidationCount());//没有未提交的行
+    }
+
+}
@@ -0,0 +1,217 @@
+package sunyu.util;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FuzzyRowFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.filter.SubstringComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 加盐分桶的扫描与过滤器改写，在InMemoryConnection上对比分桶表与不分桶表的结果，不需要hbase集群
+ *
+ * <pre>
+ * jdk9以上运行时需要 --add-opens java.base/java.nio=ALL-UNNAMED（pom中的jdk9-add-opens），否则FuzzyRowFilter无法匹配
+ * </pre>
+ */
+public class TestRowKeySalt {
+    private static final TableName PLAIN = TableName.valueOf("farm_can");
+    private static final TableName SALTED = TableName.valueOf("farm_can_salted");
+    private static final byte[] FAMILY = Bytes.toBytes("can");
+    private static final int BUCKETS = 4;
+    private static final int ROWS = 200;
+
+    /**
+     * 建立内容相同的不分桶表与分桶表，rowKey为 车辆_序号，20辆车
+     */
+    private InMemoryConnection newConnection() throws IOException {
+        InMemoryConnection connection = new InMemoryConnection();
+        RowKeySalt salt = new RowKeySalt(BUCKETS);
+        try (Admin admin = connection.getAdmin();) {
+            admin.createTable(new HTableDescriptor(PLAIN).addFamily(new HColumnDescriptor(FAMILY)));
+            admin.createTable(new HTableDescriptor(SALTED).addFamily(new HColumnDescriptor(FAMILY)),
+                    salt.splitKeys());
+        }
+        try (Table plain = connection.getTable(PLAIN); Table salted = connection.getTable(SALTED);) {
+            for (int i = 0; i < ROWS; i++) {
+                byte[] rowKey = Bytes.toBytes(String.format("v%02d_%04d", i % 20, i));
+                plain.put(new Put(rowKey).addColumn(FAMILY, Bytes.toBytes("3014"), Bytes.toBytes(String.valueOf(i))));
+                salted.put(new Put(salt.salt(rowKey)).addColumn(FAMILY, Bytes.toBytes("3014"),
+                        Bytes.toBytes(String.valueOf(i))));
+            }
+        }
+        return connection;
+    }
+
+    private List<String> scanPlain(InMemoryConnection connection, Scan scan) throws IOException {
+        List<String> rowKeys = new ArrayList<>();
+        try (Table table = connection.getTable(PLAIN); ResultScanner scanner = table.getScanner(new Scan(scan));) {
+            for (Result result : scanner) {
+                rowKeys.add(Bytes.toString(result.getRow()));
+            }
+        }
+        return rowKeys;
+    }
+
+    /**
+     * 每个桶单独扫描，桶内必须已经按扫描方向有序，合并后按扫描方向排序
+     */
+    private List<String> scanSalted(InMemoryConnection connection, Scan scan) throws IOException {
+        RowKeySalt salt = new RowKeySalt(BUCKETS);
+        Comparator<String> order = scan.isReversed() ? Comparator.reverseOrder() : Comparator.naturalOrder();
+        List<String> rowKeys = new ArrayList<>();
+        try (Table table = connection.getTable(SALTED);) {
+            for (Scan bucketScan : salt.bucketScans(new Scan(scan))) {
+                List<String> bucketRowKeys = new ArrayList<>();
+                try (ResultScanner scanner = table.getScanner(bucketScan);) {
+                    for (Result result : scanner) {
+                        bucketRowKeys.add(Bytes.toString(salt.unsalt(result).getRow()));
+                    }
+                }
+                List<String> sorted = new ArrayList<>(bucketRowKeys);
+                sorted.sort(order);
+                Assertions.assertEquals(sorted, bucketRowKeys);
+                rowKeys.addAll(bucketRowKeys);
+            }
+        }
+        rowKeys.sort(order);
+        return rowKeys;
+    }
+
+    /**
+     * 正序与逆序各扫描一次，分桶表与不分桶表结果相同且不为空
+     */
+    private void assertSameRows(InMemoryConnection connection, Filter filter, boolean reversed) throws IOException {
+        Scan scan = new Scan();
+        scan.setFilter(filter);
+        scan.setReversed(reversed);
+        List<String> expected = scanPlain(connection, scan);
+        Assertions.assertFalse(expected.isEmpty(), filter.toString());
+        Assertions.assertEquals(expected, scanSalted(connection, scan), filter.toString());
+    }
+
+    private void assertSameRows(InMemoryConnection connection, Filter filter) throws IOException {
+        assertSameRows(connection, filter, false);
+        assertSameRows(connection, filter, true);
+    }
+
+    @Test
+    void t001() throws IOException {
+        //RowFilter的各种比较器
+        InMemoryConnection connection = newConnection();
+        assertSameRows(connection,
+                new RowFilter(CompareFilter.CompareOp.GREATER_OR_EQUAL, new BinaryComparator(Bytes.toBytes("v10"))));
+        assertSameRows(connection,
+                new RowFilter(CompareFilter.CompareOp.LESS, new BinaryComparator(Bytes.toBytes("v03_0100"))));
+        assertSameRows(connection,
+                new RowFilter(CompareFilter.CompareOp.EQUAL, new BinaryPrefixComparator(Bytes.toBytes("v1"))));
+        assertSameRows(connection,
+                new RowFilter(CompareFilter.CompareOp.EQUAL, new RegexStringComparator("^v0[3-5]_")));
+        assertSameRows(connection, new RowFilter(CompareFilter.CompareOp.EQUAL, new RegexStringComparator("_01")));
+        assertSameRows(connection,
+                new RowFilter(CompareFilter.CompareOp.NOT_EQUAL, new RegexStringComparator("^v1|5$")));
+        assertSameRows(connection, new RowFilter(CompareFilter.CompareOp.EQUAL, new SubstringComparator("7_")));
+        assertSameRows(connection, new RowFilter(CompareFilter.CompareOp.NOT_EQUAL, new SubstringComparator("_00")));
+    }
+
+    @Test
+    void t002() throws IOException {
+        //PrefixFilter、FuzzyRowFilter以及组合
+        InMemoryConnection connection = newConnection();
+        assertSameRows(connection, new PrefixFilter(Bytes.toBytes("v07")));
+        assertSameRows(connection, new FuzzyRowFilter(Collections.singletonList(
+                new Pair<>(Bytes.toBytes("v05_0100"), new byte[]{0, 1, 0, 0, 0, 0, 1, 1}))));
+        assertSameRows(connection, new FilterList(FilterList.Operator.MUST_PASS_ALL,
+                new PrefixFilter(Bytes.toBytes("v1")),
+                new RowFilter(CompareFilter.CompareOp.EQUAL, new RegexStringComparator("5$"))));
+        assertSameRows(connection, new FilterList(FilterList.Operator.MUST_PASS_ONE,
+                new PrefixFilter(Bytes.toBytes("v02")), new PrefixFilter(Bytes.toBytes("v13"))));
+        assertSameRows(connection, new MultiRowRangeFilter(Arrays.asList(
+                new MultiRowRangeFilter.RowRange(Bytes.toBytes("v02"), true, Bytes.toBytes("v03"), false),
+                new MultiRowRangeFilter.RowRange(Bytes.toBytes("v11"), true, Bytes.toBytes("v12"), false))), false);
+    }
+
+    @Test
+    void t003() throws IOException {
+        //带有扫描范围的正序与逆序扫描
+        InMemoryConnection connection = newConnection();
+        Scan scan = new Scan(Bytes.toBytes("v05"), Bytes.toBytes("v15"));
+        scan.setFilter(new RowFilter(CompareFilter.CompareOp.EQUAL, new RegexStringComparator("1$")));
+        List<String> expected = scanPlain(connection, scan);
+        Assertions.assertFalse(expected.isEmpty());
+        Assertions.assertEquals(expected, scanSalted(connection, scan));
+        Scan reversed = new Scan(Bytes.toBytes("v15"), Bytes.toBytes("v05"));
+        reversed.setReversed(true);
+        reversed.setFilter(new PrefixFilter(Bytes.toBytes("v1")));
+        expected = scanPlain(connection, reversed);
+        Assertions.assertFalse(expected.isEmpty());
+        Assertions.assertEquals(expected, scanSalted(connection, reversed));
+    }
+
+    @Test
+    void t004() throws IOException {
+        //通过HbaseUtil查询，分桶表与不分桶表返回相同的行与相同的顺序
+        InMemoryConnection connection = newConnection();
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(connection)
+                .saltBuckets(SALTED.getNameAsString(), BUCKETS).build();
+        List<String> wheres = Arrays.asList("",
+                " where rowKey like 'v1%'",
+                " where rowKey like 'v?5_01??'",
+                " where rowKey like 'v?5_01%'",
+                " where rowKey = 'REG#^v0[3-5]_'",
+                " where rowKey like '%_01%'",
+                " where rowKey != 'REG#5$' and rowKey >= 'v05'",
+                " where startRowKey = 'v05' and stopRowKey = 'v08'",
+                " where startRowKey = 'v08' and stopRowKey = 'v05' order by rowKey desc",
+                " where rowKey like 'v1%' order by rowKey desc",
+                " where rowKey like 'v?5_01??' order by rowKey desc",
+                " where rowKey like 'v?5_01%' order by rowKey desc",
+                " where 3014 > 100 order by rowKey desc limit 7");
+        for (String where : wheres) {
+            List<Map<String, String>> expected = hbaseUtil.select("select * from farm_can#can" + where);
+            Assertions.assertFalse(expected.isEmpty(), where);
+            Assertions.assertEquals(expected, hbaseUtil.select("select * from farm_can_salted#can" + where), where);
+        }
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t005() throws IOException {
+        //分桶扫描的ScanMetrics由各个桶累加到本次操作的指标
+        AtomicLong rowsScanned = new AtomicLong();
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(newConnection())
+                .saltBuckets(SALTED.getNameAsString(), BUCKETS)
+                .metricsRegistry(metrics -> rowsScanned.addAndGet(metrics.getRowsScanned())).build();
+        Assertions.assertEquals(ROWS, hbaseUtil.select("select * from farm_can_salted#can").size());
+        Assertions.assertEquals(ROWS, rowsScanned.get());
+        hbaseUtil.close();
+    }
+
+}
@@ -1,14 +1,48 @@
 package sunyu.util.test;
 
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.UnknownScannerException;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import sunyu.util.ColumnarResult;
 import sunyu.util.HbaseUtil;
+import sunyu.util.InMemoryConnection;
 import sunyu.util.RegexUtil;
+import sunyu.util.SpillableRowList;
+import sunyu.util.TableSpec;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TestHbaseUtil {
     Log log = LogFactory.get();
@@ -100,4 +134,662 @@ public class TestHbaseUtil {
         log.info("{}", s);
     }
 
+    @Test
+    void t009() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").build();
+        //预编译一次，之后只绑定参数，不再重复解析QL
+        HbaseUtil.PreparedQl preparedQl = hbaseUtil.prepare(
+                "select * from farm_can#can where startRowKey=? and stopRowKey=? limit 10");
+        List<Map<String, String>> l = preparedQl.select("zzlic272318_20200524155905", "zzlic272318_20200524160930");
+        log.info("查询到数量 {}", l.size());
+        log.info("{}", preparedQl.count("zzlic272318_20200524155905", "zzlic272318_20200524160930"));
+        log.info("计划缓存命中 {} 未命中 {}", hbaseUtil.getPlanCacheHitCount(), hbaseUtil.getPlanCacheMissCount());
+    }
+
+    @Test
+    void t010() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("kafka005:2181,kafka015:2181,kafka016:2181")
+                .zookeeperZnodeParent("/hbase").build();
+        AtomicInteger i = new AtomicInteger();
+        //按region拆分并行扫描，按rowKey顺序回调
+        String sql = "select * from can_ne#can where startRowKey='0' and stopRowKey='z'";
+        hbaseUtil.selectParallel(sql, null, row -> i.incrementAndGet(), 8, true);
+        log.info("查询到数量 {}", i.get());
+    }
+
+    @Test
+    void t011() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").writeBufferSize(4 * 1024 * 1024).writeBufferFlushInterval(500)
+                .writeExceptionListener((tableName, rowKeys, e) -> log.error("{} 写入失败 {}", tableName, rowKeys))
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, String> data = new HashMap<>();
+            data.put("3014", String.valueOf(i));
+            hbaseUtil.putAsync("test_table", "f", "test_" + i, data);
+        }
+        hbaseUtil.flush();
+        //close会提交缓冲区中剩余的数据
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t012() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930'";
+        //只要10条，不需要抛异常中断，关闭流时立即释放scanner
+        try (Stream<Map<String, String>> rows = hbaseUtil.selectStream(sql)) {
+            rows.limit(10).forEach(row -> log.info("{}", row));
+        }
+    }
+
+    @Test
+    void t013() {
+        //工具类中全局只需要build一次
+        //数值比较使用NumberComparator，region server不能加载时在客户端比较
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").numberComparator(true).build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and 3014>=100.5 and 2205<200";
+        List<Map<String, String>> rows = hbaseUtil.select(sql);
+        log.info("{}", rows.size());
+    }
+
+    @Test
+    void t014() {
+        //工具类中全局只需要build一次
+        //默认按region并行扫描统计，表上不需要协处理器
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").countParallelism(16).build();
+        String sql = "select count(*) from can_ne#can where startRowKey='00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey='00004baa3388ab01e3d153347e7fc163_20190201000000'";
+        log.info("精确 {}", hbaseUtil.count(sql));
+        //根据region存储大小估算，毫秒级返回
+        log.info("估算 {}", hbaseUtil.countApproximate(sql));
+    }
+
+    @Test
+    void t015() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").aggregateParallelism(16).build();
+        //每辆车的最大值与平均值，按region并行聚合，不需要把所有数据查询到客户端
+        String sql = "select substr(rowKey,1,32) vin, max(2205), avg(3014), count(*) from can_ne#can where startRowKey='00004baa3388ab01e3d153347e7fc163_20190101000000' and stopRowKey='00024baa3388ab01e3d153347e7fc163_20190201000000' group by substr(rowKey,1,32)";
+        hbaseUtil.select(sql, null, row -> log.info("{}", row));
+    }
+
+    @Test
+    void t016() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").build();
+        //limit是每页条数，用上一页返回的token查询下一页
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' order by rowKey desc limit 10";
+        String token = null;
+        do {
+            HbaseUtil.Page page = hbaseUtil.selectPage(sql, token);
+            log.info("{} {}", page.getRows().size(), page.getNextToken());
+            token = page.getNextToken();
+        } while (token != null);
+    }
+
+    @Test
+    void t017() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").build();
+        //前缀转换为startRow与stopRow
+        log.info("{}", hbaseUtil.select("select * from farm_can#can where rowKey like 'zzlic272318_20200524%' limit 10").size());
+        //固定长度的模式，? 匹配一个字符，转换为FuzzyRowFilter
+        log.info("{}", hbaseUtil.select("select * from farm_can#can where rowKey like '???????????_20200524%' limit 10").size());
+        //多个rowKey范围转换为MultiRowRangeFilter
+        log.info("{}", hbaseUtil.select("select * from farm_can#can where (rowKey like 'zzlic272318_20200524%') or (rowKey >= 'zzlic272318_20200601' and rowKey < 'zzlic272318_20200602') limit 10").size());
+    }
+
+    @Test
+    void t018() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").pipelineQueueSize(5000).build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930'";
+        //回调慢时不阻塞拉取，4个线程同时回调
+        HbaseUtil.PipelineMetrics metrics = hbaseUtil.selectPipelined(sql, row -> ThreadUtil.sleep(5), 4);
+        log.info("{}", metrics);
+    }
+
+    @Test
+    void t019() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").scanMaxRetries(3).build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930'";
+        //scanner超时后从最后回调的rowKey之后继续，重启后从检查点继续
+        HbaseUtil.ScanReport report = hbaseUtil.selectResumable(sql, null, row -> log.info("{}", row),
+                "/tmp/export.checkpoint");
+        log.info("{}", report);
+    }
+
+    @Test
+    void t020() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").selectHeapBudget(64 * 1024 * 1024).build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930'";
+        //超过64MB的行写入临时文件，使用完毕删除临时文件
+        try (SpillableRowList rows = (SpillableRowList) hbaseUtil.select(sql)) {
+            for (Map<String, String> row : rows) {
+                log.info("{}", row);
+            }
+            log.info("堆内存 {} 字节，溢写 {} 字节", rows.getHeapBytes(), rows.getSpilledBytes());
+        }
+    }
+
+    @Test
+    void t021() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").build();
+        String sql = "select 3014,2205 from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930'";
+        Map<String, ColumnarResult.ColumnType> columnTypes = new HashMap<>();
+        columnTypes.put("3014", ColumnarResult.ColumnType.DOUBLE);
+        //按列保存，3014解析为double数组
+        ColumnarResult result = hbaseUtil.selectColumnar(sql, null, columnTypes);
+        double[] values = result.getColumn("3014").doubles();
+        BitSet nulls = result.getColumn("3014").getNulls();
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (!nulls.get(i)) {
+                sum += values[i];
+            }
+        }
+        log.info("{} {} {}", result.size(), result.getColumnNames(), sum);
+    }
+
+    @Test
+    void t022() {
+        //工具类中全局只需要build一次，默认不记录指标，metrics(true)时通过JMX暴露，这里设置注册器打印日志
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").metricsRegistry(metrics -> log.info("{}", metrics)).build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and 3014 > 1";
+        hbaseUtil.select(sql);
+        hbaseUtil.count(sql);
+    }
+
+    @Test
+    void t023() {
+        //工具类中全局只需要build一次，超过100ms的查询在 sunyu.util.HbaseUtil.slowQuery 中输出执行计划
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").slowQueryThreshold(100).build();
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and (3014 > 1 or 2205 = '0') limit 10";
+        log.info("{}", hbaseUtil.explain(sql));
+        hbaseUtil.select(sql);
+    }
+
+    @Test
+    void t024() {
+        //工具类中全局只需要build一次，按rowKey查询的结果缓存10秒，最多缓存10000行
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181")
+                .zookeeperZnodeParent("/hbase").rowCacheMaximumSize(10000).rowCacheTtl(10000).build();
+        String sql = "select * from farm_can#can where rowKey in ('zzlic272318_20200524155905','zzlic272318_20200524160930')";
+        hbaseUtil.select(sql);
+        hbaseUtil.select(sql);//命中缓存
+        hbaseUtil.deleteColumns("farm_can", "can", "zzlic272318_20200524155905", Collections.singletonList("3014"));
+        hbaseUtil.select(sql);//删除的行重新查询
+        log.info("命中 {} 未命中 {} 失效 {}", hbaseUtil.getRowCacheHitCount(), hbaseUtil.getRowCacheMissCount(),
+                hbaseUtil.getRowCacheInvalidationCount());
+    }
+
+    @Test
+    void t025() {
+        //不需要hbase集群，表保存在内存中，用于离线测试
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection()).build();
+        hbaseUtil.createTable("farm_can", "can");
+        Map<String, String> row = new HashMap<>();
+        row.put("3014", "12.5");
+        row.put("2205", "0");
+        hbaseUtil.put("farm_can", "can", "zzlic272318_20200524155905", row);
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and 3014 > 1";
+        log.info("{} {}", hbaseUtil.select(sql), hbaseUtil.count(sql));
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t026() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181").zookeeperZnodeParent("/hbase").build();
+        //rowKey以md5开头，按十六进制前缀预分区为16个region
+        hbaseUtil.createTable(TableSpec.builder("farm_can_test", "can").dataBlockEncoding(DataBlockEncoding.FAST_DIFF)
+                .bloomFilterType(BloomType.ROW).blockSize(32 * 1024).splitKeys(TableSpec.hexSplitKeys(16)).build());
+        //按已有表的数据分布预分区
+        byte[][] splitKeys = hbaseUtil.sampleSplitKeys("farm_can", 32, 0.001f);
+        hbaseUtil.createTable(TableSpec.builder("farm_can_copy", "can").splitKeys(splitKeys).build());
+    }
+
+    @Test
+    void t027() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181").zookeeperZnodeParent("/hbase").build();
+        //在线修改，不禁用表，只提交有变化的属性
+        hbaseUtil.modifyTable(TableSpec.builder("farm_can", "can").timeToLive(3600 * 24 * 365)
+                        .dataBlockEncoding(DataBlockEncoding.FAST_DIFF).build(),
+                (tableName, updatedRegions, totalRegions) -> log.info("{} {}/{}", tableName, updatedRegions, totalRegions));
+    }
+
+    @Test
+    void t028() {
+        //工具类中全局只需要build一次，rowKey加盐分为16个桶
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181").zookeeperZnodeParent("/hbase")
+                .saltBuckets("farm_can_salted", 16).build();
+        hbaseUtil.createTable(TableSpec.builder("farm_can_salted", "can").splitKeys(TableSpec.saltSplitKeys(16)).build());
+        //查询时使用逻辑rowKey，每个桶一个扫描并行执行，按rowKey顺序合并
+        String sql = "select * from farm_can_salted#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' limit 10";
+        log.info("{}", hbaseUtil.explain(sql));
+        hbaseUtil.select(sql, null, row -> {
+            log.info("{}", row);
+        });
+    }
+
+    @Test
+    void t029() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181").zookeeperZnodeParent("/hbase").build();
+        //选择性低的or条件在客户端执行，explain中的residualPredicates是在客户端执行的条件
+        String sql = "select * from farm_can#can where startRowKey='zzlic272318_20200524155905' and stopRowKey='zzlic272318_20200524160930' and 3014 > 10 and (2205 != '0' or 2601 != '0' or 3015 != '0')";
+        log.info("{}", hbaseUtil.explain(sql));
+        hbaseUtil.select(sql, null, row -> {
+            log.info("{}", row);
+        });
+    }
+
+    @Test
+    void t030() {
+        //工具类中全局只需要build一次
+        HbaseUtil hbaseUtil = HbaseUtil.builder().hbaseZookeeperQuorum("cdh0:2181,cdh1:2181,cdh2:2181").zookeeperZnodeParent("/hbase").latestParallelism(16).build();
+        //已知车辆列表，每辆车一个逆序小扫描并行执行，返回每辆车的最新数据
+        List<Map<String, String>> rows = hbaseUtil.selectLatest("select 3014,2205 from farm_can#can", Arrays.asList("zzlic272318", "zzlic272319"));
+        log.info("{}", rows);
+        //不知道有哪些车辆时跳跃扫描，每辆车只读取最后一行
+        hbaseUtil.select("select latest(*) from farm_can#can where startRowKey='zzlic' group by prefix(rowKey,11)", null, row -> {
+            log.info("{}", row);
+        });
+    }
+
+    @Test
+    void t031() {
+        //批量删除与删除表后，行缓存中的旧数据不能再被查到
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection()).rowCacheMaximumSize(10000)
+                .rowCacheTtl(60000).build();
+        hbaseUtil.createTable("farm_can", "can");
+        Map<String, String> row = new HashMap<>();
+        row.put("3014", "12.5");
+        hbaseUtil.put("farm_can", "can", "zzlic272318_20200524155905", row);
+        hbaseUtil.put("farm_can", "can", "zzlic272318_20200524160930", row);
+        String sql = "select * from farm_can#can where rowKey in ('zzlic272318_20200524155905','zzlic272318_20200524160930')";
+        Assertions.assertEquals(2, hbaseUtil.select(sql).size());
+        Assertions.assertEquals(2, hbaseUtil.select(sql).size());//命中缓存
+        Assertions.assertEquals(2, hbaseUtil.getRowCacheHitCount());
+        hbaseUtil.delete("farm_can", Arrays.asList("zzlic272318_20200524155905"));
+        Assertions.assertEquals(1, hbaseUtil.select(sql).size());
+        hbaseUtil.deleteTable("farm_can");
+        hbaseUtil.createTable("farm_can", "can");
+        Assertions.assertEquals(0, hbaseUtil.select(sql).size());
+        hbaseUtil.close();
+    }
+
+    /**
+     * 每行的id列，用于比较查询结果
+     */
+    private List<String> ids(List<Map<String, String>> rows) {
+        return rows.stream().map(row -> row.get("id")).collect(Collectors.toList());
+    }
+
+    @Test
+    void t032() throws IOException {
+        //跳跃扫描每个前缀的最后一行，前缀中带有0xFF字节，正序、逆序都与逐行计算的结果相同
+        InMemoryConnection connection = new InMemoryConnection();
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(connection).build();
+        hbaseUtil.createTable("farm_can", "can", null, new byte[][]{{'v', (byte) 0x7F}, {'v', (byte) 0xFF}});
+        byte[][] prefixes = {{'v', 'a', '0'}, {'v', 'a', (byte) 0xFF}, {'v', (byte) 0xFE, (byte) 0xFF},
+                {'v', (byte) 0xFF, '0'}, {'v', (byte) 0xFF, (byte) 0xFF}, {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF}};
+        TreeMap<byte[], String> latest = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        TreeMap<byte[], String> latestWithout4 = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        try (Table table = connection.getTable(TableName.valueOf("farm_can"));) {
+            for (int p = 0; p < prefixes.length; p++) {
+                for (int i = 0; i < 5; i++) {
+                    String id = p + "-" + i;
+                    table.put(new Put(Bytes.add(prefixes[p], Bytes.toBytes("_2020052415590" + i)))
+                            .addColumn(Bytes.toBytes("can"), Bytes.toBytes("id"), Bytes.toBytes(id))
+                            .addColumn(Bytes.toBytes("can"), Bytes.toBytes("3014"), Bytes.toBytes(String.valueOf(i))));
+                    latest.put(prefixes[p], id);
+                    if (i != 4) {
+                        latestWithout4.put(prefixes[p], id);
+                    }
+                }
+            }
+        }
+        List<String> expected = new ArrayList<>(latest.values());
+        Assertions.assertEquals(expected,
+                ids(hbaseUtil.select("select latest(*) from farm_can#can group by prefix(rowKey,3)")));
+        Collections.reverse(expected);
+        Assertions.assertEquals(expected, ids(hbaseUtil.select(
+                "select latest(*) from farm_can#can group by prefix(rowKey,3) order by rowKey desc")));
+        expected = new ArrayList<>(latestWithout4.values());
+        Assertions.assertEquals(expected, ids(hbaseUtil.select(
+                "select latest(*) from farm_can#can where 3014 != '4' group by prefix(rowKey,3)")));
+        //不分组时只返回整张表的最后一行
+        Assertions.assertEquals(Collections.singletonList(latest.lastEntry().getValue()),
+                ids(hbaseUtil.select("select latest(*) from farm_can#can")));
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t033() {
+        //已知前缀与跳跃扫描，加盐分桶的表与不分桶的表结果相同
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection())
+                .saltBuckets("farm_can_salted", 4).latestParallelism(3).build();
+        hbaseUtil.createTable("farm_can", "can", null, TableSpec.hexSplitKeys(4));
+        hbaseUtil.createTable(TableSpec.builder("farm_can_salted", "can").splitKeys(TableSpec.saltSplitKeys(4)).build());
+        Map<String, Map<String, String>> rows = new HashMap<>();
+        Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 200; i++) {
+            String prefix = String.format("v%02d", i % 20);
+            Map<String, String> row = new HashMap<>();
+            row.put("id", String.valueOf(i));
+            row.put("3014", String.valueOf(i % 7));
+            rows.put(prefix + String.format("_%04d", i), row);
+            expected.put(prefix, String.valueOf(i));
+        }
+        hbaseUtil.put("farm_can", "can", rows);
+        hbaseUtil.put("farm_can_salted", "can", rows);
+        List<String> prefixes = Arrays.asList("v07", "v03", "v99", "v15");
+        List<String> expectedIds = Arrays.asList(expected.get("v07"), expected.get("v03"), expected.get("v15"));
+        for (String tableName : Arrays.asList("farm_can", "farm_can_salted")) {
+            Assertions.assertEquals(expectedIds,
+                    ids(hbaseUtil.selectLatest("select * from " + tableName + "#can", prefixes)), tableName);
+            Assertions.assertEquals(new ArrayList<>(expected.values()), ids(hbaseUtil.select(
+                    "select latest(*) from " + tableName + "#can group by prefix(rowKey,3)")), tableName);
+        }
+        for (String condition : Arrays.asList(" group by prefix(rowKey,3)",
+                " where 3014 > 3 group by prefix(rowKey,3)",
+                " group by prefix(rowKey,3) order by rowKey desc",
+                " where 3014 > 3 group by prefix(rowKey,3) order by rowKey desc",
+                " where startRowKey = 'v05' and stopRowKey = 'v12' group by prefix(rowKey,3)",
+                " where startRowKey = 'v12' and stopRowKey = 'v05' group by prefix(rowKey,3) order by rowKey desc")) {
+            String ql = "select latest(*) from {}#can" + condition;
+            List<Map<String, String>> plain = hbaseUtil.select(ql.replace("{}", "farm_can"));
+            Assertions.assertFalse(plain.isEmpty(), ql);
+            Assertions.assertEquals(ids(plain), ids(hbaseUtil.select(ql.replace("{}", "farm_can_salted"))), ql);
+        }
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t034() {
+        //条件在客户端执行与全部下推到region server的结果相同
+        InMemoryConnection connection = new InMemoryConnection();
+        HbaseUtil residual = HbaseUtil.builder().connection(connection).costBasedResidual(true).build();
+        HbaseUtil pushDown = HbaseUtil.builder().connection(connection).costBasedResidual(false).build();
+        residual.createTable("farm_can", "can");
+        Map<String, Map<String, String>> rows = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("id", String.valueOf(i));
+            row.put("3014", String.valueOf(i % 100));
+            row.put("2205", String.valueOf(i % 3));
+            row.put("2601", String.valueOf(i % 5));
+            if (i % 4 != 0) {
+                row.put("3015", String.valueOf(i % 11));
+            }
+            rows.put(String.format("v%02d_%04d", i % 20, i), row);
+        }
+        residual.put("farm_can", "can", rows);
+        List<String> qls = Arrays.asList(
+                "select * from farm_can#can where 3014 > 10 and (2205 != '0' or 2601 != '0' or 3015 != '0')",
+                "select * from farm_can#can where (3014 > 90 or 2205 = '1') and 2601 != '2'",
+                "select * from farm_can#can where 2205 not in ('0','1') and (3015 like '%5%' or 2601 = '3')",
+                "select id,3014 from farm_can#can where startRowKey='v03' and stopRowKey='v12' and (3014 < 20 or 3014 >= 80)",
+                "select * from farm_can#can where (2205 = '2' or 3014 = '7') and 2601 in ('1','4') order by rowKey desc limit 9");
+        for (String ql : qls) {
+            List<Map<String, String>> expected = pushDown.select(ql);
+            Assertions.assertFalse(expected.isEmpty(), ql);
+            Assertions.assertEquals(expected, residual.select(ql), ql);
+            Assertions.assertEquals(pushDown.count(ql), residual.count(ql), ql);
+        }
+        residual.close();
+        pushDown.close();
+    }
+
+    @Test
+    void t035() throws IOException {
+        //在线修改只改变设置过的属性，旧的modifyTable(表名, 超时时间)只修改超时时间
+        InMemoryConnection connection = new InMemoryConnection();
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(connection).build();
+        hbaseUtil.createTable(TableSpec.builder("farm_can", "can").maxVersions(3).compression(Compression.Algorithm.GZ)
+                .bloomFilterType(BloomType.ROWCOL).coprocessor(false).build());
+        Assertions.assertTrue(hbaseUtil.modifyTable(TableSpec.builder("farm_can", "can")
+                .dataBlockEncoding(DataBlockEncoding.FAST_DIFF).build()));
+        try (Admin admin = connection.getAdmin();) {
+            HTableDescriptor table = admin.getTableDescriptor(TableName.valueOf("farm_can"));
+            HColumnDescriptor family = table.getFamily(Bytes.toBytes("can"));
+            Assertions.assertEquals(DataBlockEncoding.FAST_DIFF, family.getDataBlockEncoding());
+            Assertions.assertEquals(3, family.getMaxVersions());
+            Assertions.assertEquals(Compression.Algorithm.GZ, family.getCompressionType());
+            Assertions.assertEquals(BloomType.ROWCOL, family.getBloomFilterType());
+            Assertions.assertEquals(HConstants.FOREVER, family.getTimeToLive());
+            Assertions.assertTrue(table.getCoprocessors().isEmpty());
+        }
+        Assertions.assertTrue(hbaseUtil.modifyTable("farm_can", 3600));
+        try (Admin admin = connection.getAdmin();) {
+            HTableDescriptor table = admin.getTableDescriptor(TableName.valueOf("farm_can"));
+            HColumnDescriptor family = table.getFamily(Bytes.toBytes("can"));
+            Assertions.assertEquals(3600, family.getTimeToLive());
+            Assertions.assertEquals(DataBlockEncoding.FAST_DIFF, family.getDataBlockEncoding());
+            Assertions.assertEquals(3, family.getMaxVersions());
+            Assertions.assertEquals(Compression.Algorithm.GZ, family.getCompressionType());
+            Assertions.assertTrue(table.getCoprocessors().isEmpty());
+        }
+        //默认建表仍然是SNAPPY压缩、保存1个版本并添加统计协处理器
+        hbaseUtil.createTable("farm_can_default", "can");
+        try (Admin admin = connection.getAdmin();) {
+            HTableDescriptor table = admin.getTableDescriptor(TableName.valueOf("farm_can_default"));
+            HColumnDescriptor family = table.getFamily(Bytes.toBytes("can"));
+            Assertions.assertEquals(1, family.getMaxVersions());
+            Assertions.assertEquals(Compression.Algorithm.SNAPPY, family.getCompressionType());
+            Assertions.assertFalse(table.getCoprocessors().isEmpty());
+        }
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t036() throws IOException {
+        //超过堆内存上限的行写入临时文件，读取结果与写入相同，close后临时文件被删除
+        Path spillDirectory = Files.createTempDirectory("spill-test-");
+        List<Map<String, String>> expected = new ArrayList<>();
+        SpillableRowList rows = new SpillableRowList(1024, spillDirectory.toString());
+        for (int i = 0; i < 1000; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("rowKey", String.format("v%02d_%04d", i % 20, i));
+            row.put("3014", i % 7 == 0 ? null : "值" + i);
+            expected.add(row);
+            rows.add(row);
+        }
+        Assertions.assertTrue(rows.getSpilledRows() > 0);
+        Assertions.assertEquals(expected, new ArrayList<>(rows));
+        Assertions.assertEquals(1, spillDirectory.toFile().list().length);
+        rows.close();
+        Assertions.assertEquals(0, spillDirectory.toFile().list().length);
+        Assertions.assertThrows(IllegalStateException.class, () -> rows.get(rows.size() - 1));
+        rows.close();
+        Files.delete(spillDirectory);
+    }
+
+    @Test
+    void t037() {
+        //in列表中的每个占位符都要计数，参数数量不足时绑定前报错
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection()).build();
+        hbaseUtil.createTable("farm_can", "can");
+        Map<String, Map<String, String>> rows = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("2205", String.valueOf(i % 3));
+            row.put("2601", String.valueOf(i % 5));
+            rows.put(String.format("v%02d", i), row);
+        }
+        hbaseUtil.put("farm_can", "can", rows);
+        HbaseUtil.PreparedQl in = hbaseUtil.prepare("select * from farm_can#can where 2601 in (?, ?)");
+        Assertions.assertEquals(2, in.getParameterCount());
+        Assertions.assertThrows(RuntimeException.class, () -> in.select("1"));
+        Assertions.assertEquals(12, in.select("1", "3").size());
+        HbaseUtil.PreparedQl mixed = hbaseUtil.prepare(
+                "select * from farm_can#can where 2205 = ? and 2601 not in (?, '0', ?)");
+        Assertions.assertEquals(3, mixed.getParameterCount());
+        Assertions.assertThrows(RuntimeException.class, () -> mixed.select("1", "2"));
+        Assertions.assertEquals(hbaseUtil.select("select * from farm_can#can where 2205 = '1' and 2601 not in ('2', '0', '4')"),
+                mixed.select("1", "2", "4"));
+        HbaseUtil.PreparedQl rowKeyIn = hbaseUtil.prepare("select * from farm_can#can where rowKey in (?, ?, ?)");
+        Assertions.assertEquals(3, rowKeyIn.getParameterCount());
+        Assertions.assertThrows(RuntimeException.class, () -> rowKeyIn.select("v01", "v02"));
+        Assertions.assertEquals(3, rowKeyIn.select("v01", "v02", "v29").size());
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t038() {
+        //异步写入提交前查询到的旧数据会写入行缓存，提交完成后再次失效，不会一直缓存到过期
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection()).rowCacheMaximumSize(10000)
+                .rowCacheTtl(60000).writeBufferFlushInterval(0).build();
+        hbaseUtil.createTable("farm_can", "can");
+        Map<String, String> row = new HashMap<>();
+        row.put("3014", "1");
+        hbaseUtil.put("farm_can", "can", "zzlic272318_20200524155905", row);
+        String sql = "select * from farm_can#can where rowKey = 'zzlic272318_20200524155905'";
+        Assertions.assertEquals("1", hbaseUtil.select(sql).get(0).get("3014"));
+        row.put("3014", "2");
+        hbaseUtil.putAsync("farm_can", "can", "zzlic272318_20200524155905", row);
+        Assertions.assertEquals("1", hbaseUtil.select(sql).get(0).get("3014"));//还没有提交，缓存了旧数据
+        Assertions.assertTrue(hbaseUtil.flush());
+        Assertions.assertEquals("2", hbaseUtil.select(sql).get(0).get("3014"));
+        hbaseUtil.deleteAsync("farm_can", "zzlic272318_20200524155905");
+        Assertions.assertEquals(1, hbaseUtil.select(sql).size());
+        Assertions.assertTrue(hbaseUtil.flush());
+        Assertions.assertEquals(0, hbaseUtil.select(sql).size());
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t039() throws InterruptedException {
+        //两次同步提交之间写入超过writeBufferFlushBytes时，写入方法同步提交；多线程写入时每行只写一次且都能查到
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(new InMemoryConnection()).writeBufferFlushInterval(0)
+                .writeBufferFlushBytes(4096).build();
+        hbaseUtil.createTable("farm_can", "can");
+        Map<String, String> row = new HashMap<>();
+        row.put("3014", "12.5");
+        hbaseUtil.putAsync("farm_can", "can", "v00_0000", row);
+        Assertions.assertEquals(0, hbaseUtil.count("select * from farm_can#can"));//没有超过限制，还在写缓冲区中
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= 500; i++) {
+                    hbaseUtil.putAsync("farm_can", "can", String.format("v%02d_%04d", thread, i), row);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(hbaseUtil.count("select * from farm_can#can") > 1000);
+        Assertions.assertTrue(hbaseUtil.flush());
+        Assertions.assertEquals(2001, hbaseUtil.count("select * from farm_can#can"));
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t040() {
+        //scanner过期时重新打开scanner继续查询，等待时间不超过scanRetryMaxBackoff；表不存在时不重试
+        AtomicInteger timeouts = new AtomicInteger(3);
+        InMemoryConnection connection = new InMemoryConnection() {
+            @Override
+            public Table getTable(TableName tableName) {
+                Table table = super.getTable(tableName);
+                return (Table) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[]{Table.class},
+                        (proxy, method, args) -> {
+                            Object result = invoke(table, method, args);
+                            if (!method.getName().equals("getScanner") || timeouts.get() <= 0) {
+                                return result;
+                            }
+                            //每个scanner返回2行后过期
+                            ResultScanner scanner = (ResultScanner) result;
+                            AtomicInteger rows = new AtomicInteger();
+                            return Proxy.newProxyInstance(ResultScanner.class.getClassLoader(),
+                                    new Class<?>[]{ResultScanner.class}, (p, m, a) -> {
+                                        if (m.getName().equals("next") && a == null && rows.getAndIncrement() == 2
+                                                && timeouts.getAndDecrement() > 0) {
+                                            throw new UnknownScannerException("scanner已经过期");
+                                        }
+                                        return invoke(scanner, m, a);
+                                    });
+                        });
+            }
+        };
+        HbaseUtil hbaseUtil = HbaseUtil.builder().connection(connection).scanRetryBackoff(10)
+                .scanRetryMaxBackoff(20).build();
+        hbaseUtil.createTable("farm_can", "can");
+        Map<String, Map<String, String>> rows = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("3014", String.valueOf(i));
+            rows.put(String.format("v%02d", i), row);
+        }
+        hbaseUtil.put("farm_can", "can", rows);
+        List<String> rowKeys = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        HbaseUtil.ScanReport report = hbaseUtil.selectResumable("select * from farm_can#can", null,
+                row -> rowKeys.add(row.get("rowKey")));
+        Assertions.assertTrue(report.isCompleted(), report.toString());
+        Assertions.assertEquals(3, report.getRetries());
+        Assertions.assertEquals(20, rowKeys.size());
+        Assertions.assertEquals(new ArrayList<>(new TreeMap<>(rows).keySet()), rowKeys);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);//等待10、20、20毫秒
+        report = hbaseUtil.selectResumable("select * from not_exists#can", null, row -> {
+        });
+        Assertions.assertFalse(report.isCompleted());
+        Assertions.assertEquals(0, report.getRetries());
+        Assertions.assertInstanceOf(TableNotFoundException.class, report.getError());
+        hbaseUtil.close();
+    }
+
+    @Test
+    void t041() throws IOException {
+        //没有close的结果集被gc回收后，临时文件在后台删除
+        Path spillDirectory = Files.createTempDirectory("spill-test-");
+        SpillableRowList rows = new SpillableRowList(0, spillDirectory.toString());
+        Map<String, String> row = new HashMap<>();
+        row.put("3014", "12.5");
+        rows.add(row);
+        Assertions.assertEquals(1, spillDirectory.toFile().list().length);
+        rows = null;
+        for (int i = 0; i < 100 && spillDirectory.toFile().list().length > 0; i++) {
+            System.gc();
+            ThreadUtil.sleep(50);
+        }
+        Assertions.assertEquals(0, spillDirectory.toFile().list().length);
+        Files.delete(spillDirectory);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
 }